@@ -0,0 +1,62 @@
+package io.cloudsoft.winrm4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.AuthSchemes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.cloudsoft.winrm4j.client.WinRmClient;
+import io.cloudsoft.winrm4j.client.WinRmClientContext;
+
+/**
+ * Building (and closing) a {@link WinRmClient}, either with its own context or with a
+ * {@link WinRmClientContext} shared by all clients. No request is sent to the endpoint.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientConstructionBenchmark {
+
+    @Param({"true", "false"})
+    boolean sharedContext;
+
+    WinRmClientContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = sharedContext ? WinRmClientContext.newInstance() : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (context != null) {
+            context.shutdown();
+        }
+    }
+
+    @Benchmark
+    public WinRmClient buildClient() {
+        WinRmClient client = WinRmClient.builder("http://localhost:5985/wsman")
+                .authenticationScheme(AuthSchemes.NTLM)
+                .credentials("user", "password")
+                .context(context)
+                .build();
+        client.close();
+        return client;
+    }
+}
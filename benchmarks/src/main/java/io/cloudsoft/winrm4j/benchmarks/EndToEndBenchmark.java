@@ -0,0 +1,90 @@
+package io.cloudsoft.winrm4j.benchmarks;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.AuthSchemes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.cloudsoft.winrm4j.client.ShellCommand;
+import io.cloudsoft.winrm4j.client.WinRmClient;
+import io.cloudsoft.winrm4j.service.emulator.WinRmEmulator;
+
+/**
+ * Runs a command against a local {@link WinRmEmulator}: the whole client side of a command,
+ * including the HTTP round trips over loopback, without the time spent by a Windows server.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EndToEndBenchmark {
+
+    @Param({"0", "65536"})
+    int outputSize;
+
+    WinRmEmulator server;
+    WinRmClient client;
+    ShellCommand openShell;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = WinRmEmulator.builder()
+                .basicAuth("user", "password")
+                .outputSize(outputSize)
+                .start();
+        client = WinRmClient.builder(server.getEndpoint())
+                .authenticationScheme(AuthSchemes.BASIC)
+                .credentials("user", "password")
+                .build();
+        openShell = client.createShell();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        openShell.close();
+        client.close();
+        server.close();
+    }
+
+    /** Create and Delete: the latency of shell creation, including reading the shell ID of the response */
+    @Benchmark
+    public void createShell() {
+        client.createShell().close();
+    }
+
+    /** Create, Command, Receive, Signal and Delete */
+    @Benchmark
+    public int executeInNewShell() {
+        try (ShellCommand shell = client.createShell()) {
+            return execute(shell);
+        }
+    }
+
+    /** Command, Receive and Signal */
+    @Benchmark
+    public int executeInOpenShell() {
+        return execute(openShell);
+    }
+
+    private static int execute(ShellCommand shell) {
+        StringWriter out = new StringWriter();
+        StringWriter err = new StringWriter();
+        return shell.execute("echo myline", out, err);
+    }
+}
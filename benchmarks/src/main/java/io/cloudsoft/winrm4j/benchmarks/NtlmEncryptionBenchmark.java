@@ -0,0 +1,185 @@
+package io.cloudsoft.winrm4j.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.cloudsoft.winrm4j.client.PayloadEncryptionMode;
+import io.cloudsoft.winrm4j.client.encryption.ByteArrayUtils;
+import io.cloudsoft.winrm4j.client.encryption.NtlmEncryptionUtils;
+import io.cloudsoft.winrm4j.client.encryption.WinrmEncryptionUtils;
+import io.cloudsoft.winrm4j.client.ntlm.NTCredentialsWithEncryption;
+import io.cloudsoft.winrm4j.client.ntlm.NtlmKeys;
+import io.cloudsoft.winrm4j.client.ntlm.NtlmKeys.NegotiateFlags;
+
+/**
+ * NTLM sealing and signing of request bodies, and unsealing and verifying of response bodies,
+ * for payloads from a small Signal up to a full 150k Receive envelope.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NtlmEncryptionBenchmark {
+
+    /** NTLMv2 session with signing and sealing: extended session security, key exchange, 128 bit */
+    static final long NEGOTIATE_FLAGS = NegotiateFlags.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY
+            | NegotiateFlags.NTLMSSP_NEGOTIATE_KEY_EXCH
+            | NegotiateFlags.NTLMSSP_NEGOTIATE_128
+            | NegotiateFlags.NTLMSSP_NEGOTIATE_SIGN
+            | NegotiateFlags.NTLMSSP_NEGOTIATE_SEAL;
+
+    static final String ENCRYPTED_CONTENT_TYPE = "multipart/encrypted;protocol=\"application/HTTP-SPNEGO-session-encrypted\";boundary=\"Encrypted Boundary\"";
+
+    @State(Scope.Thread)
+    public static class EncryptState {
+        @Param({"1024", "16384", "153600"})
+        int payloadSize;
+
+        byte[] payload;
+        NtlmEncryptionUtils client;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            payload = newPayload(payloadSize);
+            client = new NtlmEncryptionUtils(newClientCredentials(), PayloadEncryptionMode.REQUIRED);
+        }
+    }
+
+    /**
+     * The same sealing done the way it was before the framing was written into a pre-sized buffer,
+     * kept as a baseline for {@link #encryptAndSign(EncryptState)}.
+     */
+    @State(Scope.Thread)
+    public static class CopyingEncryptState {
+        @Param({"1024", "16384", "153600"})
+        int payloadSize;
+
+        byte[] payload;
+        NTCredentialsWithEncryption credentials;
+        Cipher encryptor;
+        long seqNum;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            payload = newPayload(payloadSize);
+            credentials = newClientCredentials();
+            encryptor = WinrmEncryptionUtils.arc4(credentials.getClientSealingKey());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class DecryptState {
+        @Param({"1024", "16384", "153600"})
+        int payloadSize;
+
+        byte[] payload;
+        NTCredentialsWithEncryption clientCredentials;
+        NtlmEncryptionUtils server;
+        Message response;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            payload = newPayload(payloadSize);
+            clientCredentials = newClientCredentials();
+            server = new NtlmEncryptionUtils(newServerCredentials(clientCredentials), PayloadEncryptionMode.REQUIRED);
+        }
+
+        /**
+         * The RC4 stream and the sequence numbers are stateful, so each response has to be
+         * sealed by the server just before the client unseals it.
+         */
+        @Setup(Level.Invocation)
+        public void sealResponse() {
+            response = new MessageImpl();
+            byte[] sealed = server.encryptAndSign(new MessageImpl(), payload);
+            response.put(Message.CONTENT_TYPE, ENCRYPTED_CONTENT_TYPE);
+            response.setContent(InputStream.class, new ByteArrayInputStream(sealed));
+        }
+    }
+
+    @Benchmark
+    public byte[] encryptAndSign(EncryptState state) {
+        return state.client.encryptAndSign(new MessageImpl(), state.payload);
+    }
+
+    @Benchmark
+    public byte[] encryptAndSignWithCopies(CopyingEncryptState state) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_CR.getBytes());
+        out.write(("\tContent-Type: " + "application/HTTP-SPNEGO-session-encrypted" + "\r\n").getBytes());
+        out.write(("\tOriginalContent: type=application/soap+xml;charset=UTF-8;Length=" + state.payload.length + "\r\n").getBytes());
+        out.write(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_CR.getBytes());
+        out.write("\tContent-Type: application/octet-stream\r\n".getBytes());
+
+        long seqNum = state.seqNum++;
+        ByteArrayOutputStream signature = new ByteArrayOutputStream();
+        ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+        sealed.write(state.encryptor.update(state.payload));
+        byte[] checksum = WinrmEncryptionUtils.hmacMd5(state.credentials.getClientSigningKey(),
+                ByteArrayUtils.concat(ByteArrayUtils.getLittleEndianUnsignedInt(seqNum), state.payload));
+        checksum = state.encryptor.update(Arrays.copyOfRange(checksum, 0, 8));
+        signature.write(new byte[]{1, 0, 0, 0});
+        signature.write(checksum);
+        signature.write(ByteArrayUtils.getLittleEndianUnsignedInt(seqNum));
+
+        out.write(ByteArrayUtils.getLittleEndianUnsignedInt(signature.size()));
+        out.write(signature.toByteArray());
+        out.write(sealed.toByteArray());
+        out.write(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_END.getBytes());
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public InputStream decrypt(DecryptState state) {
+        new NtlmEncryptionUtils.Decryptor(state.clientCredentials, PayloadEncryptionMode.REQUIRED).handle(state.response);
+        return state.response.getContent(InputStream.class);
+    }
+
+    static byte[] newPayload(int size) {
+        byte[] result = new byte[size];
+        new Random(size).nextBytes(result);
+        return result;
+    }
+
+    static NTCredentialsWithEncryption newClientCredentials() {
+        byte[] sessionKey = newPayload(16);
+        NTCredentialsWithEncryption result = new NTCredentialsWithEncryption("user", "password", "workstation", "domain");
+        new NtlmKeys(sessionKey, NEGOTIATE_FLAGS).apply(result);
+        result.setIsAuthenticated(true);
+        return result;
+    }
+
+    /** The server seals with the keys the client unseals with, and the other way round. */
+    static NTCredentialsWithEncryption newServerCredentials(NTCredentialsWithEncryption client) {
+        NTCredentialsWithEncryption result = new NTCredentialsWithEncryption("user", "password", "server", "domain");
+        result.setNegotiateFlags(client.getNegotiateFlags());
+        result.setClientSigningKey(client.getServerSigningKey());
+        result.setClientSealingKey(client.getServerSealingKey());
+        result.setServerSigningKey(client.getClientSigningKey());
+        result.setServerSealingKey(client.getClientSealingKey());
+        result.setIsAuthenticated(true);
+        return result;
+    }
+}
@@ -0,0 +1,104 @@
+package io.cloudsoft.winrm4j.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.cloudsoft.winrm4j.client.shell.CommandStateType;
+import io.cloudsoft.winrm4j.client.shell.ReceiveResponse;
+import io.cloudsoft.winrm4j.client.shell.StreamType;
+
+/**
+ * JAXB marshalling and unmarshalling of a Receive response carrying the given amount of
+ * command output, split in stdout chunks the way WinRM does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReceiveResponseJaxbBenchmark {
+
+    static final String SHELL_NS = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell";
+    static final QName RECEIVE_RESPONSE = new QName(SHELL_NS, "ReceiveResponse");
+    static final String COMMAND_ID = "D6BF85B4-E0D0-4770-9330-F5474E967185";
+
+    /** WinRM splits the output of a command in chunks of about this size */
+    static final int CHUNK_SIZE = 4096;
+
+    @Param({"1024", "16384", "110000"})
+    int outputSize;
+
+    JAXBContext jaxbContext;
+    ReceiveResponse response;
+    byte[] xml;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JAXBException {
+        jaxbContext = JAXBContext.newInstance(ReceiveResponse.class);
+        response = newReceiveResponse(NtlmEncryptionBenchmark.newPayload(outputSize));
+        xml = marshal();
+    }
+
+    @Benchmark
+    public byte[] marshal() throws JAXBException {
+        Marshaller marshaller = jaxbContext.createMarshaller();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(outputSize * 2);
+        marshaller.marshal(new JAXBElement<>(RECEIVE_RESPONSE, ReceiveResponse.class, response), out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public ReceiveResponse unmarshal() throws JAXBException {
+        Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+        return unmarshaller.unmarshal(new StreamSource(new ByteArrayInputStream(xml)), ReceiveResponse.class).getValue();
+    }
+
+    static ReceiveResponse newReceiveResponse(byte[] output) {
+        ReceiveResponse result = new ReceiveResponse();
+        for (int offset = 0; offset < output.length; offset += CHUNK_SIZE) {
+            StreamType stream = new StreamType();
+            stream.setName("stdout");
+            stream.setCommandId(COMMAND_ID);
+            stream.setValue(Arrays.copyOfRange(output, offset, Math.min(output.length, offset + CHUNK_SIZE)));
+            result.getStream().add(stream);
+        }
+        for (String name : new String[] {"stdout", "stderr"}) {
+            StreamType end = new StreamType();
+            end.setName(name);
+            end.setCommandId(COMMAND_ID);
+            end.setEnd(true);
+            result.getStream().add(end);
+        }
+        CommandStateType state = new CommandStateType();
+        state.setCommandId(COMMAND_ID);
+        state.setState(SHELL_NS + "/CommandState/Done");
+        state.setExitCode(BigInteger.ZERO);
+        result.setCommandState(state);
+        return result;
+    }
+}
@@ -0,0 +1,132 @@
+package io.cloudsoft.winrm4j.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.namespace.QName;
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.MimeHeaders;
+import javax.xml.soap.SOAPConstants;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPMessage;
+import javax.xml.ws.handler.MessageContext;
+import javax.xml.ws.handler.soap.SOAPMessageContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.cloudsoft.winrm4j.client.StripShellResponseHandler;
+
+/**
+ * The handler removing the Shell element from Create responses. The benchmark includes
+ * building the SAAJ tree of the response, which CXF only does because a handler is installed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StripShellResponseHandlerBenchmark {
+
+    static final String CREATE_RESPONSE =
+            "<s:Envelope xml:lang=\"en-US\" xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\"" +
+            " xmlns:a=\"http://schemas.xmlsoap.org/ws/2004/08/addressing\" xmlns:x=\"http://schemas.xmlsoap.org/ws/2004/09/transfer\"" +
+            " xmlns:w=\"http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd\" xmlns:rsp=\"http://schemas.microsoft.com/wbem/wsman/1/windows/shell\">" +
+            "<s:Header>" +
+            "<a:Action>http://schemas.xmlsoap.org/ws/2004/09/transfer/CreateResponse</a:Action>" +
+            "<a:MessageID>uuid:C008686A-510B-40D4-9ADA-36AB4545DDBE</a:MessageID>" +
+            "<a:To>http://schemas.xmlsoap.org/ws/2004/08/addressing/role/anonymous</a:To>" +
+            "<a:RelatesTo>uuid:3B7D6E54-5A0F-4B4E-8B3A-2B5C1F7E0C11</a:RelatesTo>" +
+            "</s:Header>" +
+            "<s:Body>" +
+            "<x:ResourceCreated><a:Address>http://localhost:5985/wsman</a:Address><a:ReferenceParameters>" +
+            "<w:ResourceURI>http://schemas.microsoft.com/wbem/wsman/1/windows/shell/cmd</w:ResourceURI>" +
+            "<w:SelectorSet><w:Selector Name=\"ShellId\">AF161CE1-3D3F-46B7-A101-800DD70639A9</w:Selector></w:SelectorSet>" +
+            "</a:ReferenceParameters></x:ResourceCreated>" +
+            "<rsp:Shell><rsp:ShellId>AF161CE1-3D3F-46B7-A101-800DD70639A9</rsp:ShellId>" +
+            "<rsp:ResourceUri>http://schemas.microsoft.com/wbem/wsman/1/windows/shell/cmd</rsp:ResourceUri>" +
+            "<rsp:Owner>WIN-9CCKIUF3APV\\vagrant</rsp:Owner><rsp:ClientIP>172.28.128.1</rsp:ClientIP>" +
+            "<rsp:IdleTimeOut>PT7200.000S</rsp:IdleTimeOut><rsp:InputStreams>stdin</rsp:InputStreams>" +
+            "<rsp:OutputStreams>stdout stderr</rsp:OutputStreams><rsp:ShellRunTime>P0DT0H0M0S</rsp:ShellRunTime>" +
+            "<rsp:ShellInactivity>P0DT0H0M0S</rsp:ShellInactivity></rsp:Shell>" +
+            "</s:Body>" +
+            "</s:Envelope>";
+
+    static final QName CREATE_OPERATION = new QName("http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd", "Create");
+
+    StripShellResponseHandler handler;
+    MessageFactory messageFactory;
+    MimeHeaders mimeHeaders;
+    byte[] createResponse;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SOAPException {
+        handler = new StripShellResponseHandler();
+        messageFactory = MessageFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL);
+        mimeHeaders = new MimeHeaders();
+        mimeHeaders.addHeader("Content-Type", "application/soap+xml;charset=UTF-8");
+        createResponse = CREATE_RESPONSE.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public SOAPMessage handleCreateResponse() throws IOException, SOAPException {
+        ResponseContext context = new ResponseContext();
+        context.put(MessageContext.MESSAGE_OUTBOUND_PROPERTY, Boolean.FALSE);
+        context.put(MessageContext.WSDL_OPERATION, CREATE_OPERATION);
+        context.setMessage(messageFactory.createMessage(mimeHeaders, new ByteArrayInputStream(createResponse)));
+        handler.handleMessage(context);
+        return context.getMessage();
+    }
+
+    /** The parts of the JAX-WS message context used by the handler. */
+    static class ResponseContext extends HashMap<String, Object> implements SOAPMessageContext {
+        private static final long serialVersionUID = 1L;
+
+        private SOAPMessage message;
+
+        @Override
+        public SOAPMessage getMessage() {
+            return message;
+        }
+
+        @Override
+        public void setMessage(SOAPMessage message) {
+            this.message = message;
+        }
+
+        @Override
+        public Object[] getHeaders(QName header, JAXBContext context, boolean allRoles) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<String> getRoles() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public void setScope(String name, MessageContext.Scope scope) {
+        }
+
+        @Override
+        public MessageContext.Scope getScope(String name) {
+            return MessageContext.Scope.HANDLER;
+        }
+    }
+}
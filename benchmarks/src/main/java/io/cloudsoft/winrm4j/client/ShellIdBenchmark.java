@@ -0,0 +1,83 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import io.cloudsoft.winrm4j.client.transfer.ResourceCreated;
+
+/**
+ * Reading the shell ID of a Create response, compared with the XPath evaluation it replaced.
+ * In the client package, as {@link WinRmClient#getShellId} is not public; {@code EndToEndBenchmark.createShell}
+ * measures the latency of the whole shell creation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ShellIdBenchmark {
+
+    static final String RESOURCE_CREATED =
+            "<x:ResourceCreated xmlns:x=\"http://schemas.xmlsoap.org/ws/2004/09/transfer\"" +
+            " xmlns:a=\"http://schemas.xmlsoap.org/ws/2004/08/addressing\" xmlns:w=\"http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd\">" +
+            "<a:Address>http://localhost:5985/wsman</a:Address><a:ReferenceParameters>" +
+            "<w:ResourceURI>http://schemas.microsoft.com/wbem/wsman/1/windows/shell/cmd</w:ResourceURI>" +
+            "<w:SelectorSet><w:Selector Name=\"ShellId\">AF161CE1-3D3F-46B7-A101-800DD70639A9</w:Selector></w:SelectorSet>" +
+            "</a:ReferenceParameters></x:ResourceCreated>";
+
+    ResourceCreated resourceCreated;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Element root = factory.newDocumentBuilder()
+                .parse(new ByteArrayInputStream(RESOURCE_CREATED.getBytes(StandardCharsets.UTF_8)))
+                .getDocumentElement();
+        resourceCreated = new ResourceCreated();
+        for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                resourceCreated.getAny().add((Element) child);
+            }
+        }
+    }
+
+    @Benchmark
+    public String getShellId() {
+        return WinRmClient.getShellId(resourceCreated);
+    }
+
+    /** The former implementation: a new XPath per response, evaluated against each element */
+    @Benchmark
+    public String getShellIdWithXPath() throws XPathExpressionException {
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        for (Element el : resourceCreated.getAny()) {
+            String shellId = xpath.evaluate("//*[local-name()='Selector' and @Name='ShellId']", el);
+            if (shellId != null && !shellId.isEmpty()) {
+                return shellId;
+            }
+        }
+        throw new IllegalStateException("Shell ID not fount in " + resourceCreated);
+    }
+}
@@ -0,0 +1,4 @@
+package io.cloudsoft.winrm4j.benchmarks.generated;
+public class ClientConstructionBenchmark_jmhType extends ClientConstructionBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.cloudsoft.winrm4j.benchmarks.generated;
+public class EndToEndBenchmark_jmhType extends EndToEndBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.cloudsoft.winrm4j.benchmarks.generated;
+public class NtlmEncryptionBenchmark_CopyingEncryptState_jmhType extends NtlmEncryptionBenchmark_CopyingEncryptState_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.cloudsoft.winrm4j.benchmarks.generated;
+public class NtlmEncryptionBenchmark_DecryptState_jmhType extends NtlmEncryptionBenchmark_DecryptState_jmhType_B3 {
+}
+
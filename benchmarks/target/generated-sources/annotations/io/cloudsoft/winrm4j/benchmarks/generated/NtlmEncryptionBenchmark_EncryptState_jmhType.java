@@ -0,0 +1,4 @@
+package io.cloudsoft.winrm4j.benchmarks.generated;
+public class NtlmEncryptionBenchmark_EncryptState_jmhType extends NtlmEncryptionBenchmark_EncryptState_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.cloudsoft.winrm4j.benchmarks.generated;
+public class NtlmEncryptionBenchmark_jmhType extends NtlmEncryptionBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.cloudsoft.winrm4j.benchmarks.generated;
+public class ReceiveResponseJaxbBenchmark_jmhType extends ReceiveResponseJaxbBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.cloudsoft.winrm4j.benchmarks.generated;
+public class StripShellResponseHandlerBenchmark_jmhType extends StripShellResponseHandlerBenchmark_jmhType_B3 {
+}
+
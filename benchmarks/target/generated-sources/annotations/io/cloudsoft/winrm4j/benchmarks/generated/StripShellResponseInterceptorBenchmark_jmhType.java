@@ -0,0 +1,4 @@
+package io.cloudsoft.winrm4j.benchmarks.generated;
+public class StripShellResponseInterceptorBenchmark_jmhType extends StripShellResponseInterceptorBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.cloudsoft.winrm4j.client.generated;
+public class ShellIdBenchmark_jmhType extends ShellIdBenchmark_jmhType_B3 {
+}
+
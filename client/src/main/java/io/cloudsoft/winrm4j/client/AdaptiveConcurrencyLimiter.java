@@ -0,0 +1,258 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import javax.xml.ws.soap.SOAPFaultException;
+
+/**
+ * Bounds the operations run at a time on an endpoint, shell creations and command executions, to a limit
+ * adapted to what the endpoint accepts, see {@link WinRmClientContext#adaptiveConcurrency(int, int)}.
+ * Operations past the limit wait, in the order they were started, rather than failing on the server's quotas.
+ *
+ * The limit is adapted additive increase, multiplicative decrease: each operation which succeeds while the
+ * limit is in use raises it by {@code 1 / limit}, about one per round of operations. A fault of the server's
+ * quotas (e.g. MaxConcurrentOperationsPerUser, MaxShellsPerUser) halves it, and a shell creation taking more
+ * than twice as long as usual lowers it by a tenth. Only one decrease is applied per round, the operations
+ * started before it having been started under the previous limit.
+ *
+ * A shell creation failing on a quota fault is sent again once granted a permit under the lowered limit,
+ * see {@link WinRmClient#MAX_CREATE_ATTEMPTS_ON_QUOTA_FAULT}. A command is not, having possibly run.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * The Code of the WSManFaults of the quotas of the server
+     * https://docs.microsoft.com/en-us/windows/win32/winrm/quotas
+     */
+    static final Set<String> WSMAN_FAULT_CODES_QUOTA = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "2150859173", // ERROR_WSMAN_QUOTA_MAX_SHELLS
+            "2150859174", // ERROR_WSMAN_QUOTA_MAX_OPERATIONS
+            "2150859175", // ERROR_WSMAN_QUOTA_USER
+            "2150859176", // ERROR_WSMAN_QUOTA_SYSTEM
+            "2150859179", // ERROR_WSMAN_QUOTA_MAX_SHELLUSERS
+            "2150859236", // ERROR_WSMAN_QUOTA_MAX_SHELLS_PPQ
+            "2150859237", // ERROR_WSMAN_QUOTA_MAX_USERS_PPQ
+            "2150859238", // ERROR_WSMAN_QUOTA_MAX_PLUGINSHELLS_PPQ
+            "2150859239", // ERROR_WSMAN_QUOTA_MAX_PLUGINOPERATIONS_PPQ
+            "2150859240", // ERROR_WSMAN_QUOTA_MAX_OPERATIONS_USER_PPQ
+            "2150859241", // ERROR_WSMAN_QUOTA_MAX_COMMANDS_PER_SHELL_PPQ
+            "2150859242"  // ERROR_WSMAN_QUOTA_MIN_REQUIREMENT_NOT_AVAILABLE_PPQ
+    )));
+
+    private static final double QUOTA_BACKOFF_RATIO = 0.5;
+    private static final double LATENCY_BACKOFF_RATIO = 0.9;
+    /** How many times the usual latency a sample must take to lower the limit */
+    private static final double LATENCY_TOLERANCE = 2.0;
+    /** How fast the usual latency follows the slower samples, e.g. of a busier host */
+    private static final double LATENCY_BASELINE_WEIGHT = 0.05;
+
+    private final String endpoint;
+    private final int maxLimit;
+    private final Deque<CompletableFuture<Permit>> waiting = new ArrayDeque<>();
+
+    private double limit;
+    private int inFlight;
+    /** Incremented on each decrease of the limit */
+    private long round;
+    /** The usual latency of the samples, 0 until the first one */
+    private long baselineLatencyNanos;
+
+    private long quotaFaultCount;
+    private long decreasedCount;
+
+    AdaptiveConcurrencyLimiter(String endpoint, int initialLimit, int maxLimit) {
+        if (initialLimit < 1 || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("initialLimit should be at least 1 and maxLimit at least initialLimit");
+        }
+        this.endpoint = endpoint;
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Blocks until the operation can run.
+     */
+    Permit acquire() {
+        CompletableFuture<Permit> permit = acquireAsync();
+        try {
+            return permit.get();
+        } catch (InterruptedException e) {
+            if (!permit.cancel(false)) {
+                // granted meanwhile
+                permit.join().release(null, false);
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting to run an operation on " + endpoint, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @return a future completing once the operation can run, with the permit to {@link Permit#release(Throwable)}
+     *         once it completes
+     */
+    synchronized CompletableFuture<Permit> acquireAsync() {
+        if (inFlight < (int) limit) {
+            return CompletableFuture.completedFuture(newPermit());
+        }
+        CompletableFuture<Permit> permit = new CompletableFuture<>();
+        waiting.add(permit);
+        return permit;
+    }
+
+    private Permit newPermit() {
+        inFlight++;
+        return new Permit(round, inFlight);
+    }
+
+    private void release(Permit permit, Throwable failure, boolean adapt) {
+        List<CompletableFuture<Permit>> granted = new ArrayList<>();
+        List<Permit> permits = new ArrayList<>();
+        synchronized (this) {
+            if (adapt) {
+                adapt(permit, failure);
+            }
+            inFlight--;
+            while (inFlight < (int) limit && !waiting.isEmpty()) {
+                CompletableFuture<Permit> next = waiting.poll();
+                if (!next.isCancelled()) {
+                    granted.add(next);
+                    permits.add(newPermit());
+                }
+            }
+        }
+        // the operations are started outside the lock by completing their futures
+        for (int i = 0; i < granted.size(); i++) {
+            if (!granted.get(i).complete(permits.get(i))) {
+                permits.get(i).release(null, false);
+            }
+        }
+    }
+
+    private void adapt(Permit permit, Throwable failure) {
+        if (isQuotaFault(failure)) {
+            quotaFaultCount++;
+            decrease(permit, QUOTA_BACKOFF_RATIO);
+        } else if (failure == null) {
+            if (permit.latencyNanos > 0 && isLatencyGrowth(permit.latencyNanos)) {
+                decrease(permit, LATENCY_BACKOFF_RATIO);
+            } else if (permit.inFlightWhenAcquired * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+        // other failures, e.g. of the command itself, say nothing of the load of the host
+    }
+
+    private boolean isLatencyGrowth(long latencyNanos) {
+        if (baselineLatencyNanos == 0 || latencyNanos < baselineLatencyNanos) {
+            baselineLatencyNanos = latencyNanos;
+            return false;
+        }
+        boolean growth = latencyNanos > LATENCY_TOLERANCE * baselineLatencyNanos;
+        baselineLatencyNanos += (long) ((latencyNanos - baselineLatencyNanos) * LATENCY_BASELINE_WEIGHT);
+        return growth;
+    }
+
+    private void decrease(Permit permit, double ratio) {
+        if (permit.round != round) {
+            // acquired under a limit since decreased
+            return;
+        }
+        limit = Math.max(1, limit * ratio);
+        round++;
+        decreasedCount++;
+    }
+
+    /**
+     * @return whether the failure is a fault of the quotas of the server, i.e. of too many operations on it
+     */
+    static boolean isQuotaFault(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause instanceof SOAPFaultException && WSMAN_FAULT_CODES_QUOTA.contains(ShellCommand.getFaultCode((SOAPFaultException) cause));
+    }
+
+    /** @return the scheme, host and port of the endpoint, e.g. {@code http://host:5985} */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /** @return the operations which can run at a time */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /** @return the operations waiting for one to complete */
+    public synchronized int getQueued() {
+        return waiting.size();
+    }
+
+    public synchronized long getQuotaFaultCount() {
+        return quotaFaultCount;
+    }
+
+    /** @return how many times the limit was lowered, after a quota fault or a latency growth */
+    public synchronized long getDecreasedCount() {
+        return decreasedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveConcurrencyLimiter[endpoint=" + endpoint + ", limit=" + getLimit() + ", inFlight=" + getInFlight()
+                + ", queued=" + getQueued() + ", quotaFaults=" + getQuotaFaultCount() + ", decreased=" + getDecreasedCount() + "]";
+    }
+
+    /**
+     * The right of an operation to run, to be released once it completes.
+     */
+    final class Permit {
+        private final long round;
+        private final int inFlightWhenAcquired;
+        private long latencyNanos;
+        private boolean released;
+
+        private Permit(long round, int inFlightWhenAcquired) {
+            this.round = round;
+            this.inFlightWhenAcquired = inFlightWhenAcquired;
+        }
+
+        /**
+         * @param latencyNanos how long the request of the operation took, compared with the usual to detect
+         *        a host slowing down under load; only set for requests of comparable durations
+         */
+        void recordLatency(long latencyNanos) {
+            this.latencyNanos = latencyNanos;
+        }
+
+        /**
+         * @param failure the failure of the operation, {@code null} if it succeeded
+         */
+        void release(Throwable failure) {
+            release(failure, true);
+        }
+
+        private void release(Throwable failure, boolean adapt) {
+            synchronized (AdaptiveConcurrencyLimiter.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            AdaptiveConcurrencyLimiter.this.release(this, failure, adapt);
+        }
+    }
+}
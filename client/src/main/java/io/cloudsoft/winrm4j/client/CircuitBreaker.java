@@ -0,0 +1,136 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops the requests to an endpoint once it fails to be reached a number of times in a row, so that they fail at
+ * once rather than each waiting for the connection timeout and retries, see
+ * {@link WinRmClientContext#circuitBreaker(int, long, TimeUnit)}.
+ *
+ * The circuit opens after the given number of consecutive connection failures. While it is open the requests
+ * fail with a {@link CircuitBreakerOpenException}. Once the open duration has elapsed, it half-opens: one
+ * request is let through as a probe, closing the circuit if it reaches the endpoint, or opening it again if not.
+ * Any response from the endpoint, including a SOAP fault, counts as reaching it.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String endpoint;
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final LongSupplier nanoClock;
+
+    private volatile State state = State.CLOSED;
+    private volatile int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean probing;
+
+    private long openedCount;
+    private long halfOpenedCount;
+    private long closedCount;
+    private long rejectedCount;
+
+    CircuitBreaker(String endpoint, int failureThreshold, long openDuration, TimeUnit unit) {
+        this(endpoint, failureThreshold, openDuration, unit, System::nanoTime);
+    }
+
+    CircuitBreaker(String endpoint, int failureThreshold, long openDuration, TimeUnit unit, LongSupplier nanoClock) {
+        this.endpoint = endpoint;
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = unit.toNanos(openDuration);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return whether a request may be sent to the endpoint now, in which case its outcome must be reported
+     *         with {@link #onSuccess()} or {@link #onFailure()}
+     */
+    boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return true;
+            }
+            if (state == State.OPEN && nanoClock.getAsLong() - openedAtNanos >= openDurationNanos) {
+                state = State.HALF_OPEN;
+                halfOpenedCount++;
+                probing = false;
+            }
+            if (state == State.HALF_OPEN && !probing) {
+                probing = true;
+                return true;
+            }
+            rejectedCount++;
+            return false;
+        }
+    }
+
+    /** The endpoint was reached */
+    void onSuccess() {
+        if (state == State.CLOSED && consecutiveFailures == 0) {
+            return;
+        }
+        synchronized (this) {
+            consecutiveFailures = 0;
+            if (state != State.CLOSED) {
+                state = State.CLOSED;
+                closedCount++;
+                probing = false;
+            }
+        }
+    }
+
+    /** The endpoint could not be reached */
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedCount++;
+            openedAtNanos = nanoClock.getAsLong();
+            probing = false;
+        }
+    }
+
+    /** @return the scheme, host and port of the endpoint, e.g. {@code http://host:5985} */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /** @return the connection failures since the endpoint was last reached */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /** @return how many times the circuit opened, including after a failed probe */
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+
+    public synchronized long getHalfOpenedCount() {
+        return halfOpenedCount;
+    }
+
+    public synchronized long getClosedCount() {
+        return closedCount;
+    }
+
+    /** @return the requests failed at once as the circuit was open */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker[endpoint=" + endpoint + ", state=" + state + ", consecutiveFailures=" + consecutiveFailures
+                + ", opened=" + getOpenedCount() + ", halfOpened=" + getHalfOpenedCount() + ", closed=" + getClosedCount()
+                + ", rejected=" + getRejectedCount() + "]";
+    }
+}
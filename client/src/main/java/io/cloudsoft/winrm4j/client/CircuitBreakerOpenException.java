@@ -0,0 +1,22 @@
+package io.cloudsoft.winrm4j.client;
+
+import javax.xml.ws.WebServiceException;
+
+/**
+ * A request was not sent as the {@link CircuitBreaker} of its endpoint is open.
+ */
+public class CircuitBreakerOpenException extends WebServiceException {
+    private static final long serialVersionUID = 1L;
+
+    private final String endpoint;
+
+    public CircuitBreakerOpenException(String endpoint, Throwable cause) {
+        super("Circuit breaker open for " + endpoint + ", after failing to reach it; not sending request", cause);
+        this.endpoint = endpoint;
+    }
+
+    /** @return the scheme, host and port of the endpoint, e.g. {@code http://host:5985} */
+    public String getEndpoint() {
+        return endpoint;
+    }
+}
@@ -0,0 +1,74 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Bounds how many commands run at a time in a shell. Commands past the limit wait, in the order they
+ * were started, for a running one to be released: blocking the calling thread with {@link #acquire()},
+ * or through the future returned by {@link #acquireAsync()}.
+ */
+class CommandLimiter {
+    private final int limit;
+    private final Deque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+    private int running;
+
+    CommandLimiter(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit should be at least 1");
+        }
+        this.limit = limit;
+    }
+
+    void acquire() {
+        CompletableFuture<Void> permit = acquireAsync();
+        try {
+            permit.get();
+        } catch (InterruptedException e) {
+            if (!permit.cancel(false)) {
+                // granted meanwhile
+                release();
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting to run a command", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @return a future completing once the command can run, which can be cancelled to stop waiting
+     */
+    synchronized CompletableFuture<Void> acquireAsync() {
+        if (running < limit) {
+            running++;
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        waiting.add(permit);
+        return permit;
+    }
+
+    void release() {
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            do {
+                next = waiting.poll();
+            } while (next != null && next.isCancelled());
+            if (next == null) {
+                running--;
+                return;
+            }
+        }
+        // the slot passes to the next command, started outside the lock by completing its future
+        if (!next.complete(null)) {
+            release();
+        }
+    }
+
+    synchronized int getRunning() {
+        return running;
+    }
+}
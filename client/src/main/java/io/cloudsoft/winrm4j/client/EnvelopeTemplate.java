@@ -0,0 +1,116 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import io.cloudsoft.winrm4j.client.wsman.Locale;
+
+/**
+ * The envelope of a request rendered once, to be written by {@link EnvelopeTemplateOutInterceptor}
+ * in place of the one CXF would marshal for each request. Only the message ID changes between the
+ * requests written with the same template.
+ *
+ * The templates of a shell are created by its {@link ShellEnvelopes}, which renders the headers
+ * common to all of them once.
+ */
+final class EnvelopeTemplate {
+
+    /** The property of the request context holding the template to write the request with */
+    static final String PROPERTY = EnvelopeTemplate.class.getName();
+
+    private static final String SOAP_NS = "http://www.w3.org/2003/05/soap-envelope";
+    private static final String ADDRESSING_NS = "http://schemas.xmlsoap.org/ws/2004/08/addressing";
+    private static final String WSMAN_NS = "http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd";
+    private static final String SHELL_NS = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell";
+    private static final String ANONYMOUS = ADDRESSING_NS + "/role/anonymous";
+
+    static final String RECEIVE_ACTION = SHELL_NS + "/Receive";
+    static final String SIGNAL_ACTION = SHELL_NS + "/Signal";
+    static final String DELETE_ACTION = "http://schemas.xmlsoap.org/ws/2004/09/transfer/Delete";
+    static final String TERMINATE_SIGNAL = SHELL_NS + "/signal/terminate";
+
+    private final byte[] beforeMessageId;
+    private final byte[] afterMessageId;
+
+    private EnvelopeTemplate(byte[] beforeMessageId, byte[] afterMessageId) {
+        this.beforeMessageId = beforeMessageId;
+        this.afterMessageId = afterMessageId;
+    }
+
+    void write(OutputStream out, String messageId) throws IOException {
+        out.write(beforeMessageId);
+        out.write(escape(messageId).getBytes(StandardCharsets.UTF_8));
+        out.write(afterMessageId);
+    }
+
+    /**
+     * The templates of the requests to a shell, sharing the rendering of its headers.
+     */
+    static class ShellEnvelopes {
+        /** The headers following the message ID, up to the start of the body */
+        private final String headers;
+
+        ShellEnvelopes(String endpoint, String resourceUri, int maxEnvelopeSize, String operationTimeout, Locale locale, String shellId) {
+            StringBuilder result = new StringBuilder(1024)
+                    .append("</a:MessageID>")
+                    .append("<a:To>").append(escape(endpoint)).append("</a:To>")
+                    .append("<a:ReplyTo><a:Address>").append(ANONYMOUS).append("</a:Address></a:ReplyTo>")
+                    .append("<w:ResourceURI>").append(escape(resourceUri)).append("</w:ResourceURI>")
+                    .append("<w:MaxEnvelopeSize>").append(maxEnvelopeSize).append("</w:MaxEnvelopeSize>")
+                    .append("<w:OperationTimeout>").append(escape(operationTimeout)).append("</w:OperationTimeout>");
+            if (locale != null && locale.getLang() != null) {
+                result.append("<w:Locale xml:lang=\"").append(escape(locale.getLang())).append("\"/>");
+            } else if (locale != null) {
+                result.append("<w:Locale/>");
+            }
+            result.append("<w:SelectorSet><w:Selector Name=\"ShellId\">").append(escape(shellId)).append("</w:Selector></w:SelectorSet>")
+                    .append("</s:Header>");
+            this.headers = result.toString();
+        }
+
+        EnvelopeTemplate receive(String commandId) {
+            return newTemplate(RECEIVE_ACTION, "<rsp:Receive><rsp:DesiredStream rsp:CommandId=\"" + escape(commandId) + "\">stdout stderr</rsp:DesiredStream></rsp:Receive>");
+        }
+
+        EnvelopeTemplate terminate(String commandId) {
+            return newTemplate(SIGNAL_ACTION, "<rsp:Signal CommandId=\"" + escape(commandId) + "\"><rsp:Code>" + TERMINATE_SIGNAL + "</rsp:Code></rsp:Signal>");
+        }
+
+        EnvelopeTemplate delete() {
+            return newTemplate(DELETE_ACTION, null);
+        }
+
+        private EnvelopeTemplate newTemplate(String action, String body) {
+            String start = "<s:Envelope xmlns:s=\"" + SOAP_NS + "\" xmlns:a=\"" + ADDRESSING_NS + "\" xmlns:w=\"" + WSMAN_NS + "\" xmlns:rsp=\"" + SHELL_NS + "\">"
+                    + "<s:Header><a:Action>" + action + "</a:Action><a:MessageID>";
+            String end = headers + (body != null ? "<s:Body>" + body + "</s:Body>" : "<s:Body/>") + "</s:Envelope>";
+            return new EnvelopeTemplate(start.getBytes(StandardCharsets.UTF_8), end.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    static String escape(String text) {
+        StringBuilder result = null;
+        for (int i = 0; i < text.length(); i++) {
+            String replacement;
+            switch (text.charAt(i)) {
+                case '&': replacement = "&amp;"; break;
+                case '<': replacement = "&lt;"; break;
+                case '>': replacement = "&gt;"; break;
+                case '"': replacement = "&quot;"; break;
+                default: replacement = null;
+            }
+            if (replacement != null && result == null) {
+                result = new StringBuilder(text.length() + 16).append(text, 0, i);
+            }
+            if (result != null) {
+                if (replacement != null) {
+                    result.append(replacement);
+                } else {
+                    result.append(text.charAt(i));
+                }
+            }
+        }
+        return result != null ? result.toString() : text;
+    }
+}
@@ -0,0 +1,73 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.interceptor.Interceptor;
+import org.apache.cxf.interceptor.InterceptorChain;
+import org.apache.cxf.interceptor.StaxOutInterceptor;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.cxf.phase.PhaseInterceptor;
+import org.apache.cxf.ws.addressing.AddressingProperties;
+import org.apache.cxf.ws.addressing.ContextUtils;
+
+import io.cloudsoft.winrm4j.client.encryption.SignAndEncryptOutInterceptor;
+
+/**
+ * Writes the requests which have an {@link EnvelopeTemplate} in their context with the template, with
+ * the message ID WS-Addressing assigned to them, instead of having CXF marshal their headers and body.
+ *
+ * The interceptors which would have written the envelope are removed from the chain of the request,
+ * leaving only the ending ones, which send it. It is written to the stream set up by the interceptors
+ * before, so that it is still encrypted.
+ */
+class EnvelopeTemplateOutInterceptor extends AbstractPhaseInterceptor<Message> {
+
+    private static final String ENDING = "-ending";
+
+    EnvelopeTemplateOutInterceptor() {
+        super(Phase.PRE_STREAM);
+        addAfter(SignAndEncryptOutInterceptor.class.getName());
+        addBefore(StaxOutInterceptor.class.getName());
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+        EnvelopeTemplate template = (EnvelopeTemplate) message.get(EnvelopeTemplate.PROPERTY);
+        if (template == null) {
+            return;
+        }
+        AddressingProperties maps = ContextUtils.retrieveMAPs(message, false, true, false);
+        String messageId = maps != null && maps.getMessageID() != null ? maps.getMessageID().getValue() : ContextUtils.generateUUID();
+        // as the StaxOutInterceptor would, for the Content-Type header to give the charset of the template
+        message.put(Message.ENCODING, StandardCharsets.UTF_8.name());
+        try {
+            template.write(message.getContent(OutputStream.class), messageId);
+        } catch (IOException e) {
+            throw new Fault(e);
+        }
+        skipWriters(message.getInterceptorChain());
+    }
+
+    private void skipWriters(InterceptorChain chain) {
+        List<Interceptor<? extends Message>> writers = new ArrayList<>();
+        boolean after = false;
+        for (Interceptor<? extends Message> interceptor : chain) {
+            if (interceptor == this) {
+                after = true;
+            } else if (after && interceptor instanceof PhaseInterceptor
+                    && !((PhaseInterceptor<?>) interceptor).getPhase().endsWith(ENDING)) {
+                writers.add(interceptor);
+            }
+        }
+        for (Interceptor<? extends Message> writer : writers) {
+            chain.remove(writer);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.util.List;
+
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.soap.SOAPFaultException;
+
+import io.cloudsoft.winrm4j.client.jfr.AuthenticationEvent;
+import io.cloudsoft.winrm4j.client.jfr.OperationEvent;
+import io.cloudsoft.winrm4j.client.jfr.RetryEvent;
+import io.cloudsoft.winrm4j.client.jfr.ShellEvent;
+import io.cloudsoft.winrm4j.client.jfr.WinRmEvents;
+import io.cloudsoft.winrm4j.client.shell.Receive;
+import io.cloudsoft.winrm4j.client.shell.Send;
+import io.cloudsoft.winrm4j.client.shell.StreamType;
+import io.cloudsoft.winrm4j.client.wsman.SelectorSetType;
+import io.cloudsoft.winrm4j.client.wsman.SelectorType;
+import io.cloudsoft.winrm4j.client.wsman.Signal;
+
+/**
+ * Creates and commits the JFR events of the operations, retries and shells (see {@link WinRmEvents}).
+ * The {@code begin} methods return {@code null} when JFR is not available or is not recording the event,
+ * which the {@code commit} methods then ignore, so that the details of the events are only worked out
+ * for a recording.
+ */
+final class FlightRecorderEvents {
+
+    private FlightRecorderEvents() {}
+
+    static OperationEvent beginOperation(String operation) {
+        if (!WinRmEvents.ENABLED) {
+            return null;
+        }
+        OperationEvent event = new OperationEvent(operation);
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param args the arguments of the {@link WinRm} method of the operation, for the shell and command ids
+     */
+    static void commitOperation(OperationEvent event, String endpoint, Object[] args, Throwable failure) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.setDetails(endpoint, getShellId(args), getCommandId(args), failure != null, getFaultCode(failure));
+            event.commit();
+        }
+    }
+
+    static RetryEvent beginRetry(String operation, int attempt, long pauseMillis) {
+        if (!WinRmEvents.ENABLED) {
+            return null;
+        }
+        RetryEvent event = new RetryEvent(operation, attempt, pauseMillis);
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitRetry(RetryEvent event, String endpoint, String reason) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.setDetails(endpoint, reason);
+            event.commit();
+        }
+    }
+
+    static ShellEvent beginShell(String action) {
+        if (!WinRmEvents.ENABLED) {
+            return null;
+        }
+        ShellEvent event = new ShellEvent(action);
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitShell(ShellEvent event, String endpoint, String shellId, Throwable failure) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.setDetails(endpoint, shellId, failure != null, getFaultCode(failure));
+            event.commit();
+        }
+    }
+
+    static void commitAuthentication(String scheme, String endpoint) {
+        if (WinRmEvents.ENABLED) {
+            new AuthenticationEvent(scheme, endpoint).commit();
+        }
+    }
+
+    /**
+     * @return the address of the JAX-WS proxy, {@code null} if not one
+     */
+    static String getEndpoint(WinRm winrm) {
+        if (!(winrm instanceof BindingProvider)) {
+            return null;
+        }
+        Object address = ((BindingProvider) winrm).getRequestContext().get(BindingProvider.ENDPOINT_ADDRESS_PROPERTY);
+        return address != null ? address.toString() : null;
+    }
+
+    static String getShellId(Object[] args) {
+        if (args == null) {
+            return null;
+        }
+        for (Object arg : args) {
+            if (arg instanceof SelectorSetType) {
+                for (SelectorType selector : ((SelectorSetType) arg).getSelector()) {
+                    if ("ShellId".equals(selector.getName()) && !selector.getContent().isEmpty()) {
+                        return String.valueOf(selector.getContent().get(0));
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    static String getCommandId(Object[] args) {
+        if (args == null || args.length == 0) {
+            return null;
+        }
+        Object body = args[0];
+        if (body instanceof Receive && ((Receive) body).getDesiredStream() != null) {
+            return ((Receive) body).getDesiredStream().getCommandId();
+        } else if (body instanceof Signal) {
+            return ((Signal) body).getCommandId();
+        } else if (body instanceof Send) {
+            List<StreamType> streams = ((Send) body).getStream();
+            return streams.isEmpty() ? null : streams.get(0).getCommandId();
+        }
+        return null;
+    }
+
+    /**
+     * @return the code of the WS-Management fault, else the SOAP fault code, of the failure or its causes
+     */
+    static String getFaultCode(Throwable failure) {
+        for (Throwable e = failure; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            if (e instanceof SOAPFaultException) {
+                SOAPFaultException soapFault = (SOAPFaultException) e;
+                String code = ShellCommand.getFaultCode(soapFault);
+                if (code == null && soapFault.getFault() != null) {
+                    code = soapFault.getFault().getFaultCode();
+                }
+                return code;
+            }
+        }
+        return null;
+    }
+}
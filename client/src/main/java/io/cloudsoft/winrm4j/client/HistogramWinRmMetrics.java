@@ -0,0 +1,133 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a {@link LatencyHistogram} of the durations, in nanoseconds, of each operation and of the encryption,
+ * and counts the failures, retries, bytes and authentication handshakes, over the life of the clients it is
+ * set on or until {@link #reset()}.
+ */
+public class HistogramWinRmMetrics implements WinRmMetrics {
+
+    private final ConcurrentMap<String, LatencyHistogram> operations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> failures = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> retries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> authentications = new ConcurrentHashMap<>();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final LatencyHistogram encryption = new LatencyHistogram();
+    private final LatencyHistogram decryption = new LatencyHistogram();
+
+    @Override
+    public void onOperation(String operation, long durationNanos, boolean failed) {
+        getOperation(operation).record(durationNanos);
+        if (failed) {
+            counter(failures, operation).incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onRetry(String operation, int attempt) {
+        counter(retries, operation).incrementAndGet();
+    }
+
+    @Override
+    public void onBytesSent(long bytes) {
+        bytesSent.addAndGet(bytes);
+    }
+
+    @Override
+    public void onBytesReceived(long bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+    @Override
+    public void onAuthentication(String scheme) {
+        counter(authentications, scheme).incrementAndGet();
+    }
+
+    @Override
+    public void onEncryption(long durationNanos) {
+        encryption.record(durationNanos);
+    }
+
+    @Override
+    public void onDecryption(long durationNanos) {
+        decryption.record(durationNanos);
+    }
+
+    /**
+     * @return the durations of the operation, in nanoseconds, failed or not
+     */
+    public LatencyHistogram getOperation(String operation) {
+        LatencyHistogram histogram = operations.get(operation);
+        return histogram != null ? histogram : operations.computeIfAbsent(operation, k -> new LatencyHistogram());
+    }
+
+    /** @return the operations recorded so far, with their durations */
+    public Map<String, LatencyHistogram> getOperations() {
+        return Collections.unmodifiableMap(new TreeMap<>(operations));
+    }
+
+    public long getFailures(String operation) {
+        return get(failures, operation);
+    }
+
+    public long getRetries(String operation) {
+        return get(retries, operation);
+    }
+
+    public long getAuthentications(String scheme) {
+        return get(authentications, scheme);
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public LatencyHistogram getEncryption() {
+        return encryption;
+    }
+
+    public LatencyHistogram getDecryption() {
+        return decryption;
+    }
+
+    public void reset() {
+        operations.values().forEach(LatencyHistogram::reset);
+        failures.clear();
+        retries.clear();
+        authentications.clear();
+        bytesSent.set(0);
+        bytesReceived.set(0);
+        encryption.reset();
+        decryption.reset();
+    }
+
+    // looked up before computeIfAbsent, which locks on Java 8 even when the key is present
+    private static AtomicLong counter(ConcurrentMap<String, AtomicLong> counters, String key) {
+        AtomicLong counter = counters.get(key);
+        return counter != null ? counter : counters.computeIfAbsent(key, k -> new AtomicLong());
+    }
+
+    private static long get(ConcurrentMap<String, AtomicLong> counters, String key) {
+        AtomicLong counter = counters.get(key);
+        return counter != null ? counter.get() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "operations=" + getOperations() + ", failures=" + failures + ", retries=" + retries
+                + ", authentications=" + authentications + ", bytesSent=" + getBytesSent() + ", bytesReceived=" + getBytesReceived()
+                + ", encryption={" + encryption + "}, decryption={" + decryption + "}";
+    }
+}
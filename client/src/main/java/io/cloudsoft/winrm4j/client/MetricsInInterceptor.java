@@ -0,0 +1,82 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+
+/**
+ * Counts the bytes of the response bodies as they are read from the transport, before decryption, for
+ * {@link WinRmMetrics#onBytesReceived(long)}. They are reported once the body is read to its end or closed.
+ */
+class MetricsInInterceptor extends AbstractPhaseInterceptor<Message> {
+
+    private final WinRmMetrics metrics;
+
+    MetricsInInterceptor(WinRmMetrics metrics) {
+        super(Phase.RECEIVE);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+        InputStream in = message.getContent(InputStream.class);
+        if (in != null) {
+            message.setContent(InputStream.class, new CountingInputStream(in));
+        }
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+        private long count;
+        private boolean reported;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                report();
+            } else {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read < 0) {
+                report();
+            } else {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            report();
+            in.close();
+        }
+
+        private void report() {
+            if (!reported) {
+                reported = true;
+                metrics.onBytesReceived(count);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+
+import io.cloudsoft.winrm4j.client.encryption.SignAndEncryptOutInterceptor;
+
+/**
+ * Counts the bytes of the request bodies as they are written to the transport, below the encryption,
+ * for {@link WinRmMetrics#onBytesSent(long)}. Also makes the metrics available to the interceptors
+ * of the exchange, under the {@link WinRmMetrics} class.
+ */
+class MetricsOutInterceptor extends AbstractPhaseInterceptor<Message> {
+
+    private final WinRmMetrics metrics;
+
+    MetricsOutInterceptor(WinRmMetrics metrics) {
+        super(Phase.PRE_STREAM);
+        addBefore(SignAndEncryptOutInterceptor.class.getName());
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+        message.getExchange().put(WinRmMetrics.class, metrics);
+        OutputStream out = message.getContent(OutputStream.class);
+        if (out != null) {
+            message.setContent(OutputStream.class, new CountingOutputStream(out));
+        }
+    }
+
+    private class CountingOutputStream extends FilterOutputStream {
+        private long count;
+        private boolean closed;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                metrics.onBytesSent(count);
+            }
+            out.close();
+        }
+    }
+}
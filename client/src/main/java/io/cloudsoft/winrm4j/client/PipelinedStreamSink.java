@@ -0,0 +1,123 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands the output chunks written to it over to another sink, which a thread of its own writes them to,
+ * so that the next Receive request can be sent while the previous output is still being written.
+ *
+ * Up to {@code capacity} chunks are queued; once they are, writing blocks until the writer thread catches
+ * up, so a slow writer holds back the requests rather than the output piling up in memory. A failure of
+ * the writer thread is thrown, wrapped, from the next call to {@link #write(String, byte[], int, int, boolean)}
+ * or {@link #finish()}.
+ */
+class PipelinedStreamSink extends StreamSink {
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedStreamSink.class.getName());
+
+    private static final Chunk END = new Chunk(null, new byte[0], false);
+
+    private final StreamSink target;
+    private final BlockingQueue<Chunk> queue;
+    private final Thread writer;
+    private volatile boolean stopped;
+    private volatile Throwable failure;
+
+    PipelinedStreamSink(StreamSink target, int capacity, String threadName) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity should be at least 1");
+        }
+        this.target = target;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::writeQueued, threadName);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    void write(String stream, byte[] value, int offset, int length, boolean end) {
+        checkNotFailed();
+        // the array of the caller can be re-used once this returns
+        put(new Chunk(stream, Arrays.copyOfRange(value, offset, offset + length), end));
+    }
+
+    /**
+     * Waits for the queued chunks to be written.
+     */
+    void finish() {
+        put(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the output to be written", e);
+        }
+        checkNotFailed();
+    }
+
+    /**
+     * Discards the chunks not written yet, without waiting for the one being written. Does nothing once
+     * {@link #finish()} has returned.
+     */
+    void abort() {
+        if (!writer.isAlive()) {
+            return;
+        }
+        stopped = true;
+        queue.clear();
+        queue.offer(END);
+    }
+
+    private void put(Chunk chunk) {
+        try {
+            queue.put(chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the output to be written", e);
+        }
+    }
+
+    private void writeQueued() {
+        try {
+            while (true) {
+                Chunk chunk = queue.take();
+                if (chunk == END) {
+                    return;
+                }
+                // after a failure keep taking the chunks, so that writing them does not block
+                if (!stopped && failure == null) {
+                    try {
+                        target.write(chunk.stream, chunk.value, chunk.end);
+                    } catch (RuntimeException | Error e) {
+                        failure = e;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("Interrupted writing the output of {}, discarding the rest", writer.getName());
+        }
+    }
+
+    private void checkNotFailed() {
+        Throwable e = failure;
+        if (e != null) {
+            throw new IllegalStateException("Failure writing the output of " + writer.getName(), e);
+        }
+    }
+
+    private static class Chunk {
+        final String stream;
+        final byte[] value;
+        final boolean end;
+
+        Chunk(String stream, byte[] value, boolean end) {
+            this.stream = stream;
+            this.value = value;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.cxf.interceptor.StaxInInterceptor;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.cxf.service.model.BindingOperationInfo;
+
+/**
+ * Writes the output of Receive responses straight into the {@link StreamSink} of their command as
+ * the response is parsed, instead of having JAXB decode each stream into a {@code byte[]} of the
+ * {@link io.cloudsoft.winrm4j.client.shell.ReceiveResponse}.
+ *
+ * The reader of the response is wrapped so that the {@code rsp:Stream} elements of the commands
+ * registered with {@link #register(String, StreamSink)} are decoded from base64 in fixed size chunks
+ * as their text is read, and are then skipped: the rest of the chain, the handlers and JAXB only see
+ * the other elements, such as the command state. The streams of other commands are left as they are.
+ *
+ * As the output is written while the response is read, a response failing part way may have written
+ * part of its output.
+ */
+class ReceiveStreamInInterceptor extends AbstractPhaseInterceptor<Message> {
+
+    static final String SHELL_NAMESPACE = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell";
+
+    private final Map<String, StreamSink> sinks = new ConcurrentHashMap<>();
+
+    ReceiveStreamInInterceptor() {
+        super(Phase.POST_STREAM);
+        addAfter(StaxInInterceptor.class.getName());
+    }
+
+    /**
+     * Sends the output of the command to the sink, until {@link #unregister(String)} is called.
+     */
+    void register(String commandId, StreamSink sink) {
+        sinks.put(commandId, sink);
+    }
+
+    void unregister(String commandId) {
+        sinks.remove(commandId);
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+        if (sinks.isEmpty() || !isReceive(message)) {
+            return;
+        }
+        XMLStreamReader reader = message.getContent(XMLStreamReader.class);
+        if (reader != null) {
+            message.setContent(XMLStreamReader.class, new StreamFilter(reader, sinks));
+        }
+    }
+
+    private static boolean isReceive(Message message) {
+        BindingOperationInfo operation = message.getExchange() != null ? message.getExchange().getBindingOperationInfo() : null;
+        return operation != null && "Receive".equals(operation.getName().getLocalPart());
+    }
+
+    /**
+     * Passes through the events of the response, except for the stream elements of the registered
+     * commands, which it writes to their sinks.
+     */
+    private static class StreamFilter extends SkippingStreamReader {
+        private final Map<String, StreamSink> sinks;
+        private final Base64Decoder decoder = new Base64Decoder();
+
+        StreamFilter(XMLStreamReader reader, Map<String, StreamSink> sinks) {
+            super(reader);
+            this.sinks = sinks;
+        }
+
+        /**
+         * If the current element is a stream of a registered command, writes its content to the sink
+         * of the command, leaving the reader on its end element.
+         *
+         * @return whether the element was written to a sink
+         */
+        @Override
+        protected boolean skip() throws XMLStreamException {
+            if (!"Stream".equals(getLocalName()) || !SHELL_NAMESPACE.equals(getNamespaceURI())) {
+                return false;
+            }
+            String commandId = getAttributeValue(null, "CommandId");
+            StreamSink sink = commandId != null ? sinks.get(commandId) : null;
+            if (sink == null) {
+                return false;
+            }
+            String name = getAttributeValue(null, "Name");
+            boolean end = Boolean.parseBoolean(getAttributeValue(null, "End"));
+
+            decoder.start(sink, name);
+            for (int event = getParent().next(); event != XMLStreamConstants.END_ELEMENT; event = getParent().next()) {
+                if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+                    decoder.decode(getTextCharacters(), getTextStart(), getTextLength());
+                } else if (event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_DOCUMENT) {
+                    throw new XMLStreamException("Unexpected content in stream " + name + " of command " + commandId, getLocation());
+                }
+            }
+            decoder.finish(end);
+            return true;
+        }
+    }
+
+    /**
+     * Decodes base64 text given in any number of pieces, writing the bytes to a sink each time its
+     * buffer is full. The buffer is re-used for all the streams of a response.
+     */
+    private static class Base64Decoder {
+        private static final int[] VALUES = new int[128];
+        private static final int WHITESPACE = -2;
+        private static final int INVALID = -1;
+        static {
+            Arrays.fill(VALUES, INVALID);
+            String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+            for (int i = 0; i < alphabet.length(); i++) {
+                VALUES[alphabet.charAt(i)] = i;
+            }
+            VALUES[' '] = VALUES['\t'] = VALUES['\r'] = VALUES['\n'] = WHITESPACE;
+        }
+
+        private final byte[] buffer = new byte[StreamSink.CHUNK_SIZE];
+        private int length;
+        private StreamSink sink;
+        private String stream;
+        /** The bits of the characters of the current group of 4, and how many of them were read */
+        private int group, groupLength;
+        private boolean padded;
+
+        void start(StreamSink sink, String stream) {
+            this.sink = sink;
+            this.stream = stream;
+            length = 0;
+            group = 0;
+            groupLength = 0;
+            padded = false;
+        }
+
+        void decode(char[] text, int start, int count) throws XMLStreamException {
+            for (int i = start; i < start + count; i++) {
+                char c = text[i];
+                int value = c < VALUES.length ? VALUES[c] : INVALID;
+                if (value == WHITESPACE) {
+                    continue;
+                }
+                if (c == '=') {
+                    padded = true;
+                    continue;
+                }
+                if (value == INVALID || padded) {
+                    throw new XMLStreamException("Invalid base64 character '" + c + "' in stream " + stream);
+                }
+                group = group << 6 | value;
+                if (++groupLength == 4) {
+                    if (length > buffer.length - 3) {
+                        flush(false);
+                    }
+                    buffer[length++] = (byte) (group >> 16);
+                    buffer[length++] = (byte) (group >> 8);
+                    buffer[length++] = (byte) group;
+                    group = 0;
+                    groupLength = 0;
+                }
+            }
+        }
+
+        void finish(boolean end) throws XMLStreamException {
+            if (length > buffer.length - 2) {
+                flush(false);
+            }
+            if (groupLength == 2) {
+                buffer[length++] = (byte) (group >> 4);
+            } else if (groupLength == 3) {
+                buffer[length++] = (byte) (group >> 10);
+                buffer[length++] = (byte) (group >> 2);
+            } else if (groupLength == 1) {
+                throw new XMLStreamException("Truncated base64 content in stream " + stream);
+            }
+            flush(end);
+            sink = null;
+        }
+
+        private void flush(boolean end) {
+            if (length > 0 || end) {
+                sink.write(stream, buffer, 0, length, end);
+                length = 0;
+            }
+        }
+    }
+}
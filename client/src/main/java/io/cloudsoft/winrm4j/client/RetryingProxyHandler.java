@@ -1,55 +1,189 @@
 package io.cloudsoft.winrm4j.client;
 
+import io.cloudsoft.winrm4j.client.encryption.SignAndEncryptOutInterceptor;
+import io.cloudsoft.winrm4j.client.encryption.SignAndEncryptOutInterceptor.ChannelReleasingCallback;
+import io.cloudsoft.winrm4j.client.jfr.OperationEvent;
+import io.cloudsoft.winrm4j.client.jfr.RetryEvent;
 import io.cloudsoft.winrm4j.client.retry.RetryDecision;
 import io.cloudsoft.winrm4j.client.retry.RetryPolicy;
 import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.xml.namespace.QName;
+import javax.xml.soap.Detail;
+import javax.xml.soap.SOAPConstants;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPFactory;
+import javax.xml.soap.SOAPFault;
 import javax.xml.ws.WebServiceException;
 import javax.xml.ws.soap.SOAPFaultException;
+import org.apache.cxf.binding.soap.SoapFault;
+import org.apache.cxf.endpoint.Client;
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.service.model.BindingOperationInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 class RetryingProxyHandler implements InvocationHandler {
     private static final Logger LOG = LoggerFactory.getLogger(RetryingProxyHandler.class);
 
     private final WinRm winrm;
+    private final Client client;
     private RetryPolicy failureRetryPolicy;
+    private final WinRmMetrics metrics;
+    /** The address of the requests, for the JFR events */
+    private final String endpoint;
+    /** Fails the requests at once while the host cannot be reached, {@code null} if not enabled */
+    private final CircuitBreaker circuitBreaker;
 
     public RetryingProxyHandler(WinRm winrm, RetryPolicy failureRetryPolicy) {
+        this(winrm, null, failureRetryPolicy, WinRmMetrics.NONE, null);
+    }
+
+    /**
+     * @param client the CXF client behind {@code winrm}, used for asynchronous invocations
+     * @param metrics told of the duration of each operation and of its retries
+     * @param circuitBreaker told of the outcome of each attempt, and asked before each one; {@code null} for none
+     */
+    RetryingProxyHandler(WinRm winrm, Client client, RetryPolicy failureRetryPolicy, WinRmMetrics metrics,
+            CircuitBreaker circuitBreaker) {
         this.winrm = winrm;
+        this.client = client;
         this.failureRetryPolicy = failureRetryPolicy;
+        this.metrics = metrics;
+        this.endpoint = FlightRecorderEvents.getEndpoint(winrm);
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    String getEndpoint() {
+        return endpoint;
     }
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        // Don't retry the "command" - could lead to unexpected side effects of having the script run multiple times.
-        if (method.getName().equals("command")) {
-            return method.invoke(winrm, args);
-        } else {
-            return invokeWithRetry(method, args);
+        if (method.getDeclaringClass() != WinRm.class) {
+            // e.g. the BindingProvider methods of the proxy, which are not requests
+            try {
+                return method.invoke(winrm, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+        String operationName = toOperationName(method);
+        OperationEvent event = FlightRecorderEvents.beginOperation(operationName);
+        long start = System.nanoTime();
+        Throwable failure = null;
+        try {
+            Object result;
+            // Don't retry the "command" - could lead to unexpected side effects of having the script run multiple times.
+            // Likewise "send", which could pass the same input to the command twice.
+            if (method.getName().equals("command") || method.getName().equals("send")) {
+                acquireCircuit(null);
+                try {
+                    result = SignAndEncryptOutInterceptor.releasingChannels(() -> method.invoke(winrm, args));
+                } catch (InvocationTargetException e) {
+                    onAttemptCompleted(e.getTargetException());
+                    // as thrown by the proxy, e.g. for the faults of a stale shell to be caught by ShellPool
+                    throw e.getTargetException();
+                }
+                onAttemptCompleted(null);
+            } else {
+                result = invokeWithRetry(method, args);
+            }
+            return result;
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            metrics.onOperation(operationName, System.nanoTime() - start, failure != null);
+            FlightRecorderEvents.commitOperation(event, endpoint, args, failure);
         }
     }
 
+    /** @return the name of the operation of the {@link WinRm} method, e.g. "Receive" for {@code receive} */
+    private static String toOperationName(Method method) {
+        String name = method.getName();
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
     public Object invokeWithRetry(Method method, Object[] args)
             throws IllegalAccessException, InvocationTargetException {
-        Throwable firstException = null;
-        boolean tryAgain = true;
-        int attempt = 0;
-
-        do {
-        	attempt++;
+        return retrying(toOperationName(method), "Failure when calling " + method + args, () -> {
             try {
                 return method.invoke(winrm, args);
-            } catch (InvocationTargetException targetException) {
-                Throwable e = targetException.getTargetException();
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        });
+    }
+
+    /**
+     * As {@link #invokeWithRetry(Method, Object[])}, but writing the request with the given template
+     * (see {@link EnvelopeTemplateOutInterceptor}), and straight through the CXF client rather than
+     * through the reflection of the JAX-WS proxies.
+     *
+     * @param args the arguments of the {@link WinRm} method for the operation, in the same order
+     */
+    @SuppressWarnings("unchecked")
+    <T> T invokeWithTemplate(String operationName, EnvelopeTemplate template, Object... args) {
+        OperationEvent event = FlightRecorderEvents.beginOperation(operationName);
+        long start = System.nanoTime();
+        Throwable failure = null;
+        try {
+            BindingOperationInfo operation = getOperation(operationName);
+            return retrying(operationName, "Failure when calling " + operationName, () -> {
+                try {
+                    Object[] result = client.invoke(operation, args, newInvocationContext(template));
+                    return result == null || result.length == 0 ? null : (T) result[0];
+                } catch (Exception e) {
+                    throw toJaxWsException(e);
+                }
+            });
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            metrics.onOperation(operationName, System.nanoTime() - start, failure != null);
+            FlightRecorderEvents.commitOperation(event, endpoint, args, failure);
+        }
+    }
+
+    /** A single attempt of a request, failing with the exception the JAX-WS proxy would throw. */
+    private interface Attempt<T> {
+        T call() throws Throwable;
+    }
+
+    /**
+     * Makes the attempts of a request until one succeeds, retrying the connection failures as told
+     * by the retry policy and sleeping between attempts.
+     *
+     * @param failureMessage the message of the failures which are neither JAX-WS nor SOAP faults
+     */
+    private <T> T retrying(String operationName, String failureMessage, Attempt<T> attempt) {
+        WebServiceException firstException = null;
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            acquireCircuit(firstException);
+            try {
+                T result = SignAndEncryptOutInterceptor.releasingChannels(attempt::call);
+                onAttemptCompleted(null);
+                return result;
+            } catch (Throwable e) {
+                onAttemptCompleted(e);
                 checkForRootErrorAuthorizationLoopAndPropagateAnnotated(e);
                 if (e instanceof SOAPFaultException) {
                     throw (SOAPFaultException) e;
                 }
                 if (!(e instanceof WebServiceException)) {
-                    throw new IllegalStateException("Failure when calling " + method + args, e);
+                    throw new IllegalStateException(failureMessage, e);
                 }
                 WebServiceException wsException = (WebServiceException) e;
                 if (!(wsException.getCause() instanceof IOException)) {
@@ -58,25 +192,273 @@ class RetryingProxyHandler implements InvocationHandler {
                 if (firstException == null) {
                     firstException = wsException;
                 }
-                RetryDecision retryDecision = failureRetryPolicy.onWebServiceException(wsException, attempt);
-                if (retryDecision.shouldRetry()) {
-                    LOG.debug("On attempt " + attempt + ", ignoring exception and retrying (" + retryDecision.reason() + ")", 
-                            wsException);
-                    try {
-                        Thread.sleep(retryDecision.pauseTimeMillis());
-                    } catch (InterruptedException interruptedException) {
-                        Thread.currentThread().interrupt();
-                        throw new RuntimeException("Exception occured while making winrm call",
-                                targetException);
-                    }
-                } else {
-                    tryAgain = false;
+                RetryDecision retryDecision = failureRetryPolicy.onWebServiceException(wsException, attemptNumber);
+                if (!retryDecision.shouldRetry()) {
+                    LOG.debug("failed task \"" + operationName + "\" after " + attemptNumber + " attempt(s), rethrowing first exception");
+                    throw new RuntimeException("failed task \"" + operationName + "\" after " + attemptNumber + " attempt(s)", firstException);
+                }
+                metrics.onRetry(operationName, attemptNumber);
+                LOG.debug("On attempt " + attemptNumber + ", ignoring exception and retrying (" + retryDecision.reason() + ")",
+                        wsException);
+                RetryEvent retryEvent = FlightRecorderEvents.beginRetry(operationName, attemptNumber, retryDecision.pauseTimeMillis());
+                try {
+                    Thread.sleep(retryDecision.pauseTimeMillis());
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Exception occured while making winrm call", wsException);
+                } finally {
+                    FlightRecorderEvents.commitRetry(retryEvent, endpoint, retryDecision.reason().orElse(null));
                 }
             }
-        } while (tryAgain);
-        
-        LOG.debug("failed task \"" + method.getName() + "\" after " + attempt + " attempt(s), rethrowing first exception");
-        throw new RuntimeException("failed task \"" + method.getName() + "\" after " + attempt + " attempt(s)", firstException);
+        }
+    }
+
+    /**
+     * As {@link #invokeAsync(String, Object...)}, writing the request with the given template.
+     *
+     * @see #invokeWithTemplate(String, EnvelopeTemplate, Object...)
+     */
+    <T> CompletableFuture<T> invokeAsyncWithTemplate(String operationName, EnvelopeTemplate template, Object... args) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<T> timed = timed(operationName, args, result);
+        invokeAsync(operationName, template, args, 1, null, result);
+        return timed;
+    }
+
+    private BindingOperationInfo getOperation(String operationName) {
+        if (client == null) {
+            throw new IllegalStateException("Invocation of " + operationName + " with a template requires a CXF client");
+        }
+        // as the client looks up operations by name
+        QName name = new QName(client.getEndpoint().getService().getName().getNamespaceURI(), operationName);
+        BindingOperationInfo operation = client.getEndpoint().getEndpointInfo().getBinding().getOperation(name);
+        if (operation == null) {
+            throw new IllegalArgumentException("No operation " + operationName);
+        }
+        return operation;
+    }
+
+    /**
+     * The context of an invocation, with a copy of the request context of the client as CXF would
+     * otherwise make, holding the template.
+     */
+    private Map<String, Object> newInvocationContext(EnvelopeTemplate template) {
+        Map<String, Object> requestContext = new HashMap<>(client.getRequestContext());
+        requestContext.put(EnvelopeTemplate.PROPERTY, template);
+        Map<String, Object> context = new HashMap<>();
+        context.put(Client.REQUEST_CONTEXT, requestContext);
+        return context;
+    }
+
+    /**
+     * Invokes the operation (e.g. "Receive") through CXF's asynchronous API, so that no thread is
+     * held while waiting for the response. Connection failures are retried as for synchronous calls,
+     * with the pause between attempts scheduled rather than slept.
+     *
+     * The future completes on a transport thread, so dependent stages should not block.
+     * SOAP faults complete it with a {@link SOAPFaultException}, as for synchronous calls.
+     *
+     * @param args the arguments of the {@link WinRm} method for the operation, in the same order
+     */
+    <T> CompletableFuture<T> invokeAsync(String operationName, Object... args) {
+        if (client == null) {
+            throw new IllegalStateException("Asynchronous invocation of " + operationName + " requires a CXF client");
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<T> timed = timed(operationName, args, result);
+        invokeAsync(operationName, null, args, 1, null, result);
+        return timed;
+    }
+
+    /**
+     * Measures the operation from now until the result completes, so to be called before the request is sent.
+     */
+    private <T> CompletableFuture<T> timed(String operationName, Object[] args, CompletableFuture<T> result) {
+        OperationEvent event = FlightRecorderEvents.beginOperation(operationName);
+        if (metrics == WinRmMetrics.NONE && event == null) {
+            return result;
+        }
+        long start = System.nanoTime();
+        return result.whenComplete((r, e) -> {
+            metrics.onOperation(operationName, System.nanoTime() - start, e != null);
+            FlightRecorderEvents.commitOperation(event, endpoint, args, e);
+        });
+    }
+
+    private <T> void invokeAsync(String operationName, EnvelopeTemplate template, Object[] args, int attempt,
+            WebServiceException firstException, CompletableFuture<T> result) {
+        try {
+            acquireCircuit(firstException);
+        } catch (CircuitBreakerOpenException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        ChannelReleasingCallback callback = new ChannelReleasingCallback() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void handleResponse(Map<String, Object> ctx, Object[] res) {
+                super.handleResponse(ctx, res);
+                onAttemptCompleted(null);
+                result.complete(res == null || res.length == 0 ? null : (T) res[0]);
+            }
+
+            @Override
+            public void handleException(Map<String, Object> ctx, Throwable ex) {
+                super.handleException(ctx, ex);
+                onAttemptCompleted(toJaxWsException(ex));
+                onAsyncException(operationName, template, args, attempt, firstException, result, ex);
+            }
+        };
+        try {
+            if (template != null) {
+                client.invoke(callback, getOperation(operationName), args, newInvocationContext(template));
+            } else {
+                client.invoke(callback, operationName, args);
+            }
+        } catch (Exception e) {
+            callback.releaseChannel();
+            onAttemptCompleted(toJaxWsException(e));
+            onAsyncException(operationName, template, args, attempt, firstException, result, e);
+        }
+    }
+
+    /**
+     * Asks the circuit breaker of the endpoint, if any, whether the request may be sent. If so its outcome must
+     * then be told with {@link #onAttemptCompleted(Throwable)}.
+     *
+     * @param lastFailure the failure of the previous attempt of the request, if any
+     * @throws CircuitBreakerOpenException if the circuit is open
+     */
+    private void acquireCircuit(Throwable lastFailure) {
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            throw new CircuitBreakerOpenException(circuitBreaker.getEndpoint(), lastFailure);
+        }
+    }
+
+    /**
+     * @param failure the failure of the request, as a JAX-WS exception, {@code null} if it succeeded
+     */
+    private void onAttemptCompleted(Throwable failure) {
+        if (circuitBreaker == null) {
+            return;
+        }
+        if (isConnectionFailure(failure)) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    /**
+     * @return whether the failure is of reaching the host, as retried by the {@link RetryPolicy}, rather than a fault
+     */
+    static boolean isConnectionFailure(Throwable e) {
+        return e instanceof WebServiceException && !(e instanceof SOAPFaultException) && e.getCause() instanceof IOException;
+    }
+
+    private <T> void onAsyncException(String operationName, EnvelopeTemplate template, Object[] args, int attempt,
+            WebServiceException firstException, CompletableFuture<T> result, Throwable ex) {
+        Throwable e = toJaxWsException(ex);
+        try {
+            checkForRootErrorAuthorizationLoopAndPropagateAnnotated(e);
+        } catch (RuntimeException annotated) {
+            result.completeExceptionally(annotated);
+            return;
+        }
+        if (e instanceof SOAPFaultException || "Command".equals(operationName) || "Send".equals(operationName)) {
+            // Don't retry the "command" or "send" - could lead to unexpected side effects of having the script run multiple times.
+            result.completeExceptionally(e);
+            return;
+        }
+        if (!(e instanceof WebServiceException)) {
+            result.completeExceptionally(new IllegalStateException("Failure when calling " + operationName, e));
+            return;
+        }
+        WebServiceException wsException = (WebServiceException) e;
+        if (!(wsException.getCause() instanceof IOException)) {
+            result.completeExceptionally(new RuntimeException("Exception occurred while making winrm call", wsException));
+            return;
+        }
+        WebServiceException first = firstException != null ? firstException : wsException;
+        RetryDecision retryDecision;
+        try {
+            retryDecision = failureRetryPolicy.onWebServiceException(wsException, attempt);
+        } catch (RuntimeException policyFailure) {
+            result.completeExceptionally(policyFailure);
+            return;
+        }
+        if (retryDecision.shouldRetry()) {
+            metrics.onRetry(operationName, attempt);
+            LOG.debug("On attempt " + attempt + ", ignoring exception and retrying (" + retryDecision.reason() + ")",
+                    wsException);
+            RetryEvent retryEvent = FlightRecorderEvents.beginRetry(operationName, attempt, retryDecision.pauseTimeMillis());
+            RetryScheduler.INSTANCE.schedule(() -> {
+                FlightRecorderEvents.commitRetry(retryEvent, endpoint, retryDecision.reason().orElse(null));
+                invokeAsync(operationName, template, args, attempt + 1, first, result);
+            }, retryDecision.pauseTimeMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            LOG.debug("failed task \"" + operationName + "\" after " + attempt + " attempt(s), rethrowing first exception");
+            result.completeExceptionally(new RuntimeException("failed task \"" + operationName + "\" after " + attempt + " attempt(s)", first));
+        }
+    }
+
+    /**
+     * Maps the exceptions reported by CXF's asynchronous API to the ones the JAX-WS proxy
+     * throws for synchronous calls.
+     */
+    static Throwable toJaxWsException(Throwable ex) {
+        if (ex instanceof SoapFault) {
+            return toSOAPFaultException((SoapFault) ex);
+        }
+        if (ex instanceof Fault) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            return new WebServiceException(ex.getMessage(), cause);
+        }
+        return ex;
+    }
+
+    private static Throwable toSOAPFaultException(SoapFault soapFault) {
+        try {
+            SOAPFactory factory = SOAPFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL);
+            SOAPFault fault = factory.createFault();
+            String reason = soapFault.getReason() != null ? soapFault.getReason() : "";
+            QName faultCode = soapFault.getFaultCode();
+            if (faultCode != null) {
+                try {
+                    fault.setFaultCode(faultCode);
+                } catch (SOAPException e) {
+                    // not a SOAP 1.2 code; keep the default
+                }
+            }
+            fault.setFaultString(reason);
+            Element detail = soapFault.getDetail();
+            if (detail != null) {
+                Detail faultDetail = fault.addDetail();
+                for (Node node = detail.getFirstChild(); node != null; node = node.getNextSibling()) {
+                    faultDetail.appendChild(faultDetail.getOwnerDocument().importNode(node, true));
+                }
+            }
+            SOAPFaultException result = new SOAPFaultException(fault);
+            result.initCause(soapFault);
+            return result;
+        } catch (SOAPException | RuntimeException e) {
+            LOG.debug("Unable to convert SOAP fault " + soapFault + " (rethrowing as is)", e);
+            return new WebServiceException(soapFault.getMessage(), soapFault);
+        }
+    }
+
+    /** Timer for the pauses between asynchronous retries. */
+    private static class RetryScheduler {
+        static final ScheduledExecutorService INSTANCE;
+        static {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "winrm-retry-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            INSTANCE = executor;
+        }
     }
 
     public static void checkForRootErrorAuthorizationLoopAndPropagateAnnotated(Throwable e0) {
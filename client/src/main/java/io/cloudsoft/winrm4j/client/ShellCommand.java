@@ -1,21 +1,31 @@
 package io.cloudsoft.winrm4j.client;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 
 import javax.xml.ws.soap.SOAPFaultException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import io.cloudsoft.winrm4j.client.jfr.ShellEvent;
 import io.cloudsoft.winrm4j.client.shell.CommandLine;
 import io.cloudsoft.winrm4j.client.shell.CommandStateType;
 import io.cloudsoft.winrm4j.client.shell.DesiredStreamType;
 import io.cloudsoft.winrm4j.client.shell.Receive;
 import io.cloudsoft.winrm4j.client.shell.ReceiveResponse;
+import io.cloudsoft.winrm4j.client.shell.Send;
 import io.cloudsoft.winrm4j.client.shell.StreamType;
 import io.cloudsoft.winrm4j.client.wsman.CommandResponse;
 import io.cloudsoft.winrm4j.client.wsman.Locale;
@@ -25,6 +35,11 @@ import io.cloudsoft.winrm4j.client.wsman.SelectorSetType;
 import io.cloudsoft.winrm4j.client.wsman.SelectorType;
 import io.cloudsoft.winrm4j.client.wsman.Signal;
 
+/**
+ * A shell on the server, in which commands run. Commands can be run concurrently from several threads,
+ * each with its own Receive requests; shells created by a {@link WinRmClient} run up to
+ * {@link WinRmClientBuilder#maxConcurrentCommands(int)} of them at a time, the others waiting for one to complete.
+ */
 public class ShellCommand implements AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(ShellCommand.class.getName());
 
@@ -41,9 +56,33 @@ public class ShellCommand implements AutoCloseable {
      *   [truncated]The request for the Windows Remote Shell with ShellId xxxx-yyyy-ccc... failed because the shell was not found on the server.
      *   Possible causes are: the specified ShellId is incorrect or the shell no longer exi
      */
-    private static final String WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND = "2150858843";
+    static final String WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND = "2150858843";
+
+    /**
+     * Bytes of stdin sent per Send request: as much as fits base64 encoded in an envelope of
+     * {@link WinRmClient#MAX_ENVELOPER_SIZE}, leaving room for the headers.
+     */
+    static final int STDIN_CHUNK_SIZE = (WinRmClient.MAX_ENVELOPER_SIZE - 8192) / 4 * 3;
 
     private WinRm winrm;
+    /**
+     * Used for the asynchronous operations and those written with templates, {@code null} if not created
+     * by a {@link WinRmClient}.
+     */
+    private final RetryingProxyHandler asyncHandler;
+    /** Writes the output of the commands as the Receive responses are read, {@code null} if not enabled. */
+    private final ReceiveStreamInInterceptor receiveStreams;
+    /** Renders the Receive, Signal and Delete requests of the shell, {@code null} if not enabled. */
+    private final EnvelopeTemplate.ShellEnvelopes envelopes;
+    /** Output chunks queued for the writers while the next Receive is sent, 0 to write them in between */
+    private final int receivePipelineDepth;
+    /** Bounds the commands running at a time, {@code null} if not created by a {@link WinRmClient} */
+    private final CommandLimiter commands;
+    /** Bounds the operations running at a time on the host, {@code null} if not enabled */
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    /** Releases the commands and the shell in the background, {@code null} if not enabled */
+    private final ShellReaper reaper;
+    private final String shellId;
     private SelectorSetType shellSelector;
 
     private String operationTimeout;
@@ -53,16 +92,41 @@ public class ShellCommand implements AutoCloseable {
      */
     private Predicate<String> retryReceiveAfterOperationTimeout;
     private final Locale locale;
+    /** Charset of the shell's code page, used to decode the output for {@link Writer}s */
+    private final Charset charset;
 
-    private int numberOfReceiveCalls;
+    /**
+     * Receive requests sent for the last command to complete. Each execution counts its own, as several may run
+     * at a time, and sets them here once done.
+     */
+    private volatile int numberOfReceiveCalls;
+    /** Commands accepted by the server in the shell, never reset */
+    private final AtomicInteger commandsStarted = new AtomicInteger();
 
     public ShellCommand(WinRm winrm, String shellId, String operationTimeout, Predicate<String> retryReceiveAfterOperationTimeout,
             Locale locale) {
+        this(winrm, null, null, null, 0, null, null, null, shellId, operationTimeout, retryReceiveAfterOperationTimeout, locale, Charset.defaultCharset());
+    }
+
+    ShellCommand(WinRm winrm, RetryingProxyHandler asyncHandler, ReceiveStreamInInterceptor receiveStreams,
+            EnvelopeTemplate.ShellEnvelopes envelopes, int receivePipelineDepth, CommandLimiter commands,
+            AdaptiveConcurrencyLimiter concurrencyLimiter, ShellReaper reaper,
+            String shellId, String operationTimeout,
+            Predicate<String> retryReceiveAfterOperationTimeout, Locale locale, Charset charset) {
         this.winrm = winrm;
+        this.asyncHandler = asyncHandler;
+        this.receiveStreams = receiveStreams;
+        this.envelopes = envelopes;
+        this.receivePipelineDepth = receivePipelineDepth;
+        this.commands = commands;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.reaper = reaper;
+        this.shellId = shellId;
         this.shellSelector = createShellSelector(shellId);
         this.operationTimeout = operationTimeout;
         this.retryReceiveAfterOperationTimeout = retryReceiveAfterOperationTimeout;
         this.locale = locale;
+        this.charset = charset;
     }
 
     private SelectorSetType createShellSelector(String shellId) {
@@ -77,13 +141,222 @@ public class ShellCommand implements AutoCloseable {
     public int execute(String cmd, Writer out, Writer err) {
         return execute(cmd, null, Boolean.FALSE, out, err);
     }
+    /**
+     * Runs the command, writing its output to {@code out} and {@code err} as it is received. The output
+     * is decoded with the code page of the shell (see {@link WinRmClientBuilder#codePage(int)}).
+     *
+     * With {@link WinRmClientBuilder#receivePipelineDepth(int)} the output is written from a separate
+     * thread, while the next output is requested.
+     */
     public int execute(String cmd, List<String> args, Boolean skipCommandShell, Writer out, Writer err) {
+        return execute(cmd, args, skipCommandShell, StreamSink.toWriters(out, err, charset));
+    }
+
+    public int executeRaw(String cmd, OutputStream out, OutputStream err) {
+        return executeRaw(cmd, null, Boolean.FALSE, out, err);
+    }
+
+    /**
+     * As {@link #execute(String, List, Boolean, Writer, Writer)}, but passes the output through as the bytes
+     * received from the server, without decoding them. Suited to commands with large or binary output.
+     */
+    public int executeRaw(String cmd, List<String> args, Boolean skipCommandShell, OutputStream out, OutputStream err) {
+        return execute(cmd, args, skipCommandShell, StreamSink.toStreams(out, err));
+    }
+
+    /**
+     * As {@link #execute(String, List, Boolean, Writer, Writer)}, feeding {@code stdin} to the command's standard input.
+     *
+     * The input is sent from a separate thread while the output is received, in chunks of up to
+     * {@link #STDIN_CHUNK_SIZE} bytes; the end of the input is signalled to the command once {@code stdin}
+     * is exhausted. {@code stdin} is not closed. Any input left once the command exits is discarded, and
+     * the thread sending it is interrupted if blocked reading {@code stdin}.
+     */
+    public int execute(String cmd, List<String> args, Boolean skipCommandShell, InputStream stdin, Writer out, Writer err) {
+        return execute(cmd, args, skipCommandShell, stdin, StreamSink.toWriters(out, err, charset));
+    }
+
+    /**
+     * As {@link #execute(String, List, Boolean, InputStream, Writer, Writer)}, passing through the raw output.
+     */
+    public int executeRaw(String cmd, List<String> args, Boolean skipCommandShell, InputStream stdin, OutputStream out, OutputStream err) {
+        return execute(cmd, args, skipCommandShell, stdin, StreamSink.toStreams(out, err));
+    }
+
+    private int execute(String cmd, List<String> args, Boolean skipCommandShell, StreamSink sink) {
+        return execute(cmd, args, skipCommandShell, null, sink);
+    }
+
+    private int execute(String cmd, List<String> args, Boolean skipCommandShell, InputStream stdin, StreamSink sink) {
         WinRmClient.checkNotNull(cmd, "command");
 
+        final CommandLine cmdLine = newCommandLine(cmd, args);
+        final OptionSetType optSetCmd = newCommandOptions(skipCommandShell);
+
+        if (commands == null) {
+            return execute(cmdLine, optSetCmd, stdin, sink);
+        }
+        commands.acquire();
+        try {
+            if (concurrencyLimiter == null) {
+                return execute(cmdLine, optSetCmd, stdin, sink);
+            }
+            AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter.acquire();
+            Throwable failure = null;
+            try {
+                return execute(cmdLine, optSetCmd, stdin, sink);
+            } catch (RuntimeException | Error e) {
+                failure = e;
+                throw e;
+            } finally {
+                permit.release(failure);
+            }
+        } finally {
+            commands.release();
+        }
+    }
+
+    private int execute(CommandLine cmdLine, OptionSetType optSetCmd, InputStream stdin, StreamSink sink) {
+        CommandResponse cmdResponse = winrm.command(cmdLine, WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector, optSetCmd);
+        commandsStarted.incrementAndGet();
+
+        String commandId = cmdResponse.getCommandId();
+
+        PipelinedStreamSink pipeline = receivePipelineDepth > 0
+                ? new PipelinedStreamSink(sink, receivePipelineDepth, "winrm-output-" + commandId)
+                : null;
+        StreamSink target = pipeline != null ? pipeline : sink;
+        if (receiveStreams != null) {
+            receiveStreams.register(commandId, target);
+        }
+        StdinSender stdinSender = null;
+        if (stdin != null) {
+            stdinSender = new StdinSender(commandId, stdin);
+            stdinSender.start();
+        }
+
+        try {
+            int exitCode = receiveCommand(commandId, target, stdinSender);
+            if (pipeline != null) {
+                pipeline.finish();
+            }
+            return exitCode;
+        } finally {
+            if (stdinSender != null) {
+                stdinSender.stop();
+            }
+            if (pipeline != null) {
+                pipeline.abort();
+            }
+            if (receiveStreams != null) {
+                receiveStreams.unregister(commandId);
+            }
+            try {
+                releaseCommand(commandId);
+            } catch (SOAPFaultException soapFault) {
+                assertFaultCode(soapFault, WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND);
+            }
+        }
+    }
+
+    public CompletableFuture<Integer> executeAsync(String cmd, Writer out, Writer err) {
+        return executeAsync(cmd, null, Boolean.FALSE, out, err);
+    }
+
+    /**
+     * As {@link #execute(String, List, Boolean, Writer, Writer)}, but without blocking the calling thread:
+     * the Command, Receive and Signal requests are chained through asynchronous invocations, so no
+     * thread is held while waiting for the server.
+     *
+     * The output is written to {@code out} and {@code err} from the transport's threads, so writing
+     * to them should not block.
+     *
+     * @return the exit code of the command; completes exceptionally as {@code execute} would throw
+     */
+    public CompletableFuture<Integer> executeAsync(String cmd, List<String> args, Boolean skipCommandShell, Writer out, Writer err) {
+        return executeAsync(cmd, args, skipCommandShell, StreamSink.toWriters(out, err, charset));
+    }
+
+    /**
+     * As {@link #executeRaw(String, List, Boolean, OutputStream, OutputStream)}, without blocking the calling thread.
+     *
+     * @see #executeAsync(String, List, Boolean, Writer, Writer)
+     */
+    public CompletableFuture<Integer> executeRawAsync(String cmd, List<String> args, Boolean skipCommandShell, OutputStream out, OutputStream err) {
+        return executeAsync(cmd, args, skipCommandShell, StreamSink.toStreams(out, err));
+    }
+
+    private CompletableFuture<Integer> executeAsync(String cmd, List<String> args, Boolean skipCommandShell, StreamSink sink) {
+        WinRmClient.checkNotNull(cmd, "command");
+        checkAsyncSupported();
+
+        final CommandLine cmdLine = newCommandLine(cmd, args);
+        final OptionSetType optSetCmd = newCommandOptions(skipCommandShell);
+
+        if (commands == null) {
+            return executeAsync(cmdLine, optSetCmd, sink);
+        }
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        commands.acquireAsync()
+                .thenCompose(ignored -> concurrencyLimiter == null
+                        ? executeAsync(cmdLine, optSetCmd, sink)
+                        : concurrencyLimiter.acquireAsync().thenCompose(permit -> executeAsync(cmdLine, optSetCmd, sink)
+                                .whenComplete((exitCode, failure) -> permit.release(failure))))
+                .whenComplete((exitCode, failure) -> {
+                    commands.release();
+                    if (failure != null) {
+                        result.completeExceptionally(unwrap(failure));
+                    } else {
+                        result.complete(exitCode);
+                    }
+                });
+        return result;
+    }
+
+    private CompletableFuture<Integer> executeAsync(CommandLine cmdLine, OptionSetType optSetCmd, StreamSink sink) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        asyncHandler.<CommandResponse>invokeAsync("Command", cmdLine, WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector, optSetCmd)
+                .whenComplete((cmdResponse, commandFailure) -> {
+                    if (commandFailure != null) {
+                        result.completeExceptionally(unwrap(commandFailure));
+                        return;
+                    }
+                    commandsStarted.incrementAndGet();
+                    String commandId = cmdResponse.getCommandId();
+                    if (receiveStreams != null) {
+                        receiveStreams.register(commandId, sink);
+                    }
+                    CompletableFuture<Integer> received = new CompletableFuture<>();
+                    AtomicInteger receiveCalls = new AtomicInteger();
+                    receiveCommandAsync(newReceive(commandId), envelopes != null ? envelopes.receive(commandId) : null, sink,
+                            receiveCalls, received);
+                    received.whenComplete((exitCode, receiveFailure) -> {
+                        numberOfReceiveCalls = receiveCalls.get();
+                        if (receiveStreams != null) {
+                            receiveStreams.unregister(commandId);
+                        }
+                        releaseCommandAsyncOrLater(commandId).whenComplete((ignored, releaseFailure) -> {
+                            if (receiveFailure != null) {
+                                result.completeExceptionally(unwrap(receiveFailure));
+                            } else if (releaseFailure != null && !isFaultCode(releaseFailure, WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND)) {
+                                result.completeExceptionally(unwrap(releaseFailure));
+                            } else {
+                                result.complete(exitCode);
+                            }
+                        });
+                    });
+                });
+        return result;
+    }
+
+    private CommandLine newCommandLine(String cmd, List<String> args) {
         final CommandLine cmdLine = new CommandLine();
         cmdLine.setCommand(cmd);
         if (args!=null) cmdLine.getArguments().addAll(args);
+        return cmdLine;
+    }
 
+    private OptionSetType newCommandOptions(Boolean skipCommandShell) {
         final OptionSetType optSetCmd = new OptionSetType();
 
         OptionType optConsolemodeStdin = new OptionType();
@@ -97,61 +370,126 @@ public class ShellCommand implements AutoCloseable {
             optSkipCmdShell.setValue(skipCommandShell.toString().toUpperCase());
             optSetCmd.getOption().add(optSkipCmdShell);
         }
+        return optSetCmd;
+    }
 
-        numberOfReceiveCalls = 0;
-
-        CommandResponse cmdResponse = winrm.command(cmdLine, WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector, optSetCmd);
-
-        String commandId = cmdResponse.getCommandId();
-
+    private int receiveCommand(String commandId, StreamSink sink, StdinSender stdinSender) {
+        // the same request is sent until the command is done
+        final Receive receive = newReceive(commandId);
+        final EnvelopeTemplate template = envelopes != null ? envelopes.receive(commandId) : null;
+        int receiveCalls = 0;
         try {
-            return receiveCommand(commandId, out, err);
-        } finally {
-            try {
-                releaseCommand(commandId);
-            } catch (SOAPFaultException soapFault) {
-                assertFaultCode(soapFault, WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND);
+            while(true) {
+                if (stdinSender != null) {
+                    stdinSender.checkNotFailed();
+                }
+
+                try {
+                    receiveCalls++;
+                    ReceiveResponse receiveResponse = template != null
+                            ? asyncHandler.<ReceiveResponse>invokeWithTemplate("Receive", template, receive, WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector)
+                            : winrm.receive(receive, WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector);
+                    getStreams(receiveResponse, sink);
+
+                    CommandStateType state = receiveResponse.getCommandState();
+                    // https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-wsmv/bd5802af-51ad-4f1b-9a5c-7aa499d5eee9
+                    // either Done, Running, or Pending
+                    if (COMMAND_STATE_DONE.equals(state.getState())) {
+                        return state.getExitCode().intValue();
+                    } else {
+                        LOG.debug("{} is not done. Response it received: {} / {}", this, state.getState(), receiveResponse);
+                    }
+                } catch (SOAPFaultException soapFault) {
+                    /**
+                     * If such Exception which has a code 2150858793 the client is expected to again trigger immediately a receive request.
+                     * https://msdn.microsoft.com/en-us/library/cc251676.aspx
+                     */
+                    LOG.debug("WinRM received exceptional message from windows server, likely due to long-running operation (if so will continue, otherwise will rethrow: "+soapFault);
+                    assertFaultCode(soapFault, WSMAN_FAULT_CODE_OPERATION_TIMEOUT_EXPIRED,
+                            retryReceiveAfterOperationTimeout);
+                } catch (LinkageError error) {
+                    LOG.warn("Error processing exception from windows server; javax.xml.soap and javax.xml.ws.soap likely using incompatible versions, rethrowing: "+error);
+                    throw error;
+                }
             }
+        } finally {
+            numberOfReceiveCalls = receiveCalls;
         }
     }
 
-    private int receiveCommand(String commandId, Writer out, Writer err) {
-        while(true) {
-            final Receive receive = new Receive();
-            DesiredStreamType stream = new DesiredStreamType();
-            stream.setCommandId(commandId);
-            stream.setValue("stdout stderr");
-            receive.setDesiredStream(stream);
+    /**
+     * As {@link #receiveCommand(String, StreamSink, StdinSender)}, sending the next Receive from the
+     * completion of the previous one.
+     *
+     * @param template the template of the Receive requests, or {@code null} to have them marshalled
+     * @param receiveCalls the Receive requests sent for the command
+     */
+    private void receiveCommandAsync(Receive receive, EnvelopeTemplate template, StreamSink sink, AtomicInteger receiveCalls,
+            CompletableFuture<Integer> result) {
+        receiveCalls.incrementAndGet();
+        this.<ReceiveResponse>invokeAsync("Receive", template, receive, WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector)
+                .whenComplete((receiveResponse, failure) -> {
+                    try {
+                        if (failure != null) {
+                            Throwable cause = unwrap(failure);
+                            if (cause instanceof SOAPFaultException) {
+                                LOG.debug("WinRM received exceptional message from windows server, likely due to long-running operation (if so will continue, otherwise will rethrow: "+cause);
+                                assertFaultCode((SOAPFaultException) cause, WSMAN_FAULT_CODE_OPERATION_TIMEOUT_EXPIRED,
+                                        retryReceiveAfterOperationTimeout);
+                                receiveCommandAsync(receive, template, sink, receiveCalls, result);
+                            } else {
+                                result.completeExceptionally(cause);
+                            }
+                            return;
+                        }
+                        getStreams(receiveResponse, sink);
+
+                        CommandStateType state = receiveResponse.getCommandState();
+                        if (COMMAND_STATE_DONE.equals(state.getState())) {
+                            result.complete(state.getExitCode().intValue());
+                        } else {
+                            LOG.debug("{} is not done. Response it received: {} / {}", this, state.getState(), receiveResponse);
+                            receiveCommandAsync(receive, template, sink, receiveCalls, result);
+                        }
+                    } catch (Throwable t) {
+                        result.completeExceptionally(t);
+                    }
+                });
+    }
 
+    private Receive newReceive(String commandId) {
+        final Receive receive = new Receive();
+        DesiredStreamType stream = new DesiredStreamType();
+        stream.setCommandId(commandId);
+        stream.setValue("stdout stderr");
+        receive.setDesiredStream(stream);
+        return receive;
+    }
 
-            try {
-                numberOfReceiveCalls++;
-                ReceiveResponse receiveResponse = winrm.receive(receive, WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector);
-                getStreams(receiveResponse, out, err);
-
-                CommandStateType state = receiveResponse.getCommandState();
-                // https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-wsmv/bd5802af-51ad-4f1b-9a5c-7aa499d5eee9
-                // either Done, Running, or Pending
-                if (COMMAND_STATE_DONE.equals(state.getState())) {
-                    return state.getExitCode().intValue();
-                } else {
-                    LOG.debug("{} is not done. Response it received: {} / {}", this, state.getState(), receiveResponse);
-                }
-            } catch (SOAPFaultException soapFault) {
-                /**
-                 * If such Exception which has a code 2150858793 the client is expected to again trigger immediately a receive request.
-                 * https://msdn.microsoft.com/en-us/library/cc251676.aspx
-                 */
-                LOG.debug("WinRM received exceptional message from windows server, likely due to long-running operation (if so will continue, otherwise will rethrow: "+soapFault);
-                assertFaultCode(soapFault, WSMAN_FAULT_CODE_OPERATION_TIMEOUT_EXPIRED,
-                        retryReceiveAfterOperationTimeout);
-            } catch (LinkageError error) {
-                LOG.warn("Error processing exception from windows server; javax.xml.soap and javax.xml.ws.soap likely using incompatible versions, rethrowing: "+error);
-                throw error;
-            }
+    /**
+     * Invokes the operation asynchronously, writing its request with the template if there is one.
+     */
+    private <T> CompletableFuture<T> invokeAsync(String operationName, EnvelopeTemplate template, Object... args) {
+        return template != null
+                ? asyncHandler.<T>invokeAsyncWithTemplate(operationName, template, args)
+                : asyncHandler.<T>invokeAsync(operationName, args);
+    }
+
+    private void checkAsyncSupported() {
+        if (asyncHandler == null) {
+            throw new IllegalStateException("Asynchronous operations are only supported on shells created by a WinRmClient");
         }
     }
 
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    static boolean isFaultCode(Throwable e, String code) {
+        Throwable cause = unwrap(e);
+        return cause instanceof SOAPFaultException && code.equals(getFaultCode((SOAPFaultException) cause));
+    }
+
     private void assertFaultCode(SOAPFaultException soapFault, String code, Predicate<String> retry) {
         try {
             NodeList faultDetails = soapFault.getFault().getDetail().getChildNodes();
@@ -177,63 +515,238 @@ public class ShellCommand implements AutoCloseable {
         assertFaultCode(soapFault, code, x -> true);
     }
 
-    /** @deprecated since 0.6.0. Implementation detail, access will be removed in future versions */
+    /**
+     * @return the Code of the WSManFault detail of the given fault, or {@code null} if it has none
+     */
+    static String getFaultCode(SOAPFaultException soapFault) {
+        if (soapFault.getFault() == null || soapFault.getFault().getDetail() == null) {
+            return null;
+        }
+        NodeList faultDetails = soapFault.getFault().getDetail().getChildNodes();
+        for (int i = 0; i < faultDetails.getLength(); i++) {
+            Node detail = faultDetails.item(i);
+            if ("WSManFault".equals(detail.getLocalName()) && detail.getAttributes() != null) {
+                Node code = detail.getAttributes().getNamedItem("Code");
+                return code != null ? code.getNodeValue() : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the Receive requests sent for the last command to complete in this shell
+     * @deprecated since 0.6.0. Implementation detail, access will be removed in future versions
+     */
     @Deprecated
     public int getNumberOfReceiveCalls() {
         return numberOfReceiveCalls;
     }
 
-    private void getStreams(ReceiveResponse receiveResponse, Writer out, Writer err) {
+    /**
+     * @return the commands accepted by the server in this shell so far, e.g. to tell whether a
+     *         failure happened before any command of an action ran
+     */
+    int getCommandsStarted() {
+        return commandsStarted.get();
+    }
+
+    /**
+     * Writes the streams of the response to the sink; with {@link WinRmClientBuilder#streamingReceive(boolean)}
+     * they have already been written as the response was read, and the response has none.
+     */
+    private void getStreams(ReceiveResponse receiveResponse, StreamSink sink) {
         List<StreamType> streams = receiveResponse.getStream();
         for (StreamType s : streams) {
             byte[] value = s.getValue();
             if (value == null) continue;
-            if (out != null && "stdout".equals(s.getName())) {
-                try {
-                    //TODO use passed locale?
-                    if (value.length > 0) {
-                        out.write(new String(value));
-                        out.flush();
-                    }
-                    if (Boolean.TRUE.equals(s.isEnd())) {
-                        out.close();
-                    }
-                } catch (IOException e) {
-                    throw new IllegalStateException(e);
-                }
-            }
-            if (err != null && "stderr".equals(s.getName())) {
-                try {
-                    //TODO use passed locale?
-                    if (value.length > 0) {
-                        err.write(new String(value));
-                        err.flush();
-                    }
-                    if (Boolean.TRUE.equals(s.isEnd())) {
-                        err.close();
-                    }
-                } catch (IOException e) {
-                    throw new IllegalStateException(e);
-                }
-            }
+            sink.write(s.getName(), value, Boolean.TRUE.equals(s.isEnd()));
         }
     }
 
     private void releaseCommand(String commandId) {
+        if (reaper != null) {
+            reaper.submit("command " + commandId, () -> releaseCommandAsync(commandId));
+        } else if (envelopes != null) {
+            asyncHandler.invokeWithTemplate("Signal", envelopes.terminate(commandId), newTerminateSignal(commandId), WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector);
+        } else {
+            winrm.signal(newTerminateSignal(commandId), WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector);
+        }
+    }
+
+    /**
+     * As {@link #releaseCommandAsync(String)}, completing at once if the command is released in the background.
+     */
+    private CompletableFuture<Object> releaseCommandAsyncOrLater(String commandId) {
+        if (reaper != null) {
+            reaper.submit("command " + commandId, () -> releaseCommandAsync(commandId));
+            return CompletableFuture.completedFuture(null);
+        }
+        return releaseCommandAsync(commandId);
+    }
+
+    private CompletableFuture<Object> releaseCommandAsync(String commandId) {
+        return invokeAsync("Signal", envelopes != null ? envelopes.terminate(commandId) : null,
+                newTerminateSignal(commandId), WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector);
+    }
+
+    private Signal newTerminateSignal(String commandId) {
         final Signal signal = new Signal();
         signal.setCommandId(commandId);
-        signal.setCode("http://schemas.microsoft.com/wbem/wsman/1/windows/shell/signal/terminate");
-
-        winrm.signal(signal, WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector);
+        signal.setCode(EnvelopeTemplate.TERMINATE_SIGNAL);
+        return signal;
     }
 
 
+    /**
+     * Deletes the shell. With {@link WinRmClientBuilder#backgroundCleanup(boolean)} the request is sent
+     * in the background, and this returns at once.
+     */
     @Override
     public void close() {
+        if (reaper != null) {
+            reaper.submit("shell " + shellId, this::deleteAsync);
+            return;
+        }
+        ShellEvent event = FlightRecorderEvents.beginShell("Delete");
+        Throwable failure = null;
         try {
-            winrm.delete(WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector);
+            if (envelopes != null) {
+                asyncHandler.invokeWithTemplate("Delete", envelopes.delete(), WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector);
+            } else {
+                winrm.delete(WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector);
+            }
         } catch (SOAPFaultException soapFault) {
+            failure = soapFault;
             assertFaultCode(soapFault, WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND);
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (event != null) {
+                FlightRecorderEvents.commitShell(event, getEndpoint(), shellId, failure);
+            }
+        }
+    }
+
+    /**
+     * Copies an input stream to the stdin of a running command, until the end of the stream
+     * or until stopped.
+     */
+    private class StdinSender implements Runnable {
+        private final String commandId;
+        private final InputStream stdin;
+        private final Thread thread;
+        private volatile boolean stopped;
+        private volatile Throwable failure;
+
+        StdinSender(String commandId, InputStream stdin) {
+            this.commandId = commandId;
+            this.stdin = stdin;
+            this.thread = new Thread(this, "winrm-stdin-" + commandId);
+            thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[STDIN_CHUNK_SIZE];
+            try {
+                boolean end = false;
+                while (!end && !stopped) {
+                    // Block for some input, then take whatever else is available without blocking
+                    int len = stdin.read(buffer);
+                    if (len < 0) {
+                        len = 0;
+                        end = true;
+                    }
+                    while (!end && len < buffer.length && stdin.available() > 0) {
+                        int read = stdin.read(buffer, len, buffer.length - len);
+                        if (read < 0) {
+                            end = true;
+                        } else {
+                            len += read;
+                        }
+                    }
+                    if (!stopped) {
+                        send(Arrays.copyOf(buffer, len), end);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                if (stopped) {
+                    LOG.debug("Failure sending stdin to completed command {} (ignoring): {}", commandId, e);
+                } else {
+                    failure = e;
+                }
+            }
+        }
+
+        private void send(byte[] value, boolean end) {
+            StreamType stream = new StreamType();
+            stream.setName("stdin");
+            stream.setCommandId(commandId);
+            stream.setValue(value);
+            if (end) {
+                stream.setEnd(Boolean.TRUE);
+            }
+            Send send = new Send();
+            send.getStream().add(stream);
+            winrm.send(send, WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector);
         }
+
+        /**
+         * Stops sending, interrupting a read of stdin which is blocked, e.g. of a pipe whose writer has
+         * more to come. A stream which ignores interruption keeps the thread until its read returns.
+         */
+        void stop() {
+            stopped = true;
+            thread.interrupt();
+        }
+
+        void checkNotFailed() {
+            Throwable e = failure;
+            if (e != null) {
+                throw new IllegalStateException("Failure sending stdin to command " + commandId, e);
+            }
+        }
+    }
+
+    /**
+     * As {@link #close()}, without blocking the calling thread.
+     */
+    public CompletableFuture<Void> closeAsync() {
+        checkAsyncSupported();
+        if (reaper != null) {
+            reaper.submit("shell " + shellId, this::deleteAsync);
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        deleteAsync().whenComplete((ignored, failure) -> {
+            if (failure != null && !isFaultCode(failure, WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND)) {
+                result.completeExceptionally(unwrap(failure));
+            } else {
+                result.complete(null);
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<Object> deleteAsync() {
+        ShellEvent event = FlightRecorderEvents.beginShell("Delete");
+        CompletableFuture<Object> result = invokeAsync("Delete", envelopes != null ? envelopes.delete() : null, WinRmClient.RESOURCE_URI, WinRmClient.MAX_ENVELOPER_SIZE, operationTimeout, locale, shellSelector);
+        if (event == null) {
+            return result;
+        }
+        return result.whenComplete((ignored, e) -> FlightRecorderEvents.commitShell(event, getEndpoint(), shellId, e));
+    }
+
+    String getShellId() {
+        return shellId;
+    }
+
+    private String getEndpoint() {
+        return asyncHandler != null ? asyncHandler.getEndpoint() : FlightRecorderEvents.getEndpoint(winrm);
     }
 }
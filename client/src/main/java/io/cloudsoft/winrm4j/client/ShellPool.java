@@ -0,0 +1,341 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.Duration;
+import javax.xml.ws.soap.SOAPFaultException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps warm shells of a {@link WinRmClient} for re-use, saving the Create and Delete round trips
+ * (and the shell spin-up on the server) for each command.
+ *
+ * Shells are keyed by working directory and environment, as these are fixed when the shell is created.
+ * A shell is returned to the pool after each command, and closed once it has been idle for longer than
+ * the configured idle timeout; the same timeout (plus a margin) is requested from the server as the
+ * shell's IdleTimeOut, so shells of a pool that is never closed are still reclaimed by the server.
+ *
+ * The number of shells (leased and idle) is capped, to stay below the server's MaxShellsPerUser quota
+ * (30 by default since WinRM 3.0). When the cap is reached, an idle shell for another key is closed to make room,
+ * or else callers wait until a shell is returned.
+ *
+ * If a command fails because its shell no longer exists on the server (fault code
+ * {@value ShellCommand#WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND}, e.g. after a server-side timeout or
+ * a restart of the WinRM service), the shell is discarded. If the command had not started, it is re-run
+ * once on a new shell.
+ *
+ * This class is thread safe.
+ */
+public class ShellPool implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ShellPool.class.getName());
+
+    public static final int DEFAULT_MAX_SHELLS = 10;
+    public static final long DEFAULT_IDLE_TIMEOUT = 60L * 1000L;
+
+    /**
+     * Added to the idle timeout for the shell's IdleTimeOut on the server, so that the pool
+     * always evicts the shell before the server does.
+     */
+    private static final long SERVER_IDLE_TIMEOUT_MARGIN = 60L * 1000L;
+
+    private final WinRmClient client;
+    private final int maxShells;
+    private final long idleTimeoutMillis;
+    private final Duration serverIdleTimeOut;
+
+    // All guarded by lock
+    private final Object lock = new Object();
+    private final Map<ShellKey, Deque<IdleShell>> idleShells = new LinkedHashMap<>();
+    private final Map<ShellCommand, ShellKey> leasedShells = new IdentityHashMap<>();
+    private int liveShells;
+    private boolean closed;
+
+    public ShellPool(WinRmClient client) {
+        this(client, DEFAULT_MAX_SHELLS, DEFAULT_IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param maxShells maximum number of shells (in use or idle) kept open on the server
+     * @param idleTimeout how long a shell is kept in the pool without being used
+     */
+    public ShellPool(WinRmClient client, int maxShells, long idleTimeout, TimeUnit unit) {
+        if (maxShells < 1) {
+            throw new IllegalArgumentException("maxShells should be at least 1");
+        }
+        this.client = WinRmClient.checkNotNull(client, "client");
+        this.maxShells = maxShells;
+        this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+        try {
+            this.serverIdleTimeOut = DatatypeFactory.newInstance().newDuration(idleTimeoutMillis + SERVER_IDLE_TIMEOUT_MARGIN);
+        } catch (DatatypeConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Runs the action on a shell with the client's working directory and environment.
+     *
+     * @see #withShell(String, Map, Function)
+     */
+    public <T> T withShell(Function<ShellCommand, T> action) {
+        return withShell(client.getWorkingDirectory(), client.getEnvironment(), action);
+    }
+
+    /**
+     * Leases a shell for the given working directory and environment, runs the action with it,
+     * and returns the shell to the pool. The action must not close the shell.
+     *
+     * If the action fails because the shell is no longer known by the server, and the
+     * action had not started any command yet, it is repeated once with a new shell.
+     */
+    public <T> T withShell(String workingDirectory, Map<String, String> environment, Function<ShellCommand, T> action) {
+        ShellKey key = new ShellKey(workingDirectory, environment);
+        boolean retried = false;
+        while (true) {
+            ShellCommand shell = lease(key);
+            int commandsStarted = shell.getCommandsStarted();
+            boolean healthy = false;
+            try {
+                T result = action.apply(shell);
+                healthy = true;
+                return result;
+            } catch (SOAPFaultException e) {
+                if (!ShellCommand.WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND.equals(ShellCommand.getFaultCode(e))) {
+                    healthy = true;
+                    throw e;
+                }
+                if (retried || shell.getCommandsStarted() != commandsStarted) {
+                    throw e;
+                }
+                LOG.debug("Pooled shell {} no longer exists on the server; retrying on a new shell", shell);
+                retried = true;
+            } finally {
+                release(shell, healthy);
+            }
+        }
+    }
+
+    /**
+     * Closes the shells which have been idle for longer than the idle timeout.
+     * This is also done on each lease, so calling it is only needed to release
+     * server resources sooner when the pool is not being used.
+     *
+     * @return the number of shells closed
+     */
+    public int evictIdle() {
+        List<ShellCommand> toClose;
+        synchronized (lock) {
+            toClose = removeExpired(System.currentTimeMillis());
+        }
+        closeAll(toClose);
+        return toClose.size();
+    }
+
+    public int getIdleCount() {
+        synchronized (lock) {
+            int result = 0;
+            for (Deque<IdleShell> shells : idleShells.values()) {
+                result += shells.size();
+            }
+            return result;
+        }
+    }
+
+    public int getLeasedCount() {
+        synchronized (lock) {
+            return leasedShells.size();
+        }
+    }
+
+    /**
+     * Closes the idle shells. Leased shells are closed when their action completes.
+     */
+    @Override
+    public void close() {
+        List<ShellCommand> toClose = new ArrayList<>();
+        synchronized (lock) {
+            closed = true;
+            for (Deque<IdleShell> shells : idleShells.values()) {
+                for (IdleShell idle : shells) {
+                    toClose.add(idle.shell);
+                }
+            }
+            liveShells -= toClose.size();
+            idleShells.clear();
+            lock.notifyAll();
+        }
+        closeAll(toClose);
+    }
+
+    private ShellCommand lease(ShellKey key) {
+        List<ShellCommand> toClose = Collections.emptyList();
+        try {
+            synchronized (lock) {
+                while (true) {
+                    if (closed) {
+                        throw new IllegalStateException("Shell pool for " + client + " has been closed");
+                    }
+                    toClose = removeExpired(System.currentTimeMillis());
+
+                    Deque<IdleShell> shells = idleShells.get(key);
+                    if (shells != null && !shells.isEmpty()) {
+                        // Most recently used first, so that surplus shells expire
+                        ShellCommand shell = shells.pollFirst().shell;
+                        leasedShells.put(shell, key);
+                        return shell;
+                    }
+                    if (liveShells < maxShells) {
+                        liveShells++;
+                        break;
+                    }
+                    ShellCommand evicted = removeLeastRecentlyUsed();
+                    if (evicted != null) {
+                        // Make room by replacing a shell idle for another key
+                        toClose = new ArrayList<>(toClose);
+                        toClose.add(evicted);
+                        break;
+                    }
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted waiting for a shell of " + client, e);
+                    }
+                }
+            }
+        } finally {
+            closeAll(toClose);
+        }
+
+        // Slot reserved: create the shell outside of the lock
+        ShellCommand shell;
+        try {
+            shell = client.createShell(key.workingDirectory, key.environment, serverIdleTimeOut);
+        } catch (RuntimeException | Error e) {
+            synchronized (lock) {
+                liveShells--;
+                lock.notifyAll();
+            }
+            throw e;
+        }
+        synchronized (lock) {
+            leasedShells.put(shell, key);
+        }
+        return shell;
+    }
+
+    private void release(ShellCommand shell, boolean healthy) {
+        boolean discard;
+        synchronized (lock) {
+            ShellKey key = leasedShells.remove(shell);
+            discard = !healthy || closed || key == null;
+            if (discard) {
+                liveShells--;
+            } else {
+                idleShells.computeIfAbsent(key, k -> new ArrayDeque<>()).addFirst(new IdleShell(shell, System.currentTimeMillis()));
+            }
+            lock.notifyAll();
+        }
+        if (discard) {
+            closeAll(Collections.singletonList(shell));
+        }
+    }
+
+    // Requires lock
+    private List<ShellCommand> removeExpired(long now) {
+        List<ShellCommand> result = null;
+        for (Iterator<Deque<IdleShell>> it = idleShells.values().iterator(); it.hasNext();) {
+            Deque<IdleShell> shells = it.next();
+            // Oldest are at the end
+            while (!shells.isEmpty() && now - shells.peekLast().lastUsed >= idleTimeoutMillis) {
+                if (result == null) result = new ArrayList<>();
+                result.add(shells.pollLast().shell);
+            }
+            if (shells.isEmpty()) {
+                it.remove();
+            }
+        }
+        if (result == null) {
+            return Collections.emptyList();
+        }
+        liveShells -= result.size();
+        lock.notifyAll();
+        return result;
+    }
+
+    // Requires lock; the returned shell still counts as live, its slot being handed over to the caller
+    private ShellCommand removeLeastRecentlyUsed() {
+        Deque<IdleShell> oldestShells = null;
+        for (Deque<IdleShell> shells : idleShells.values()) {
+            if (!shells.isEmpty() && (oldestShells == null || shells.peekLast().lastUsed < oldestShells.peekLast().lastUsed)) {
+                oldestShells = shells;
+            }
+        }
+        if (oldestShells == null) {
+            return null;
+        }
+        ShellCommand result = oldestShells.pollLast().shell;
+        idleShells.values().removeIf(Deque::isEmpty);
+        return result;
+    }
+
+    private void closeAll(List<ShellCommand> shells) {
+        for (ShellCommand shell : shells) {
+            try {
+                shell.close();
+            } catch (RuntimeException e) {
+                LOG.debug("Failed to close pooled shell " + shell + " (continuing)", e);
+            }
+        }
+    }
+
+    private static class IdleShell {
+        final ShellCommand shell;
+        final long lastUsed;
+
+        IdleShell(ShellCommand shell, long lastUsed) {
+            this.shell = shell;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private static class ShellKey {
+        final String workingDirectory;
+        final Map<String, String> environment;
+
+        ShellKey(String workingDirectory, Map<String, String> environment) {
+            this.workingDirectory = workingDirectory;
+            this.environment = environment == null || environment.isEmpty()
+                    ? null
+                    : Collections.unmodifiableMap(new HashMap<>(environment));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ShellKey)) return false;
+            ShellKey other = (ShellKey) obj;
+            return Objects.equals(workingDirectory, other.workingDirectory) && Objects.equals(environment, other.environment);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(workingDirectory, environment);
+        }
+    }
+}
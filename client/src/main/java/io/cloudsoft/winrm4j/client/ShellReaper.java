@@ -0,0 +1,101 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the Signal and Delete requests releasing commands and shells in the background, so that the
+ * commands return as soon as their output is received rather than once the server has released them.
+ *
+ * The requests are invoked asynchronously, retried on connection failures as any other request (see
+ * {@link WinRmClientBuilder#failureRetryPolicy(RetryPolicy)}); those failing are logged and dropped,
+ * the server releasing the commands and shells it is left with once they time out. Commands or shells
+ * the server no longer has are released already. The requests still pending when the client is closed
+ * are waited for with {@link #drain(long, TimeUnit)}.
+ */
+class ShellReaper {
+    private static final Logger LOG = LoggerFactory.getLogger(ShellReaper.class.getName());
+
+    private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @param description what the request releases, for the logs
+     * @param request sends the request
+     */
+    void submit(String description, Supplier<CompletableFuture<?>> request) {
+        CompletableFuture<?> future;
+        try {
+            future = request.get();
+        } catch (RuntimeException e) {
+            onFailure(description, e);
+            return;
+        }
+        // added before its completion can remove it
+        pending.add(future);
+        future.whenComplete((ignored, failure) -> {
+            pending.remove(future);
+            if (failure != null && !ShellCommand.isFaultCode(failure, ShellCommand.WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND)) {
+                onFailure(description, failure);
+            } else {
+                completed.incrementAndGet();
+            }
+        });
+    }
+
+    private void onFailure(String description, Throwable failure) {
+        failed.incrementAndGet();
+        LOG.warn("Failed to release {} in the background, leaving it for the server to time out: {}", description, failure.toString());
+        LOG.debug("Failure releasing " + description, failure);
+    }
+
+    /**
+     * Waits for the requests pending, e.g. before closing the client.
+     *
+     * @return whether they all completed in time
+     */
+    boolean drain(long timeout, TimeUnit unit) {
+        CompletableFuture<?>[] requests = pending.toArray(new CompletableFuture<?>[0]);
+        if (requests.length == 0) {
+            return true;
+        }
+        LOG.debug("Waiting for {} background release requests", requests.length);
+        try {
+            CompletableFuture.allOf(requests).get(timeout, unit);
+        } catch (ExecutionException e) {
+            // reported by each request
+        } catch (TimeoutException e) {
+            LOG.warn(pending.size() + " background release requests still pending after " + timeout + " " + unit);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /** @return the requests sent and not completed yet */
+    int getBacklog() {
+        return pending.size();
+    }
+
+    /** @return the requests which completed, including those for commands or shells the server no longer had */
+    long getCompleted() {
+        return completed.get();
+    }
+
+    /** @return the requests which failed, after their retries */
+    long getFailed() {
+        return failed.get();
+    }
+}
@@ -0,0 +1,86 @@
+package io.cloudsoft.winrm4j.client;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+/**
+ * Passes through the events of a reader, except for the elements {@link #skip()} consumes, which
+ * the readers above it never see.
+ */
+abstract class SkippingStreamReader extends StreamReaderDelegate {
+
+    /** The number of elements the reader is in, counting the current start element */
+    private int depth;
+
+    SkippingStreamReader(XMLStreamReader reader) {
+        super(reader);
+        depth = reader.getEventType() == XMLStreamConstants.START_ELEMENT ? 1 : 0;
+    }
+
+    /**
+     * Called on each start element, to consume it if it is to be skipped. Reads from
+     * {@link #getParent()}, as the events read here are not to be filtered.
+     *
+     * @return whether the element was consumed, leaving the reader on its end element
+     */
+    protected abstract boolean skip() throws XMLStreamException;
+
+    /**
+     * @return the depth of the current element, 1 for the root element
+     */
+    protected int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Reads through the current element, leaving the reader on its end element.
+     */
+    protected void skipElement() throws XMLStreamException {
+        for (int nested = 1; nested > 0; ) {
+            int event = getParent().next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                nested++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                nested--;
+            } else if (event == XMLStreamConstants.END_DOCUMENT) {
+                throw new XMLStreamException("Unexpected end of document", getLocation());
+            }
+        }
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        int event = super.next();
+        while (event == XMLStreamConstants.START_ELEMENT) {
+            depth++;
+            if (!skip()) {
+                return event;
+            }
+            depth--;
+            event = super.next();
+        }
+        if (event == XMLStreamConstants.END_ELEMENT) {
+            depth--;
+        }
+        return event;
+    }
+
+    @Override
+    public int nextTag() throws XMLStreamException {
+        // as XMLStreamReader#nextTag, but through next() so that the elements are skipped
+        int event = next();
+        while ((event == XMLStreamConstants.CHARACTERS && isWhiteSpace())
+                || (event == XMLStreamConstants.CDATA && isWhiteSpace())
+                || event == XMLStreamConstants.SPACE
+                || event == XMLStreamConstants.PROCESSING_INSTRUCTION
+                || event == XMLStreamConstants.COMMENT) {
+            event = next();
+        }
+        if (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+            throw new XMLStreamException("expected start or end tag", getLocation());
+        }
+        return event;
+    }
+}
@@ -0,0 +1,179 @@
+package io.cloudsoft.winrm4j.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives the stdout and stderr chunks of a command as they are read from the Receive responses.
+ */
+abstract class StreamSink {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamSink.class.getName());
+
+    /** Code page of cmd.exe in en-US installs, requested for shells unless configured otherwise. */
+    static final int DEFAULT_CODE_PAGE = 437;
+    static final int UTF8_CODE_PAGE = 65001;
+
+    /** Size of the chunks output is written in when it is decoded from the responses as they are read */
+    static final int CHUNK_SIZE = 8192;
+
+    /**
+     * @param stream the name of the stream, "stdout" or "stderr"
+     * @param end whether this is the last chunk of the stream
+     */
+    void write(String stream, byte[] value, boolean end) {
+        write(stream, value, 0, value.length, end);
+    }
+
+    /**
+     * As {@link #write(String, byte[], boolean)}, with the {@code length} bytes of {@code value} from
+     * {@code offset}. The array can be re-used once this returns.
+     */
+    abstract void write(String stream, byte[] value, int offset, int length, boolean end);
+
+    /**
+     * Passes the bytes through as is. Either stream can be {@code null} to discard its output.
+     */
+    static StreamSink toStreams(OutputStream out, OutputStream err) {
+        return new StreamSink() {
+            @Override
+            void write(String stream, byte[] value, int offset, int length, boolean end) {
+                OutputStream target = "stdout".equals(stream) ? out : "stderr".equals(stream) ? err : null;
+                if (target == null) return;
+                try {
+                    if (length > 0) {
+                        target.write(value, offset, length);
+                        target.flush();
+                    }
+                    if (end) {
+                        target.close();
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Decodes the bytes with the given charset. A character split across two chunks is written
+     * once its last byte is received. Either writer can be {@code null} to discard its output.
+     */
+    static StreamSink toWriters(Writer out, Writer err, Charset charset) {
+        DecodingTarget decodedOut = out != null ? new DecodingTarget(out, charset) : null;
+        DecodingTarget decodedErr = err != null ? new DecodingTarget(err, charset) : null;
+        return new StreamSink() {
+            @Override
+            void write(String stream, byte[] value, int offset, int length, boolean end) {
+                DecodingTarget target = "stdout".equals(stream) ? decodedOut : "stderr".equals(stream) ? decodedErr : null;
+                if (target == null) return;
+                try {
+                    target.write(value, offset, length, end);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the charset of the given Windows code page, or the platform default if it has no equivalent in this JVM
+     */
+    static Charset toCharset(int codePage) {
+        if (codePage == UTF8_CODE_PAGE) {
+            return StandardCharsets.UTF_8;
+        }
+        for (String name : new String[] {"cp" + codePage, "windows-" + codePage, "x-windows-" + codePage, "IBM" + codePage}) {
+            try {
+                return Charset.forName(name);
+            } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                // try the next alias
+            }
+        }
+        LOG.warn("No charset found for code page " + codePage + "; decoding output with " + Charset.defaultCharset());
+        return Charset.defaultCharset();
+    }
+
+    private static class DecodingTarget {
+        private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+        private final Writer writer;
+        private final CharsetDecoder decoder;
+        private final CharBuffer chars = CharBuffer.allocate(8192);
+        /** Trailing bytes of the previous chunk which are not a complete character yet */
+        private ByteBuffer pending = EMPTY;
+
+        DecodingTarget(Writer writer, Charset charset) {
+            this.writer = writer;
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        void write(byte[] value, int offset, int length, boolean end) throws IOException {
+            if (length > 0 || end) {
+                ByteBuffer in;
+                if (pending.hasRemaining()) {
+                    in = ByteBuffer.allocate(pending.remaining() + length);
+                    in.put(pending).put(value, offset, length).flip();
+                } else {
+                    in = ByteBuffer.wrap(value, offset, length);
+                }
+                boolean written = decode(in, end);
+                // the array of the caller can be re-used, so keep a copy of what is left of it
+                pending = !in.hasRemaining() ? EMPTY : in.array() == value ? copy(in) : in;
+                if (written) {
+                    writer.flush();
+                }
+            }
+            if (end) {
+                writer.close();
+            }
+        }
+
+        private static ByteBuffer copy(ByteBuffer in) {
+            ByteBuffer result = ByteBuffer.allocate(in.remaining());
+            result.put(in).flip();
+            return result;
+        }
+
+        private boolean decode(ByteBuffer in, boolean endOfInput) throws IOException {
+            boolean written = false;
+            while (true) {
+                CoderResult result = decoder.decode(in, chars, endOfInput);
+                written |= drain();
+                if (!result.isOverflow()) break;
+            }
+            if (endOfInput) {
+                while (decoder.flush(chars).isOverflow()) {
+                    written |= drain();
+                }
+                written |= drain();
+                decoder.reset();
+            }
+            return written;
+        }
+
+        private boolean drain() throws IOException {
+            chars.flip();
+            boolean written = chars.hasRemaining();
+            if (written) {
+                writer.write(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+            }
+            chars.clear();
+            return written;
+        }
+    }
+}
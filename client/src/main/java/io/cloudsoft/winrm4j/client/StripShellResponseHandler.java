@@ -12,6 +12,11 @@ import javax.xml.ws.handler.MessageContext;
 import javax.xml.ws.handler.soap.SOAPHandler;
 import javax.xml.ws.handler.soap.SOAPMessageContext;
 
+/**
+ * @deprecated since 0.13.0. Use {@link StripShellResponseInterceptor}, which the client installs;
+ * a JAX-WS handler makes CXF build a SAAJ tree of every response.
+ */
+@Deprecated
 public class StripShellResponseHandler implements SOAPHandler<SOAPMessageContext> {
 
     @Override
@@ -0,0 +1,55 @@
+package io.cloudsoft.winrm4j.client;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.cxf.interceptor.StaxInInterceptor;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.cxf.service.model.BindingOperationInfo;
+
+/**
+ * Removes the {@code Shell} element the server adds next to {@code ResourceCreated} in the body of
+ * Create responses, which the bare binding of the operation would otherwise reject.
+ *
+ * The element is skipped as the response is read, so unlike {@link StripShellResponseHandler} no
+ * SAAJ tree is built, and the responses of other operations are not touched at all.
+ */
+public class StripShellResponseInterceptor extends AbstractPhaseInterceptor<Message> {
+
+    /** The depth of the children of the body, within the envelope and the body */
+    private static final int BODY_CHILD_DEPTH = 3;
+
+    public StripShellResponseInterceptor() {
+        super(Phase.POST_STREAM);
+        addAfter(StaxInInterceptor.class.getName());
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+        BindingOperationInfo operation = message.getExchange() != null ? message.getExchange().getBindingOperationInfo() : null;
+        if (operation == null || !"Create".equals(operation.getName().getLocalPart())) {
+            return;
+        }
+        XMLStreamReader reader = message.getContent(XMLStreamReader.class);
+        if (reader != null) {
+            message.setContent(XMLStreamReader.class, new ShellFilter(reader));
+        }
+    }
+
+    private static class ShellFilter extends SkippingStreamReader {
+        ShellFilter(XMLStreamReader reader) {
+            super(reader);
+        }
+
+        @Override
+        protected boolean skip() throws XMLStreamException {
+            if (getDepth() != BODY_CHILD_DEPTH || !"Shell".equals(getLocalName())) {
+                return false;
+            }
+            skipElement();
+            return true;
+        }
+    }
+}
@@ -1,12 +1,18 @@
 package io.cloudsoft.winrm4j.client;
 
 import io.cloudsoft.winrm4j.client.encryption.AsyncHttpEncryptionAwareConduitFactory;
+import io.cloudsoft.winrm4j.client.jfr.ShellEvent;
+import io.cloudsoft.winrm4j.client.jfr.WinRmEvents;
+import io.cloudsoft.winrm4j.client.retry.RetryBudget;
+import io.cloudsoft.winrm4j.client.retry.RetryBudgetPolicy;
+import io.cloudsoft.winrm4j.client.retry.RetryPolicy;
 import io.cloudsoft.winrm4j.client.ntlm.NTCredentialsWithEncryption;
 import io.cloudsoft.winrm4j.client.spnego.WsmanViaSpnegoSchemeFactory;
 import java.io.Writer;
 import java.lang.reflect.Proxy;
 import java.math.BigDecimal;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.security.PrivilegedAction;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
@@ -20,6 +26,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 
 import java.util.function.Supplier;
@@ -35,17 +43,15 @@ import javax.security.auth.login.AppConfigurationEntry.LoginModuleControlFlag;
 import javax.security.auth.login.Configuration;
 import javax.security.auth.login.LoginContext;
 import javax.security.auth.login.LoginException;
+import javax.xml.datatype.Duration;
 import javax.xml.ws.BindingProvider;
-import javax.xml.ws.handler.Handler;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.apache.cxf.Bus.BusState;
 import org.apache.cxf.configuration.jsse.TLSClientParameters;
 import org.apache.cxf.endpoint.Client;
 import org.apache.cxf.frontend.ClientProxy;
 import org.apache.cxf.interceptor.security.NamePasswordCallbackHandler;
+import org.apache.cxf.service.model.EndpointInfo;
 import org.apache.cxf.service.model.ServiceInfo;
 import org.apache.cxf.transport.http.HTTPConduitFactory;
 import org.apache.cxf.transport.http.asyncclient.AsyncHTTPConduit;
@@ -72,6 +78,7 @@ import org.ietf.jgss.Oid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 import io.cloudsoft.winrm4j.client.ntlm.NtlmMasqAsSpnegoSchemeFactory;
 import io.cloudsoft.winrm4j.client.shell.EnvironmentVariable;
@@ -84,17 +91,31 @@ import io.cloudsoft.winrm4j.client.wsman.OptionType;
 import sun.awt.image.ImageWatched.Link;
 
 /**
- * TODO confirm if commands can be called in parallel in one shell (probably not)!
+ * Creates the shells commands are run in. A shell can run several commands at a time, see
+ * {@link WinRmClientBuilder#maxConcurrentCommands(int)}.
  */
 public class WinRmClient implements AutoCloseable {
 
 
     static final int MAX_ENVELOPER_SIZE = 153600;
     static final String RESOURCE_URI = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell/cmd";
+    /** How many times a Create is sent while failing on the quotas of the server, with an adaptive concurrency limit */
+    static final int MAX_CREATE_ATTEMPTS_ON_QUOTA_FAULT = 4;
 
     private final String workingDirectory;
     private final Locale locale;
     private final Map<String, String> environment;
+    private final int codePage;
+    private final Charset charset;
+    private final int receivePipelineDepth;
+    private final int maxConcurrentCommands;
+    /** Releases the commands and shells in the background, {@code null} if not enabled */
+    private final ShellReaper reaper;
+    /** How long closing waits for the requests of the reaper, in milliseconds */
+    private final long reaperTimeout;
+    private final WinRmMetrics metrics;
+    /** Bounds the shell creations and commands run at a time on the host, {@code null} if not enabled */
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
     private final PayloadEncryptionMode payloadEncryptionMode;
     private final WinRm service;
     private AsyncHttpEncryptionAwareConduitFactory factoryToCleanup;
@@ -108,6 +129,9 @@ public class WinRmClient implements AutoCloseable {
 
     private final WinRm winrm;
     private final RetryingProxyHandler retryingHandler;
+    private final ReceiveStreamInInterceptor receiveStreams;
+    /** The address the request templates are rendered with, {@code null} if they are not enabled */
+    private final String templatesEndpoint;
 
     private ShellCommand shellCommand;
 
@@ -208,6 +232,12 @@ public class WinRmClient implements AutoCloseable {
         this.operationTimeout = toDuration(builder.operationTimeout);
         this.retryReceiveAfterOperationTimeout = builder.retryReceiveAfterOperationTimeout;
         this.environment = builder.environment;
+        this.codePage = builder.codePage;
+        this.charset = StreamSink.toCharset(builder.codePage);
+        this.receivePipelineDepth = builder.receivePipelineDepth;
+        this.maxConcurrentCommands = builder.maxConcurrentCommands;
+        this.reaper = builder.backgroundCleanup ? new ShellReaper() : null;
+        this.reaperTimeout = operationToReceiveTimeout(builder.operationTimeout);
 
         if (builder.context != null) {
             this.context = builder.context;
@@ -216,9 +246,33 @@ public class WinRmClient implements AutoCloseable {
             this.context = WinRmClientContext.newInstance();
             this.cleanupContext = true;
         }
+        this.metrics = builder.metrics != null ? builder.metrics : context.getMetrics();
+        this.concurrencyLimiter = context.getConcurrencyLimiter(builder.endpoint);
 
         service = getService(builder);
-        retryingHandler = new RetryingProxyHandler(service, builder.failureRetryPolicy);
+        if (builder.streamingReceive) {
+            receiveStreams = new ReceiveStreamInInterceptor();
+            ClientProxy.getClient(service).getInInterceptors().add(receiveStreams);
+        } else {
+            receiveStreams = null;
+        }
+        if (builder.envelopeTemplates) {
+            templatesEndpoint = builder.endpoint.toExternalForm();
+            ClientProxy.getClient(service).getOutInterceptors().add(new EnvelopeTemplateOutInterceptor());
+        } else {
+            templatesEndpoint = null;
+        }
+        if (metrics != WinRmMetrics.NONE) {
+            ClientProxy.getClient(service).getOutInterceptors().add(new MetricsOutInterceptor(metrics));
+            ClientProxy.getClient(service).getInInterceptors().add(new MetricsInInterceptor(metrics));
+        }
+        RetryPolicy failureRetryPolicy = builder.failureRetryPolicy;
+        RetryBudget retryBudget = context.getRetryBudget(builder.endpoint);
+        if (retryBudget != null) {
+            failureRetryPolicy = new RetryBudgetPolicy(failureRetryPolicy, retryBudget);
+        }
+        retryingHandler = new RetryingProxyHandler(service, ClientProxy.getClient(service), failureRetryPolicy, metrics,
+                context.getCircuitBreaker(builder.endpoint));
         this.winrm = (WinRm) Proxy.newProxyInstance(WinRm.class.getClassLoader(),
                 new Class[] {WinRm.class, BindingProvider.class},
                 retryingHandler);
@@ -241,8 +295,8 @@ public class WinRmClient implements AutoCloseable {
     }
 
     private WinRm getService(WinRmClientBuilder builder) {
-        WinRm service = WinRmFactory.newInstance(context.getBus(), builder);
-        initializeClientAndService(service, builder);
+        WinRm service = WinRmFactory.newInstance(context, builder);
+        initializeClientAndService(service, builder, metrics);
         return service;
     }
 
@@ -264,7 +318,7 @@ public class WinRmClient implements AutoCloseable {
         }
     }
 
-    private static void initializeClientAndService(WinRm winrm, WinRmClientBuilder builder) {
+    private static void initializeClientAndService(WinRm winrm, WinRmClientBuilder builder, WinRmMetrics metrics) {
         String endpoint = builder.endpoint.toExternalForm();
         String authenticationScheme = builder.authenticationScheme;
         String username = builder.username;
@@ -286,11 +340,7 @@ public class WinRmClient implements AutoCloseable {
 
         Client client = ClientProxy.getClient(winrm);
 
-        if (builder.endpointConduitFactory!=null) {
-            // this is different to endpoint properties
-            client.getEndpoint().getEndpointInfo().setProperty(
-                    HTTPConduitFactory.class.getName(), builder.endpointConduitFactory);
-        }
+        HTTPConduitFactory conduitFactory = builder.endpointConduitFactory;
 
         ServiceInfo si = client.getEndpoint().getEndpointInfo().getService();
         // when client.command is executed if doclit.bare is not set then this exception occurs:
@@ -299,11 +349,10 @@ public class WinRmClient implements AutoCloseable {
         si.setProperty("soap.force.doclit.bare", true);
 //        si.setProperty("soap.no.validate.parts", true);
 
+        // rather than a JAX-WS handler, which would have every response parsed into a SAAJ tree
+        client.getInInterceptors().add(new StripShellResponseInterceptor());
+
         BindingProvider bp = (BindingProvider)winrm;
-        
-        @SuppressWarnings("rawtypes")
-        List<Handler> handlerChain = Arrays.<Handler>asList(new StripShellResponseHandler());
-        bp.getBinding().setHandlerChain(handlerChain);
 
         Policy policy = new Policy();
         policy.addAssertion(new PrimitiveAssertion(MetadataConstants.USING_ADDRESSING_2004_QNAME));
@@ -312,7 +361,8 @@ public class WinRmClient implements AutoCloseable {
         bp.getRequestContext().put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, endpoint);
         boolean nonBasicHttpConfigNeeded = false;
 
-        Supplier<Credentials> creds = () -> new NTCredentialsWithEncryption(username, password, null, domain);
+        int maxEncryptedConnections = builder.maxEncryptedConnections;
+        Supplier<Credentials> creds = () -> new NTCredentialsWithEncryption(username, password, null, domain, maxEncryptedConnections);
 
         Map<String,AuthSchemeProvider> authSchemeRegistry = null;
         Set<String> authSchemes = null;
@@ -375,7 +425,16 @@ public class WinRmClient implements AutoCloseable {
         if (authSchemeRegistry!=null) {
             if (authSchemes==null) authSchemes = authSchemeRegistry.keySet();
             RegistryBuilder<AuthSchemeProvider> rb = RegistryBuilder.<AuthSchemeProvider>create();
-            authSchemeRegistry.forEach(rb::register);
+            if (metrics != WinRmMetrics.NONE || WinRmEvents.ENABLED) {
+                // counting the handshakes, as the client creates a scheme for each one
+                authSchemeRegistry.forEach((name, provider) -> rb.register(name, httpContext -> {
+                    metrics.onAuthentication(name);
+                    FlightRecorderEvents.commitAuthentication(name, endpoint);
+                    return provider.create(httpContext);
+                }));
+            } else {
+                authSchemeRegistry.forEach(rb::register);
+            }
             bp.getRequestContext().put(AuthSchemeProvider.class.getName(), rb.build());
         }
 
@@ -388,7 +447,20 @@ public class WinRmClient implements AutoCloseable {
             }
         }
 
-        AsyncHTTPConduit httpClient = (AsyncHTTPConduit) client.getConduit();
+        AsyncHTTPConduit httpClient;
+        EndpointInfo endpointInfo = client.getEndpoint().getEndpointInfo();
+        // The endpoint is shared by the clients of a context, so the conduit factory is only set while creating our conduit
+        synchronized (endpointInfo) {
+            if (conduitFactory!=null) {
+                // this is different to endpoint properties
+                endpointInfo.setProperty(HTTPConduitFactory.class.getName(), conduitFactory);
+            }
+            try {
+                httpClient = (AsyncHTTPConduit) client.getConduit();
+            } finally {
+                endpointInfo.removeProperty(HTTPConduitFactory.class.getName());
+            }
+        }
         bp.getRequestContext().put("http.autoredirect", true);
 
         if (nonBasicHttpConfigNeeded) {
@@ -508,6 +580,142 @@ public class WinRmClient implements AutoCloseable {
      * {@link ShellCommand#close()} the returned object after usage.
      */
     public ShellCommand createShell() {
+        return createShell(workingDirectory, environment);
+    }
+
+    /**
+     * As {@link #createShell()}, but with the given working directory and environment
+     * instead of the ones configured on the builder.
+     */
+    public ShellCommand createShell(String workingDirectory, Map<String, String> environment) {
+        return createShell(workingDirectory, environment, null);
+    }
+
+    /**
+     * @param idleTimeOut how long the server keeps the shell once no operation is running in it,
+     *        or {@code null} for the server's default
+     */
+    ShellCommand createShell(String workingDirectory, Map<String, String> environment, Duration idleTimeOut) {
+        final Shell shell = newShell(workingDirectory, environment, idleTimeOut);
+        final OptionSetType optSetCreate = newCreateOptions();
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return createShell(shell, optSetCreate);
+            } catch (RuntimeException e) {
+                if (!isCreateRetriedOnQuotaFault(e, attempt)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private ShellCommand createShell(Shell shell, OptionSetType optSetCreate) {
+        AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter != null ? concurrencyLimiter.acquire() : null;
+        ShellEvent event = FlightRecorderEvents.beginShell("Create");
+        long startNanos = System.nanoTime();
+        ResourceCreated resourceCreated = null;
+        try {
+            resourceCreated = winrm.create(shell, RESOURCE_URI, MAX_ENVELOPER_SIZE, operationTimeout, locale, optSetCreate);
+        } catch (RuntimeException e) {
+            if (permit != null) {
+                permit.release(e);
+            }
+            FlightRecorderEvents.commitShell(event, retryingHandler.getEndpoint(), null, e);
+            RetryingProxyHandler.checkForRootErrorAuthorizationLoopAndPropagateAnnotated(e);
+            throw e;
+        }
+        if (permit != null) {
+            permit.recordLatency(System.nanoTime() - startNanos);
+            permit.release(null);
+        }
+        String shellId = getShellId(resourceCreated);
+        FlightRecorderEvents.commitShell(event, retryingHandler.getEndpoint(), shellId, null);
+        return newShellCommand(shellId);
+    }
+
+    /**
+     * A Create failing on the quotas of the server created nothing, so it is sent again once a permit is
+     * granted under the limit the fault lowered. Commands and Receives are not: they may have been run
+     * or have consumed output on the server.
+     */
+    private boolean isCreateRetriedOnQuotaFault(Throwable e, int attempt) {
+        if (concurrencyLimiter == null || attempt >= MAX_CREATE_ATTEMPTS_ON_QUOTA_FAULT || !AdaptiveConcurrencyLimiter.isQuotaFault(e)) {
+            return false;
+        }
+        LOG.debug("Create failed on the quotas of {} (attempt {}), retrying under {}", new Object[] {retryingHandler.getEndpoint(), attempt, concurrencyLimiter});
+        return true;
+    }
+
+    /**
+     * As {@link #createShell()}, but without blocking the calling thread. The returned shell supports
+     * {@link ShellCommand#executeAsync(String, Writer, Writer)} and {@link ShellCommand#closeAsync()}.
+     */
+    public CompletableFuture<ShellCommand> createShellAsync() {
+        return createShellAsync(workingDirectory, environment);
+    }
+
+    /**
+     * As {@link #createShellAsync()}, but with the given working directory and environment
+     * instead of the ones configured on the builder.
+     */
+    public CompletableFuture<ShellCommand> createShellAsync(String workingDirectory, Map<String, String> environment) {
+        final Shell shell = newShell(workingDirectory, environment, null);
+        final OptionSetType optSetCreate = newCreateOptions();
+
+        ShellEvent event = FlightRecorderEvents.beginShell("Create");
+        CompletableFuture<ResourceCreated> created = concurrencyLimiter == null
+                ? createAsync(shell, optSetCreate)
+                : createLimitedAsync(shell, optSetCreate, 1);
+        CompletableFuture<ShellCommand> result = created.thenApply(resourceCreated -> newShellCommand(getShellId(resourceCreated)));
+        if (event == null) {
+            return result;
+        }
+        return result.whenComplete((command, e) ->
+                FlightRecorderEvents.commitShell(event, retryingHandler.getEndpoint(), command != null ? command.getShellId() : null, e));
+    }
+
+    private CompletableFuture<ResourceCreated> createLimitedAsync(Shell shell, OptionSetType optSetCreate, int attempt) {
+        return concurrencyLimiter.acquireAsync().thenCompose(permit -> {
+            long startNanos = System.nanoTime();
+            CompletableFuture<ResourceCreated> result = new CompletableFuture<>();
+            createAsync(shell, optSetCreate).whenComplete((resourceCreated, e) -> {
+                if (e == null) {
+                    permit.recordLatency(System.nanoTime() - startNanos);
+                }
+                permit.release(e);
+                if (e == null) {
+                    result.complete(resourceCreated);
+                } else if (isCreateRetriedOnQuotaFault(e, attempt)) {
+                    createLimitedAsync(shell, optSetCreate, attempt + 1).whenComplete((retried, retryFailure) -> {
+                        if (retryFailure != null) {
+                            result.completeExceptionally(retryFailure);
+                        } else {
+                            result.complete(retried);
+                        }
+                    });
+                } else {
+                    result.completeExceptionally(e);
+                }
+            });
+            return result;
+        });
+    }
+
+    private CompletableFuture<ResourceCreated> createAsync(Shell shell, OptionSetType optSetCreate) {
+        return retryingHandler.invokeAsync("Create", shell, RESOURCE_URI, MAX_ENVELOPER_SIZE, operationTimeout, locale, optSetCreate);
+    }
+
+    private ShellCommand newShellCommand(String shellId) {
+        EnvelopeTemplate.ShellEnvelopes envelopes = templatesEndpoint != null
+                ? new EnvelopeTemplate.ShellEnvelopes(templatesEndpoint, RESOURCE_URI, MAX_ENVELOPER_SIZE, operationTimeout, locale, shellId)
+                : null;
+        return new ShellCommand(winrm, retryingHandler, receiveStreams, envelopes, receivePipelineDepth,
+                new CommandLimiter(maxConcurrentCommands), concurrencyLimiter, reaper, shellId, operationTimeout,
+                retryReceiveAfterOperationTimeout, locale, charset);
+    }
+
+    private static Shell newShell(String workingDirectory, Map<String, String> environment, Duration idleTimeOut) {
         final Shell shell = new Shell();
         shell.getInputStreams().add("stdin");
         shell.getOutputStreams().add("stdout");
@@ -526,7 +734,13 @@ public class WinRmClient implements AutoCloseable {
             }
             shell.setEnvironment(env);
         }
+        if (idleTimeOut != null) {
+            shell.setIdleTimeOut(idleTimeOut);
+        }
+        return shell;
+    }
 
+    private OptionSetType newCreateOptions() {
         final OptionSetType optSetCreate = new OptionSetType();
         OptionType optNoProfile = new OptionType();
         optNoProfile.setName("WINRS_NOPROFILE");
@@ -534,30 +748,23 @@ public class WinRmClient implements AutoCloseable {
         optSetCreate.getOption().add(optNoProfile);
         OptionType optCodepage = new OptionType();
         optCodepage.setName("WINRS_CODEPAGE");
-        optCodepage.setValue("437");
+        optCodepage.setValue(Integer.toString(codePage));
         optSetCreate.getOption().add(optCodepage);
+        return optSetCreate;
+    }
 
-        ResourceCreated resourceCreated = null;
-        try {
-            resourceCreated = winrm.create(shell, RESOURCE_URI, MAX_ENVELOPER_SIZE, operationTimeout, locale, optSetCreate);
-        } catch (RuntimeException e) {
-            RetryingProxyHandler.checkForRootErrorAuthorizationLoopAndPropagateAnnotated(e);
-            throw e;
-        }
-        String shellId = getShellId(resourceCreated);
+    String getWorkingDirectory() {
+        return workingDirectory;
+    }
 
-        return new ShellCommand(winrm, shellId, operationTimeout, retryReceiveAfterOperationTimeout, locale);
+    Map<String, String> getEnvironment() {
+        return environment;
     }
 
-    private static String getShellId(ResourceCreated resourceCreated) {
-        XPath xpath = XPathFactory.newInstance().newXPath();
+    static String getShellId(ResourceCreated resourceCreated) {
+        // a walk of the few elements of the reference, where XPath would need a factory looked up per call
         for (Element el : resourceCreated.getAny()) {
-            String shellId;
-            try {
-                shellId = xpath.evaluate("//*[local-name()='Selector' and @Name='ShellId']", el);
-            } catch (XPathExpressionException e) {
-                throw new IllegalStateException(e);
-            }
+            String shellId = findShellId(el);
             if (shellId != null && !shellId.isEmpty()) {
                 return shellId;
             }
@@ -565,6 +772,21 @@ public class WinRmClient implements AutoCloseable {
         throw new IllegalStateException("Shell ID not fount in " + resourceCreated);
     }
 
+    private static String findShellId(Element el) {
+        if ("Selector".equals(el.getLocalName()) && "ShellId".equals(el.getAttribute("Name"))) {
+            return el.getTextContent();
+        }
+        for (Node child = el.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                String shellId = findShellId((Element) child);
+                if (shellId != null) {
+                    return shellId;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * @deprecated since 0.6.0. Use {@link ShellCommand#close()} instead.
      */
@@ -578,6 +800,7 @@ public class WinRmClient implements AutoCloseable {
             if (oldShellCmd != null) {
                 oldShellCmd.close();
             }
+            drainReaper();
         } finally {
             if (cleanupContext) {
                 context.getBus().shutdown(true);
@@ -585,8 +808,20 @@ public class WinRmClient implements AutoCloseable {
         }
     }
 
+    /**
+     * @return the Signal and Delete requests sent in the background with {@link WinRmClientBuilder#backgroundCleanup(boolean)}
+     *         which have not completed yet
+     */
+    public int getCleanupBacklog() {
+        return reaper != null ? reaper.getBacklog() : 0;
+    }
+
+    /**
+     * Waits for the commands and shells released in the background, then releases the resources of the client.
+     */
     @Override
     public void close() {
+        drainReaper();
         if (factoryToCleanup!=null && !factoryToCleanup.isShutdown()) {
             factoryToCleanup.shutdown();
             factoryToCleanup = null;
@@ -600,6 +835,12 @@ public class WinRmClient implements AutoCloseable {
         }
     }
 
+    private void drainReaper() {
+        if (reaper != null) {
+            reaper.drain(reaperTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
     private synchronized ShellCommand initInstanceShell() {
         if (shellCommand == null) {
             shellCommand = createShell();
@@ -1,6 +1,7 @@
 package io.cloudsoft.winrm4j.client;
 
 import io.cloudsoft.winrm4j.client.encryption.AsyncHttpEncryptionAwareConduitFactory;
+import io.cloudsoft.winrm4j.client.ntlm.NTCredentialsWithEncryption;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collection;
@@ -16,6 +17,7 @@ import org.apache.cxf.transport.http.HTTPConduitFactory;
 import org.apache.http.auth.AuthScheme;
 import org.apache.http.client.config.AuthSchemes;
 
+import io.cloudsoft.winrm4j.client.retry.ExponentialBackoffRetryPolicy;
 import io.cloudsoft.winrm4j.client.retry.RetryPolicy;
 import io.cloudsoft.winrm4j.client.retry.SimpleCounterRetryPolicy;
 import io.cloudsoft.winrm4j.client.wsman.Locale;
@@ -44,6 +46,31 @@ public class WinRmClientBuilder {
      */
     public static final long DEFAULT_PAUSE_BETWEEN_RETRIES = 5;
 
+    /**
+     * Duration in seconds the pause between 2 retries grows to at most with {@link #exponentialBackoffRetryPolicy(int)}.
+     */
+    public static final long DEFAULT_MAX_PAUSE_BETWEEN_RETRIES = 60;
+
+    /**
+     * Code page requested by default for the shells (the OEM code page of en-US installs).
+     */
+    public static final int DEFAULT_CODE_PAGE = StreamSink.DEFAULT_CODE_PAGE;
+
+    /**
+     * Number of authenticated connections used by default for concurrent requests with encrypted payloads.
+     */
+    public static final int DEFAULT_MAX_ENCRYPTED_CONNECTIONS = NTCredentialsWithEncryption.DEFAULT_MAX_CHANNELS;
+
+    /**
+     * Output chunks queued by default while the next Receive is sent: none, the output is written between requests.
+     */
+    public static final int DEFAULT_RECEIVE_PIPELINE_DEPTH = 0;
+
+    /**
+     * Commands run at a time by default in a shell: the MaxProcessesPerShell default of WinRM 2.0, the lowest of the WinRM versions.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_COMMANDS = 15;
+
     protected WinRmClientContext context;
     protected final URL endpoint;
     protected String authenticationScheme;
@@ -59,6 +86,14 @@ public class WinRmClientBuilder {
     protected Long receiveTimeout;
     protected RetryPolicy failureRetryPolicy;
     protected Map<String, String> environment;
+    protected int codePage;
+    protected int maxEncryptedConnections;
+    protected boolean streamingReceive;
+    protected boolean envelopeTemplates;
+    protected int receivePipelineDepth;
+    protected int maxConcurrentCommands;
+    protected boolean backgroundCleanup;
+    protected WinRmMetrics metrics;
 
     protected boolean disableCertificateChecks;
     protected boolean allowChunking;
@@ -85,6 +120,10 @@ public class WinRmClientBuilder {
         connectionRequestTimeout(DEFAULT_CONNECTION_REQUEST_TIMEOUT);
         receiveTimeout(DEFAULT_RECEIVE_TIMEOUT);
         retriesForConnectionFailures(DEFAULT_RETRIES_FOR_CONNECTION_FAILURES);
+        codePage(DEFAULT_CODE_PAGE);
+        maxEncryptedConnections(DEFAULT_MAX_ENCRYPTED_CONNECTIONS);
+        receivePipelineDepth(DEFAULT_RECEIVE_PIPELINE_DEPTH);
+        maxConcurrentCommands(DEFAULT_MAX_CONCURRENT_COMMANDS);
     }
 
     public WinRmClientBuilder authenticationScheme(String authenticationScheme) {
@@ -142,7 +181,8 @@ public class WinRmClientBuilder {
     }
 
     /**
-     * Timeout applied to requesting a connection from the connection manager.
+     * Timeout applied to requesting a connection from the connection manager, and to waiting for one of the
+     * {@link #maxEncryptedConnections(int)} when encrypting NTLM payloads.
      *
      * @param connectionRequestTimeout in milliseconds
      *                                 default value {@link WinRmClientBuilder#DEFAULT_CONNECTION_REQUEST_TIMEOUT}
@@ -206,6 +246,15 @@ public class WinRmClientBuilder {
         return new SimpleCounterRetryPolicy(maxRetries, DEFAULT_PAUSE_BETWEEN_RETRIES, TimeUnit.SECONDS);
     }
 
+    /**
+     * As {@link #simpleCounterRetryPolicy(int)}, but with a random pause of up to {@link #DEFAULT_PAUSE_BETWEEN_RETRIES}
+     * seconds after the first attempt, doubling after each one up to {@link #DEFAULT_MAX_PAUSE_BETWEEN_RETRIES},
+     * so that clients failing together do not retry together.
+     */
+    public static RetryPolicy exponentialBackoffRetryPolicy(int maxRetries) {
+        return new ExponentialBackoffRetryPolicy(maxRetries, DEFAULT_PAUSE_BETWEEN_RETRIES, DEFAULT_MAX_PAUSE_BETWEEN_RETRIES, TimeUnit.SECONDS);
+    }
+
     /**
      * @param disableCertificateChecks Skip trusted certificate and domain (CN) checks.
      *        Used when working with self-signed certificates. Use {@link #hostnameVerifier(HostnameVerifier)}
@@ -237,6 +286,19 @@ public class WinRmClientBuilder {
         return this;
     }
 
+    /**
+     * @param codePage the Windows code page of the shells (WINRS_CODEPAGE), which is also used to decode
+     *        the output written to {@link java.io.Writer}s, e.g. 65001 for UTF-8.
+     *        Default value {@link #DEFAULT_CODE_PAGE}.
+     */
+    public WinRmClientBuilder codePage(int codePage) {
+        if (codePage <= 0) {
+            throw new IllegalArgumentException("codePage should be positive");
+        }
+        this.codePage = codePage;
+        return this;
+    }
+
     /**
      * @param hostnameVerifier override the default HostnameVerifier allowing
      *        users to add custom validation logic. Used when the default rules for URL
@@ -308,6 +370,102 @@ public class WinRmClientBuilder {
         return payloadEncryptionMode!=null ? payloadEncryptionMode : PayloadEncryptionMode.OPTIONAL;
     }
 
+    /**
+     * @param maxEncryptedConnections how many requests with NTLM encrypted payloads can run at a time,
+     *        each over its own authenticated connection with its own sealing keys and sequence numbers;
+     *        further requests wait for one of them to complete, failing after the {@link #connectionRequestTimeout(long)}.
+     *        Default value {@link #DEFAULT_MAX_ENCRYPTED_CONNECTIONS}.
+     */
+    public WinRmClientBuilder maxEncryptedConnections(int maxEncryptedConnections) {
+        if (maxEncryptedConnections < 1) {
+            throw new IllegalArgumentException("maxEncryptedConnections should be at least 1");
+        }
+        this.maxEncryptedConnections = maxEncryptedConnections;
+        return this;
+    }
+
+    /**
+     * @param streamingReceive write the output of commands to their writers or streams as each Receive
+     *        response is read, decoding it in fixed size chunks, rather than once the whole response has
+     *        been unmarshalled with each output chunk decoded into an array. Allocation per response then
+     *        no longer grows with the output size. As the output is written while the response is read,
+     *        a response failing part way may have written part of its output.
+     *        Default value {@code false}.
+     */
+    public WinRmClientBuilder streamingReceive(boolean streamingReceive) {
+        this.streamingReceive = streamingReceive;
+        return this;
+    }
+
+    /**
+     * @param envelopeTemplates write the Receive, Signal and Delete requests of each shell from envelopes
+     *        rendered once per shell and command, changing only the message ID of each request, rather than
+     *        having every request marshalled. They are invoked straight through the CXF client, rather than
+     *        through the JAX-WS proxies. Suited to long running commands polled with many Receive requests.
+     *        Out interceptors added to the client for these requests are skipped, past the stream set up in
+     *        the pre-stream phase. Default value {@code false}.
+     */
+    public WinRmClientBuilder envelopeTemplates(boolean envelopeTemplates) {
+        this.envelopeTemplates = envelopeTemplates;
+        return this;
+    }
+
+    /**
+     * @param receivePipelineDepth how many output chunks of a command run with {@link ShellCommand#execute}
+     *        can be queued for its writers or streams, which are then written from a thread of their own
+     *        while the next Receive request is sent, so that a slow writer does not leave the server idle.
+     *        Once the queue is full, receiving waits for the writer to catch up. With 0 the output is
+     *        written from the thread running the command, between the Receive requests. The asynchronous
+     *        operations always write it between the requests.
+     *        Default value {@link #DEFAULT_RECEIVE_PIPELINE_DEPTH}.
+     */
+    public WinRmClientBuilder receivePipelineDepth(int receivePipelineDepth) {
+        if (receivePipelineDepth < 0) {
+            throw new IllegalArgumentException("receivePipelineDepth should not be negative");
+        }
+        this.receivePipelineDepth = receivePipelineDepth;
+        return this;
+    }
+
+    /**
+     * @param maxConcurrentCommands how many commands each shell runs at a time, when they are executed
+     *        from several threads or asynchronously; further commands wait for one of them to complete.
+     *        It should not be more than the MaxProcessesPerShell of the server, nor its
+     *        MaxConcurrentOperationsPerUser with the other shells and requests of the user.
+     *        Default value {@link #DEFAULT_MAX_CONCURRENT_COMMANDS}.
+     */
+    public WinRmClientBuilder maxConcurrentCommands(int maxConcurrentCommands) {
+        if (maxConcurrentCommands < 1) {
+            throw new IllegalArgumentException("maxConcurrentCommands should be at least 1");
+        }
+        this.maxConcurrentCommands = maxConcurrentCommands;
+        return this;
+    }
+
+    /**
+     * @param backgroundCleanup send the Signal releasing each command and the Delete closing each shell
+     *        in the background, rather than waiting for them before returning the exit code or from
+     *        {@link ShellCommand#close()}. Failed requests are retried on connection failures, then logged,
+     *        the server releasing what they were for once it times out. Closing the client waits for the
+     *        requests still pending. Commands count towards {@link #maxConcurrentCommands(int)} until their
+     *        output is received. Only applies to the shells of {@link WinRmClient}.
+     *        Default value {@code false}.
+     */
+    public WinRmClientBuilder backgroundCleanup(boolean backgroundCleanup) {
+        this.backgroundCleanup = backgroundCleanup;
+        return this;
+    }
+
+    /**
+     * @param metrics told of the duration of each operation, of the retries, bytes, authentication handshakes
+     *        and encryption of the requests of the client, e.g. {@link HistogramWinRmMetrics}.
+     *        Default value {@code null}, the metrics of the context, {@link WinRmClientContext#metrics(WinRmMetrics)}.
+     */
+    public WinRmClientBuilder metrics(WinRmMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
     public WinRmClientBuilder targetAuthSchemes(Collection<String> targetAuthSchemes) {
         this.targetAuthSchemes = targetAuthSchemes;
         return this;
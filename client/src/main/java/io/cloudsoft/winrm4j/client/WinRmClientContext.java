@@ -2,12 +2,24 @@ package io.cloudsoft.winrm4j.client;
 
 import static java.util.Objects.requireNonNull;
 
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.cxf.Bus;
 import org.apache.cxf.BusFactory;
+import org.apache.cxf.service.Service;
 import org.apache.cxf.transport.http.asyncclient.AsyncHTTPConduit;
 import org.apache.cxf.transport.http.asyncclient.AsyncHTTPConduitFactory;
 import org.apache.cxf.transport.http.asyncclient.AsyncHTTPConduitFactory.UseAsyncPolicy;
 
+import io.cloudsoft.winrm4j.client.retry.RetryBudget;
+import io.cloudsoft.winrm4j.client.retry.RetryBudgetPolicy;
+
 public class WinRmClientContext {
     public static WinRmClientContext newInstance() {
         Bus bus = configureBus(BusFactory.newInstance().createBus());
@@ -44,6 +56,30 @@ public class WinRmClientContext {
     private final Bus bus;
     private final boolean cleanupBus;
 
+    /**
+     * The CXF service model of the WinRm port (parsed WSDL, JAXB data binding, endpoint and
+     * interceptor chains), built with the first client of this context and shared by the
+     * following ones, so that each of them only creates its own client proxy and conduit.
+     */
+    private Service serviceModel;
+
+    private volatile WinRmMetrics metrics = WinRmMetrics.NONE;
+
+    /** The retry budget of each endpoint, shared by the clients of this context; empty unless enabled */
+    private final Map<String, RetryBudget> retryBudgets = new HashMap<>();
+    private int retryBudgetTokens;
+    private double retryBudgetTokensPerSecond;
+
+    /** The circuit breaker of each endpoint, shared by the clients of this context; empty unless enabled */
+    private final Map<String, CircuitBreaker> circuitBreakers = new HashMap<>();
+    private int circuitBreakerThreshold;
+    private long circuitBreakerOpenMillis;
+
+    /** The concurrency limiter of each endpoint, shared by the clients of this context; empty unless enabled */
+    private final Map<String, AdaptiveConcurrencyLimiter> concurrencyLimiters = new HashMap<>();
+    private int concurrencyInitialLimit;
+    private int concurrencyMaxLimit;
+
     private WinRmClientContext(Bus bus, boolean cleanupBus) {
         this.bus = requireNonNull(bus, "bus");
         this.cleanupBus = cleanupBus;
@@ -59,4 +95,147 @@ public class WinRmClientContext {
         return bus;
     }
 
+    /**
+     * Records the requests of the clients built from then on with this context, unless they are given
+     * metrics of their own with {@link WinRmClientBuilder#metrics(WinRmMetrics)}.
+     * Default value {@link WinRmMetrics#NONE}.
+     */
+    public WinRmClientContext metrics(WinRmMetrics metrics) {
+        this.metrics = requireNonNull(metrics, "metrics");
+        return this;
+    }
+
+    WinRmMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Bounds the retries after connection failures of the clients built from then on with this context,
+     * with a {@link RetryBudget} per endpoint shared by them, on top of their own retry policy
+     * (see {@link RetryBudgetPolicy}). The endpoints are told apart by scheme, host and port, so that
+     * the HTTP and HTTPS listeners of a host have a budget each. Default value none, each client
+     * retrying as its policy decides.
+     *
+     * @param maxTokens        the retries to an endpoint allowed at once
+     * @param tokensPerSecond  the retries to an endpoint allowed per second once those are used
+     */
+    public synchronized WinRmClientContext retryBudget(int maxTokens, double tokensPerSecond) {
+        if (maxTokens < 1 || tokensPerSecond < 0) {
+            throw new IllegalArgumentException("maxTokens should be at least 1 and tokensPerSecond at least 0");
+        }
+        this.retryBudgetTokens = maxTokens;
+        this.retryBudgetTokensPerSecond = tokensPerSecond;
+        retryBudgets.clear();
+        return this;
+    }
+
+    /**
+     * @return the retry budget of the endpoint, {@code null} if not enabled
+     */
+    synchronized RetryBudget getRetryBudget(URL endpoint) {
+        if (retryBudgetTokens == 0) {
+            return null;
+        }
+        return retryBudgets.computeIfAbsent(endpointKey(endpoint), k -> new RetryBudget(retryBudgetTokens, retryBudgetTokensPerSecond));
+    }
+
+    /**
+     * Fails the requests of the clients built from then on with this context at once, rather than after the
+     * connection timeout and retries, while their endpoint cannot be reached: after {@code failureThreshold}
+     * connection failures in a row to an endpoint, its requests fail with a {@link CircuitBreakerOpenException}
+     * for {@code openDuration}, then one request is let through to try the endpoint again (see {@link CircuitBreaker}).
+     * The endpoints are told apart by scheme, host and port, as for {@link #retryBudget(int, double)}.
+     * Default value none, each request trying to reach its endpoint.
+     */
+    public synchronized WinRmClientContext circuitBreaker(int failureThreshold, long openDuration, TimeUnit unit) {
+        if (failureThreshold < 1 || openDuration < 0) {
+            throw new IllegalArgumentException("failureThreshold should be at least 1 and openDuration at least 0");
+        }
+        this.circuitBreakerThreshold = failureThreshold;
+        this.circuitBreakerOpenMillis = unit.toMillis(openDuration);
+        circuitBreakers.clear();
+        return this;
+    }
+
+    /**
+     * @return the circuit breaker of each endpoint the clients of this context sent requests to, for monitoring,
+     *         by scheme, host and port, e.g. {@code http://host:5985}
+     */
+    public synchronized Map<String, CircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableMap(new TreeMap<>(circuitBreakers));
+    }
+
+    /**
+     * @return the circuit breaker of the endpoint, {@code null} if not enabled
+     */
+    synchronized CircuitBreaker getCircuitBreaker(URL endpoint) {
+        if (circuitBreakerThreshold == 0) {
+            return null;
+        }
+        return circuitBreakers.computeIfAbsent(endpointKey(endpoint),
+                k -> new CircuitBreaker(k, circuitBreakerThreshold, circuitBreakerOpenMillis, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Bounds the shell creations and command executions of the clients built from then on with this context
+     * to a number per endpoint adapted to what it accepts, the others waiting for one to complete rather than
+     * failing on the quotas of the server (see {@link AdaptiveConcurrencyLimiter}). The limit starts at
+     * {@code initialLimit}, rises while the operations succeed, up to {@code maxLimit}, and drops on the
+     * faults of the quotas, e.g. MaxConcurrentOperationsPerUser and MaxShellsPerUser, and as the shell
+     * creations slow down. Default value none, each operation being sent at once.
+     *
+     * Shell creations failing on those faults are sent again under the lowered limit, a few times. Command
+     * executions fail with them, as the command may have run.
+     *
+     * The endpoints are told apart by scheme, host and port, as for {@link #retryBudget(int, double)}, so that
+     * the servers reached through the ports of one host, e.g. forwarded to virtual machines, have a limit each.
+     * Clients of both the HTTP and HTTPS listeners of a server have a limit each too, while the server's quotas
+     * apply to them together.
+     */
+    public synchronized WinRmClientContext adaptiveConcurrency(int initialLimit, int maxLimit) {
+        if (initialLimit < 1 || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("initialLimit should be at least 1 and maxLimit at least initialLimit");
+        }
+        this.concurrencyInitialLimit = initialLimit;
+        this.concurrencyMaxLimit = maxLimit;
+        concurrencyLimiters.clear();
+        return this;
+    }
+
+    /**
+     * @return the concurrency limiter of each endpoint the clients of this context sent requests to, for monitoring,
+     *         by scheme, host and port, e.g. {@code http://host:5985}
+     */
+    public synchronized Map<String, AdaptiveConcurrencyLimiter> getConcurrencyLimiters() {
+        return Collections.unmodifiableMap(new TreeMap<>(concurrencyLimiters));
+    }
+
+    /**
+     * @return the concurrency limiter of the endpoint, {@code null} if not enabled
+     */
+    synchronized AdaptiveConcurrencyLimiter getConcurrencyLimiter(URL endpoint) {
+        if (concurrencyInitialLimit == 0) {
+            return null;
+        }
+        return concurrencyLimiters.computeIfAbsent(endpointKey(endpoint),
+                k -> new AdaptiveConcurrencyLimiter(k, concurrencyInitialLimit, concurrencyMaxLimit));
+    }
+
+    /**
+     * @return the scheme, host and port of the endpoint in lower case, e.g. {@code http://host:5985},
+     *         keying the state its clients share
+     */
+    static String endpointKey(URL endpoint) {
+        int port = endpoint.getPort() != -1 ? endpoint.getPort() : endpoint.getDefaultPort();
+        return (endpoint.getProtocol() + "://" + endpoint.getHost() + ":" + port).toLowerCase(Locale.ROOT);
+    }
+
+    synchronized Service getServiceModel() {
+        return serviceModel;
+    }
+
+    synchronized void setServiceModel(Service serviceModel) {
+        this.serviceModel = serviceModel;
+    }
+
 }
@@ -12,9 +12,13 @@ import javax.xml.ws.spi.Provider;
 import javax.xml.ws.spi.ServiceDelegate;
 import org.apache.cxf.Bus;
 import org.apache.cxf.BusFactory;
+import org.apache.cxf.endpoint.Client;
+import org.apache.cxf.frontend.ClientProxy;
 import org.apache.cxf.interceptor.Interceptor;
 import org.apache.cxf.jaxws.JaxWsProxyFactoryBean;
+import org.apache.cxf.jaxws.support.JaxWsServiceFactoryBean;
 import org.apache.cxf.message.Message;
+import org.apache.cxf.service.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,10 +30,22 @@ public class WinRmFactory {
     }
 
     public static WinRm newInstance(Bus bus, WinRmClientBuilder builder) {
+        return newInstance(bus, null, builder);
+    }
+
+    /**
+     * Creates the service with the bus of the given context, re-using the service model
+     * built for the previous clients of the context.
+     */
+    static WinRm newInstance(WinRmClientContext context, WinRmClientBuilder builder) {
+        return newInstance(context.getBus(), context, builder);
+    }
+
+    private static WinRm newInstance(Bus bus, WinRmClientContext context, WinRmClientBuilder builder) {
         Bus prevBus = BusFactory.getAndSetThreadDefaultBus(bus);
         try {
             // The default thread bus is set on the ClientImpl and used for further requests
-            return createService(bus, builder);
+            return createService(bus, context, builder);
         } finally {
             if (BusFactory.getThreadDefaultBus(false) != prevBus) {
                 BusFactory.setThreadDefaultBus(prevBus);
@@ -37,11 +53,11 @@ public class WinRmFactory {
         }
     }
 
-    private static WinRm createService(Bus bus, WinRmClientBuilder builder) {
+    private static WinRm createService(Bus bus, WinRmClientContext context, WinRmClientBuilder builder) {
         RuntimeException lastException = null;
 
         try {
-            return doCreateServiceWithBean(bus, builder);
+            return doCreateServiceWithBean(bus, context, builder);
         } catch (RuntimeException e) {
             LOG.warn("Error creating WinRm service with mbean strategy (trying other strategies): "+e, e);
             lastException = e;
@@ -102,24 +118,43 @@ public class WinRmFactory {
     
     // approach using JaxWsProxyFactoryBean
     
-    private static WinRm doCreateServiceWithBean(Bus bus, WinRmClientBuilder builder) {
+    private static WinRm doCreateServiceWithBean(Bus bus, WinRmClientContext context, WinRmClientBuilder builder) {
+        if (context == null) {
+            return doCreateServiceWithBean(bus, (Service) null, builder);
+        }
+        // Clients of a context are created one at a time, so that only the first one builds the service model
+        synchronized (context) {
+            Service serviceModel = context.getServiceModel();
+            WinRm result = doCreateServiceWithBean(bus, serviceModel, builder);
+            if (serviceModel == null) {
+                context.setServiceModel(ClientProxy.getClient(result).getEndpoint().getService());
+            }
+            return result;
+        }
+    }
+
+    private static WinRm doCreateServiceWithBean(Bus bus, Service serviceModel, WinRmClientBuilder builder) {
         JaxWsProxyFactoryBean factory = new JaxWsProxyFactoryBean();
+        if (serviceModel != null) {
+            factory.getClientFactoryBean().setServiceFactory(new SharedServiceFactoryBean(serviceModel));
+        }
         factory.getClientFactoryBean().getServiceFactory().setWsdlURL(WinRmService.WSDL_LOCATION);
         factory.setServiceName(WinRmService.SERVICE);
         factory.setEndpointName(WinRmService.WinRmPort);
         factory.setBus(bus);
 
+        List<Interceptor<? extends Message>> outInterceptors = new ArrayList<>();
+        List<Interceptor<? extends Message>> inInterceptors = new ArrayList<>();
+
         if (builder!=null) {
             Map<String, Object> properties = new LinkedHashMap<String, Object>();
-            List<Interceptor<? extends Message>> outInterceptors = new ArrayList<>();
-            List<Interceptor<? extends Message>> inInterceptors = new ArrayList<>();
 
             if (builder.payloadEncryptionMode().isPermitted()) {
                 // asymmetry - we need to subclass the conduit factory to get correct encryption after re-auth;
                 // interceptors are _not_ re-run eg after thread timeout and reuth needed (see previous version in commit history);
                 // but we can use the cleaner intercept pattern to decrypt results
 
-                outInterceptors.add(new SignAndEncryptOutInterceptor(builder.payloadEncryptionMode()));
+                outInterceptors.add(new SignAndEncryptOutInterceptor(builder.payloadEncryptionMode(), builder.connectionRequestTimeout));
                 inInterceptors.add(new DecryptAndVerifyInInterceptor(builder.payloadEncryptionMode()));
 
                 // in addition to the out interceptor, we need a special factory to handle switching the payload
@@ -132,12 +167,16 @@ public class WinRmFactory {
                 builder.endpointConduitFactory = new AsyncHttpEncryptionAwareConduitFactory(builder.payloadEncryptionMode(), builder.targetAuthSchemes(), (Map) null);
             }
 
-            factory.setInInterceptors(inInterceptors);
-            factory.setOutInterceptors(outInterceptors);
             factory.setProperties(properties);
         }
 
-        return factory.create(WinRm.class);
+        WinRm result = factory.create(WinRm.class);
+
+        // The endpoint can be shared with other clients, so the interceptors of this client go on the client itself
+        Client client = ClientProxy.getClient(result);
+        client.getInInterceptors().addAll(inInterceptors);
+        client.getOutInterceptors().addAll(outInterceptors);
+        return result;
     }
 
     private static WinRmService doCreateService_1_CreateMinimalServiceInstance() {
@@ -148,4 +187,23 @@ public class WinRmFactory {
         return service.getWinRmPort();
     }
 
+    /**
+     * Returns the service model built for a previous client instead of reading the WSDL and
+     * initialising the JAXB data binding again. The proxy factory then also finds the endpoint
+     * in the service, so the new client only gets its own proxy, request context and conduit.
+     */
+    private static class SharedServiceFactoryBean extends JaxWsServiceFactoryBean {
+        private final Service serviceModel;
+
+        SharedServiceFactoryBean(Service serviceModel) {
+            this.serviceModel = serviceModel;
+            setService(serviceModel);
+        }
+
+        @Override
+        public Service create() {
+            setService(serviceModel);
+            return serviceModel;
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package io.cloudsoft.winrm4j.client;
+
+/**
+ * Listens to the requests of the clients it is set on, with {@link WinRmClientBuilder#metrics(WinRmMetrics)}
+ * or {@link WinRmClientContext#metrics(WinRmMetrics)}, to tell where the time of the commands goes.
+ * {@link HistogramWinRmMetrics} keeps latency histograms of them; by default they are not recorded.
+ *
+ * The methods are called on the threads running the requests, including the transport's threads, so they
+ * should be thread safe and should not block. All of them do nothing by default.
+ */
+public interface WinRmMetrics {
+
+    /** Records nothing */
+    WinRmMetrics NONE = new WinRmMetrics() {};
+
+    /**
+     * An operation of the WS-Management shell completed, e.g. a Receive.
+     *
+     * @param operation Create, Command, Receive, Send, Signal or Delete
+     * @param durationNanos the time from its invocation to its completion, including any retries
+     * @param failed whether it failed, including with a fault such as the timeout of a Receive long poll
+     */
+    default void onOperation(String operation, long durationNanos, boolean failed) {}
+
+    /**
+     * An operation is retried after a connection failure.
+     *
+     * @param attempt the attempt which failed, from 1
+     */
+    default void onRetry(String operation, int attempt) {}
+
+    /** The body of a request was written, encrypted or not */
+    default void onBytesSent(long bytes) {}
+
+    /** The body of a response was read, encrypted or not */
+    default void onBytesReceived(long bytes) {}
+
+    /**
+     * An authentication handshake started with the server, for a new connection or once the server
+     * asks to authenticate again.
+     *
+     * @param scheme e.g. NTLM, Negotiate or Kerberos
+     */
+    default void onAuthentication(String scheme) {}
+
+    /** A request was signed and sealed for message encryption */
+    default void onEncryption(long durationNanos) {}
+
+    /** A response was verified and unsealed for message encryption */
+    default void onDecryption(long durationNanos) {}
+}
@@ -20,6 +20,7 @@ import org.apache.cxf.transport.http.asyncclient.CXFHttpRequest;
 import org.apache.cxf.transports.http.configuration.HTTPClientPolicy;
 import org.apache.cxf.ws.addressing.EndpointReferenceType;
 import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.auth.Credentials;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.entity.BasicHttpEntity;
@@ -63,6 +64,19 @@ public class AsyncHttpEncryptionAwareConduit extends AsyncHTTPConduit {
                                               int chunkThreshold) throws IOException {
         NtlmEncryptionUtils encryptor = NtlmEncryptionUtils.of(message.get(Credentials.class), payloadEncryptionMode);
         if (encryptor == null) {
+            if (Boolean.TRUE.equals(message.get(USE_ASYNC))) {
+                // copied from super, but for our class
+                CXFHttpRequest requestEntity = message.get(CXFHttpRequest.class);
+                AsyncWrappedOutputStream out = new AsyncWrappedSingleResponseOutputStream(
+                        message,
+                        needToCacheRequest,
+                        isChunking,
+                        chunkThreshold,
+                        getConduitName(),
+                        requestEntity.getURI());
+                requestEntity.setOutputStream(out);
+                return out;
+            }
             return super.createOutputStream(message, needToCacheRequest, isChunking, chunkThreshold);
 
         } else {
@@ -136,7 +150,42 @@ public class AsyncHttpEncryptionAwareConduit extends AsyncHTTPConduit {
 
     }
 
-    public class AsyncWrappedEncryptionAwareOutputStream extends AsyncWrappedOutputStream {
+    /**
+     * Hands the response of an asynchronous request to the work queue once. The super class hands it as soon
+     * as it is received, but when the request is kept for retransmission (as it is to follow redirects) closing
+     * the stream waits for the response, then asks again for it to be handed: two threads would then read the
+     * one body, each seeing an empty or partial response.
+     */
+    public class AsyncWrappedSingleResponseOutputStream extends AsyncWrappedOutputStream {
+
+        // Guarded by this, as in the super class
+        private boolean responseHandled;
+
+        public AsyncWrappedSingleResponseOutputStream(Message message, boolean needToCacheRequest, boolean isChunking, int chunkThreshold, String conduitName, URI uri) {
+            super(message, needToCacheRequest, isChunking, chunkThreshold, conduitName, uri);
+        }
+
+        @Override
+        protected synchronized void setHttpResponse(HttpResponse r) {
+            super.setHttpResponse(r);
+            responseHandled = true;
+        }
+
+        @Override
+        protected synchronized void setException(Exception ex) {
+            super.setException(ex);
+            responseHandled = true;
+        }
+
+        @Override
+        protected synchronized void handleResponseAsync() throws IOException {
+            if (!responseHandled) {
+                super.handleResponseAsync();
+            }
+        }
+    }
+
+    public class AsyncWrappedEncryptionAwareOutputStream extends AsyncWrappedSingleResponseOutputStream {
 
         public AsyncWrappedEncryptionAwareOutputStream(Message message, boolean needToCacheRequest, boolean isChunking, int chunkThreshold, String conduitName, URI uri) {
             super(message, needToCacheRequest, isChunking, chunkThreshold, conduitName, uri);
@@ -65,6 +65,17 @@ public class ByteArrayUtils {
     }
 
 
+    /**
+     * Writes the 4 bytes of the little endian unsigned int at the offset of the output, without allocating.
+     */
+    public static void putLittleEndianUnsignedInt(byte[] output, int offset, long x) {
+        output[offset] = (byte) x;
+        output[offset+1] = (byte) (x >>> 8);
+        output[offset+2] = (byte) (x >>> 16);
+        output[offset+3] = (byte) (x >>> 24);
+    }
+
+
     public static byte[] concat(byte[] ...sequences) {
         try {
             ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -1,6 +1,7 @@
 package io.cloudsoft.winrm4j.client.encryption;
 
 import io.cloudsoft.winrm4j.client.PayloadEncryptionMode;
+import io.cloudsoft.winrm4j.client.WinRmMetrics;
 import org.apache.cxf.interceptor.StaxInInterceptor;
 import org.apache.cxf.message.Message;
 import org.apache.cxf.phase.AbstractPhaseInterceptor;
@@ -23,8 +24,18 @@ public class DecryptAndVerifyInInterceptor extends AbstractPhaseInterceptor<Mess
     }
 
     public void handleMessage(Message message) {
-        NtlmEncryptionUtils utils = NtlmEncryptionUtils.of(message, payloadEncryptionMode);
-        if (utils!=null) utils.decrypt(message);
+        try {
+            NtlmEncryptionUtils utils = NtlmEncryptionUtils.of(message, payloadEncryptionMode);
+            if (utils!=null) {
+                long start = System.nanoTime();
+                utils.decrypt(message);
+                WinRmMetrics metrics = message.getExchange().get(WinRmMetrics.class);
+                if (metrics!=null) metrics.onDecryption(System.nanoTime() - start);
+            }
+        } finally {
+            // the response has been read, so the connection is back in the pool for the next user of the channel
+            SignAndEncryptOutInterceptor.releaseChannel(message.getExchange());
+        }
     }
 
 }
@@ -1,18 +1,19 @@
 package io.cloudsoft.winrm4j.client.encryption;
 
 import io.cloudsoft.winrm4j.client.PayloadEncryptionMode;
-import static io.cloudsoft.winrm4j.client.encryption.ByteArrayUtils.concat;
-import static io.cloudsoft.winrm4j.client.encryption.ByteArrayUtils.getLittleEndianUnsignedInt;
+import io.cloudsoft.winrm4j.client.jfr.EncryptionEvent;
+import io.cloudsoft.winrm4j.client.jfr.WinRmEvents;
 import io.cloudsoft.winrm4j.client.ntlm.NTCredentialsWithEncryption;
 import io.cloudsoft.winrm4j.client.ntlm.NtlmKeys.NegotiateFlags;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.function.Function;
 import java.util.zip.CRC32;
-import org.apache.cxf.helpers.IOUtils;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import org.apache.cxf.message.Message;
 import org.apache.http.auth.Credentials;
 import org.slf4j.Logger;
@@ -26,6 +27,18 @@ public class NtlmEncryptionUtils {
     public static final String ENCRYPTED_BOUNDARY_CR = ENCRYPTED_BOUNDARY_PREFIX+"\r\n";
     public static final String ENCRYPTED_BOUNDARY_END = ENCRYPTED_BOUNDARY_PREFIX+"--\r\n";
 
+    /** The framing before the length of the original message, and between it and the encrypted payload */
+    private static final byte[] ENCRYPTED_HEADER_START = (ENCRYPTED_BOUNDARY_CR +
+            "\tContent-Type: " + "application/HTTP-SPNEGO-session-encrypted" + "\r\n" +
+            "\tOriginalContent: type=application/soap+xml;charset=UTF-8;Length=").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ENCRYPTED_HEADER_END = ("\r\n" +
+            ENCRYPTED_BOUNDARY_CR +
+            "\tContent-Type: application/octet-stream\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ENCRYPTED_TRAILER = ENCRYPTED_BOUNDARY_END.getBytes(StandardCharsets.US_ASCII);
+
+    /** Version, checksum (or random pad and checksum) and sequence number */
+    static final int SIGNATURE_LENGTH = 16;
+
     protected final NTCredentialsWithEncryption credentials;
     protected final PayloadEncryptionMode payloadEncryptionMode;
 
@@ -51,81 +64,119 @@ public class NtlmEncryptionUtils {
     }
 
     public byte[] encryptAndSign(Message message, byte[] messageBody) {
+        EncryptionEvent event = beginEvent("Encrypt");
         try {
             if (LOG.isTraceEnabled()) {
                 LOG.trace("Encrypting message, seq="+credentials.getSequenceNumberOutgoing()+" key="+ByteArrayUtils.formatHexDump(credentials.getClientSigningKey())+"; body:\n"+new String(messageBody));
             }
 
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-            out.write(ENCRYPTED_BOUNDARY_CR.getBytes());
-            out.write(("\tContent-Type: " + "application/HTTP-SPNEGO-session-encrypted" + "\r\n").getBytes());
-
             //message.get(Message.CONTENT_TYPE); - if we need the action // Content-Type -> application/soap+xml; action="http://schemas.xmlsoap.org/ws/2004/09/transfer/Create"
-            out.write(("\tOriginalContent: type=application/soap+xml;charset=UTF-8;Length=" + messageBody.length + "\r\n").getBytes());
+            byte[] originalLength = Integer.toString(messageBody.length).getBytes(StandardCharsets.US_ASCII);
 
-            out.write(ENCRYPTED_BOUNDARY_CR.getBytes());
-            out.write("\tContent-Type: application/octet-stream\r\n".getBytes());
+            // the framing is written once into a buffer of the exact size
+            byte[] out = new byte[ENCRYPTED_HEADER_START.length + originalLength.length + ENCRYPTED_HEADER_END.length
+                    + 4 + SIGNATURE_LENGTH + messageBody.length + ENCRYPTED_TRAILER.length];
+            int offset = put(ENCRYPTED_HEADER_START, out, 0);
+            offset = put(originalLength, out, offset);
+            offset = put(ENCRYPTED_HEADER_END, out, offset);
 
             // for credssh chunking might be needed, but not for ntlm
 
-            writeNtlmEncrypted(messageBody, out);
+            offset = writeNtlmEncrypted(messageBody, out, offset);
 
-            out.write(ENCRYPTED_BOUNDARY_END.getBytes());
+            put(ENCRYPTED_TRAILER, out, offset);
 
             message.put(Message.CONTENT_TYPE, "multipart/encrypted;protocol=\"application/HTTP-SPNEGO-session-encrypted\";boundary=\"Encrypted Boundary\"");
             message.put(Message.ENCODING, null);
 
             if (LOG.isTraceEnabled()) {
-                LOG.trace("Encrypted message: "+ByteArrayUtils.formatHexDump(out.toByteArray()));
+                LOG.trace("Encrypted message: "+ByteArrayUtils.formatHexDump(out));
             }
-            return out.toByteArray();
+            commitEvent(event, message, out.length);
+            return out;
 
         } catch (Exception e) {
             throw new IllegalStateException("Cannot encrypt WinRM message", e);
         }
     }
 
-    private byte[] seal(byte[] in) {
-        return credentials.getStatefulEncryptor().update(in);
+    private static int put(byte[] bytes, byte[] out, int offset) {
+        System.arraycopy(bytes, 0, out, offset, bytes.length);
+        return offset + bytes.length;
     }
 
-    private void writeNtlmEncrypted(byte[] messageBody, ByteArrayOutputStream encrypted) throws IOException {
+    /**
+     * Writes the signature length, the signature and the sealed message at the offset of the output.
+     *
+     * @return the offset after them
+     */
+    private int writeNtlmEncrypted(byte[] messageBody, byte[] out, int offset) throws ShortBufferException {
 
         // ./pywinrm/winrm/encryption.py
         // ./ntlm_auth/session_security.py
 
         long seqNum = credentials.getSequenceNumberOutgoing().incrementAndGet();
-        ByteArrayOutputStream signature = new ByteArrayOutputStream();
-        ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+        int signatureOffset = offset + 4;
+        int sealedOffset = signatureOffset + SIGNATURE_LENGTH;
 
         // seal first, even though appended afterwards, because encryptor is stateful
-        sealed.write(seal(messageBody));
+        Cipher encryptor = credentials.getStatefulEncryptor();
+        encryptor.update(messageBody, 0, messageBody.length, out, sealedOffset);
 
-        calculateSignature(messageBody, seqNum, signature, credentials, NTCredentialsWithEncryption::getClientSigningKey, this::seal);
+        calculateSignature(messageBody, 0, messageBody.length, seqNum, out, signatureOffset, credentials, credentials.getClientSigningMac(), encryptor);
 
-        encrypted.write(getLittleEndianUnsignedInt(signature.size()));
-        encrypted.write(signature.toByteArray());
-        encrypted.write(sealed.toByteArray());
+        ByteArrayUtils.putLittleEndianUnsignedInt(out, offset, SIGNATURE_LENGTH);
+        return sealedOffset + messageBody.length;
     }
 
     public void decrypt(Message message) {
-        new Decryptor(credentials, payloadEncryptionMode).handle(message);
+        EncryptionEvent event = beginEvent("Decrypt");
+        Decryptor decryptor = new Decryptor(credentials, payloadEncryptionMode);
+        decryptor.handle(message);
+        commitEvent(event, message, decryptor.rawLength);
     }
 
+    /** @return the JFR event, {@code null} if JFR is not available or not recording it */
+    private static EncryptionEvent beginEvent(String action) {
+        if (!WinRmEvents.ENABLED) {
+            return null;
+        }
+        EncryptionEvent event = new EncryptionEvent(action);
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
 
+    private static void commitEvent(EncryptionEvent event, Message message, long payloadSize) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.setDetails(WinRmEvents.getEndpoint(message), payloadSize);
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Unwraps, unseals and verifies an encrypted response in place, in the buffer the body is read into:
+     * the framing is parsed as offsets in that buffer, the sealed part is decrypted over itself,
+     * and the message gets a stream over the decrypted region.
+     */
     public static class Decryptor {
 
         private final PayloadEncryptionMode payloadEncryptionMode;
 
         NTCredentialsWithEncryption credentials;
+        /** The body as read, of which only the first {@link #rawLength} bytes are used */
         private byte[] rawBytes;
-        private byte[] encryptedPayloadBytes;
+        private int rawLength;
         int index, lastBlockStart, lastBlockEnd;
-        private byte[] signatureBytes;
-        private byte[] sealedBytes;
-        private String newHeaders;
-        private byte[] unsealedBytes;
+        private int signatureOffset;
+        private int sealedOffset, sealedLength;
 
         public Decryptor(NTCredentialsWithEncryption credentials, PayloadEncryptionMode payloadEncryptionMode) {
             this.credentials = credentials;
@@ -161,19 +212,26 @@ public class NtlmEncryptionUtils {
             }
         }
 
-        void decrypt(Message message) throws IOException {
-            InputStream in = message.getContent(InputStream.class);
-            rawBytes = IOUtils.readBytesFromStream(in);
+        void decrypt(Message message) throws IOException, ShortBufferException {
+            read(message.getContent(InputStream.class));
 
             if (LOG.isTraceEnabled()) {
-                LOG.trace("Decrypting message, seq="+credentials.getSequenceNumberIncoming()+" key="+ByteArrayUtils.formatHexDump(credentials.getServerSigningKey())+"; body:\n"+ByteArrayUtils.formatHexDump(rawBytes));
+                LOG.trace("Decrypting message, seq="+credentials.getSequenceNumberIncoming()+" key="+ByteArrayUtils.formatHexDump(credentials.getServerSigningKey())+"; body:\n"+ByteArrayUtils.formatHexDump(rawBytes, 0, rawLength));
             }
 
             unwrap();
 
-            int signatureLength = (int) ByteArrayUtils.readLittleEndianUnsignedInt(encryptedPayloadBytes, 0);
-            signatureBytes = Arrays.copyOfRange(encryptedPayloadBytes, 4, 4+signatureLength);
-            sealedBytes = Arrays.copyOfRange(encryptedPayloadBytes, 4+signatureLength, encryptedPayloadBytes.length);
+            // the encrypted payload is the signature length, the signature, and the sealed message
+            if (lastBlockEnd - lastBlockStart < 4) {
+                throw new IllegalStateException("Invalid format for response from server; no signature\n"+ByteArrayUtils.formatHexDump(rawBytes, 0, rawLength));
+            }
+            int signatureLength = (int) ByteArrayUtils.readLittleEndianUnsignedInt(rawBytes, lastBlockStart);
+            signatureOffset = lastBlockStart + 4;
+            sealedOffset = signatureOffset + signatureLength;
+            sealedLength = lastBlockEnd - sealedOffset;
+            if (signatureLength < 16 || sealedLength < 0) {
+                throw new IllegalStateException("Invalid format for response from server; signature length "+signatureLength+"\n"+ByteArrayUtils.formatHexDump(rawBytes, 0, rawLength));
+            }
 
             unseal();
 
@@ -182,13 +240,28 @@ public class NtlmEncryptionUtils {
             verify();
 
             if (LOG.isTraceEnabled()) {
-                LOG.trace("Decrypted message: {}", new String(unsealedBytes));
+                LOG.trace("Decrypted message: {}", new String(rawBytes, sealedOffset, sealedLength));
             }
 
-            message.setContent(InputStream.class, new ByteArrayInputStream(unsealedBytes));
+            message.setContent(InputStream.class, new ByteArrayInputStream(rawBytes, sealedOffset, sealedLength));
+        }
+
+        /**
+         * Reads the whole body into {@link #rawBytes}, without trimming the buffer to its length.
+         */
+        private void read(InputStream in) throws IOException {
+            rawBytes = new byte[Math.max(8192, in.available() + 1)];
+            rawLength = 0;
+            int read;
+            while ((read = in.read(rawBytes, rawLength, rawBytes.length - rawLength)) != -1) {
+                rawLength += read;
+                if (rawLength == rawBytes.length) {
+                    rawBytes = Arrays.copyOf(rawBytes, rawBytes.length * 2);
+                }
+            }
         }
 
-        private void verify() throws IOException {
+        private void verify() throws ShortBufferException {
 //            if self.negotiate_flags & \
 //            NegotiateFlags.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY:
 //            actual_checksum = signature[4:12]
@@ -197,15 +270,13 @@ public class NtlmEncryptionUtils {
 //            actual_checksum = signature[8:12]
 //            actual_seq_num = struct.unpack("<I", signature[12:16])[0]
 
-            byte[] checksum;
-            long seqNum = ByteArrayUtils.readLittleEndianUnsignedInt(signatureBytes, 12);
+            long seqNum = ByteArrayUtils.readLittleEndianUnsignedInt(rawBytes, signatureOffset + 12);
             int checkSumOffset;
             if (credentials.hasNegotiateFlag(NegotiateFlags.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY)) {
                 checkSumOffset = 4;
             } else {
                 checkSumOffset = 8;
             }
-            checksum = Arrays.copyOfRange(signatureBytes, checkSumOffset, 12);
 
 //            expected_signature = calc_signature(message, self.negotiate_flags,
 //                    self.incoming_signing_key,
@@ -214,16 +285,17 @@ public class NtlmEncryptionUtils {
 //            expected_checksum = expected_signature.checksum
 //            expected_seq_num = struct.unpack("<I", expected_signature.seq_num)[0]
 
-            ByteArrayOutputStream signature = new ByteArrayOutputStream();
-            NtlmEncryptionUtils.calculateSignature(unsealedBytes, seqNum, signature, credentials, NTCredentialsWithEncryption::getServerSigningKey, credentials.getStatefulDecryptor()::update);
-
-            byte[] expected_checksum = Arrays.copyOfRange(signature.toByteArray(), checkSumOffset, 12);
-            long expected_seq_num = ByteArrayUtils.readLittleEndianUnsignedInt(signature.toByteArray(), 12);
+            byte[] expectedSignature = new byte[SIGNATURE_LENGTH];
+            NtlmEncryptionUtils.calculateSignature(rawBytes, sealedOffset, sealedLength, seqNum, expectedSignature, 0, credentials, credentials.getServerSigningMac(), credentials.getStatefulDecryptor());
 
-            if (!Arrays.equals(checksum, expected_checksum)) {
-                throw new IllegalStateException("Checksum mismatch\n"+
-                        ByteArrayUtils.formatHexDump(checksum)+"--\n"+ByteArrayUtils.formatHexDump(expected_checksum));
+            for (int i = checkSumOffset; i < 12; i++) {
+                if (rawBytes[signatureOffset + i] != expectedSignature[i]) {
+                    throw new IllegalStateException("Checksum mismatch\n"+
+                            ByteArrayUtils.formatHexDump(rawBytes, signatureOffset + checkSumOffset, 12 - checkSumOffset)+"--\n"+
+                            ByteArrayUtils.formatHexDump(expectedSignature, checkSumOffset, 12 - checkSumOffset));
+                }
             }
+            long expected_seq_num = ByteArrayUtils.readLittleEndianUnsignedInt(expectedSignature, 12);
             if (expected_seq_num!=seqNum) {
                 throw new IllegalStateException("Sequence number mismatch: "+seqNum+" != "+expected_seq_num);
             }
@@ -232,27 +304,27 @@ public class NtlmEncryptionUtils {
 
         }
 
+        /**
+         * Leaves {@link #lastBlockStart} and {@link #lastBlockEnd} around the encrypted payload.
+         */
         void unwrap() {
             index = 0;
             skipOver(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_CR);
+            // "\tContent-Type: application/HTTP-SPNEGO-session-encrypted\r\n\tOriginalContent: type=application/soap+xml;charset=UTF-8;Length=..."
             skipUntil("\n"+NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_CR);
 
-            newHeaders = new String(Arrays.copyOfRange(rawBytes, lastBlockStart, lastBlockEnd)).trim();
-//                            "\tContent-Type: application/HTTP-SPNEGO-session-encrypted\r\n" +
-//                            "\tOriginalContent: type=application/soap+xml;charset=UTF-8;Length=";
-
+            // "\tContent-Type: application/octet-stream\r\n"
             skipUntil("\r\n");
-            String secondHeaders = new String(Arrays.copyOfRange(rawBytes, lastBlockStart, lastBlockEnd)).trim();
-//                    "\tContent-Type: application/octet-stream\r\n";
 
             // for credssh de-chunking might be needed, but not for ntlm
 
             lastBlockStart = index;
-            lastBlockEnd = rawBytes.length - NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_END.length();
+            lastBlockEnd = rawLength - NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_END.length();
+            if (lastBlockEnd < lastBlockStart) {
+                throw new IllegalStateException("Invalid format for response from server; terminated early\n"+ByteArrayUtils.formatHexDump(rawBytes, 0, rawLength));
+            }
             index = lastBlockEnd;
             skipOver(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_END);
-
-            encryptedPayloadBytes = Arrays.copyOfRange(rawBytes, lastBlockStart, lastBlockEnd);
         }
 
 
@@ -263,13 +335,13 @@ public class NtlmEncryptionUtils {
         void skipOver(byte[] expected) {
             int i=0;
             while (i<expected.length) {
-                if (index>=rawBytes.length) {
+                if (index>=rawLength) {
                     throw new IllegalStateException("Invalid format for response from server; terminated early ("+i+") when expecting '"+new String(expected)+"'\n"+
-                            ByteArrayUtils.formatHexDump(rawBytes));
+                            ByteArrayUtils.formatHexDump(rawBytes, 0, rawLength));
                 }
                 if (expected[i++]!=rawBytes[index++]) {
                     throw new IllegalStateException("Invalid format for response from server; mismatch at position "+index+" ("+i+") when expecting '"+new String(expected)+"'\n"+
-                            ByteArrayUtils.formatHexDump(rawBytes));
+                            ByteArrayUtils.formatHexDump(rawBytes, 0, rawLength));
                 }
             }
         }
@@ -279,36 +351,44 @@ public class NtlmEncryptionUtils {
         }
 
         void skipUntil(byte[] expected) {
-            int nextBlock = index;
-            outer: while (true) {
-                for (int i = 0; i < expected.length && nextBlock+i < rawBytes.length; i++) {
-                    if (nextBlock+i>=rawBytes.length) {
-                        throw new IllegalStateException("Invalid format for response from server; terminated early ("+i+") when looking for '"+new String(expected)+"'\n"+
-                                ByteArrayUtils.formatHexDump(rawBytes));
-                    }
-                    if (expected[i] != rawBytes[nextBlock+i]) {
-                        nextBlock++;
-                        continue outer;
-                    }
+            for (int nextBlock = index; nextBlock + expected.length <= rawLength; nextBlock++) {
+                if (matchesAt(expected, nextBlock)) {
+                    lastBlockStart = index;
+                    lastBlockEnd = nextBlock;
+                    index = nextBlock + expected.length;
+                    return;
                 }
-                lastBlockStart = index;
-                lastBlockEnd = nextBlock;
-                index = nextBlock + expected.length;
-                return;
             }
+            throw new IllegalStateException("Invalid format for response from server; terminated early when looking for '"+new String(expected)+"'\n"+
+                    ByteArrayUtils.formatHexDump(rawBytes, 0, rawLength));
         }
 
-        private void unseal() {
-            unsealedBytes = credentials.getStatefulDecryptor().update(sealedBytes);
+        private boolean matchesAt(byte[] expected, int offset) {
+            for (int i = 0; i < expected.length; i++) {
+                if (expected[i] != rawBytes[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** RC4 is a stream cipher, so the sealed bytes are decrypted over themselves */
+        private void unseal() throws ShortBufferException {
+            credentials.getStatefulDecryptor().update(rawBytes, sealedOffset, sealedLength, rawBytes, sealedOffset);
         }
     }
 
 
-    static void calculateSignature(byte[] messageBody, long seqNum,
-                                   ByteArrayOutputStream signature,
+    /**
+     * Writes the {@value #SIGNATURE_LENGTH} bytes of the signature of the message at the offset of
+     * {@code signature}, with the cached HMAC of the signing key, and sealing the checksum with the
+     * stateful cipher of the same direction.
+     */
+    static void calculateSignature(byte[] messageBody, int offset, int length, long seqNum,
+                                   byte[] signature, int signatureOffset,
                                    NTCredentialsWithEncryption credentials,
-                                   Function<NTCredentialsWithEncryption,byte[]> signingKeyFunction,
-                                   Function<byte[],byte[]> sealer) throws IOException {
+                                   Mac signingMac,
+                                   Cipher sealer) throws ShortBufferException {
         //    sealed_message, signature = self.session.auth.session_security.wrap(message)
 //            return signature_length + signature + sealed_message
 
@@ -345,12 +425,13 @@ public class NtlmEncryptionUtils {
 //            checksum = checksum_hmac.digest()[:8]
 
             // also see HMACMD5 in NTLMEngineIpml
-            byte[] checksum = WinrmEncryptionUtils.hmacMd5(signingKeyFunction.apply(credentials), concat(getLittleEndianUnsignedInt(seqNum), messageBody));
-            checksum = Arrays.copyOfRange(checksum, 0, 8);
-
-            if (credentials.hasNegotiateFlag(NegotiateFlags.NTLMSSP_NEGOTIATE_KEY_EXCH)) {
-                checksum = sealer.apply(checksum);
-            }
+            // seq num, little endian, then the message, without concatenating them
+            signingMac.update((byte) seqNum);
+            signingMac.update((byte) (seqNum >>> 8));
+            signingMac.update((byte) (seqNum >>> 16));
+            signingMac.update((byte) (seqNum >>> 24));
+            signingMac.update(messageBody, offset, length);
+            byte[] hmac = signingMac.doFinal();
 //
 //            signature = _NtlmMessageSignature2(checksum, seq_num)
 //                self.version = b"\x01\x00\x00\x00"
@@ -359,11 +440,15 @@ public class NtlmEncryptionUtils {
 //                signature += self.seq_num
 
             // version
-            signature.write(new byte[]{1, 0, 0, 0});
-            // checksum
-            signature.write(checksum);
+            ByteArrayUtils.putLittleEndianUnsignedInt(signature, signatureOffset, 1);
+            // checksum: the first 8 bytes of the hmac
+            if (credentials.hasNegotiateFlag(NegotiateFlags.NTLMSSP_NEGOTIATE_KEY_EXCH)) {
+                sealer.update(hmac, 0, 8, signature, signatureOffset + 4);
+            } else {
+                System.arraycopy(hmac, 0, signature, signatureOffset + 4, 8);
+            }
             // seq num
-            signature.write(getLittleEndianUnsignedInt(seqNum));
+            ByteArrayUtils.putLittleEndianUnsignedInt(signature, signatureOffset + 12, seqNum);
 
 
         } else {
@@ -379,7 +464,7 @@ public class NtlmEncryptionUtils {
 
 //        message_crc = binascii.crc32(message) % (1 << 32)
             CRC32 crc = new CRC32();
-            crc.update(messageBody);
+            crc.update(messageBody, offset, length);
             long messageCrc = crc.getValue();
 
 //        signature = _NtlmMessageSignature1(random_pad, checksum, seq_num)
@@ -390,13 +475,15 @@ public class NtlmEncryptionUtils {
 //            signature += self.seq_num
 
             // version
-            signature.write(new byte[]{1, 0, 0, 0});
+            ByteArrayUtils.putLittleEndianUnsignedInt(signature, signatureOffset, 1);
             // random pad
-            signature.write(sealer.apply(getLittleEndianUnsignedInt(0)));
+            ByteArrayUtils.putLittleEndianUnsignedInt(signature, signatureOffset + 4, 0);
             // checksum
-            signature.write(sealer.apply(getLittleEndianUnsignedInt(messageCrc)));
+            ByteArrayUtils.putLittleEndianUnsignedInt(signature, signatureOffset + 8, messageCrc);
             // seq num
-            signature.write(sealer.apply(getLittleEndianUnsignedInt(seqNum)));
+            ByteArrayUtils.putLittleEndianUnsignedInt(signature, signatureOffset + 12, seqNum);
+            // the cipher is a stream, so sealing the three in place is the same as sealing each in turn
+            sealer.update(signature, signatureOffset + 4, 12, signature, signatureOffset + 4);
         }
     }
 }
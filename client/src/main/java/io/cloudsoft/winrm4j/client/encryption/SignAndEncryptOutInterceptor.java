@@ -1,12 +1,20 @@
 package io.cloudsoft.winrm4j.client.encryption;
 
 import io.cloudsoft.winrm4j.client.PayloadEncryptionMode;
+import io.cloudsoft.winrm4j.client.WinRmClientBuilder;
+import io.cloudsoft.winrm4j.client.WinRmMetrics;
 import io.cloudsoft.winrm4j.client.ntlm.NTCredentialsWithEncryption;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.output.NullOutputStream;
+import org.apache.cxf.endpoint.ClientCallback;
 import org.apache.cxf.interceptor.StaxOutInterceptor;
 import org.apache.cxf.io.CachedOutputStream;
+import org.apache.cxf.message.Exchange;
 import org.apache.cxf.message.Message;
 import org.apache.cxf.phase.AbstractPhaseInterceptor;
 import org.apache.cxf.phase.Phase;
@@ -23,20 +31,36 @@ public class SignAndEncryptOutInterceptor extends AbstractPhaseInterceptor<Messa
     private static final Logger LOG = LoggerFactory.getLogger(SignAndEncryptOutInterceptor.class);
 
     public static final String APPLIED = SignAndEncryptOutInterceptor.class.getSimpleName()+".APPLIED";
+    /** The sealing channel held by an exchange, until {@link #releaseChannel(Exchange)} */
+    static final String CHANNEL = SignAndEncryptOutInterceptor.class.getSimpleName()+".CHANNEL";
+
+    /** The exchanges which took a channel on this thread, while it sends synchronous requests */
+    private static final ThreadLocal<List<Exchange>> SYNCHRONOUS_EXCHANGES = new ThreadLocal<>();
 
     private final PayloadEncryptionMode payloadEncryptionMode;
+    private final long channelTimeout;
 
     public SignAndEncryptOutInterceptor(PayloadEncryptionMode payloadEncryptionMode) {
+        this(payloadEncryptionMode, WinRmClientBuilder.DEFAULT_CONNECTION_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * @param channelTimeout how long a request waits at most for a sealing channel, in milliseconds,
+     *                       before failing
+     */
+    public SignAndEncryptOutInterceptor(PayloadEncryptionMode payloadEncryptionMode, long channelTimeout) {
         super(Phase.PRE_STREAM);
         // we need to be set before various other output devices, so they write to us
         addBefore(StaxOutInterceptor.class.getName());
         this.payloadEncryptionMode = payloadEncryptionMode;
+        this.channelTimeout = channelTimeout;
     }
 
     public void handleMessage(Message message) {
         boolean hasApplied = message.containsKey(APPLIED);
         if (!hasApplied) {
             message.put(APPLIED, Boolean.TRUE);
+            acquireChannel(message);
             final OutputStream os = message.getContent(OutputStream.class);
             final EncryptAndSignOutputStream newOut = new EncryptAndSignOutputStream(message, os);
             message.setContent(OutputStream.class, newOut);
@@ -44,6 +68,102 @@ public class SignAndEncryptOutInterceptor extends AbstractPhaseInterceptor<Messa
         }
     }
 
+    @Override
+    public void handleFault(Message message) {
+        // no response to decrypt, e.g. the connection failed
+        releaseChannel(message.getExchange());
+    }
+
+    /**
+     * Replaces the credentials of the client with one of their sealing channels for this exchange, so that
+     * it has the connection and the sealing state of that channel to itself. Credentials which were given
+     * their keys directly, rather than by authenticating, are used as they are.
+     */
+    private void acquireChannel(Message message) {
+        Object creds = message.get(Credentials.class.getName());
+        if (creds instanceof NTCredentialsWithEncryption && !((NTCredentialsWithEncryption) creds).isChannel()
+                && !((NTCredentialsWithEncryption) creds).isAuthenticated()) {
+            NTCredentialsWithEncryption channel = ((NTCredentialsWithEncryption) creds).acquireChannel(channelTimeout, TimeUnit.MILLISECONDS);
+            LOG.trace("Using {} for {}", channel, message);
+            message.put(Credentials.class.getName(), channel);
+            message.getExchange().put(Credentials.class.getName(), channel);
+            message.getExchange().put(CHANNEL, channel);
+            Object callback = message.getExchange().get(ClientCallback.class);
+            if (callback instanceof ChannelReleasingCallback) {
+                ((ChannelReleasingCallback) callback).exchange = message.getExchange();
+            }
+            List<Exchange> synchronousExchanges = SYNCHRONOUS_EXCHANGES.get();
+            if (synchronousExchanges != null) {
+                synchronousExchanges.add(message.getExchange());
+            }
+        }
+    }
+
+    /**
+     * Gives back the sealing channel held by the exchange, if any, once it has completed. Channels are
+     * released as soon as their response is read, or when the request fails to be sent, but not when
+     * the exchange fails afterwards, e.g. when its response times out: see {@link ChannelReleasingCallback}
+     * and {@link #releasingChannels(SynchronousRequests)} for that.
+     */
+    static void releaseChannel(Exchange exchange) {
+        Object channel = exchange != null ? exchange.remove(CHANNEL) : null;
+        if (channel != null) {
+            ((NTCredentialsWithEncryption) channel).releaseChannel();
+        }
+    }
+
+    /**
+     * Runs synchronous requests, which are sent by the calling thread, then releases the channels which
+     * their exchanges still hold, as {@link #releaseChannel(Exchange)} does for asynchronous ones.
+     */
+    public static <T, E extends Throwable> T releasingChannels(SynchronousRequests<T, E> requests) throws E {
+        if (SYNCHRONOUS_EXCHANGES.get() != null) {
+            // nested, released by the outer call
+            return requests.call();
+        }
+        List<Exchange> exchanges = new ArrayList<>(1);
+        SYNCHRONOUS_EXCHANGES.set(exchanges);
+        try {
+            return requests.call();
+        } finally {
+            SYNCHRONOUS_EXCHANGES.remove();
+            for (Exchange exchange : exchanges) {
+                releaseChannel(exchange);
+            }
+        }
+    }
+
+    /** @see #releasingChannels(SynchronousRequests) */
+    public interface SynchronousRequests<T, E extends Throwable> {
+        T call() throws E;
+    }
+
+    /**
+     * The callback of an asynchronous request, which gives back the sealing channel taken by the request,
+     * if any, once it completes: including when it fails after it was sent, e.g. on a timeout.
+     */
+    public static class ChannelReleasingCallback extends ClientCallback {
+        // Set by the thread sending the request, before its completion
+        private volatile Exchange exchange;
+
+        @Override
+        public void handleResponse(Map<String, Object> ctx, Object[] res) {
+            releaseChannel();
+            super.handleResponse(ctx, res);
+        }
+
+        @Override
+        public void handleException(Map<String, Object> ctx, Throwable ex) {
+            releaseChannel();
+            super.handleException(ctx, ex);
+        }
+
+        /** To be called when the request failed to be sent, as the callback is then not called */
+        public void releaseChannel() {
+            SignAndEncryptOutInterceptor.releaseChannel(exchange);
+        }
+    }
+
     class EncryptAndSignOutputStream extends CachedOutputStream {
 
         final CachedOutputStream unencrypted;
@@ -76,8 +196,10 @@ public class SignAndEncryptOutInterceptor extends AbstractPhaseInterceptor<Messa
         @Override
         public void close() throws IOException {
             LOG.trace("Closing stream {}", wrapped);
-            super.close();
+            // read before closing, which deletes the temporary file of messages over the threshold of the cache,
+            // e.g. of a Send of a full chunk of stdin
             unencrypted.write(getBytes());
+            super.close();
             currentStream = new NullOutputStream();
 
             if (wrapped!=null) {
@@ -91,8 +213,12 @@ public class SignAndEncryptOutInterceptor extends AbstractPhaseInterceptor<Messa
         protected synchronized ContentWithType getEncrypted() {
             try {
                 if (encrypted==null) {
+                    long start = System.nanoTime();
                     byte[] bytesEncryptedAndSigned = new NtlmEncryptionUtils(credentials, payloadEncryptionMode).encryptAndSign(message, unencrypted.getBytes());
                     encrypted = ContentWithType.of(message, bytesEncryptedAndSigned);
+                    Exchange exchange = message.getExchange();
+                    WinRmMetrics metrics = exchange!=null ? exchange.get(WinRmMetrics.class) : null;
+                    if (metrics!=null) metrics.onEncryption(System.nanoTime() - start);
                 }
 
                 return encrypted;
@@ -52,11 +52,19 @@ public class WinrmEncryptionUtils {
     }
 
     public static byte[] hmacMd5(byte[] key, byte[] body) {
+        return hmacMd5(key).doFinal( body );
+    }
+
+    /**
+     * An HMAC-MD5 initialised with the key, which can be re-used for as many messages as needed,
+     * as {@link Mac#doFinal()} resets it for the next one.
+     */
+    public static Mac hmacMd5(byte[] key) {
         try {
             SecretKeySpec keySpec = new SecretKeySpec(key, "HmacMD5");
             Mac mac = Mac.getInstance("HmacMD5");
             mac.init(keySpec);
-            return mac.doFinal( body );
+            return mac;
         } catch (NoSuchAlgorithmException | InvalidKeyException e) {
             throw new IllegalStateException(e);
         }
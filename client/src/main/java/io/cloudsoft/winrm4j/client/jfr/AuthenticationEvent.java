@@ -0,0 +1,31 @@
+package io.cloudsoft.winrm4j.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The start of an authentication handshake with the server, when the HTTP client creates the scheme
+ * for a new connection or once the server asks to authenticate again.
+ */
+@Name("io.cloudsoft.winrm4j.Authentication")
+@Label("WinRM Authentication")
+@Category(WinRmEvents.CATEGORY)
+@Description("The start of an NTLM, Negotiate or Kerberos handshake with the WinRM service")
+@StackTrace(false)
+public class AuthenticationEvent extends Event {
+
+    @Label("Scheme")
+    private final String scheme;
+
+    @Label("Endpoint")
+    private final String endpoint;
+
+    public AuthenticationEvent(String scheme, String endpoint) {
+        this.scheme = scheme;
+        this.endpoint = endpoint;
+    }
+}
@@ -0,0 +1,42 @@
+package io.cloudsoft.winrm4j.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The sealing and signing of a request, or the verifying and unsealing of a response, for the message
+ * encryption of NTLM.
+ */
+@Name("io.cloudsoft.winrm4j.Encryption")
+@Label("WinRM Encryption")
+@Category(WinRmEvents.CATEGORY)
+@Description("The encryption of a request or the decryption of a response")
+@StackTrace(false)
+public class EncryptionEvent extends Event {
+
+    @Label("Action")
+    @Description("Encrypt or Decrypt")
+    private final String action;
+
+    @Label("Endpoint")
+    private String endpoint;
+
+    @Label("Payload Size")
+    @Description("The size of the encrypted message, with its framing")
+    @DataAmount
+    private long payloadSize;
+
+    public EncryptionEvent(String action) {
+        this.action = action;
+    }
+
+    public void setDetails(String endpoint, long payloadSize) {
+        this.endpoint = endpoint;
+        this.payloadSize = payloadSize;
+    }
+}
@@ -0,0 +1,52 @@
+package io.cloudsoft.winrm4j.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A WS-Management operation, from its invocation to its response, including the retries after
+ * connection failures.
+ */
+@Name("io.cloudsoft.winrm4j.Operation")
+@Label("WinRM Operation")
+@Category(WinRmEvents.CATEGORY)
+@Description("A request to the WinRM service, including its retries")
+@StackTrace(false)
+public class OperationEvent extends Event {
+
+    @Label("Operation")
+    @Description("Create, Command, Receive, Send, Signal or Delete")
+    private final String operation;
+
+    @Label("Endpoint")
+    private String endpoint;
+
+    @Label("Shell Id")
+    private String shellId;
+
+    @Label("Command Id")
+    private String commandId;
+
+    @Label("Failed")
+    private boolean failed;
+
+    @Label("Fault Code")
+    @Description("The code of the WS-Management fault of the response, if any")
+    private String faultCode;
+
+    public OperationEvent(String operation) {
+        this.operation = operation;
+    }
+
+    public void setDetails(String endpoint, String shellId, String commandId, boolean failed, String faultCode) {
+        this.endpoint = endpoint;
+        this.shellId = shellId;
+        this.commandId = commandId;
+        this.failed = failed;
+        this.faultCode = faultCode;
+    }
+}
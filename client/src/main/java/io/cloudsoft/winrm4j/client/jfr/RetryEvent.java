@@ -0,0 +1,48 @@
+package io.cloudsoft.winrm4j.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The pause before an operation is retried after a connection failure, as decided by the retry policy.
+ */
+@Name("io.cloudsoft.winrm4j.Retry")
+@Label("WinRM Retry")
+@Category(WinRmEvents.CATEGORY)
+@Description("The pause before a request to the WinRM service is retried")
+@StackTrace(false)
+public class RetryEvent extends Event {
+
+    @Label("Operation")
+    private final String operation;
+
+    @Label("Attempt")
+    @Description("The attempt which failed, from 1")
+    private final int attempt;
+
+    @Label("Pause")
+    @Timespan(Timespan.MILLISECONDS)
+    private final long pause;
+
+    @Label("Endpoint")
+    private String endpoint;
+
+    @Label("Reason")
+    private String reason;
+
+    public RetryEvent(String operation, int attempt, long pauseMillis) {
+        this.operation = operation;
+        this.attempt = attempt;
+        this.pause = pauseMillis;
+    }
+
+    public void setDetails(String endpoint, String reason) {
+        this.endpoint = endpoint;
+        this.reason = reason;
+    }
+}
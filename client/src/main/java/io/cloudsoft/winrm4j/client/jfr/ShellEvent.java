@@ -0,0 +1,46 @@
+package io.cloudsoft.winrm4j.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The creation or deletion of a shell, with the id the server gave it.
+ */
+@Name("io.cloudsoft.winrm4j.Shell")
+@Label("WinRM Shell")
+@Category(WinRmEvents.CATEGORY)
+@Description("The creation or deletion of a remote shell")
+@StackTrace(false)
+public class ShellEvent extends Event {
+
+    @Label("Action")
+    @Description("Create or Delete")
+    private final String action;
+
+    @Label("Endpoint")
+    private String endpoint;
+
+    @Label("Shell Id")
+    private String shellId;
+
+    @Label("Failed")
+    private boolean failed;
+
+    @Label("Fault Code")
+    private String faultCode;
+
+    public ShellEvent(String action) {
+        this.action = action;
+    }
+
+    public void setDetails(String endpoint, String shellId, boolean failed, String faultCode) {
+        this.endpoint = endpoint;
+        this.shellId = shellId;
+        this.failed = failed;
+        this.faultCode = faultCode;
+    }
+}
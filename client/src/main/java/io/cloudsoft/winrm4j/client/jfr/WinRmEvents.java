@@ -0,0 +1,45 @@
+package io.cloudsoft.winrm4j.client.jfr;
+
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.Message;
+
+/**
+ * The Java Flight Recorder events of the client, in the "WinRM" category, so that slow requests can
+ * be told apart from the socket reads of CXF in a recording.
+ *
+ * JFR is not available on all Java 8 runtimes (it was added to OpenJDK in 8u262), so the event classes
+ * must only be used once {@link #ENABLED} is checked:
+ * <pre>
+ * OperationEvent event = WinRmEvents.ENABLED ? new OperationEvent("Receive") : null;
+ * </pre>
+ * When no recording is running, or the events are disabled in its settings, they cost little more
+ * than the allocation of the event, their fields being only filled in once they are to be committed.
+ */
+public final class WinRmEvents {
+
+    /** Whether the runtime has JFR, in which case the events can be created */
+    public static final boolean ENABLED = isJfrAvailable();
+
+    static final String CATEGORY = "WinRM";
+
+    private WinRmEvents() {}
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, WinRmEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the address the request of the exchange of the message was sent to, {@code null} if unknown
+     */
+    public static String getEndpoint(Message message) {
+        Exchange exchange = message.getExchange();
+        Message request = exchange != null && exchange.getOutMessage() != null ? exchange.getOutMessage() : message;
+        Object address = request.get(Message.ENDPOINT_ADDRESS);
+        return address != null ? address.toString() : null;
+    }
+}
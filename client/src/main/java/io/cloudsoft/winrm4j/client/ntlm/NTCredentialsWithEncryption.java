@@ -3,25 +3,158 @@ package io.cloudsoft.winrm4j.client.ntlm;
 import io.cloudsoft.winrm4j.client.encryption.AsyncHttpEncryptionAwareConduit.EncryptionAwareHttpEntity;
 import io.cloudsoft.winrm4j.client.encryption.WinrmEncryptionUtils;
 import io.cloudsoft.winrm4j.client.ntlm.forks.httpclient.NTLMEngineImpl.Type3Message;
+import java.security.Principal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpRequest;
 import org.apache.http.auth.NTCredentials;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * NTLM credentials which also hold the keys, cipher state and sequence numbers for signing and sealing
+ * the messages, once authenticated.
+ *
+ * That state belongs to the HTTP connection which authenticated, so concurrent requests cannot share it.
+ * The credentials set on a client are therefore used as a template for up to {@code maxChannels} sealing
+ * channels (see {@link #acquireChannel(long, TimeUnit)}), each with its own state and its own user principal. The
+ * principal is the state of the pooled connections authenticated with it, so each channel keeps using its
+ * own connection. A request holds a channel from when it is sent until its response is decrypted.
+ */
 public class NTCredentialsWithEncryption extends NTCredentials {
 
     private static final Logger LOG = LoggerFactory.getLogger(NTCredentialsWithEncryption.class);
 
+    public static final int DEFAULT_MAX_CHANNELS = 16;
+
     boolean isAuthenticated = false;
     long negotiateFlags;
     byte[] clientSigningKey, serverSigningKey, clientSealingKey, serverSealingKey;
     AtomicLong sequenceNumberIncoming = new AtomicLong(-1), sequenceNumberOutgoing = new AtomicLong(-1);
 
+    private final int maxChannels;
+    // The idle channels, most recently used first; guarded by itself, as is channelCount
+    private final Deque<NTCredentialsWithEncryption> idleChannels;
+    private int channelCount;
+    /** The credentials this is a channel of, or {@code null} if this is a template */
+    private final NTCredentialsWithEncryption template;
+    private final int channelId;
+    /** Whether this channel is held by a request; guarded by the idle channels of the template */
+    private boolean leased;
+
     public NTCredentialsWithEncryption(String userName, String password, String workstation, String domain) {
+        this(userName, password, workstation, domain, DEFAULT_MAX_CHANNELS);
+    }
+
+    public NTCredentialsWithEncryption(String userName, String password, String workstation, String domain, int maxChannels) {
         super(userName, password, workstation, domain);
+        if (maxChannels < 1) {
+            throw new IllegalArgumentException("maxChannels must be at least 1");
+        }
+        this.maxChannels = maxChannels;
+        this.idleChannels = new ArrayDeque<>();
+        this.template = null;
+        this.channelId = 0;
+    }
+
+    private NTCredentialsWithEncryption(NTCredentialsWithEncryption template, int channelId) {
+        super(template.getUserName(), template.getPassword(), template.getWorkstation(), template.getDomain());
+        this.maxChannels = 1;
+        this.idleChannels = null;
+        this.template = template;
+        this.channelId = channelId;
+    }
+
+    /**
+     * @return whether this is one of the channels of a template, rather than a template
+     */
+    public boolean isChannel() {
+        return template != null;
+    }
+
+    /**
+     * Takes an idle channel of these credentials, creating one if fewer than {@code maxChannels} exist,
+     * or else waiting for one to be released. It must be given back with {@link #releaseChannel()}.
+     *
+     * @param timeout how long to wait at most for a channel to be released, as this is called from the
+     *                threads sending the requests, some of which are shared with other requests
+     * @throws IllegalStateException if no channel was released in time, or if interrupted
+     */
+    public NTCredentialsWithEncryption acquireChannel(long timeout, TimeUnit unit) {
+        if (isChannel()) {
+            throw new IllegalStateException("Cannot acquire a channel of channel " + this);
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idleChannels) {
+            while (idleChannels.isEmpty() && channelCount >= maxChannels) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new IllegalStateException("Timed out after " + unit.toMillis(timeout) + "ms waiting for one of the "
+                            + maxChannels + " NTLM sealing channels of " + getUserName() + " to be released");
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(idleChannels, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for an NTLM sealing channel", e);
+                }
+            }
+            NTCredentialsWithEncryption result;
+            if (!idleChannels.isEmpty()) {
+                result = idleChannels.pop();
+            } else {
+                channelCount++;
+                LOG.debug("Creating NTLM sealing channel {} for {}", channelCount, getUserName());
+                result = new NTCredentialsWithEncryption(this, channelCount);
+            }
+            result.leased = true;
+            return result;
+        }
+    }
+
+    /**
+     * Gives this channel back to its template, once the request using it has completed. Does nothing if
+     * it has already been given back.
+     */
+    public void releaseChannel() {
+        if (!isChannel()) {
+            throw new IllegalStateException("Not a channel: " + this);
+        }
+        synchronized (template.idleChannels) {
+            if (!leased) {
+                LOG.trace("Channel {} already released", this);
+                return;
+            }
+            leased = false;
+            template.idleChannels.push(this);
+            template.idleChannels.notify();
+        }
+    }
+
+    /** @return how many channels were created, idle or not */
+    int getChannelCount() {
+        synchronized (idleChannels) {
+            return channelCount;
+        }
+    }
+
+    /** @return how many channels are waiting to be acquired */
+    int getIdleChannelCount() {
+        synchronized (idleChannels) {
+            return idleChannels.size();
+        }
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        Principal principal = super.getUserPrincipal();
+        return isChannel() ? new ChannelPrincipal(principal, channelId) : principal;
     }
 
     public boolean isAuthenticated() {
@@ -34,10 +167,12 @@ public class NTCredentialsWithEncryption extends NTCredentials {
 
     public void setClientSigningKey(byte[] clientSigningKey) {
         this.clientSigningKey = clientSigningKey;
+        this.clientSigningMac = null;
     }
 
     public void setServerSigningKey(byte[] serverSigningKey) {
         this.serverSigningKey = serverSigningKey;
+        this.serverSigningMac = null;
     }
 
     public byte[] getClientSigningKey() {
@@ -96,6 +231,20 @@ public class NTCredentialsWithEncryption extends NTCredentials {
         return decryptor;
     }
 
+    Mac clientSigningMac = null;
+    /** The HMAC-MD5 of the client signing key, re-used for each outgoing message */
+    public Mac getClientSigningMac() {
+        if (clientSigningMac==null) clientSigningMac = WinrmEncryptionUtils.hmacMd5(getClientSigningKey());
+        return clientSigningMac;
+    }
+
+    Mac serverSigningMac = null;
+    /** The HMAC-MD5 of the server signing key, re-used for each incoming message */
+    public Mac getServerSigningMac() {
+        if (serverSigningMac==null) serverSigningMac = WinrmEncryptionUtils.hmacMd5(getServerSigningKey());
+        return serverSigningMac;
+    }
+
     public void resetEncryption(String response, HttpRequest request) {
         if (isAuthenticated()) {
             LOG.debug("Resetting encryption for {}", request);
@@ -110,6 +259,8 @@ public class NTCredentialsWithEncryption extends NTCredentials {
         serverSigningKey = null;
         encryptor = null;
         decryptor = null;
+        clientSigningMac = null;
+        serverSigningMac = null;
         sequenceNumberIncoming.set(-1);
         sequenceNumberOutgoing.set(-1);
 
@@ -132,7 +283,43 @@ public class NTCredentialsWithEncryption extends NTCredentials {
 
     @Override
     public String toString() {
-        return getClass().getSimpleName()+super.toString()+"{auth="+isAuthenticated()+"}";
+        return getClass().getSimpleName()+super.toString()+"{"+(isChannel() ? "channel="+channelId+"; " : "")+"auth="+isAuthenticated()+"}";
+    }
+
+    /**
+     * The principal of a channel, different from the ones of the other channels of the same credentials.
+     */
+    static class ChannelPrincipal implements Principal {
+        private final Principal principal;
+        private final int channelId;
+
+        ChannelPrincipal(Principal principal, int channelId) {
+            this.principal = principal;
+            this.channelId = channelId;
+        }
+
+        @Override
+        public String getName() {
+            return principal.getName();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ChannelPrincipal)) return false;
+            ChannelPrincipal other = (ChannelPrincipal) o;
+            return channelId == other.channelId && Objects.equals(principal, other.principal);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(principal, channelId);
+        }
+
+        @Override
+        public String toString() {
+            return principal + "#" + channelId;
+        }
     }
 
 }
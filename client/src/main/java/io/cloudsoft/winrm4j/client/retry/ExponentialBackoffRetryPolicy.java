@@ -0,0 +1,70 @@
+package io.cloudsoft.winrm4j.client.retry;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import javax.xml.ws.WebServiceException;
+
+/**
+ * Retry policy that doubles the pause after each failed attempt, up to a maximum, and picks the actual
+ * pause at random between zero and that ("full jitter"), so that the clients failing at the same time,
+ * e.g. when the network to many hosts flaps, do not all retry at the same time.
+ *
+ * @since 0.13.0
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+    private final int maxRetries;
+    private final long initialPauseMillis;
+    private final long maxPauseMillis;
+    private final DoubleSupplier random;
+
+    /**
+     * @param maxRetries    total number of retries (e.g. {@code 1} means two attempts).
+     * @param initialPause  the most the pause after the first attempt can be
+     * @param maxPause      the most any pause can be
+     * @param pauseUnit     unit of the {@code initialPause} and {@code maxPause} durations
+     */
+    public ExponentialBackoffRetryPolicy(int maxRetries, long initialPause, long maxPause, TimeUnit pauseUnit) {
+        this(maxRetries, initialPause, maxPause, pauseUnit, () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * @param random values from 0 (included) to 1 (excluded), the fraction of the pause
+     */
+    ExponentialBackoffRetryPolicy(int maxRetries, long initialPause, long maxPause, TimeUnit pauseUnit, DoubleSupplier random) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries should be at least 0");
+        }
+        if (initialPause < 0 || maxPause < initialPause) {
+            throw new IllegalArgumentException("pauses should be at least 0, and maxPause at least initialPause");
+        }
+        this.maxRetries = maxRetries;
+        this.initialPauseMillis = pauseUnit.toMillis(initialPause);
+        this.maxPauseMillis = pauseUnit.toMillis(maxPause);
+        this.random = random;
+    }
+
+    @Override
+    public RetryDecision onWebServiceException(WebServiceException exception, int numAttempts) {
+        if (numAttempts > maxRetries) {
+            return new BasicRetryDecision(false, 0, Optional.of("Attempt " + numAttempts + " of " + (maxRetries + 1)));
+        }
+        long pauseTimeMillis = (long) (random.getAsDouble() * (getMaxPauseMillis(numAttempts) + 1));
+        Optional<String> reason = Optional.of("Attempt " + numAttempts + " of " + (maxRetries + 1) + ", pausing " + pauseTimeMillis + "ms");
+        return new BasicRetryDecision(true, pauseTimeMillis, reason);
+    }
+
+    /**
+     * @return the most the pause after the given attempt can be, before jitter
+     */
+    long getMaxPauseMillis(int numAttempts) {
+        int doublings = numAttempts - 1;
+        // doubling beyond the highest bit would overflow
+        if (initialPauseMillis == 0 || doublings >= Long.numberOfLeadingZeros(initialPauseMillis) - 1) {
+            return initialPauseMillis == 0 ? 0 : maxPauseMillis;
+        }
+        return Math.min(maxPauseMillis, initialPauseMillis << doublings);
+    }
+}
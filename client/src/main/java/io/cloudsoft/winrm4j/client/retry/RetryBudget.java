@@ -0,0 +1,75 @@
+package io.cloudsoft.winrm4j.client.retry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket bounding the retries to an endpoint: each retry takes a token, and the tokens are given back
+ * at a steady rate up to the size of the bucket. While the endpoint is healthy the bucket stays full; when
+ * it fails for everyone the retries stop once the bucket is empty, rather than adding to the load.
+ *
+ * Thread-safe, to be shared by the clients of the endpoint, see {@link RetryBudgetPolicy}.
+ *
+ * @since 0.13.0
+ */
+public class RetryBudget {
+    private final double maxTokens;
+    private final double tokensPerNano;
+    private final LongSupplier nanoClock;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param maxTokens        the retries allowed at once, when none were done for a while
+     * @param tokensPerSecond  the retries allowed per second once those are used
+     */
+    public RetryBudget(int maxTokens, double tokensPerSecond) {
+        this(maxTokens, tokensPerSecond, System::nanoTime);
+    }
+
+    RetryBudget(int maxTokens, double tokensPerSecond, LongSupplier nanoClock) {
+        if (maxTokens < 1) {
+            throw new IllegalArgumentException("maxTokens should be at least 1");
+        }
+        if (tokensPerSecond < 0) {
+            throw new IllegalArgumentException("tokensPerSecond should be at least 0");
+        }
+        this.maxTokens = maxTokens;
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.nanoClock = nanoClock;
+        this.tokens = maxTokens;
+        this.lastRefillNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * @return whether a retry may be done, in which case it is counted
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * @return the retries which may be done now
+     */
+    public synchronized int getAvailable() {
+        refill();
+        return (int) tokens;
+    }
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        tokens = Math.min(maxTokens, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryBudget[available=" + getAvailable() + "/" + (int) maxTokens + "]";
+    }
+}
@@ -0,0 +1,33 @@
+package io.cloudsoft.winrm4j.client.retry;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Optional;
+
+import javax.xml.ws.WebServiceException;
+
+/**
+ * Retry policy that retries as the given policy decides, as long as the {@link RetryBudget} of the endpoint
+ * allows. Clients of the same endpoint sharing the budget stop retrying together once many of their requests
+ * fail, e.g. while the host or its network is down.
+ *
+ * @since 0.13.0
+ */
+public class RetryBudgetPolicy implements RetryPolicy {
+    private final RetryPolicy delegate;
+    private final RetryBudget budget;
+
+    public RetryBudgetPolicy(RetryPolicy delegate, RetryBudget budget) {
+        this.delegate = requireNonNull(delegate, "delegate");
+        this.budget = requireNonNull(budget, "budget");
+    }
+
+    @Override
+    public RetryDecision onWebServiceException(WebServiceException exception, int numAttempts) {
+        RetryDecision decision = delegate.onWebServiceException(exception, numAttempts);
+        if (!decision.shouldRetry() || budget.tryAcquire()) {
+            return decision;
+        }
+        return new BasicRetryDecision(false, 0, Optional.of("Attempt " + numAttempts + ", retry budget exhausted"));
+    }
+}
@@ -0,0 +1,156 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+import javax.xml.soap.SOAPConstants;
+import javax.xml.soap.SOAPFactory;
+import javax.xml.soap.SOAPFault;
+import javax.xml.ws.soap.SOAPFaultException;
+
+import org.testng.annotations.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    public void testQueuesPastLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("http://myhost:5985", 2, 2);
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire();
+        limiter.acquire();
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> third = limiter.acquireAsync();
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> fourth = limiter.acquireAsync();
+
+        assertFalse(third.isDone());
+        assertEquals(limiter.getInFlight(), 2);
+        assertEquals(limiter.getQueued(), 2);
+
+        first.release(null);
+
+        assertTrue(third.isDone());
+        assertFalse(fourth.isDone());
+        assertEquals(limiter.getInFlight(), 2);
+        assertEquals(limiter.getQueued(), 1);
+
+        third.join().release(null);
+        third.join().release(null);
+        assertTrue(fourth.isDone());
+        assertEquals(limiter.getInFlight(), 2);
+    }
+
+    @Test
+    public void testQuotaFaultsHalveLimitOncePerRound() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("http://myhost:5985", 8, 8);
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            permits.add(limiter.acquire());
+        }
+
+        permits.get(0).release(newQuotaFault());
+        permits.get(1).release(newQuotaFault());
+
+        assertEquals(limiter.getLimit(), 4);
+        assertEquals(limiter.getQuotaFaultCount(), 2);
+        assertEquals(limiter.getDecreasedCount(), 1);
+        assertFalse(limiter.acquireAsync().isDone());
+
+        for (int i = 2; i < 8; i++) {
+            permits.get(i).release(null);
+        }
+        assertEquals(limiter.getInFlight(), 1);
+        limiter.acquire().release(newQuotaFault());
+        assertEquals(limiter.getLimit(), 2);
+    }
+
+    @Test
+    public void testOtherFailuresKeepLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("http://myhost:5985", 4, 8);
+
+        limiter.acquire().release(new IllegalStateException("simulated failure"));
+
+        assertEquals(limiter.getLimit(), 4);
+        assertEquals(limiter.getDecreasedCount(), 0);
+    }
+
+    @Test
+    public void testSuccessesRaiseLimitWhileInUse() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("http://myhost:5985", 3, 4);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire().release(null);
+        }
+        assertEquals(limiter.getLimit(), 3);
+
+        for (int i = 0; i < 10; i++) {
+            AdaptiveConcurrencyLimiter.Permit first = limiter.acquire();
+            AdaptiveConcurrencyLimiter.Permit second = limiter.acquire();
+            first.release(null);
+            second.release(null);
+        }
+        assertEquals(limiter.getLimit(), 4);
+    }
+
+    @Test
+    public void testLatencyGrowthLowersLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("http://myhost:5985", 10, 10);
+
+        for (int i = 0; i < 5; i++) {
+            releaseWithLatency(limiter.acquire(), 100);
+        }
+        assertEquals(limiter.getLimit(), 10);
+
+        releaseWithLatency(limiter.acquire(), 150);
+        assertEquals(limiter.getLimit(), 10);
+
+        releaseWithLatency(limiter.acquire(), 500);
+        assertEquals(limiter.getLimit(), 9);
+        assertEquals(limiter.getDecreasedCount(), 1);
+    }
+
+    @Test
+    public void testCancelledWaitersSkipped() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("http://myhost:5985", 1, 1);
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire();
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> cancelled = limiter.acquireAsync();
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> next = limiter.acquireAsync();
+
+        cancelled.cancel(false);
+        first.release(null);
+
+        assertTrue(next.isDone());
+        assertEquals(limiter.getInFlight(), 1);
+        assertEquals(limiter.getQueued(), 0);
+    }
+
+    @Test
+    public void testRecognisesQuotaFaults() throws Exception {
+        assertTrue(AdaptiveConcurrencyLimiter.isQuotaFault(newQuotaFault()));
+        assertFalse(AdaptiveConcurrencyLimiter.isQuotaFault(newFault(ShellCommand.WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND)));
+        assertFalse(AdaptiveConcurrencyLimiter.isQuotaFault(new IllegalStateException()));
+        assertFalse(AdaptiveConcurrencyLimiter.isQuotaFault(null));
+    }
+
+    private static void releaseWithLatency(AdaptiveConcurrencyLimiter.Permit permit, long latencyMillis) {
+        permit.recordLatency(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        permit.release(null);
+    }
+
+    private static SOAPFaultException newQuotaFault() throws Exception {
+        // MaxConcurrentOperationsPerUser exceeded
+        return newFault("2150859174");
+    }
+
+    private static SOAPFaultException newFault(String code) throws Exception {
+        SOAPFault fault = SOAPFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL).createFault();
+        fault.setFaultString("The WS-Management service cannot process the request");
+        fault.addDetail().addDetailEntry(new QName("http://schemas.microsoft.com/wbem/wsman/1/wsmanfault", "WSManFault"))
+                .setAttribute("Code", code);
+        return new SOAPFaultException(fault);
+    }
+}
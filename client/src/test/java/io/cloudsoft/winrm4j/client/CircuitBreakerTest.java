@@ -0,0 +1,116 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.ws.WebServiceException;
+
+import org.testng.annotations.Test;
+
+import io.cloudsoft.winrm4j.client.retry.SimpleCounterRetryPolicy;
+import io.cloudsoft.winrm4j.client.shell.Shell;
+import io.cloudsoft.winrm4j.client.wsman.Locale;
+import io.cloudsoft.winrm4j.client.wsman.OptionSetType;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = newCircuitBreaker(3);
+
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        assertTrue(breaker.tryAcquire());
+
+        breaker.onFailure();
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        assertFalse(breaker.tryAcquire());
+        assertEquals(breaker.getOpenedCount(), 1);
+        assertEquals(breaker.getRejectedCount(), 1);
+    }
+
+    @Test
+    public void testHalfOpensWithSingleProbe() {
+        CircuitBreaker breaker = newCircuitBreaker(1);
+        breaker.onFailure();
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertFalse(breaker.tryAcquire());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertTrue(breaker.tryAcquire());
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        assertFalse(breaker.tryAcquire());
+
+        breaker.onSuccess();
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertEquals(breaker.getHalfOpenedCount(), 1);
+        assertEquals(breaker.getClosedCount(), 1);
+    }
+
+    @Test
+    public void testFailedProbeOpensAgain() {
+        CircuitBreaker breaker = newCircuitBreaker(1);
+        breaker.onFailure();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertTrue(breaker.tryAcquire());
+
+        breaker.onFailure();
+
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        assertEquals(breaker.getOpenedCount(), 2);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        assertFalse(breaker.tryAcquire());
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testRequestsFailFastWhileOpen() throws Exception {
+        CircuitBreaker breaker = newCircuitBreaker(2);
+        AtomicInteger calls = new AtomicInteger();
+        WinRm target = (WinRm) Proxy.newProxyInstance(WinRm.class.getClassLoader(), new Class[] {WinRm.class}, (proxy, method, args) -> {
+            calls.incrementAndGet();
+            throw new WebServiceException("simulated failure", new IOException("simulated failure"));
+        });
+        WinRm winrm = (WinRm) Proxy.newProxyInstance(WinRm.class.getClassLoader(), new Class[] {WinRm.class},
+                new RetryingProxyHandler(target, null, new SimpleCounterRetryPolicy(5, 1, TimeUnit.MILLISECONDS), WinRmMetrics.NONE, breaker));
+
+        try {
+            winrm.create((Shell) null, "myResourceUri", 0, "myOperationTimeout", (Locale) null, (OptionSetType) null);
+            fail("Should have failed");
+        } catch (CircuitBreakerOpenException e) {
+            assertEquals(e.getEndpoint(), "http://myhost:5985");
+        }
+        assertEquals(calls.get(), 2);
+
+        try {
+            winrm.create((Shell) null, "myResourceUri", 0, "myOperationTimeout", (Locale) null, (OptionSetType) null);
+            fail("Should have failed");
+        } catch (CircuitBreakerOpenException e) {
+            // expected
+        }
+        assertEquals(calls.get(), 2);
+        assertEquals(breaker.getRejectedCount(), 2);
+    }
+
+    private CircuitBreaker newCircuitBreaker(int failureThreshold) {
+        return new CircuitBreaker("http://myhost:5985", failureThreshold, 10, TimeUnit.SECONDS, nanos::get);
+    }
+}
@@ -0,0 +1,83 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class CommandLimiterTest {
+
+    @Test
+    public void testWaitsPastLimitInOrder() {
+        CommandLimiter limiter = new CommandLimiter(1);
+        assertTrue(limiter.acquireAsync().isDone());
+
+        CompletableFuture<Void> second = limiter.acquireAsync();
+        CompletableFuture<Void> third = limiter.acquireAsync();
+        assertFalse(second.isDone());
+
+        limiter.release();
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+
+        limiter.release();
+        assertTrue(third.isDone());
+        limiter.release();
+        assertEquals(limiter.getRunning(), 0);
+    }
+
+    @Test
+    public void testCancelledWaitSkipped() {
+        CommandLimiter limiter = new CommandLimiter(1);
+        limiter.acquireAsync();
+        CompletableFuture<Void> cancelled = limiter.acquireAsync();
+        CompletableFuture<Void> next = limiter.acquireAsync();
+
+        cancelled.cancel(false);
+        limiter.release();
+
+        assertTrue(next.isDone());
+        assertEquals(limiter.getRunning(), 1);
+    }
+
+    @Test(timeOut = 10000)
+    public void testAcquireBlocksUntilReleased() throws Exception {
+        CommandLimiter limiter = new CommandLimiter(2);
+        limiter.acquire();
+        limiter.acquire();
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            limiter.acquire();
+            acquired.countDown();
+        });
+        thread.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+        limiter.release();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(limiter.getRunning(), 2);
+    }
+
+    @Test(timeOut = 10000)
+    public void testInterruptedAcquireGivesUpItsTurn() throws Exception {
+        CommandLimiter limiter = new CommandLimiter(1);
+        limiter.acquire();
+
+        Thread thread = new Thread(limiter::acquire);
+        thread.start();
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        thread.interrupt();
+        thread.join();
+
+        limiter.release();
+        assertEquals(limiter.getRunning(), 0);
+    }
+}
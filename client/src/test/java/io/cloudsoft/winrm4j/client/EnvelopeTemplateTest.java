@@ -0,0 +1,172 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.cxf.interceptor.StaxOutInterceptor;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.cxf.phase.PhaseInterceptorChain;
+import org.apache.cxf.ws.addressing.AddressingProperties;
+import org.apache.cxf.ws.addressing.AttributedURIType;
+import org.apache.cxf.ws.addressing.ContextUtils;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import io.cloudsoft.winrm4j.client.wsman.Locale;
+
+public class EnvelopeTemplateTest {
+
+    private static final String ADDRESSING_NS = "http://schemas.xmlsoap.org/ws/2004/08/addressing";
+    private static final String WSMAN_NS = "http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd";
+    private static final String SHELL_NS = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell";
+
+    @Test
+    public void testReceiveEnvelope() throws Exception {
+        Document envelope = render(newShellEnvelopes().receive("C&1"), "uuid:1");
+
+        assertEquals(text(envelope, ADDRESSING_NS, "Action"), EnvelopeTemplate.RECEIVE_ACTION);
+        assertEquals(text(envelope, ADDRESSING_NS, "MessageID"), "uuid:1");
+        assertEquals(text(envelope, ADDRESSING_NS, "To"), "http://host:5985/wsman?a=1&b=2");
+        assertEquals(text(envelope, WSMAN_NS, "ResourceURI"), WinRmClient.RESOURCE_URI);
+        assertEquals(text(envelope, WSMAN_NS, "MaxEnvelopeSize"), String.valueOf(WinRmClient.MAX_ENVELOPER_SIZE));
+        assertEquals(text(envelope, WSMAN_NS, "OperationTimeout"), "PT60.000S");
+        assertEquals(element(envelope, WSMAN_NS, "Locale").getAttributeNS("http://www.w3.org/XML/1998/namespace", "lang"), "en-US");
+        assertEquals(element(envelope, WSMAN_NS, "Selector").getAttribute("Name"), "ShellId");
+        assertEquals(text(envelope, WSMAN_NS, "Selector"), "S<1>");
+        Element desiredStream = element(envelope, SHELL_NS, "DesiredStream");
+        assertEquals(desiredStream.getAttributeNS(SHELL_NS, "CommandId"), "C&1");
+        assertEquals(desiredStream.getTextContent(), "stdout stderr");
+    }
+
+    @Test
+    public void testSignalAndDeleteEnvelopes() throws Exception {
+        EnvelopeTemplate.ShellEnvelopes envelopes = newShellEnvelopes();
+
+        Document signal = render(envelopes.terminate("C1"), "uuid:2");
+        assertEquals(text(signal, ADDRESSING_NS, "Action"), EnvelopeTemplate.SIGNAL_ACTION);
+        assertEquals(element(signal, SHELL_NS, "Signal").getAttribute("CommandId"), "C1");
+        assertEquals(text(signal, SHELL_NS, "Code"), EnvelopeTemplate.TERMINATE_SIGNAL);
+
+        Document delete = render(envelopes.delete(), "uuid:3");
+        assertEquals(text(delete, ADDRESSING_NS, "Action"), EnvelopeTemplate.DELETE_ACTION);
+        assertEquals(text(delete, ADDRESSING_NS, "MessageID"), "uuid:3");
+        assertEquals(element(delete, "http://www.w3.org/2003/05/soap-envelope", "Body").getChildNodes().getLength(), 0);
+    }
+
+    @Test
+    public void testInterceptorWritesTemplateAndSkipsWriters() throws Exception {
+        List<String> run = new ArrayList<>();
+        Message message = newMessage();
+        message.put(EnvelopeTemplate.PROPERTY, newShellEnvelopes().receive("C1"));
+        AddressingProperties maps = new AddressingProperties();
+        AttributedURIType messageId = new AttributedURIType();
+        messageId.setValue("urn:uuid:42");
+        maps.setMessageID(messageId);
+        message.put(ContextUtils.getMAPProperty(true, false, true), maps);
+
+        PhaseInterceptorChain chain = newChain(run);
+        message.setInterceptorChain(chain);
+        chain.doIntercept(message);
+
+        assertEquals(run, Arrays.asList(Phase.PREPARE_SEND, Phase.PREPARE_SEND_ENDING));
+        Document envelope = parse(((ByteArrayOutputStream) message.getContent(OutputStream.class)).toByteArray());
+        assertEquals(text(envelope, ADDRESSING_NS, "MessageID"), "urn:uuid:42");
+    }
+
+    @Test
+    public void testInterceptorLeavesOtherRequests() throws Exception {
+        List<String> run = new ArrayList<>();
+        Message message = newMessage();
+
+        PhaseInterceptorChain chain = newChain(run);
+        message.setInterceptorChain(chain);
+        chain.doIntercept(message);
+
+        assertEquals(run, Arrays.asList(Phase.PREPARE_SEND, Phase.PRE_STREAM, Phase.WRITE, Phase.PREPARE_SEND_ENDING));
+        assertEquals(((ByteArrayOutputStream) message.getContent(OutputStream.class)).size(), 0);
+    }
+
+    @Test
+    public void testEscape() {
+        assertEquals(EnvelopeTemplate.escape("a<b>&\"c\""), "a&lt;b&gt;&amp;&quot;c&quot;");
+        String plain = "plain";
+        assertSame(EnvelopeTemplate.escape(plain), plain);
+    }
+
+    private static EnvelopeTemplate.ShellEnvelopes newShellEnvelopes() {
+        Locale locale = new Locale();
+        locale.setLang("en-US");
+        return new EnvelopeTemplate.ShellEnvelopes("http://host:5985/wsman?a=1&b=2", WinRmClient.RESOURCE_URI,
+                WinRmClient.MAX_ENVELOPER_SIZE, "PT60.000S", locale, "S<1>");
+    }
+
+    private static Message newMessage() {
+        Message message = new MessageImpl();
+        Exchange exchange = new ExchangeImpl();
+        message.setExchange(exchange);
+        message.put(Message.REQUESTOR_ROLE, Boolean.TRUE);
+        message.setContent(OutputStream.class, new ByteArrayOutputStream());
+        return message;
+    }
+
+    /**
+     * A chain as the one of a request, with interceptors recording their phase in place of those
+     * which write the request (skipped) and send it (kept).
+     */
+    private static PhaseInterceptorChain newChain(List<String> run) {
+        String[] names = {Phase.PREPARE_SEND, Phase.PRE_STREAM, Phase.WRITE, Phase.PREPARE_SEND_ENDING};
+        SortedSet<Phase> phases = new TreeSet<>();
+        for (int i = 0; i < names.length; i++) {
+            phases.add(new Phase(names[i], (i + 1) * 1000));
+        }
+        PhaseInterceptorChain chain = new PhaseInterceptorChain(phases);
+        for (String name : names) {
+            String id = Phase.PRE_STREAM.equals(name) ? StaxOutInterceptor.class.getName() : name + "-recorder";
+            chain.add(new AbstractPhaseInterceptor<Message>(id, name) {
+                @Override
+                public void handleMessage(Message message) {
+                    run.add(getPhase());
+                }
+            });
+        }
+        chain.add(new EnvelopeTemplateOutInterceptor());
+        return chain;
+    }
+
+    private static Document render(EnvelopeTemplate template, String messageId) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.write(out, messageId);
+        return parse(out.toByteArray());
+    }
+
+    private static Document parse(byte[] xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+    }
+
+    private static Element element(Document document, String namespace, String localName) {
+        return (Element) document.getElementsByTagNameNS(namespace, localName).item(0);
+    }
+
+    private static String text(Document document, String namespace, String localName) {
+        return element(document, namespace, localName).getTextContent();
+    }
+}
@@ -0,0 +1,148 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.xml.namespace.QName;
+import javax.xml.soap.SOAPConstants;
+import javax.xml.soap.SOAPFactory;
+import javax.xml.soap.SOAPFault;
+import javax.xml.ws.WebServiceException;
+import javax.xml.ws.soap.SOAPFaultException;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.testng.annotations.Test;
+
+import io.cloudsoft.winrm4j.client.jfr.OperationEvent;
+import io.cloudsoft.winrm4j.client.jfr.RetryEvent;
+import io.cloudsoft.winrm4j.client.jfr.WinRmEvents;
+import io.cloudsoft.winrm4j.client.retry.SimpleCounterRetryPolicy;
+import io.cloudsoft.winrm4j.client.shell.DesiredStreamType;
+import io.cloudsoft.winrm4j.client.shell.Receive;
+import io.cloudsoft.winrm4j.client.wsman.Locale;
+import io.cloudsoft.winrm4j.client.wsman.SelectorSetType;
+import io.cloudsoft.winrm4j.client.wsman.SelectorType;
+import io.cloudsoft.winrm4j.client.wsman.Signal;
+
+public class FlightRecorderEventsTest {
+
+    @Test
+    public void testRecordsOperationsAndRetries() throws Exception {
+        assertTrue(WinRmEvents.ENABLED);
+        AtomicInteger calls = new AtomicInteger();
+        WinRm winrm = newRetryingWinRm((proxy, method, args) -> {
+            if (calls.getAndIncrement() == 0) {
+                throw new WebServiceException("simulated failure", new IOException("simulated failure"));
+            }
+            return null;
+        });
+
+        List<RecordedEvent> events = record(() -> winrm.receive(newReceive("myCommandId"), "myResourceUri", 0, "myOperationTimeout",
+                (Locale) null, newShellSelector("myShellId")));
+
+        List<RecordedEvent> operations = ofType(events, "io.cloudsoft.winrm4j.Operation");
+        assertEquals(operations.size(), 1);
+        RecordedEvent operation = operations.get(0);
+        assertEquals(operation.getString("operation"), "Receive");
+        assertEquals(operation.getString("shellId"), "myShellId");
+        assertEquals(operation.getString("commandId"), "myCommandId");
+        assertFalse(operation.getBoolean("failed"));
+
+        List<RecordedEvent> retries = ofType(events, "io.cloudsoft.winrm4j.Retry");
+        assertEquals(retries.size(), 1);
+        assertEquals(retries.get(0).getString("operation"), "Receive");
+        assertEquals(retries.get(0).getInt("attempt"), 1);
+    }
+
+    @Test
+    public void testRecordsFaultCode() throws Exception {
+        SOAPFault fault = SOAPFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL).createFault();
+        fault.setFaultString("The request for the Windows Remote Shell with ShellId myShellId failed");
+        fault.addDetail().addDetailEntry(new QName("http://schemas.microsoft.com/wbem/wsman/1/wsmanfault", "WSManFault"))
+                .setAttribute("Code", ShellCommand.WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND);
+        WinRm winrm = newRetryingWinRm((proxy, method, args) -> {
+            throw new SOAPFaultException(fault);
+        });
+        Signal signal = new Signal();
+        signal.setCommandId("myCommandId");
+
+        List<RecordedEvent> events = record(() -> {
+            try {
+                winrm.signal(signal, "myResourceUri", 0, "myOperationTimeout", (Locale) null, newShellSelector("myShellId"));
+                fail("Should have propagated fault");
+            } catch (SOAPFaultException e) {
+                // expected
+            }
+        });
+
+        List<RecordedEvent> operations = ofType(events, "io.cloudsoft.winrm4j.Operation");
+        assertEquals(operations.size(), 1);
+        assertEquals(operations.get(0).getString("operation"), "Signal");
+        assertEquals(operations.get(0).getString("commandId"), "myCommandId");
+        assertTrue(operations.get(0).getBoolean("failed"));
+        assertEquals(operations.get(0).getString("faultCode"), ShellCommand.WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND);
+        assertTrue(ofType(events, "io.cloudsoft.winrm4j.Retry").isEmpty());
+    }
+
+    @Test
+    public void testNoEventWhenNotRecording() {
+        assertEquals(FlightRecorderEvents.beginOperation("Receive"), null);
+    }
+
+    private static WinRm newRetryingWinRm(InvocationHandler target) {
+        WinRm winrm = (WinRm) Proxy.newProxyInstance(WinRm.class.getClassLoader(), new Class[] {WinRm.class}, target);
+        return (WinRm) Proxy.newProxyInstance(WinRm.class.getClassLoader(), new Class[] {WinRm.class},
+                new RetryingProxyHandler(winrm, new SimpleCounterRetryPolicy(1, 1, TimeUnit.MILLISECONDS)));
+    }
+
+    private static List<RecordedEvent> record(Runnable task) throws IOException {
+        Path file = Files.createTempFile("winrm4j", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(OperationEvent.class);
+            recording.enable(RetryEvent.class);
+            recording.start();
+            task.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<RecordedEvent> ofType(List<RecordedEvent> events, String name) {
+        return events.stream().filter(e -> e.getEventType().getName().equals(name)).collect(Collectors.toList());
+    }
+
+    private static Receive newReceive(String commandId) {
+        DesiredStreamType stream = new DesiredStreamType();
+        stream.setCommandId(commandId);
+        Receive receive = new Receive();
+        receive.setDesiredStream(stream);
+        return receive;
+    }
+
+    private static SelectorSetType newShellSelector(String shellId) {
+        SelectorType selector = new SelectorType();
+        selector.setName("ShellId");
+        selector.getContent().add(shellId);
+        SelectorSetType selectorSet = new SelectorSetType();
+        selectorSet.getSelector().add(selector);
+        return selectorSet;
+    }
+}
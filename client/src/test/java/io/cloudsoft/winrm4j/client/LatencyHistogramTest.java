@@ -0,0 +1,74 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverTheValues() {
+        long[] values = {0, 1, 63, 64, 65, 127, 128, 1000, 1_000_000, 123_456_789_012L, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(LatencyHistogram.lowestValue(index) <= value, "lowest of " + value);
+            assertTrue(LatencyHistogram.highestValue(index) >= value, "highest of " + value);
+        }
+    }
+
+    @Test
+    public void testBucketsWithinThreePercent() {
+        for (long value = 64; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            int index = LatencyHistogram.index(value);
+            long width = LatencyHistogram.highestValue(index) - LatencyHistogram.lowestValue(index) + 1;
+            assertTrue(width <= value / 32 + 1, "width " + width + " of the bucket of " + value);
+        }
+    }
+
+    @Test
+    public void testSmallValuesExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 50; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(histogram.getCount(), 50);
+        assertEquals(histogram.getMax(), 50);
+        assertEquals(histogram.getMean(), 25.5, 0.001);
+        assertEquals(histogram.getValueAtPercentile(0), 1);
+        assertEquals(histogram.getValueAtPercentile(50), 25);
+        assertEquals(histogram.getValueAtPercentile(100), 50);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(1_000_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(500_000_000);
+        }
+
+        assertEquals(histogram.getValueAtPercentile(50), 1_000_000, 1_000_000 / 32);
+        assertEquals(histogram.getValueAtPercentile(99), 1_000_000, 1_000_000 / 32);
+        assertEquals(histogram.getValueAtPercentile(99.9), 500_000_000);
+        assertEquals(histogram.getMax(), 500_000_000);
+    }
+
+    @Test
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.record(-1);
+        assertEquals(histogram.getCount(), 2);
+        assertEquals(histogram.getValueAtPercentile(0), 0);
+
+        histogram.reset();
+
+        assertEquals(histogram.getCount(), 0);
+        assertEquals(histogram.getMax(), 0);
+        assertEquals(histogram.getValueAtPercentile(99), 0);
+    }
+}
@@ -0,0 +1,120 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class PipelinedStreamSinkTest {
+
+    @Test(timeOut = 10000)
+    public void testChunksWrittenInOrder() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        PipelinedStreamSink sink = new PipelinedStreamSink(StreamSink.toStreams(out, err), 2, "test-output");
+
+        byte[] buffer = {1, 2, 3};
+        sink.write("stdout", buffer, 0, 2, false);
+        // the buffer is re-used, as by the streaming receive
+        buffer[0] = 4;
+        sink.write("stderr", buffer, 0, 1, false);
+        sink.write("stdout", buffer, 2, 1, true);
+        sink.finish();
+
+        assertEquals(out.toByteArray(), new byte[] {1, 2, 3});
+        assertEquals(err.toByteArray(), new byte[] {4});
+    }
+
+    @Test(timeOut = 10000)
+    public void testWriteBlocksOnceQueueFull() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamSink slow = new StreamSink() {
+            @Override
+            void write(String stream, byte[] value, int offset, int length, boolean end) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                out.write(value, offset, length);
+            }
+        };
+        PipelinedStreamSink sink = new PipelinedStreamSink(slow, 1, "test-output");
+
+        // the first chunk is being written, the second queued
+        sink.write("stdout", new byte[] {1}, false);
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        sink.write("stdout", new byte[] {2}, false);
+
+        CountDownLatch written = new CountDownLatch(1);
+        Thread receiver = new Thread(() -> {
+            sink.write("stdout", new byte[] {3}, false);
+            written.countDown();
+        });
+        receiver.start();
+        assertFalse(written.await(200, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        sink.finish();
+        assertEquals(out.toByteArray(), new byte[] {1, 2, 3});
+    }
+
+    @Test(timeOut = 10000)
+    public void testWriterFailureRethrown() throws Exception {
+        CountDownLatch failed = new CountDownLatch(1);
+        PipelinedStreamSink sink = new PipelinedStreamSink(new StreamSink() {
+            @Override
+            void write(String stream, byte[] value, int offset, int length, boolean end) {
+                failed.countDown();
+                throw new IllegalStateException("writer closed");
+            }
+        }, 1, "test-output");
+
+        sink.write("stdout", new byte[] {1}, false);
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        try {
+            sink.finish();
+            fail("expected the failure of the writer");
+        } catch (IllegalStateException e) {
+            assertEquals(e.getCause().getMessage(), "writer closed");
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testAbortDiscardsQueuedChunks() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PipelinedStreamSink sink = new PipelinedStreamSink(new StreamSink() {
+            @Override
+            void write(String stream, byte[] value, int offset, int length, boolean end) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                out.write(value, offset, length);
+            }
+        }, 1, "test-output");
+
+        sink.write("stdout", new byte[] {1}, false);
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        sink.write("stdout", new byte[] {2}, false);
+
+        sink.abort();
+        release.countDown();
+        Thread.sleep(200);
+        assertEquals(out.toByteArray(), new byte[] {1});
+    }
+}
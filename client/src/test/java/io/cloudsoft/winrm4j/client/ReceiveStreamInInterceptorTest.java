@@ -0,0 +1,131 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.service.model.BindingOperationInfo;
+import org.apache.cxf.service.model.InterfaceInfo;
+import org.apache.cxf.service.model.ServiceInfo;
+import org.apache.cxf.staxutils.StaxUtils;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class ReceiveStreamInInterceptorTest {
+
+    private static final String NS = ReceiveStreamInInterceptor.SHELL_NAMESPACE;
+
+    @Test
+    public void testStreamsOfRegisteredCommandWrittenToSink() throws Exception {
+        byte[] stdout = new byte[3 * StreamSink.CHUNK_SIZE + 5];
+        new Random(1).nextBytes(stdout);
+        int split = StreamSink.CHUNK_SIZE + 1;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        ReceiveStreamInInterceptor interceptor = new ReceiveStreamInInterceptor();
+        interceptor.register("C1", StreamSink.toStreams(out, err));
+
+        Document result = filter(interceptor, "Receive", "<rsp:ReceiveResponse>"
+                + stream("stdout", "C1", base64(stdout, 0, split), false)
+                + stream("stderr", "C1", base64("oops".getBytes(), 0, 4), true)
+                + stream("stdout", "C2", base64("other".getBytes(), 0, 5), false)
+                // wrapped lines, as some servers send them
+                + stream("stdout", "C1", Base64.getMimeEncoder().encodeToString(Arrays.copyOfRange(stdout, split, stdout.length)), true)
+                + "<rsp:CommandState CommandId=\"C1\" State=\"" + NS + "/CommandState/Done\"><rsp:ExitCode>0</rsp:ExitCode></rsp:CommandState>"
+                + "</rsp:ReceiveResponse>");
+
+        assertEquals(out.toByteArray(), stdout);
+        assertEquals(new String(err.toByteArray()), "oops");
+
+        // only the stream of the other command is left for JAXB
+        NodeList streams = result.getElementsByTagNameNS(NS, "Stream");
+        assertEquals(streams.getLength(), 1);
+        assertEquals(((Element) streams.item(0)).getAttribute("CommandId"), "C2");
+        assertEquals(result.getElementsByTagNameNS(NS, "ExitCode").item(0).getTextContent(), "0");
+    }
+
+    @Test
+    public void testPaddingAndEmptyStreams() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ReceiveStreamInInterceptor interceptor = new ReceiveStreamInInterceptor();
+        interceptor.register("C1", StreamSink.toStreams(out, null));
+
+        filter(interceptor, "Receive", "<rsp:ReceiveResponse>"
+                + stream("stdout", "C1", base64("a".getBytes(), 0, 1), false)
+                + stream("stdout", "C1", base64("bc".getBytes(), 0, 2), false)
+                + stream("stdout", "C1", "", false)
+                + stream("stdout", "C1", "", true)
+                + "</rsp:ReceiveResponse>");
+
+        assertEquals(new String(out.toByteArray()), "abc");
+    }
+
+    @Test
+    public void testOtherOperationsLeftAlone() throws Exception {
+        ReceiveStreamInInterceptor interceptor = new ReceiveStreamInInterceptor();
+        interceptor.register("C1", StreamSink.toStreams(new ByteArrayOutputStream(), null));
+        Message message = newMessage("Command", "<rsp:CommandResponse/>");
+        XMLStreamReader reader = message.getContent(XMLStreamReader.class);
+
+        interceptor.handleMessage(message);
+
+        assertSame(message.getContent(XMLStreamReader.class), reader);
+    }
+
+    @Test
+    public void testUnregisteredCommandLeftAlone() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ReceiveStreamInInterceptor interceptor = new ReceiveStreamInInterceptor();
+        interceptor.register("C1", StreamSink.toStreams(out, null));
+        interceptor.unregister("C1");
+        interceptor.register("C2", StreamSink.toStreams(new ByteArrayOutputStream(), null));
+
+        Document result = filter(interceptor, "Receive", "<rsp:ReceiveResponse>"
+                + stream("stdout", "C1", base64("abc".getBytes(), 0, 3), true)
+                + "</rsp:ReceiveResponse>");
+
+        assertEquals(out.size(), 0);
+        assertEquals(result.getElementsByTagNameNS(NS, "Stream").getLength(), 1);
+    }
+
+    private static Document filter(ReceiveStreamInInterceptor interceptor, String operation, String body) throws Exception {
+        Message message = newMessage(operation, body);
+        interceptor.handleMessage(message);
+        return StaxUtils.read(message.getContent(XMLStreamReader.class));
+    }
+
+    private static Message newMessage(String operation, String body) {
+        String envelope = "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" xmlns:rsp=\"" + NS + "\">"
+                + "<s:Header/><s:Body>" + body + "</s:Body></s:Envelope>";
+        InterfaceInfo service = new InterfaceInfo(new ServiceInfo(), new QName(NS, "WinRm"));
+        Exchange exchange = new ExchangeImpl();
+        exchange.put(BindingOperationInfo.class, new BindingOperationInfo(null, service.addOperation(new QName(NS, operation))));
+        Message message = new MessageImpl();
+        message.setExchange(exchange);
+        message.setContent(XMLStreamReader.class, StaxUtils.createXMLStreamReader(new StringReader(envelope)));
+        return message;
+    }
+
+    private static String stream(String name, String commandId, String value, boolean end) {
+        return "<rsp:Stream Name=\"" + name + "\" CommandId=\"" + commandId + "\"" + (end ? " End=\"true\"" : "") + ">" + value + "</rsp:Stream>";
+    }
+
+    private static String base64(byte[] bytes, int offset, int length) {
+        return Base64.getEncoder().encodeToString(Arrays.copyOfRange(bytes, offset, offset + length));
+    }
+}
@@ -2,6 +2,7 @@ package io.cloudsoft.winrm4j.client;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 import java.io.IOException;
@@ -9,6 +10,8 @@ import java.lang.reflect.Proxy;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -16,6 +19,9 @@ import java.util.function.Function;
 
 import javax.xml.ws.WebServiceException;
 
+import org.apache.cxf.endpoint.Client;
+import org.apache.cxf.endpoint.ClientCallback;
+import org.apache.cxf.interceptor.Fault;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -30,6 +36,8 @@ import io.cloudsoft.winrm4j.client.retry.SimpleCounterRetryPolicy;
 import io.cloudsoft.winrm4j.client.shell.CommandLine;
 import io.cloudsoft.winrm4j.client.shell.Receive;
 import io.cloudsoft.winrm4j.client.shell.ReceiveResponse;
+import io.cloudsoft.winrm4j.client.shell.Send;
+import io.cloudsoft.winrm4j.client.shell.SendResponse;
 import io.cloudsoft.winrm4j.client.shell.Shell;
 import io.cloudsoft.winrm4j.client.transfer.ResourceCreated;
 import io.cloudsoft.winrm4j.client.wsman.CommandResponse;
@@ -133,6 +141,84 @@ public class RetryingProxyHandlerTest {
         assertEquals(recordingWinrm.calls.get(0).method, "create");
 	}
 
+	@Test
+	public void testDoesNotRetrySend() throws Exception {
+        handler.set((v) -> {
+        	throw new WebServiceException("simulated failure", new IOException("simulated failure"));
+        });
+
+        try {
+        	winrm.send((Send)null, "myResourceUri", 0, "myOperationTimeout", (Locale)null, (SelectorSetType)null);
+        	fail("Should have propagated exception");
+        } catch (Exception e) {
+        	WebServiceException cause = findCause(e, WebServiceException.class);
+        	assertEquals(cause.getMessage(), "simulated failure");
+        }
+
+        assertEquals(recordingWinrm.calls.size(), 1);
+        assertEquals(recordingWinrm.calls.get(0).method, "send");
+	}
+
+	@Test
+	public void testRecordsOperationsAndRetries() throws Exception {
+		HistogramWinRmMetrics metrics = new HistogramWinRmMetrics();
+		winrm = (WinRm) Proxy.newProxyInstance(WinRm.class.getClassLoader(),
+				new Class[] {WinRm.class},
+				new RetryingProxyHandler(recordingWinrm, null, failureRetryPolicy, metrics, null));
+		AtomicInteger counter = new AtomicInteger(0);
+		handler.set((v) -> {
+			if (v.method.equals("create") && counter.getAndIncrement() == 0) {
+				throw new WebServiceException("simulated failure", new IOException("simulated failure"));
+			}
+			if (v.method.equals("send")) {
+				throw new WebServiceException("simulated failure", new IOException("simulated failure"));
+			}
+			return null;
+		});
+
+		winrm.create((Shell)null, "myResourceUri", 0, "myOperationTimeout", (Locale)null, (OptionSetType)null);
+		try {
+			winrm.send((Send)null, "myResourceUri", 0, "myOperationTimeout", (Locale)null, (SelectorSetType)null);
+			fail("Should have propagated exception");
+		} catch (Exception e) {
+			findCause(e, WebServiceException.class);
+		}
+
+		assertEquals(metrics.getOperation("Create").getCount(), 1);
+		assertEquals(metrics.getRetries("Create"), 1);
+		assertEquals(metrics.getFailures("Create"), 0);
+		assertEquals(metrics.getOperation("Send").getCount(), 1);
+		assertEquals(metrics.getRetries("Send"), 0);
+		assertEquals(metrics.getFailures("Send"), 1);
+	}
+
+	@Test
+	public void testTimesAsyncOperationFromInvocation() throws Exception {
+		HistogramWinRmMetrics metrics = new HistogramWinRmMetrics();
+		// a request failing as it is sent, e.g. on connecting
+		Client client = (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class[] {Client.class}, (proxy, method, args) -> {
+			if (method.getName().equals("invoke") && args[0] instanceof ClientCallback) {
+				Thread.sleep(50);
+				throw new Fault(new IOException("simulated failure"));
+			}
+			return null;
+		});
+		RetryingProxyHandler asyncHandler = new RetryingProxyHandler(recordingWinrm, client, failureRetryPolicy, metrics, null);
+
+		CompletableFuture<Object> result = asyncHandler.invokeAsync("Command", (CommandLine) null, "myResourceUri", 0, "myOperationTimeout",
+				(Locale) null, (SelectorSetType) null, (OptionSetType) null);
+
+		try {
+			result.join();
+			fail("Should have propagated exception");
+		} catch (CompletionException e) {
+			findCause(e, IOException.class);
+		}
+		assertEquals(metrics.getOperation("Command").getCount(), 1);
+		assertEquals(metrics.getFailures("Command"), 1);
+		assertTrue(metrics.getOperation("Command").getMax() >= TimeUnit.MILLISECONDS.toNanos(50));
+	}
+
 	@SuppressWarnings("unchecked")
 	private static <T extends Throwable> T findCause(Exception e, Class<T> expected) throws Exception {
     	Optional<Throwable> cause = Iterables.tryFind(Throwables.getCausalChain(e), Predicates.instanceOf(expected));
@@ -177,6 +263,13 @@ public class RetryingProxyHandlerTest {
 			return (ReceiveResponse) handler.apply(call);
 		}
 
+		@Override
+		public SendResponse send(Send send, String resourceURI, int maxEnvelopeSize, String operationTimeout, Locale locale, SelectorSetType selectorSet) {
+			RecordedCall call = new RecordedCall("send", Arrays.asList(send, resourceURI, maxEnvelopeSize, operationTimeout, locale, selectorSet));
+			calls.add(call);
+			return (SendResponse) handler.apply(call);
+		}
+
 		@Override
 		public SignalResponse signal(Signal signal, String resourceURI, int maxEnvelopeSize, String operationTimeout, Locale locale, SelectorSetType selectorSet) {
 			RecordedCall call = new RecordedCall("signal", Arrays.asList(signal, resourceURI, maxEnvelopeSize, operationTimeout, locale, selectorSet));
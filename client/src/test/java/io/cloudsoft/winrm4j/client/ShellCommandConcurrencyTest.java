@@ -0,0 +1,217 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.http.client.config.AuthSchemes;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Runs several commands at a time in one shell, against a stand-in server which echoes the command
+ * line of each command as its output and tracks how many of them run at a time.
+ */
+public class ShellCommandConcurrencyTest {
+
+    private static final String SHELL_NS = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell";
+    private static final String ADDRESSING_NS = "http://schemas.xmlsoap.org/ws/2004/08/addressing";
+    private static final int COMMANDS = 6;
+
+    @Test(timeOut = 30000)
+    public void testConcurrentCommands() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            ShellDispatcher dispatcher = new ShellDispatcher();
+            server.setDispatcher(dispatcher);
+
+            executeConcurrently(server.url("/wsman").url(), COMMANDS);
+
+            assertEquals(dispatcher.commands.get(), COMMANDS);
+            assertTrue(dispatcher.maxRunning.get() > 1, "commands run one at a time");
+            assertEquals(dispatcher.running.get(), 0);
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void testConcurrentCommandsLimited() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            ShellDispatcher dispatcher = new ShellDispatcher();
+            server.setDispatcher(dispatcher);
+
+            executeConcurrently(server.url("/wsman").url(), 2);
+
+            assertEquals(dispatcher.commands.get(), COMMANDS);
+            assertEquals(dispatcher.maxRunning.get(), 2);
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void testConcurrentCommandsAsync() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            ShellDispatcher dispatcher = new ShellDispatcher();
+            server.setDispatcher(dispatcher);
+
+            try (WinRmClient client = newClient(server.url("/wsman").url(), 2)) {
+                ShellCommand shell = client.createShell();
+                List<CompletableFuture<Integer>> results = new ArrayList<>();
+                List<StringWriter> outs = new ArrayList<>();
+                for (int i = 0; i < COMMANDS; i++) {
+                    StringWriter out = new StringWriter();
+                    outs.add(out);
+                    results.add(shell.executeAsync("echo " + i, out, new StringWriter()));
+                }
+                for (int i = 0; i < COMMANDS; i++) {
+                    assertEquals(results.get(i).get().intValue(), i);
+                    assertEquals(outs.get(i).toString(), "echo " + i);
+                }
+                assertEquals(shell.getNumberOfReceiveCalls(), ShellDispatcher.RECEIVES_PER_COMMAND);
+                shell.close();
+            }
+            assertEquals(dispatcher.maxRunning.get(), 2);
+        }
+    }
+
+    private static void executeConcurrently(URL url, int maxConcurrentCommands) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(COMMANDS);
+        try (WinRmClient client = newClient(url, maxConcurrentCommands);
+                ShellCommand shell = client.createShell()) {
+            List<Future<String>> outputs = new ArrayList<>();
+            for (int i = 0; i < COMMANDS; i++) {
+                int index = i;
+                outputs.add(executor.submit(() -> {
+                    StringWriter out = new StringWriter();
+                    int exitCode = shell.execute("echo " + index, out, new StringWriter());
+                    assertEquals(exitCode, index);
+                    return out.toString();
+                }));
+            }
+            for (int i = 0; i < COMMANDS; i++) {
+                assertEquals(outputs.get(i).get(), "echo " + i);
+            }
+            // counted by each command, rather than reset and incremented by all of them
+            assertEquals(shell.getNumberOfReceiveCalls(), ShellDispatcher.RECEIVES_PER_COMMAND);
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static WinRmClient newClient(URL url, int maxConcurrentCommands) {
+        return WinRmClient.builder(url)
+                .authenticationScheme(AuthSchemes.BASIC)
+                .maxConcurrentCommands(maxConcurrentCommands)
+                .build();
+    }
+
+    /**
+     * Answers the requests of a single shell. Each command outputs its command line, exits with the
+     * number it ends with, and runs for a couple of Receive requests.
+     */
+    private static class ShellDispatcher extends Dispatcher {
+        static final int RECEIVES_PER_COMMAND = 2;
+
+        final AtomicInteger commands = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final Map<String, String> commandLines = new ConcurrentHashMap<>();
+        final Map<String, AtomicInteger> receives = new ConcurrentHashMap<>();
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            Document envelope = parse(request.getBody().readByteArray());
+            String action = text(envelope, ADDRESSING_NS, "Action");
+            String messageId = text(envelope, ADDRESSING_NS, "MessageID");
+            String operation = action.substring(action.lastIndexOf('/') + 1);
+            String body;
+            switch (operation) {
+                case "Create":
+                    body = "<x:ResourceCreated><a:Address>http://localhost/wsman</a:Address><a:ReferenceParameters>"
+                            + "<w:ResourceURI>" + WinRmClient.RESOURCE_URI + "</w:ResourceURI>"
+                            + "<w:SelectorSet><w:Selector Name=\"ShellId\">S1</w:Selector></w:SelectorSet>"
+                            + "</a:ReferenceParameters></x:ResourceCreated>";
+                    break;
+                case "Command":
+                    String commandId = "C" + commands.incrementAndGet();
+                    commandLines.put(commandId, text(envelope, SHELL_NS, "Command"));
+                    receives.put(commandId, new AtomicInteger());
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    body = "<rsp:CommandResponse><rsp:CommandId>" + commandId + "</rsp:CommandId></rsp:CommandResponse>";
+                    break;
+                case "Receive":
+                    // let the other commands start meanwhile
+                    Thread.sleep(100);
+                    body = receiveResponse(((Element) envelope.getElementsByTagNameNS(SHELL_NS, "DesiredStream").item(0)).getAttributeNS(SHELL_NS, "CommandId"));
+                    break;
+                case "Signal":
+                    running.decrementAndGet();
+                    body = "<rsp:SignalResponse/>";
+                    break;
+                case "Delete":
+                    body = "";
+                    break;
+                default:
+                    return new MockResponse().setResponseCode(500);
+            }
+            return new MockResponse()
+                    .setHeader("Content-Type", "application/soap+xml;charset=UTF-8")
+                    .setBody("<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" xmlns:a=\"" + ADDRESSING_NS + "\""
+                            + " xmlns:x=\"http://schemas.xmlsoap.org/ws/2004/09/transfer\" xmlns:w=\"http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd\""
+                            + " xmlns:rsp=\"" + SHELL_NS + "\"><s:Header>"
+                            + "<a:Action>" + action + "Response</a:Action><a:MessageID>uuid:" + messageId.hashCode() + "</a:MessageID>"
+                            + "<a:To>" + ADDRESSING_NS + "/role/anonymous</a:To><a:RelatesTo>" + messageId + "</a:RelatesTo>"
+                            + "</s:Header><s:Body>" + body + "</s:Body></s:Envelope>");
+        }
+
+        private String receiveResponse(String commandId) {
+            String commandLine = commandLines.get(commandId);
+            if (receives.get(commandId).incrementAndGet() < RECEIVES_PER_COMMAND) {
+                return "<rsp:ReceiveResponse><rsp:CommandState CommandId=\"" + commandId + "\" State=\"" + SHELL_NS + "/CommandState/Running\"/></rsp:ReceiveResponse>";
+            }
+            String output = Base64.getEncoder().encodeToString(commandLine.getBytes(StandardCharsets.UTF_8));
+            String exitCode = commandLine.substring(commandLine.lastIndexOf(' ') + 1);
+            return "<rsp:ReceiveResponse>"
+                    + "<rsp:Stream Name=\"stdout\" CommandId=\"" + commandId + "\">" + output + "</rsp:Stream>"
+                    + "<rsp:Stream Name=\"stdout\" CommandId=\"" + commandId + "\" End=\"true\"/>"
+                    + "<rsp:Stream Name=\"stderr\" CommandId=\"" + commandId + "\" End=\"true\"/>"
+                    + "<rsp:CommandState CommandId=\"" + commandId + "\" State=\"" + SHELL_NS + "/CommandState/Done\">"
+                    + "<rsp:ExitCode>" + exitCode + "</rsp:ExitCode></rsp:CommandState></rsp:ReceiveResponse>";
+        }
+    }
+
+    private static Document parse(byte[] xml) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String text(Document document, String namespace, String localName) {
+        return document.getElementsByTagNameNS(namespace, localName).item(0).getTextContent();
+    }
+}
@@ -0,0 +1,99 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.AuthSchemes;
+import org.testng.annotations.Test;
+
+import io.cloudsoft.winrm4j.service.emulator.WinRmEmulator;
+
+public class ShellCommandStdinTest {
+
+    @Test
+    public void testSendsStdinInChunks() throws Exception {
+        byte[] input = new byte[ShellCommand.STDIN_CHUNK_SIZE * 2 + 100];
+        new Random(0).nextBytes(input);
+        try (WinRmEmulator server = WinRmEmulator.builder().basicAuth("user", "password").echoStdin(true).start()) {
+            WinRmClient client = newClient(server);
+            try (ShellCommand shell = client.createShell()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+                int exitCode = shell.executeRaw("more", null, false, new ByteArrayInputStream(input), out, new ByteArrayOutputStream());
+
+                assertEquals(exitCode, 0);
+                assertEquals(out.toByteArray(), input);
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testStopsSendingWhenCommandExitsFirst() throws Exception {
+        BlockingInputStream stdin = new BlockingInputStream();
+        try (WinRmEmulator server = WinRmEmulator.builder().basicAuth("user", "password").stdout("myline".getBytes()).start()) {
+            WinRmClient client = newClient(server);
+            try (ShellCommand shell = client.createShell()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+                int exitCode = shell.executeRaw("echo myline", null, false, stdin, out, new ByteArrayOutputStream());
+
+                assertEquals(exitCode, 0);
+                assertEquals(new String(out.toByteArray()), "myline");
+            } finally {
+                client.close();
+            }
+        }
+        assertTrue(stdin.interrupted.await(30, TimeUnit.SECONDS), "stdin read not interrupted");
+        assertFalse(isStdinSenderAlive(), "stdin sender still running");
+    }
+
+    private static WinRmClient newClient(WinRmEmulator server) {
+        return WinRmClient.builder(server.getEndpoint())
+                .authenticationScheme(AuthSchemes.BASIC)
+                .credentials("user", "password")
+                .build();
+    }
+
+    private static boolean isStdinSenderAlive() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() - deadline < 0) {
+            boolean alive = false;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                alive |= thread.getName().startsWith("winrm-stdin-");
+            }
+            if (!alive) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /** Input of which no byte ever comes, e.g. a pipe whose writer is stuck */
+    private static class BlockingInputStream extends InputStream {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        @Override
+        public int read() throws IOException {
+            try {
+                new CountDownLatch(1).await();
+                throw new IllegalStateException("unreachable");
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new InterruptedIOException("interrupted");
+            }
+        }
+    }
+}
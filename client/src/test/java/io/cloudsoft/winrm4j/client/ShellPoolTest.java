@@ -0,0 +1,189 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.ws.soap.SOAPFaultException;
+
+import org.apache.http.client.config.AuthSchemes;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import io.cloudsoft.winrm4j.service.emulator.WinRmEmulator;
+
+public class ShellPoolTest {
+
+    private WinRmEmulator server;
+    private WinRmClient client;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        server = WinRmEmulator.builder()
+                .basicAuth("user", "password")
+                .stdout("myline".getBytes())
+                .start();
+        client = WinRmClient.builder(server.getEndpoint())
+                .authenticationScheme(AuthSchemes.BASIC)
+                .credentials("user", "password")
+                .build();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        if (client != null) client.close();
+        if (server != null) server.close();
+    }
+
+    @Test
+    public void testReusesReturnedShell() {
+        try (ShellPool pool = new ShellPool(client)) {
+            ShellCommand first = pool.withShell(shell -> shell);
+            assertEquals(pool.getIdleCount(), 1);
+            assertEquals(pool.getLeasedCount(), 0);
+
+            ShellCommand second = pool.withShell(shell -> {
+                assertEquals(pool.getLeasedCount(), 1);
+                assertEquals(echo(shell), "myline");
+                return shell;
+            });
+
+            assertSame(second, first);
+            assertEquals(server.getShellCount(), 1);
+        }
+        assertEquals(server.getShellCount(), 0);
+    }
+
+    @Test
+    public void testKeysShellsByWorkingDirectoryAndEnvironment() {
+        try (ShellPool pool = new ShellPool(client)) {
+            ShellCommand first = pool.withShell("C:\\first", null, shell -> shell);
+            ShellCommand second = pool.withShell("C:\\second", null, shell -> shell);
+            ShellCommand withEnvironment = pool.withShell("C:\\first", Collections.singletonMap("MYVAR", "myvalue"), shell -> shell);
+
+            assertNotSame(second, first);
+            assertNotSame(withEnvironment, first);
+            assertSame(pool.withShell("C:\\first", Collections.emptyMap(), shell -> shell), first);
+            assertEquals(server.getShellCount(), 3);
+        }
+    }
+
+    @Test
+    public void testEvictsIdleShells() throws Exception {
+        try (ShellPool pool = new ShellPool(client, 10, 100, TimeUnit.MILLISECONDS)) {
+            ShellCommand first = pool.withShell(shell -> shell);
+            assertEquals(pool.evictIdle(), 0);
+
+            Thread.sleep(200);
+
+            assertEquals(pool.evictIdle(), 1);
+            assertEquals(pool.getIdleCount(), 0);
+            assertEquals(server.getShellCount(), 0);
+            assertNotSame(pool.withShell(shell -> shell), first);
+        }
+    }
+
+    @Test
+    public void testWaitsForShellAtMaxShells() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ShellPool pool = new ShellPool(client, 1, 1, TimeUnit.MINUTES)) {
+            CountDownLatch leased = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(1);
+            Future<ShellCommand> first = executor.submit(() -> pool.withShell(shell -> {
+                leased.countDown();
+                await(done);
+                return shell;
+            }));
+            assertTrue(leased.await(30, TimeUnit.SECONDS));
+
+            AtomicReference<ShellCommand> second = new AtomicReference<>();
+            Thread waiting = new Thread(() -> second.set(pool.withShell(shell -> shell)));
+            waiting.start();
+            Thread.sleep(200);
+            assertTrue(waiting.isAlive());
+            assertEquals(pool.getLeasedCount(), 1);
+
+            done.countDown();
+            waiting.join(TimeUnit.SECONDS.toMillis(30));
+
+            assertSame(second.get(), first.get());
+            assertEquals(server.getShellCount(), 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReplacesShellIdleForOtherKeyAtMaxShells() {
+        try (ShellPool pool = new ShellPool(client, 1, 1, TimeUnit.MINUTES)) {
+            pool.withShell("C:\\first", null, ShellPoolTest::echo);
+
+            assertEquals(pool.withShell("C:\\second", null, ShellPoolTest::echo), "myline");
+
+            assertEquals(pool.getIdleCount(), 1);
+            assertEquals(server.getShellCount(), 1);
+        }
+    }
+
+    @Test
+    public void testRetriesCommandOnNewShellWhenPooledShellExpired() {
+        try (ShellPool pool = new ShellPool(client)) {
+            assertEquals(pool.withShell(ShellPoolTest::echo), "myline");
+            assertEquals(server.getShellCount(), 1);
+
+            server.expireShells();
+
+            assertEquals(pool.withShell(ShellPoolTest::echo), "myline");
+            assertEquals(server.getShellCount(), 1);
+            assertEquals(pool.getIdleCount(), 1);
+            assertEquals(pool.getLeasedCount(), 0);
+        }
+    }
+
+    @Test
+    public void testDoesNotRetryOnceCommandStarted() {
+        try (ShellPool pool = new ShellPool(client)) {
+            try {
+                pool.withShell(shell -> {
+                    echo(shell);
+                    server.expireShells();
+                    return echo(shell);
+                });
+                fail("Should have propagated fault");
+            } catch (SOAPFaultException e) {
+                assertEquals(ShellCommand.getFaultCode(e), ShellCommand.WSMAN_FAULT_CODE_SHELL_WAS_NOT_FOUND);
+            }
+            assertEquals(server.getShellCount(), 0);
+            assertEquals(pool.getIdleCount(), 0);
+            assertEquals(pool.getLeasedCount(), 0);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String echo(ShellCommand shell) {
+        StringWriter out = new StringWriter();
+        int exitCode = shell.execute("echo myline", out, new StringWriter());
+        assertEquals(exitCode, 0);
+        return out.toString();
+    }
+}
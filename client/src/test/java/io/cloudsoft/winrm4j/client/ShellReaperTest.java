@@ -0,0 +1,68 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class ShellReaperTest {
+
+    @Test
+    public void testBacklogUntilCompleted() {
+        ShellReaper reaper = new ShellReaper();
+        CompletableFuture<Object> signal = new CompletableFuture<>();
+        CompletableFuture<Object> delete = new CompletableFuture<>();
+
+        reaper.submit("command C1", () -> signal);
+        reaper.submit("shell S1", () -> delete);
+        assertEquals(reaper.getBacklog(), 2);
+
+        signal.complete(null);
+        assertEquals(reaper.getBacklog(), 1);
+        delete.completeExceptionally(new RuntimeException(new IOException("connection reset")));
+
+        assertEquals(reaper.getBacklog(), 0);
+        assertEquals(reaper.getCompleted(), 1);
+        assertEquals(reaper.getFailed(), 1);
+    }
+
+    @Test
+    public void testFailureToSendCounted() {
+        ShellReaper reaper = new ShellReaper();
+
+        reaper.submit("command C1", () -> {
+            throw new IllegalStateException("closed");
+        });
+
+        assertEquals(reaper.getBacklog(), 0);
+        assertEquals(reaper.getFailed(), 1);
+    }
+
+    @Test
+    public void testCompletedRequestNotPending() {
+        ShellReaper reaper = new ShellReaper();
+
+        reaper.submit("command C1", () -> CompletableFuture.completedFuture(null));
+
+        assertEquals(reaper.getBacklog(), 0);
+        assertEquals(reaper.getCompleted(), 1);
+    }
+
+    @Test(timeOut = 10000)
+    public void testDrain() throws Exception {
+        ShellReaper reaper = new ShellReaper();
+        assertTrue(reaper.drain(1, TimeUnit.MILLISECONDS));
+
+        CompletableFuture<Object> delete = new CompletableFuture<>();
+        reaper.submit("shell S1", () -> delete);
+        assertFalse(reaper.drain(50, TimeUnit.MILLISECONDS));
+
+        CompletableFuture.runAsync(() -> delete.completeExceptionally(new IllegalStateException("failed")));
+        assertTrue(reaper.drain(5, TimeUnit.SECONDS));
+    }
+}
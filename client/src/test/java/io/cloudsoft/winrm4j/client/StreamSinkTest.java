@@ -0,0 +1,85 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+public class StreamSinkTest {
+
+    @Test
+    public void testStreamsPassBytesThrough() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        StreamSink sink = StreamSink.toStreams(out, err);
+
+        sink.write("stdout", new byte[] {1, 2, (byte) 0xff}, false);
+        sink.write("stderr", new byte[] {3}, false);
+        sink.write("stdout", new byte[] {4}, true);
+
+        assertEquals(out.toByteArray(), new byte[] {1, 2, (byte) 0xff, 4});
+        assertEquals(err.toByteArray(), new byte[] {3});
+    }
+
+    @Test
+    public void testNullStreamDiscardsOutput() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamSink sink = StreamSink.toStreams(out, null);
+
+        sink.write("stderr", new byte[] {1}, true);
+        sink.write("stdout", new byte[] {2}, true);
+
+        assertEquals(out.toByteArray(), new byte[] {2});
+    }
+
+    @Test
+    public void testWritersDecodeCharacterSplitAcrossChunks() {
+        byte[] bytes = "aé€".getBytes(StandardCharsets.UTF_8);
+        StringWriter out = new StringWriter();
+        StreamSink sink = StreamSink.toWriters(out, null, StandardCharsets.UTF_8);
+
+        // Split in the middle of the 3-byte euro sign
+        sink.write("stdout", Arrays.copyOfRange(bytes, 0, 4), false);
+        assertEquals(out.toString(), "aé");
+        sink.write("stdout", Arrays.copyOfRange(bytes, 4, bytes.length), true);
+
+        assertEquals(out.toString(), "aé€");
+    }
+
+    @Test
+    public void testWritersReplaceIncompleteTrailingCharacter() {
+        StringWriter out = new StringWriter();
+        StreamSink sink = StreamSink.toWriters(out, null, StandardCharsets.UTF_8);
+
+        sink.write("stdout", new byte[] {'a', (byte) 0xe2, (byte) 0x82}, false);
+        sink.write("stdout", new byte[0], true);
+
+        assertEquals(out.toString(), "a�");
+    }
+
+    @Test
+    public void testWritersUseCodePage() {
+        StringWriter out = new StringWriter();
+        StringWriter err = new StringWriter();
+        StreamSink sink = StreamSink.toWriters(out, err, StreamSink.toCharset(437));
+
+        // Box drawing characters in code page 437
+        sink.write("stdout", new byte[] {(byte) 0xc9, (byte) 0xcd, (byte) 0xbb}, true);
+        sink.write("stderr", new byte[] {(byte) 0x82}, true);
+
+        assertEquals(out.toString(), "╔═╗");
+        assertEquals(err.toString(), "é");
+    }
+
+    @Test
+    public void testToCharset() {
+        assertEquals(StreamSink.toCharset(65001), StandardCharsets.UTF_8);
+        assertEquals(StreamSink.toCharset(1252), Charset.forName("windows-1252"));
+        assertEquals(StreamSink.toCharset(437), Charset.forName("IBM437"));
+    }
+}
@@ -0,0 +1,98 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.io.StringReader;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.service.model.BindingOperationInfo;
+import org.apache.cxf.service.model.InterfaceInfo;
+import org.apache.cxf.service.model.ServiceInfo;
+import org.apache.cxf.staxutils.StaxUtils;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class StripShellResponseInterceptorTest {
+
+    private static final String SHELL_NS = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell";
+    private static final String CREATE_RESPONSE_BODY =
+            "<x:ResourceCreated><a:Address>http://localhost:5985/wsman</a:Address><a:ReferenceParameters>"
+            + "<w:SelectorSet><w:Selector Name=\"ShellId\">AF161CE1</w:Selector></w:SelectorSet>"
+            + "</a:ReferenceParameters></x:ResourceCreated>"
+            + "<rsp:Shell><rsp:ShellId>AF161CE1</rsp:ShellId><rsp:InputStreams>stdin</rsp:InputStreams></rsp:Shell>";
+
+    @Test
+    public void testShellRemovedFromCreateResponse() throws Exception {
+        Message message = newMessage("Create", CREATE_RESPONSE_BODY);
+        new StripShellResponseInterceptor().handleMessage(message);
+
+        Element body = body(StaxUtils.read(message.getContent(XMLStreamReader.class)));
+        assertEquals(body.getChildNodes().getLength(), 1);
+        assertEquals(body.getFirstChild().getLocalName(), "ResourceCreated");
+        assertEquals(body.getElementsByTagNameNS("*", "Selector").item(0).getTextContent(), "AF161CE1");
+    }
+
+    @Test
+    public void testBodyReadWithNextTag() throws Exception {
+        Message message = newMessage("Create", CREATE_RESPONSE_BODY);
+        new StripShellResponseInterceptor().handleMessage(message);
+        XMLStreamReader reader = message.getContent(XMLStreamReader.class);
+
+        // as the bare binding reads the parts: Envelope, Header, then Body and its children
+        reader.nextTag();
+        reader.nextTag();
+        assertEquals(reader.nextTag(), XMLStreamConstants.END_ELEMENT);
+        reader.nextTag();
+        assertEquals(reader.getLocalName(), "Body");
+        reader.nextTag();
+        assertEquals(reader.getLocalName(), "ResourceCreated");
+        StaxUtils.read(reader);
+        assertEquals(reader.nextTag(), XMLStreamConstants.END_ELEMENT);
+        assertEquals(reader.getLocalName(), "Body");
+    }
+
+    @Test
+    public void testNestedShellElementsKept() throws Exception {
+        Message message = newMessage("Create", "<x:ResourceCreated><rsp:Shell/></x:ResourceCreated>");
+        new StripShellResponseInterceptor().handleMessage(message);
+
+        Element body = body(StaxUtils.read(message.getContent(XMLStreamReader.class)));
+        assertEquals(body.getElementsByTagNameNS(SHELL_NS, "Shell").getLength(), 1);
+    }
+
+    @Test
+    public void testOtherOperationsLeftAlone() throws Exception {
+        Message message = newMessage("Receive", "<rsp:ReceiveResponse/>");
+        XMLStreamReader reader = message.getContent(XMLStreamReader.class);
+
+        new StripShellResponseInterceptor().handleMessage(message);
+
+        assertSame(message.getContent(XMLStreamReader.class), reader);
+    }
+
+    private static Element body(Document envelope) {
+        return (Element) envelope.getDocumentElement().getElementsByTagNameNS("*", "Body").item(0);
+    }
+
+    private static Message newMessage(String operation, String body) {
+        String envelope = "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" xmlns:a=\"http://schemas.xmlsoap.org/ws/2004/08/addressing\""
+                + " xmlns:x=\"http://schemas.xmlsoap.org/ws/2004/09/transfer\" xmlns:w=\"http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd\""
+                + " xmlns:rsp=\"" + SHELL_NS + "\"><s:Header/><s:Body>" + body + "</s:Body></s:Envelope>";
+        InterfaceInfo service = new InterfaceInfo(new ServiceInfo(), new QName(SHELL_NS, "WinRm"));
+        Exchange exchange = new ExchangeImpl();
+        exchange.put(BindingOperationInfo.class, new BindingOperationInfo(null, service.addOperation(new QName(SHELL_NS, operation))));
+        Message message = new MessageImpl();
+        message.setExchange(exchange);
+        message.setContent(XMLStreamReader.class, StaxUtils.createXMLStreamReader(new StringReader(envelope)));
+        return message;
+    }
+}
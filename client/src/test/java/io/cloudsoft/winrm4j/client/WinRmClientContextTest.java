@@ -0,0 +1,181 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import org.apache.cxf.service.Service;
+import org.apache.http.client.config.AuthSchemes;
+import org.testng.annotations.Test;
+
+import io.cloudsoft.winrm4j.client.retry.RetryBudget;
+
+public class WinRmClientContextTest {
+    private static final Logger LOG = Logger.getLogger(WinRmClientContextTest.class.getName());
+
+    private static final String ENDPOINT = "http://localhost:5985/wsman";
+    private static final int BENCHMARK_CLIENTS = 100;
+
+    @Test
+    public void testClientsShareServiceModel() throws Exception {
+        WinRmClientContext context = WinRmClientContext.newInstance();
+        try {
+            assertNull(context.getServiceModel());
+
+            try (WinRmClient client1 = newClient(context)) {
+                Service serviceModel = context.getServiceModel();
+                assertNotNull(serviceModel);
+
+                try (WinRmClient client2 = newClient(context)) {
+                    assertSame(context.getServiceModel(), serviceModel);
+                }
+            }
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    @Test
+    public void testEndpointKey() throws Exception {
+        assertEquals(WinRmClientContext.endpointKey(new URL("http://Host1:5985/wsman")), "http://host1:5985");
+        assertEquals(WinRmClientContext.endpointKey(new URL("HTTPS://host1/wsman")), "https://host1:443");
+    }
+
+    @Test
+    public void testClientsOfEndpointShareRetryBudget() throws Exception {
+        WinRmClientContext context = WinRmClientContext.newInstance();
+        try {
+            assertNull(context.getRetryBudget(new URL("http://host1:5985/wsman")));
+
+            context.retryBudget(2, 0);
+            RetryBudget budget = context.getRetryBudget(new URL("http://host1:5985/wsman"));
+            assertNotNull(budget);
+            assertSame(context.getRetryBudget(new URL("http://HOST1:5985/other")), budget);
+            assertNotSame(context.getRetryBudget(new URL("https://host1:5986/wsman")), budget);
+            assertNotSame(context.getRetryBudget(new URL("http://host2:5985/wsman")), budget);
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    @Test
+    public void testClientsOfEndpointShareCircuitBreaker() throws Exception {
+        WinRmClientContext context = WinRmClientContext.newInstance();
+        try {
+            assertNull(context.getCircuitBreaker(new URL("http://host1:5985/wsman")));
+
+            context.circuitBreaker(2, 10, TimeUnit.SECONDS);
+            CircuitBreaker breaker = context.getCircuitBreaker(new URL("http://host1:5985/wsman"));
+            assertNotNull(breaker);
+            assertEquals(breaker.getEndpoint(), "http://host1:5985");
+            assertSame(context.getCircuitBreaker(new URL("http://HOST1:5985/other")), breaker);
+            assertNotSame(context.getCircuitBreaker(new URL("https://host1:5986/wsman")), breaker);
+            assertEquals(new ArrayList<>(context.getCircuitBreakers().keySet()), Arrays.asList("http://host1:5985", "https://host1:5986"));
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    @Test
+    public void testClientsOfEndpointShareConcurrencyLimiter() throws Exception {
+        WinRmClientContext context = WinRmClientContext.newInstance();
+        try {
+            assertNull(context.getConcurrencyLimiter(new URL("http://host1:5985/wsman")));
+
+            context.adaptiveConcurrency(2, 10);
+            AdaptiveConcurrencyLimiter limiter = context.getConcurrencyLimiter(new URL("http://host1:5985/wsman"));
+            assertNotNull(limiter);
+            assertEquals(limiter.getEndpoint(), "http://host1:5985");
+            assertSame(context.getConcurrencyLimiter(new URL("http://HOST1:5985/other")), limiter);
+            assertNotSame(context.getConcurrencyLimiter(new URL("http://host1:55985/wsman")), limiter);
+            assertNotSame(context.getConcurrencyLimiter(new URL("http://host2:5985/wsman")), limiter);
+            assertEquals(new ArrayList<>(context.getConcurrencyLimiters().keySet()),
+                    Arrays.asList("http://host1:55985", "http://host1:5985", "http://host2:5985"));
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    @Test
+    public void testEncryptingClientSharesServiceModel() throws Exception {
+        WinRmClientContext context = WinRmClientContext.newInstance();
+        try {
+            try (WinRmClient plain = newClient(context);
+                    WinRmClient encrypting = WinRmClient.builder(ENDPOINT)
+                            .authenticationScheme(AuthSchemes.NTLM)
+                            .credentials("user", "password")
+                            .context(context)
+                            .build()) {
+                Service serviceModel = context.getServiceModel();
+                try (WinRmClient other = newClient(context)) {
+                    assertSame(context.getServiceModel(), serviceModel);
+                }
+            }
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    /**
+     * Compares the construction time and retained heap of clients with a shared context
+     * against clients each creating their own context.
+     */
+    @Test(groups="Integration")
+    public void testClientConstructionBenchmark() {
+        // Warm up class loading and the JIT
+        measure("warm-up", () -> newClient(null));
+        measure("own context", () -> newClient(null));
+
+        WinRmClientContext context = WinRmClientContext.newInstance();
+        try {
+            measure("shared context", () -> newClient(context));
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    private void measure(String name, Supplier<WinRmClient> clientSupplier) {
+        List<WinRmClient> clients = new ArrayList<>();
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < BENCHMARK_CLIENTS; i++) {
+                clients.add(clientSupplier.get());
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            long retained = usedHeap() - heapBefore;
+            LOG.info(name + ": " + BENCHMARK_CLIENTS + " clients, "
+                    + (elapsedNanos / BENCHMARK_CLIENTS / 1000) + "us and "
+                    + (retained / BENCHMARK_CLIENTS / 1024) + "KiB retained per client");
+        } finally {
+            for (WinRmClient client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static WinRmClient newClient(WinRmClientContext context) {
+        return WinRmClient.builder(ENDPOINT)
+                .authenticationScheme(AuthSchemes.BASIC)
+                .context(context)
+                .build();
+    }
+}
@@ -0,0 +1,104 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.AuthSchemes;
+import org.testng.annotations.Test;
+
+import io.cloudsoft.winrm4j.service.emulator.WinRmEmulator;
+
+/**
+ * Runs the requests of a {@link WinRmClient} against the emulator, which the other emulator-backed tests rely on.
+ */
+public class WinRmClientEmulatorTest {
+
+    @Test
+    public void testExecutesCommand() throws Exception {
+        try (WinRmEmulator server = WinRmEmulator.builder().basicAuth("user", "password")
+                        .stdout("myout".getBytes()).stderr("myerr".getBytes()).exitCode(3).start();
+                WinRmClient client = newClient(server)) {
+            try (ShellCommand shell = client.createShell()) {
+                StringWriter out = new StringWriter();
+                StringWriter err = new StringWriter();
+
+                assertEquals(shell.execute("echo myout", out, err), 3);
+
+                assertEquals(out.toString(), "myout");
+                assertEquals(err.toString(), "myerr");
+                assertEquals(server.getShellCount(), 1);
+            }
+            assertEquals(server.getShellCount(), 0);
+        }
+    }
+
+    @Test
+    public void testExecutesCommandsInOneShell() throws Exception {
+        try (WinRmEmulator server = WinRmEmulator.builder().basicAuth("user", "password").outputSize(100000).start();
+                WinRmClient client = newClient(server);
+                ShellCommand shell = client.createShell()) {
+            for (int i = 0; i < 3; i++) {
+                StringWriter out = new StringWriter();
+                assertEquals(shell.execute("dir", out, new StringWriter()), 0);
+                assertEquals(out.toString().length(), 100000);
+            }
+        }
+    }
+
+    @Test
+    public void testRetriesCreateOnQuotaFault() throws Exception {
+        assertCreateRetriedOnQuotaFault(false);
+    }
+
+    @Test
+    public void testRetriesCreateAsyncOnQuotaFault() throws Exception {
+        assertCreateRetriedOnQuotaFault(true);
+    }
+
+    /**
+     * Two commands take the operations the server allows, so the Create sent alongside them fails on its
+     * quota; it is sent again once they complete, under the limit the fault lowered.
+     */
+    private void assertCreateRetriedOnQuotaFault(boolean async) throws Exception {
+        WinRmClientContext context = WinRmClientContext.newInstance().adaptiveConcurrency(3, 3);
+        try (WinRmEmulator server = WinRmEmulator.builder().basicAuth("user", "password")
+                        .maxConcurrentOperations(2).commandDuration(1000).start();
+                WinRmClient client = newClient(server, context);
+                ShellCommand shell1 = client.createShell();
+                ShellCommand shell2 = client.createShell()) {
+            long before = server.getRequestCount();
+            CompletableFuture<Integer> command1 = shell1.executeAsync("dir", new StringWriter(), new StringWriter());
+            CompletableFuture<Integer> command2 = shell2.executeAsync("dir", new StringWriter(), new StringWriter());
+            // until their Command and Receive requests reached the server
+            long deadline = System.currentTimeMillis() + 10000;
+            while (server.getRequestCount() - before < 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            try (ShellCommand shell3 = async ? client.createShellAsync().get(1, TimeUnit.MINUTES) : client.createShell()) {
+                assertEquals(server.getShellCount(), 3);
+            }
+            assertEquals(command1.get(1, TimeUnit.MINUTES), Integer.valueOf(0));
+            assertEquals(command2.get(1, TimeUnit.MINUTES), Integer.valueOf(0));
+            AdaptiveConcurrencyLimiter limiter = context.getConcurrencyLimiters().values().iterator().next();
+            assertEquals(limiter.getQuotaFaultCount(), 1);
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    private static WinRmClient newClient(WinRmEmulator server) {
+        return newClient(server, null);
+    }
+
+    private static WinRmClient newClient(WinRmEmulator server, WinRmClientContext context) {
+        return WinRmClient.builder(server.getEndpoint())
+                .authenticationScheme(AuthSchemes.BASIC)
+                .credentials("user", "password")
+                .context(context)
+                .build();
+    }
+}
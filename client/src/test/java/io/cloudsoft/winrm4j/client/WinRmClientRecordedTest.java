@@ -65,14 +65,48 @@ public class WinRmClientRecordedTest {
             URL serverUrl = server.url("/wsman").url();
             RecordedSessionDispatcher dispatcher = new RecordedSessionDispatcher(recordingName, serverUrl.toString());
             server.setDispatcher(dispatcher);
-            doRequest(serverUrl);
+            doRequest(serverUrl, false);
             assertFalse(dispatcher.hasErrors(), "Dispatcher reported errors, see logs for details");
         }
     }
 
-    private void doRequest(URL url) {
+    @Test(dataProvider="recordings", timeOut=30000)
+    public void testRecordingWithEnvelopeTemplates(String recordingName) throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            URL serverUrl = server.url("/wsman").url();
+            RecordedSessionDispatcher dispatcher = new RecordedSessionDispatcher(recordingName, serverUrl.toString());
+            server.setDispatcher(dispatcher);
+            doRequest(serverUrl, true);
+            assertFalse(dispatcher.hasErrors(), "Dispatcher reported errors, see logs for details");
+        }
+    }
+
+    @Test(dataProvider="recordings", timeOut=30000)
+    public void testRecordingAsync(String recordingName) throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            URL serverUrl = server.url("/wsman").url();
+            RecordedSessionDispatcher dispatcher = new RecordedSessionDispatcher(recordingName, serverUrl.toString());
+            server.setDispatcher(dispatcher);
+            doRequestAsync(serverUrl, false);
+            assertFalse(dispatcher.hasErrors(), "Dispatcher reported errors, see logs for details");
+        }
+    }
+
+    @Test(dataProvider="recordings", timeOut=30000)
+    public void testRecordingAsyncWithEnvelopeTemplates(String recordingName) throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            URL serverUrl = server.url("/wsman").url();
+            RecordedSessionDispatcher dispatcher = new RecordedSessionDispatcher(recordingName, serverUrl.toString());
+            server.setDispatcher(dispatcher);
+            doRequestAsync(serverUrl, true);
+            assertFalse(dispatcher.hasErrors(), "Dispatcher reported errors, see logs for details");
+        }
+    }
+
+    private void doRequest(URL url, boolean envelopeTemplates) {
         WinRmClientBuilder builder = WinRmClient.builder(url);
         builder.authenticationScheme(AuthSchemes.BASIC);
+        builder.envelopeTemplates(envelopeTemplates);
 
         WinRmClient client = builder.build();
 
@@ -89,6 +123,27 @@ public class WinRmClientRecordedTest {
         assertEquals(code, 0);
     }
 
+    private void doRequestAsync(URL url, boolean envelopeTemplates) throws Exception {
+        WinRmClientBuilder builder = WinRmClient.builder(url);
+        builder.authenticationScheme(AuthSchemes.BASIC);
+        builder.envelopeTemplates(envelopeTemplates);
+
+        StringWriter out = new StringWriter();
+        StringWriter err = new StringWriter();
+        int code;
+
+        try (WinRmClient client = builder.build()) {
+            code = client.createShellAsync()
+                    .thenCompose(shell -> shell.executeAsync("echo myline", out, err)
+                            .thenCompose(exitCode -> shell.closeAsync().thenApply(ignored -> exitCode)))
+                    .get();
+        }
+
+        assertEquals(out.toString(), "myline\r\n");
+        assertEquals(err.toString(), "");
+        assertEquals(code, 0);
+    }
+
     private static class RecordedSessionDispatcher extends Dispatcher {
 
         String serverUrl;
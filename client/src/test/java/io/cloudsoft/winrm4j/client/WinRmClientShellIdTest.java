@@ -0,0 +1,77 @@
+package io.cloudsoft.winrm4j.client;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.testng.annotations.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import io.cloudsoft.winrm4j.client.transfer.ResourceCreated;
+
+public class WinRmClientShellIdTest {
+
+    private static final String NAMESPACES =
+            " xmlns:x=\"http://schemas.xmlsoap.org/ws/2004/09/transfer\""
+            + " xmlns:a=\"http://schemas.xmlsoap.org/ws/2004/08/addressing\""
+            + " xmlns:w=\"http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd\"";
+
+    @Test
+    public void testShellIdOfSelectorInReferenceParameters() throws Exception {
+        ResourceCreated created = resourceCreated("<a:Address>http://localhost:5985/wsman</a:Address><a:ReferenceParameters>"
+                + "<w:ResourceURI>http://schemas.microsoft.com/wbem/wsman/1/windows/shell/cmd</w:ResourceURI>"
+                + "<w:SelectorSet><w:Selector Name=\"ShellId\">AF161CE1-3D3F-46B7-A101-800DD70639A9</w:Selector></w:SelectorSet>"
+                + "</a:ReferenceParameters>");
+
+        assertEquals(WinRmClient.getShellId(created), "AF161CE1-3D3F-46B7-A101-800DD70639A9");
+    }
+
+    @Test
+    public void testShellIdIgnoresOtherSelectors() throws Exception {
+        ResourceCreated created = resourceCreated("<a:ReferenceParameters><w:SelectorSet>"
+                + "<w:Selector Name=\"Other\">ignored</w:Selector>"
+                + "<w:Selector Name=\"ShellId\">AF161CE1</w:Selector>"
+                + "</w:SelectorSet></a:ReferenceParameters>");
+
+        assertEquals(WinRmClient.getShellId(created), "AF161CE1");
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testFailsWithoutShellIdSelector() throws Exception {
+        ResourceCreated created = resourceCreated("<a:Address>http://localhost:5985/wsman</a:Address><a:ReferenceParameters>"
+                + "<w:ResourceURI>http://schemas.microsoft.com/wbem/wsman/1/windows/shell/cmd</w:ResourceURI>"
+                + "<w:SelectorSet><w:Selector Name=\"Other\">AF161CE1</w:Selector></w:SelectorSet>"
+                + "</a:ReferenceParameters>");
+
+        WinRmClient.getShellId(created);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testFailsWithEmptyShellId() throws Exception {
+        ResourceCreated created = resourceCreated("<a:ReferenceParameters><w:SelectorSet>"
+                + "<w:Selector Name=\"ShellId\"></w:Selector>"
+                + "</w:SelectorSet></a:ReferenceParameters>");
+
+        WinRmClient.getShellId(created);
+    }
+
+    /** The elements of the given body, as JAXB puts them in the any list of the ResourceCreated */
+    private static ResourceCreated resourceCreated(String content) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Element root = factory.newDocumentBuilder()
+                .parse(new InputSource(new StringReader("<x:ResourceCreated" + NAMESPACES + ">" + content + "</x:ResourceCreated>")))
+                .getDocumentElement();
+        ResourceCreated result = new ResourceCreated();
+        for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                result.getAny().add((Element) child);
+            }
+        }
+        return result;
+    }
+}
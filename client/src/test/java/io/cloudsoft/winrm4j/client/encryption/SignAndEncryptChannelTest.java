@@ -0,0 +1,171 @@
+package io.cloudsoft.winrm4j.client.encryption;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import io.cloudsoft.winrm4j.client.PayloadEncryptionMode;
+import io.cloudsoft.winrm4j.client.encryption.SignAndEncryptOutInterceptor.ChannelReleasingCallback;
+import io.cloudsoft.winrm4j.client.ntlm.NTCredentialsWithEncryption;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import org.apache.cxf.endpoint.ClientCallback;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.http.auth.Credentials;
+import org.testng.annotations.Test;
+
+/**
+ * The sealing channels taken by the exchanges of a client whose credentials are not authenticated yet.
+ */
+public class SignAndEncryptChannelTest {
+
+    private final SignAndEncryptOutInterceptor interceptor = new SignAndEncryptOutInterceptor(PayloadEncryptionMode.REQUIRED, 100);
+
+    @Test
+    public void testConcurrentExchangesUseDistinctChannels() {
+        NTCredentialsWithEncryption template = newTemplate(2);
+        Message first = newRequest(template);
+        Message second = newRequest(template);
+
+        interceptor.handleMessage(first);
+        interceptor.handleMessage(second);
+
+        NTCredentialsWithEncryption firstChannel = channelOf(first);
+        NTCredentialsWithEncryption secondChannel = channelOf(second);
+        assertTrue(firstChannel.isChannel());
+        assertTrue(secondChannel.isChannel());
+        assertNotSame(secondChannel, firstChannel);
+        assertNotEquals(secondChannel.getUserPrincipal(), firstChannel.getUserPrincipal());
+        assertSame(first.getExchange().get(Credentials.class.getName()), firstChannel);
+    }
+
+    @Test
+    public void testFailsWhenNoChannelReleasedInTime() {
+        NTCredentialsWithEncryption template = newTemplate(1);
+        interceptor.handleMessage(newRequest(template));
+
+        try {
+            interceptor.handleMessage(newRequest(template));
+            fail("Should have timed out");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("Timed out"), "message=" + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReleasesChannelWhenResponseRead() {
+        NTCredentialsWithEncryption template = newTemplate(1);
+        Message request = newRequest(template);
+        interceptor.handleMessage(request);
+
+        SignAndEncryptOutInterceptor.releaseChannel(request.getExchange());
+
+        assertSame(template.acquireChannel(0, TimeUnit.MILLISECONDS), channelOf(request));
+    }
+
+    @Test
+    public void testReleasesChannelOnFault() {
+        NTCredentialsWithEncryption template = newTemplate(1);
+        Message request = newRequest(template);
+        interceptor.handleMessage(request);
+
+        interceptor.handleFault(request);
+
+        assertSame(template.acquireChannel(0, TimeUnit.MILLISECONDS), channelOf(request));
+    }
+
+    @Test
+    public void testReleasesChannelWhenAsynchronousExchangeTimesOut() {
+        NTCredentialsWithEncryption template = newTemplate(1);
+        Message request = newRequest(template);
+        ChannelReleasingCallback callback = new ChannelReleasingCallback();
+        request.getExchange().put(ClientCallback.class, callback);
+        interceptor.handleMessage(request);
+
+        // sent, so neither the in interceptor nor the fault of the out chain will release it
+        callback.handleException(null, new SocketTimeoutException("simulated timeout"));
+
+        assertSame(template.acquireChannel(0, TimeUnit.MILLISECONDS), channelOf(request));
+    }
+
+    @Test
+    public void testReleasesChannelWhenAsynchronousExchangeCompletes() {
+        NTCredentialsWithEncryption template = newTemplate(1);
+        Message request = newRequest(template);
+        ChannelReleasingCallback callback = new ChannelReleasingCallback();
+        request.getExchange().put(ClientCallback.class, callback);
+        interceptor.handleMessage(request);
+
+        SignAndEncryptOutInterceptor.releaseChannel(request.getExchange());
+        callback.handleResponse(null, new Object[0]);
+
+        assertSame(template.acquireChannel(0, TimeUnit.MILLISECONDS), channelOf(request));
+        // released once only, so not idle twice
+        try {
+            template.acquireChannel(0, TimeUnit.MILLISECONDS);
+            fail("Should have had no channel left");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("Timed out"), "message=" + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReleasesChannelsOfSynchronousRequests() throws IOException {
+        NTCredentialsWithEncryption template = newTemplate(1);
+        Message request = newRequest(template);
+
+        try {
+            SignAndEncryptOutInterceptor.releasingChannels(() -> {
+                interceptor.handleMessage(request);
+                throw new IOException("simulated connection reset");
+            });
+            fail("Should have propagated failure");
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), "simulated connection reset");
+        }
+
+        assertSame(template.acquireChannel(0, TimeUnit.MILLISECONDS), channelOf(request));
+    }
+
+    @Test
+    public void testUsesAuthenticatedCredentialsAsIs() {
+        NTCredentialsWithEncryption creds = newTemplate(1);
+        creds.setIsAuthenticated(true);
+        Message first = newRequest(creds);
+        Message second = newRequest(creds);
+
+        interceptor.handleMessage(first);
+        interceptor.handleMessage(second);
+
+        assertSame(first.get(Credentials.class.getName()), creds);
+        assertSame(second.get(Credentials.class.getName()), creds);
+        assertNull(first.getExchange().get(SignAndEncryptOutInterceptor.CHANNEL));
+    }
+
+    private static NTCredentialsWithEncryption newTemplate(int maxChannels) {
+        return new NTCredentialsWithEncryption("user", "password", "workstation", "domain", maxChannels);
+    }
+
+    private static Message newRequest(NTCredentialsWithEncryption creds) {
+        Message result = new MessageImpl();
+        Exchange exchange = new ExchangeImpl();
+        exchange.setOutMessage(result);
+        result.setContent(OutputStream.class, new ByteArrayOutputStream());
+        result.put(Credentials.class.getName(), creds);
+        return result;
+    }
+
+    private static NTCredentialsWithEncryption channelOf(Message request) {
+        return (NTCredentialsWithEncryption) request.get(Credentials.class.getName());
+    }
+}
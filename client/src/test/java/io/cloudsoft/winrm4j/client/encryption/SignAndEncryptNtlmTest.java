@@ -7,20 +7,26 @@ import static io.cloudsoft.winrm4j.client.encryption.ByteArrayUtils.repeated;
 import io.cloudsoft.winrm4j.client.ntlm.NTCredentialsWithEncryption;
 import io.cloudsoft.winrm4j.client.ntlm.NtlmKeys;
 import io.cloudsoft.winrm4j.client.ntlm.NtlmKeys.NegotiateFlags;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Random;
 import java.util.function.Consumer;
+import java.util.zip.CRC32;
 import javax.crypto.Cipher;
 import org.apache.cxf.binding.soap.SoapMessage;
+import org.apache.cxf.helpers.IOUtils;
 import org.apache.cxf.message.Message;
 import org.apache.cxf.message.MessageImpl;
 import org.apache.http.auth.Credentials;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 public class SignAndEncryptNtlmTest {
@@ -194,6 +200,146 @@ public class SignAndEncryptNtlmTest {
         return out.toByteArray();
     }
 
+    @Test
+    public void testDecryptRoundTrip() throws IOException {
+        byte[] sessionKey = bytes(0xeb,0x93,0x42,0x9a,0x8b,0xd9,0x52,0xf8,0xb8,0x9c,0x55,0xb8,0x7f,0x47,0x5e,0xdc);
+        NTCredentialsWithEncryption client = sessionCredentials(sessionKey);
+        NtlmEncryptionUtils serverUtils = new NtlmEncryptionUtils(serverCredentials(client), PayloadEncryptionMode.REQUIRED);
+
+        // the RC4 streams and sequence numbers carry over from one response to the next
+        for (String body : Arrays.asList("<s:Envelope>first</s:Envelope>", "", repeatedString("<rsp:Stream/>", 20000))) {
+            Message response = new MessageImpl();
+            response.put(Message.CONTENT_TYPE, "multipart/encrypted;protocol=\"application/HTTP-SPNEGO-session-encrypted\";boundary=\"Encrypted Boundary\"");
+            response.setContent(InputStream.class, new ByteArrayInputStream(serverUtils.encryptAndSign(new MessageImpl(), body.getBytes())));
+
+            new NtlmEncryptionUtils.Decryptor(client, PayloadEncryptionMode.REQUIRED).handle(response);
+
+            Assert.assertEquals(new String(IOUtils.readBytesFromStream(response.getContent(InputStream.class))), body);
+        }
+        // the last of the sequence numbers 0, 1 and 2
+        Assert.assertEquals(client.getSequenceNumberIncoming().get(), 2);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testDecryptRejectsTamperedPayload() throws IOException {
+        byte[] sessionKey = repeated(16, new byte[]{0x55});
+        NTCredentialsWithEncryption client = sessionCredentials(sessionKey);
+
+        byte[] sealed = new NtlmEncryptionUtils(serverCredentials(client), PayloadEncryptionMode.REQUIRED).encryptAndSign(new MessageImpl(), "<s:Envelope/>".getBytes());
+        // flip a bit of the sealed message, just before the closing boundary
+        sealed[sealed.length - NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_END.length() - 1] ^= 1;
+
+        Message response = new MessageImpl();
+        response.put(Message.CONTENT_TYPE, "multipart/encrypted;protocol=\"application/HTTP-SPNEGO-session-encrypted\";boundary=\"Encrypted Boundary\"");
+        response.setContent(InputStream.class, new ByteArrayInputStream(sealed));
+        new NtlmEncryptionUtils.Decryptor(client, PayloadEncryptionMode.REQUIRED).handle(response);
+    }
+
+    @DataProvider(name = "negotiateFlags")
+    public Object[][] negotiateFlags() {
+        long signAndSeal = NegotiateFlags.NTLMSSP_NEGOTIATE_SIGN | NegotiateFlags.NTLMSSP_NEGOTIATE_SEAL;
+        return new Object[][] {
+                // extended session security, with and without sealing the checksum
+                { NegotiateFlags.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY | NegotiateFlags.NTLMSSP_NEGOTIATE_KEY_EXCH | NegotiateFlags.NTLMSSP_NEGOTIATE_128 | signAndSeal },
+                { NegotiateFlags.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY | NegotiateFlags.NTLMSSP_NEGOTIATE_128 | signAndSeal },
+                // without it, signed with a CRC32
+                { NegotiateFlags.NTLMSSP_NEGOTIATE_KEY_EXCH | NegotiateFlags.NTLMSSP_NEGOTIATE_128 | signAndSeal },
+                { NegotiateFlags.NTLMSSP_NEGOTIATE_128 | signAndSeal },
+        };
+    }
+
+    @Test(dataProvider = "negotiateFlags")
+    public void testEncryptAndSignSameAsWithCopies(long flags) throws IOException {
+        byte[] sessionKey = bytes(0xeb,0x93,0x42,0x9a,0x8b,0xd9,0x52,0xf8,0xb8,0x9c,0x55,0xb8,0x7f,0x47,0x5e,0xdc);
+        NTCredentialsWithEncryption actual = new NTCredentialsWithEncryption("user", "password", "workstation", "domain");
+        new NtlmKeys(sessionKey, flags).apply(actual);
+        actual.setIsAuthenticated(true);
+        NTCredentialsWithEncryption expected = new NTCredentialsWithEncryption("user", "password", "workstation", "domain");
+        new NtlmKeys(sessionKey, flags).apply(expected);
+        expected.setIsAuthenticated(true);
+        NtlmEncryptionUtils utils = new NtlmEncryptionUtils(actual, PayloadEncryptionMode.REQUIRED);
+
+        // the RC4 streams and sequence numbers carry over from one message to the next
+        for (int size : new int[] { 1000, 1, 150000, 19 }) {
+            byte[] payload = new byte[size];
+            new Random(size).nextBytes(payload);
+
+            assertEquals(utils.encryptAndSign(new MessageImpl(), payload), encryptAndSignWithCopies(expected, payload));
+        }
+    }
+
+    /**
+     * The framing of a message as made before it was written into a single buffer, concatenating its parts,
+     * as in {@code NtlmEncryptionBenchmark#encryptAndSignWithCopies}, but for any negotiated flags.
+     */
+    private static byte[] encryptAndSignWithCopies(NTCredentialsWithEncryption credentials, byte[] payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_CR.getBytes());
+        out.write(("\tContent-Type: " + "application/HTTP-SPNEGO-session-encrypted" + "\r\n").getBytes());
+        out.write(("\tOriginalContent: type=application/soap+xml;charset=UTF-8;Length=" + payload.length + "\r\n").getBytes());
+        out.write(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_CR.getBytes());
+        out.write("\tContent-Type: application/octet-stream\r\n".getBytes());
+
+        long seqNum = credentials.getSequenceNumberOutgoing().incrementAndGet();
+        Cipher encryptor = credentials.getStatefulEncryptor();
+        // sealed first, as the cipher is stateful
+        byte[] sealed = encryptor.update(payload);
+        ByteArrayOutputStream signature = new ByteArrayOutputStream();
+        signature.write(new byte[]{1, 0, 0, 0});
+        if (credentials.hasNegotiateFlag(NegotiateFlags.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY)) {
+            byte[] checksum = WinrmEncryptionUtils.hmacMd5(credentials.getClientSigningKey(),
+                    ByteArrayUtils.concat(getLittleEndianUnsignedInt(seqNum), payload));
+            checksum = Arrays.copyOfRange(checksum, 0, 8);
+            if (credentials.hasNegotiateFlag(NegotiateFlags.NTLMSSP_NEGOTIATE_KEY_EXCH)) {
+                checksum = encryptor.update(checksum);
+            }
+            signature.write(checksum);
+            signature.write(getLittleEndianUnsignedInt(seqNum));
+        } else {
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            signature.write(encryptor.update(getLittleEndianUnsignedInt(0)));
+            signature.write(encryptor.update(getLittleEndianUnsignedInt(crc.getValue())));
+            signature.write(encryptor.update(getLittleEndianUnsignedInt(seqNum)));
+        }
+
+        out.write(getLittleEndianUnsignedInt(signature.size()));
+        out.write(signature.toByteArray());
+        out.write(sealed);
+        out.write(NtlmEncryptionUtils.ENCRYPTED_BOUNDARY_END.getBytes());
+        return out.toByteArray();
+    }
+
+    /** NTLMv2 session with signing and sealing: extended session security, key exchange, 128 bit */
+    private static NTCredentialsWithEncryption sessionCredentials(byte[] sessionKey) {
+        long flags = NegotiateFlags.NTLMSSP_NEGOTIATE_EXTENDED_SESSIONSECURITY | NegotiateFlags.NTLMSSP_NEGOTIATE_KEY_EXCH
+                | NegotiateFlags.NTLMSSP_NEGOTIATE_128 | NegotiateFlags.NTLMSSP_NEGOTIATE_SIGN | NegotiateFlags.NTLMSSP_NEGOTIATE_SEAL;
+        NTCredentialsWithEncryption result = new NTCredentialsWithEncryption("user", "password", "workstation", "domain");
+        new NtlmKeys(sessionKey, flags).apply(result);
+        result.setIsAuthenticated(true);
+        return result;
+    }
+
+    /** The server seals with the keys the client unseals with, and the other way round. */
+    private static NTCredentialsWithEncryption serverCredentials(NTCredentialsWithEncryption client) {
+        NTCredentialsWithEncryption result = new NTCredentialsWithEncryption("user", "password", "server", "domain");
+        result.setNegotiateFlags(client.getNegotiateFlags());
+        result.setClientSigningKey(client.getServerSigningKey());
+        result.setClientSealingKey(client.getServerSealingKey());
+        result.setServerSigningKey(client.getClientSigningKey());
+        result.setServerSealingKey(client.getClientSealingKey());
+        result.setIsAuthenticated(true);
+        return result;
+    }
+
+    private static String repeatedString(String s, int times) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            result.append(s);
+        }
+        return result.toString();
+    }
+
     @Test
     public void testEncryption2() {
 //        def test_encrypt_message():
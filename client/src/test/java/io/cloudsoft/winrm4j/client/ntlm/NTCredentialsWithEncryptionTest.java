@@ -0,0 +1,123 @@
+package io.cloudsoft.winrm4j.client.ntlm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class NTCredentialsWithEncryptionTest {
+
+    @Test
+    public void testConcurrentAcquiresGetDistinctChannels() throws Exception {
+        NTCredentialsWithEncryption template = newTemplate(4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<NTCredentialsWithEncryption>> channels = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                channels.add(executor.submit(() -> {
+                    start.await();
+                    return template.acquireChannel(1, TimeUnit.MINUTES);
+                }));
+            }
+            start.countDown();
+
+            Set<NTCredentialsWithEncryption> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+            Set<Object> principals = new HashSet<>();
+            for (Future<NTCredentialsWithEncryption> channel : channels) {
+                NTCredentialsWithEncryption actual = channel.get(1, TimeUnit.MINUTES);
+                assertTrue(actual.isChannel());
+                distinct.add(actual);
+                principals.add(actual.getUserPrincipal());
+            }
+            assertEquals(distinct.size(), 4);
+            assertEquals(principals.size(), 4);
+            assertEquals(template.getChannelCount(), 4);
+            assertEquals(template.getIdleChannelCount(), 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReusesReleasedChannel() {
+        NTCredentialsWithEncryption template = newTemplate(4);
+        NTCredentialsWithEncryption first = template.acquireChannel(0, TimeUnit.MILLISECONDS);
+        first.releaseChannel();
+
+        assertSame(template.acquireChannel(0, TimeUnit.MILLISECONDS), first);
+        assertEquals(template.getChannelCount(), 1);
+    }
+
+    @Test
+    public void testWaitingAcquireGetsReleasedChannel() throws Exception {
+        NTCredentialsWithEncryption template = newTemplate(1);
+        NTCredentialsWithEncryption first = template.acquireChannel(0, TimeUnit.MILLISECONDS);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<NTCredentialsWithEncryption> second = executor.submit(() -> template.acquireChannel(1, TimeUnit.MINUTES));
+            Thread.sleep(100);
+            assertFalse(second.isDone());
+
+            first.releaseChannel();
+
+            assertSame(second.get(1, TimeUnit.MINUTES), first);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAcquireTimesOutWhenAllChannelsHeld() {
+        NTCredentialsWithEncryption template = newTemplate(1);
+        template.acquireChannel(0, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        try {
+            template.acquireChannel(100, TimeUnit.MILLISECONDS);
+            fail("Should have timed out");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("Timed out"), "message=" + e.getMessage());
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(template.getChannelCount(), 1);
+    }
+
+    @Test
+    public void testReleaseTwiceIgnored() {
+        NTCredentialsWithEncryption template = newTemplate(2);
+        NTCredentialsWithEncryption channel = template.acquireChannel(0, TimeUnit.MILLISECONDS);
+
+        channel.releaseChannel();
+        channel.releaseChannel();
+
+        assertEquals(template.getIdleChannelCount(), 1);
+        assertSame(template.acquireChannel(0, TimeUnit.MILLISECONDS), channel);
+        assertNotSame(template.acquireChannel(0, TimeUnit.MILLISECONDS), channel);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testCannotAcquireChannelOfChannel() {
+        newTemplate(1).acquireChannel(0, TimeUnit.MILLISECONDS).acquireChannel(0, TimeUnit.MILLISECONDS);
+    }
+
+    private static NTCredentialsWithEncryption newTemplate(int maxChannels) {
+        return new NTCredentialsWithEncryption("user", "password", "workstation", "domain", maxChannels);
+    }
+}
@@ -0,0 +1,74 @@
+package io.cloudsoft.winrm4j.client.retry;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.ws.WebServiceException;
+
+import org.testng.annotations.Test;
+
+public class ExponentialBackoffRetryPolicyTest {
+
+    private static final WebServiceException FAILURE = new WebServiceException("simulated failure", new IOException("simulated failure"));
+
+    @Test
+    public void testDoublesPauseUpToMax() {
+        ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(10, 100, 1000, TimeUnit.MILLISECONDS, () -> 0.999999);
+
+        assertEquals(policy.onWebServiceException(FAILURE, 1).pauseTimeMillis(), 100);
+        assertEquals(policy.onWebServiceException(FAILURE, 2).pauseTimeMillis(), 200);
+        assertEquals(policy.onWebServiceException(FAILURE, 3).pauseTimeMillis(), 400);
+        assertEquals(policy.onWebServiceException(FAILURE, 4).pauseTimeMillis(), 800);
+        assertEquals(policy.onWebServiceException(FAILURE, 5).pauseTimeMillis(), 1000);
+        assertEquals(policy.onWebServiceException(FAILURE, 10).pauseTimeMillis(), 1000);
+    }
+
+    @Test
+    public void testJitter() {
+        ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(10, 100, 1000, TimeUnit.MILLISECONDS, () -> 0.5);
+
+        assertEquals(policy.onWebServiceException(FAILURE, 3).pauseTimeMillis(), 200);
+
+        policy = new ExponentialBackoffRetryPolicy(10, 100, 1000, TimeUnit.MILLISECONDS, () -> 0);
+
+        assertEquals(policy.onWebServiceException(FAILURE, 3).pauseTimeMillis(), 0);
+    }
+
+    @Test
+    public void testRandomPausesWithinBounds() {
+        ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(3, 1, 10, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 100; i++) {
+            long pause = policy.onWebServiceException(FAILURE, 2).pauseTimeMillis();
+            assertTrue(pause >= 0 && pause <= 2000, "pause " + pause);
+        }
+    }
+
+    @Test
+    public void testStopsAfterMaxRetries() {
+        ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(2, 100, 1000, TimeUnit.MILLISECONDS);
+
+        assertTrue(policy.onWebServiceException(FAILURE, 1).shouldRetry());
+        assertTrue(policy.onWebServiceException(FAILURE, 2).shouldRetry());
+        RetryDecision decision = policy.onWebServiceException(FAILURE, 3);
+        assertFalse(decision.shouldRetry());
+        assertEquals(decision.reason().get(), "Attempt 3 of 3");
+    }
+
+    @Test
+    public void testManyAttemptsDoNotOverflow() {
+        ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(Integer.MAX_VALUE, 3, 7, TimeUnit.DAYS);
+
+        assertEquals(policy.getMaxPauseMillis(1000), TimeUnit.DAYS.toMillis(7));
+        assertEquals(policy.getMaxPauseMillis(Integer.MAX_VALUE), TimeUnit.DAYS.toMillis(7));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRejectsMaxPauseBelowInitialPause() {
+        new ExponentialBackoffRetryPolicy(1, 10, 5, TimeUnit.SECONDS);
+    }
+}
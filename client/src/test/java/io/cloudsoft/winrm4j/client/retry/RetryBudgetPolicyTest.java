@@ -0,0 +1,64 @@
+package io.cloudsoft.winrm4j.client.retry;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.ws.WebServiceException;
+
+import org.testng.annotations.Test;
+
+public class RetryBudgetPolicyTest {
+
+    private static final WebServiceException FAILURE = new WebServiceException("simulated failure", new IOException("simulated failure"));
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Test
+    public void testBudgetRefillsOverTime() {
+        RetryBudget budget = new RetryBudget(2, 1, nanos::get);
+
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertFalse(budget.tryAcquire());
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        assertEquals(budget.getAvailable(), 2);
+    }
+
+    @Test
+    public void testPoliciesShareBudget() {
+        RetryBudget budget = new RetryBudget(3, 0, nanos::get);
+        RetryPolicy client1 = new RetryBudgetPolicy(new SimpleCounterRetryPolicy(5, 1, TimeUnit.MILLISECONDS), budget);
+        RetryPolicy client2 = new RetryBudgetPolicy(new SimpleCounterRetryPolicy(5, 1, TimeUnit.MILLISECONDS), budget);
+
+        assertTrue(client1.onWebServiceException(FAILURE, 1).shouldRetry());
+        assertTrue(client2.onWebServiceException(FAILURE, 1).shouldRetry());
+        assertTrue(client1.onWebServiceException(FAILURE, 2).shouldRetry());
+        RetryDecision decision = client2.onWebServiceException(FAILURE, 2);
+        assertFalse(decision.shouldRetry());
+        assertEquals(decision.reason().get(), "Attempt 2, retry budget exhausted");
+    }
+
+    @Test
+    public void testNoTokenTakenWhenPolicyGivesUp() {
+        RetryBudget budget = new RetryBudget(1, 0, nanos::get);
+        RetryPolicy policy = new RetryBudgetPolicy(new SimpleCounterRetryPolicy(1, 1, TimeUnit.MILLISECONDS), budget);
+
+        RetryDecision decision = policy.onWebServiceException(FAILURE, 2);
+        assertFalse(decision.shouldRetry());
+        assertEquals(decision.reason().get(), "Attempt 2 of 2");
+        assertEquals(budget.getAvailable(), 1);
+    }
+}
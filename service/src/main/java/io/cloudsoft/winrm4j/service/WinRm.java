@@ -13,6 +13,8 @@ import javax.xml.ws.RequestWrapper;
 
 import io.cloudsoft.winrm4j.service.shell.Receive;
 import io.cloudsoft.winrm4j.service.shell.ReceiveResponse;
+import io.cloudsoft.winrm4j.service.shell.Send;
+import io.cloudsoft.winrm4j.service.shell.SendResponse;
 import io.cloudsoft.winrm4j.service.shell.Shell;
 import io.cloudsoft.winrm4j.service.shell.SignalResponse;
 import io.cloudsoft.winrm4j.service.transfer.ResourceCreated;
@@ -54,6 +56,27 @@ public class WinRm {
         return null;
     }
 
+    @WebMethod(operationName = "Send", action = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell/Send")
+    @WebResult(name="SendResponse", targetNamespace = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell")
+    @Action(input = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell/Send", output = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell/SendResponse")
+    @SOAPBinding(parameterStyle = SOAPBinding.ParameterStyle.BARE)
+    public SendResponse send(
+        @WebParam(name = "Send", targetNamespace = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell")
+        Send send,
+        @WebParam(name = "ResourceURI", targetNamespace = "http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd", header = true)
+        String resourceURI,
+        @WebParam(name = "MaxEnvelopeSize", targetNamespace = "http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd", header = true)
+        int maxEnvelopeSize,
+        @WebParam(name = "OperationTimeout", targetNamespace = "http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd", header = true)
+        String operationTimeout,
+        @WebParam(name = "Locale", targetNamespace = "http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd", header = true)
+        Locale locale,
+        @WebParam(name = "SelectorSet", targetNamespace = "http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd", header = true)
+        SelectorSetType selectorSet
+    ) {
+        return null;
+    }
+
     @WebMethod(operationName = "Delete", action = "http://schemas.xmlsoap.org/ws/2004/09/transfer/Delete")
     @WebResult(name = "DeleteResponse", targetNamespace = "http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd")
     @Action(input = "http://schemas.xmlsoap.org/ws/2004/09/transfer/Delete", output = "http://schemas.xmlsoap.org/ws/2004/09/transfer/DeleteResponse")
@@ -0,0 +1,245 @@
+package io.cloudsoft.winrm4j.service.emulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A command started in an {@link EmulatedShell}. Its output is available at once and is handed out
+ * by successive Receive requests; it is done once all output was received and its duration elapsed.
+ * A command echoing its stdin also prints the input sent to it, and is done only once the input ended.
+ * A command running a {@link WinRmEmulator.Program} prints what it writes, and is done once it returns.
+ */
+class EmulatedCommand {
+
+    /** WinRM splits command output in streams of about this size */
+    static final int STREAM_CHUNK_SIZE = 4096;
+
+    private static final String STATE_RUNNING = Envelopes.SHELL + "/CommandState/Running";
+    private static final String STATE_DONE = Envelopes.SHELL + "/CommandState/Done";
+
+    final String id;
+    final String commandLine;
+
+    private byte[] stdout;
+    private byte[] stderr;
+    private int exitCode;
+    private final long doneAtNanos;
+    private final boolean echoStdin;
+
+    private int stdoutPosition;
+    private int stderrPosition;
+    private long stdinBytes;
+    private boolean stdinEnded;
+    private boolean terminated;
+
+    /** Whether a program was started and has not returned yet */
+    private boolean programRunning;
+    /** The input sent to the command not yet read by its program */
+    private byte[] stdin = new byte[0];
+
+    EmulatedCommand(String id, String commandLine, byte[] stdout, byte[] stderr, int exitCode, long durationMillis,
+            boolean echoStdin) {
+        this.id = id;
+        this.commandLine = commandLine;
+        this.stdout = stdout;
+        this.stderr = stderr;
+        this.exitCode = exitCode;
+        this.doneAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        this.echoStdin = echoStdin;
+    }
+
+    synchronized void send(byte[] input, boolean end) {
+        if (stdinEnded) {
+            throw WsmanFault.invalidParameter("The input stream of command " + id + " has already ended");
+        }
+        stdinBytes += input.length;
+        stdinEnded = end;
+        if (echoStdin) {
+            stdout = append(stdout, stdoutPosition, input, 0, input.length);
+            stdoutPosition = 0;
+        } else if (programRunning) {
+            stdin = append(stdin, 0, input, 0, input.length);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Runs the program in the background, with the input sent to the command as its stdin; the command
+     * prints what it writes, and exits with the code it returns.
+     */
+    synchronized void start(WinRmEmulator.Program program, String commandLine, Executor executor) {
+        programRunning = true;
+        executor.execute(() -> {
+            int code;
+            try {
+                code = program.run(commandLine, new ProgramInput(), new ProgramOutput(false), new ProgramOutput(true));
+            } catch (IOException | RuntimeException e) {
+                byte[] message = e.toString().getBytes(StandardCharsets.UTF_8);
+                synchronized (this) {
+                    stderr = append(stderr, stderrPosition, message, 0, message.length);
+                    stderrPosition = 0;
+                }
+                code = 1;
+            }
+            synchronized (this) {
+                exitCode = code;
+                programRunning = false;
+                notifyAll();
+            }
+        });
+    }
+
+    synchronized long getStdinBytes() {
+        return stdinBytes;
+    }
+
+    synchronized void terminate() {
+        terminated = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits for output or for the command to end, but no longer than the operation timeout.
+     *
+     * @param maxOutput the number of bytes of output which fit in the response
+     * @return the content of the ReceiveResponse element
+     * @throws WsmanFault with the operation timeout code if there was nothing to return in time
+     */
+    synchronized String receive(long operationTimeoutMillis, int maxOutput) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(operationTimeoutMillis);
+        while (!terminated && !hasOutput() && !isDone()) {
+            // past its duration, a command echoing its stdin is waited for until more input is sent
+            long wakeUp = isDurationElapsed() || deadline - doneAtNanos < 0 ? deadline : doneAtNanos;
+            long wait = wakeUp - System.nanoTime();
+            if (wait <= 0) {
+                if (System.nanoTime() - deadline >= 0) {
+                    throw WsmanFault.operationTimeout();
+                }
+                continue;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, wait);
+        }
+        if (terminated) {
+            throw WsmanFault.invalidParameter("The command " + id + " was terminated");
+        }
+
+        StringBuilder result = new StringBuilder();
+        int budget = maxOutput;
+        while (budget > 0 && stdoutPosition < stdout.length) {
+            int length = Math.min(Math.min(STREAM_CHUNK_SIZE, budget), stdout.length - stdoutPosition);
+            appendStream(result, "stdout", stdout, stdoutPosition, length);
+            stdoutPosition += length;
+            budget -= length;
+        }
+        while (budget > 0 && stderrPosition < stderr.length) {
+            int length = Math.min(Math.min(STREAM_CHUNK_SIZE, budget), stderr.length - stderrPosition);
+            appendStream(result, "stderr", stderr, stderrPosition, length);
+            stderrPosition += length;
+            budget -= length;
+        }
+
+        if (!hasOutput() && isDone()) {
+            result.append("<rsp:Stream Name=\"stdout\" CommandId=\"").append(id).append("\" End=\"true\"/>");
+            result.append("<rsp:Stream Name=\"stderr\" CommandId=\"").append(id).append("\" End=\"true\"/>");
+            result.append("<rsp:CommandState CommandId=\"").append(id).append("\" State=\"").append(STATE_DONE).append("\">")
+                    .append("<rsp:ExitCode>").append(exitCode).append("</rsp:ExitCode></rsp:CommandState>");
+        } else {
+            result.append("<rsp:CommandState CommandId=\"").append(id).append("\" State=\"").append(STATE_RUNNING).append("\"/>");
+        }
+        return result.toString();
+    }
+
+    private boolean hasOutput() {
+        return stdoutPosition < stdout.length || stderrPosition < stderr.length;
+    }
+
+    private boolean isDone() {
+        return isDurationElapsed() && !programRunning && (!echoStdin || stdinEnded);
+    }
+
+    private boolean isDurationElapsed() {
+        return System.nanoTime() - doneAtNanos >= 0;
+    }
+
+    /** @return the bytes of {@code output} from {@code position}, followed by those given */
+    private static byte[] append(byte[] output, int position, byte[] b, int off, int len) {
+        byte[] result = Arrays.copyOfRange(output, position, output.length + len);
+        System.arraycopy(b, off, result, output.length - position, len);
+        return result;
+    }
+
+    private void appendStream(StringBuilder result, String name, byte[] output, int offset, int length) {
+        result.append("<rsp:Stream Name=\"").append(name).append("\" CommandId=\"").append(id).append("\">");
+        result.append(Base64.getEncoder().encodeToString(
+                offset == 0 && length == output.length ? output : Arrays.copyOfRange(output, offset, offset + length)));
+        result.append("</rsp:Stream>");
+    }
+
+    /** The stdin of a program: the input sent to the command, until it ends or the command is terminated */
+    private class ProgramInput extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            synchronized (EmulatedCommand.this) {
+                while (stdin.length == 0 && !stdinEnded && !terminated) {
+                    try {
+                        EmulatedCommand.this.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for the input of command " + id);
+                    }
+                }
+                if (terminated) {
+                    throw new IOException("The command " + id + " was terminated");
+                }
+                if (stdin.length == 0) {
+                    return len == 0 ? 0 : -1;
+                }
+                int read = Math.min(len, stdin.length);
+                System.arraycopy(stdin, 0, b, off, read);
+                stdin = Arrays.copyOfRange(stdin, read, stdin.length);
+                return read;
+            }
+        }
+    }
+
+    /** The stdout or stderr of a program, handed out by the Receive requests */
+    private class ProgramOutput extends OutputStream {
+        private final boolean isStderr;
+
+        ProgramOutput(boolean isStderr) {
+            this.isStderr = isStderr;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            synchronized (EmulatedCommand.this) {
+                if (isStderr) {
+                    stderr = append(stderr, stderrPosition, b, off, len);
+                    stderrPosition = 0;
+                } else {
+                    stdout = append(stdout, stdoutPosition, b, off, len);
+                    stdoutPosition = 0;
+                }
+                EmulatedCommand.this.notifyAll();
+            }
+        }
+    }
+}
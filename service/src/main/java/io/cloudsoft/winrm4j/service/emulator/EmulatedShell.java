@@ -0,0 +1,32 @@
+package io.cloudsoft.winrm4j.service.emulator;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A shell created by a Create request, and the commands started in it which were not yet terminated.
+ */
+class EmulatedShell {
+
+    final String id;
+    final Map<String, EmulatedCommand> commands = new ConcurrentHashMap<>();
+
+    EmulatedShell(String id) {
+        this.id = id;
+    }
+
+    EmulatedCommand getCommand(String commandId) {
+        EmulatedCommand command = commandId != null ? commands.get(commandId) : null;
+        if (command == null) {
+            throw WsmanFault.invalidParameter("The command " + commandId + " was not found in shell " + id);
+        }
+        return command;
+    }
+
+    void close() {
+        for (EmulatedCommand command : commands.values()) {
+            command.terminate();
+        }
+        commands.clear();
+    }
+}
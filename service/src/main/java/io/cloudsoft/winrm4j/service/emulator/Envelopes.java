@@ -0,0 +1,49 @@
+package io.cloudsoft.winrm4j.service.emulator;
+
+import java.util.UUID;
+
+/**
+ * Renders the SOAP envelopes of the responses, in the shape Windows sends them.
+ */
+final class Envelopes {
+
+    static final String SOAP = "http://www.w3.org/2003/05/soap-envelope";
+    static final String ADDRESSING = "http://schemas.xmlsoap.org/ws/2004/08/addressing";
+    static final String TRANSFER = "http://schemas.xmlsoap.org/ws/2004/09/transfer";
+    static final String WSMAN = "http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd";
+    static final String SHELL = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell";
+
+    static final String FAULT_ACTION = "http://schemas.dmtf.org/wbem/wsman/1/wsman/fault";
+
+    static final String CONTENT_TYPE = "application/soap+xml;charset=UTF-8";
+
+    private Envelopes() {}
+
+    static String envelope(String action, String relatesTo, String body) {
+        return "<s:Envelope xml:lang=\"en-US\" xmlns:s=\"" + SOAP + "\" xmlns:a=\"" + ADDRESSING + "\""
+                + " xmlns:x=\"" + TRANSFER + "\" xmlns:w=\"" + WSMAN + "\" xmlns:rsp=\"" + SHELL + "\">"
+                + "<s:Header>"
+                + "<a:Action>" + action + "</a:Action>"
+                + "<a:MessageID>uuid:" + UUID.randomUUID().toString().toUpperCase() + "</a:MessageID>"
+                + "<a:To>http://schemas.xmlsoap.org/ws/2004/08/addressing/role/anonymous</a:To>"
+                + (relatesTo != null ? "<a:RelatesTo>" + escape(relatesTo) + "</a:RelatesTo>" : "")
+                + "</s:Header>"
+                + "<s:Body>" + body + "</s:Body>"
+                + "</s:Envelope>";
+    }
+
+    static String escape(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<': result.append("&lt;"); break;
+                case '>': result.append("&gt;"); break;
+                case '&': result.append("&amp;"); break;
+                case '"': result.append("&quot;"); break;
+                default: result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,329 @@
+package io.cloudsoft.winrm4j.service.emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The server side of NTLMv2 authentication on one connection, and the sealing of the messages
+ * exchanged once authenticated (MS-NLMP with extended session security, as used by WinRM over HTTP).
+ */
+class NtlmServerSession {
+
+    static final String ENCRYPTED_CONTENT_TYPE = "multipart/encrypted;protocol=\"application/HTTP-SPNEGO-session-encrypted\";boundary=\"Encrypted Boundary\"";
+
+    private static final String BOUNDARY = "--Encrypted Boundary";
+    private static final byte[] SIGNATURE = "NTLMSSP\0".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int NEGOTIATE_UNICODE = 0x00000001;
+    private static final int REQUEST_TARGET = 0x00000004;
+    private static final int NEGOTIATE_SIGN = 0x00000010;
+    private static final int NEGOTIATE_SEAL = 0x00000020;
+    private static final int NEGOTIATE_NTLM = 0x00000200;
+    private static final int NEGOTIATE_ALWAYS_SIGN = 0x00008000;
+    private static final int TARGET_TYPE_SERVER = 0x00020000;
+    private static final int NEGOTIATE_EXTENDED_SESSIONSECURITY = 0x00080000;
+    private static final int NEGOTIATE_TARGET_INFO = 0x00800000;
+    private static final int NEGOTIATE_VERSION = 0x02000000;
+    private static final int NEGOTIATE_128 = 0x20000000;
+    private static final int NEGOTIATE_KEY_EXCH = 0x40000000;
+    private static final int NEGOTIATE_56 = 0x80000000;
+
+    /** Flags of the client we agree to, when it asks for them */
+    private static final int SUPPORTED_FLAGS = NEGOTIATE_SIGN | NEGOTIATE_SEAL | NEGOTIATE_ALWAYS_SIGN
+            | NEGOTIATE_VERSION | NEGOTIATE_128 | NEGOTIATE_KEY_EXCH | NEGOTIATE_56;
+
+    private static final String TARGET_NAME = "WINRM-EMULATOR";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String user;
+    private final String domain;
+    private final String password;
+
+    private byte[] serverChallenge;
+    private int flags;
+    private boolean authenticated;
+
+    private byte[] clientSigningKey;
+    private byte[] serverSigningKey;
+    private Cipher clientSealing;
+    private Cipher serverSealing;
+    private long sequenceNumberIncoming;
+    private long sequenceNumberOutgoing;
+
+    /**
+     * @param user the user name expected in the Type 3 message, optionally prefixed by {@code DOMAIN\}
+     */
+    NtlmServerSession(String user, String password) {
+        int separator = user.indexOf('\\');
+        this.domain = separator >= 0 ? user.substring(0, separator) : "";
+        this.user = separator >= 0 ? user.substring(separator + 1) : user;
+        this.password = password;
+    }
+
+    boolean isAuthenticated() {
+        return authenticated;
+    }
+
+    /** Whether the messages of this session can be sealed, i.e. the client negotiated it */
+    boolean isSealing() {
+        return authenticated && clientSealing != null;
+    }
+
+    /**
+     * @param message the token of the {@code Authorization} header, decoded
+     * @return the Type 2 (challenge) message to send back, or {@code null} if the message is a Type 3 which
+     *         authenticates the client
+     * @throws SecurityException if authentication failed
+     */
+    byte[] accept(byte[] message) {
+        checkSignature(message);
+        int type = readInt(message, 8);
+        if (type == 1) {
+            return challenge(readInt(message, 12));
+        } else if (type == 3) {
+            authenticate(message);
+            return null;
+        }
+        throw new SecurityException("Unexpected NTLM message type " + type);
+    }
+
+    private byte[] challenge(int clientFlags) {
+        authenticated = false;
+        clientSealing = null;
+        serverSealing = null;
+        serverChallenge = new byte[8];
+        RANDOM.nextBytes(serverChallenge);
+        flags = (clientFlags & SUPPORTED_FLAGS) | NEGOTIATE_UNICODE | REQUEST_TARGET | NEGOTIATE_NTLM
+                | TARGET_TYPE_SERVER | NEGOTIATE_EXTENDED_SESSIONSECURITY | NEGOTIATE_TARGET_INFO;
+
+        byte[] targetName = TARGET_NAME.getBytes(StandardCharsets.UTF_16LE);
+        ByteArrayOutputStream targetInfo = new ByteArrayOutputStream();
+        writeAvPair(targetInfo, 2, targetName);
+        writeAvPair(targetInfo, 1, targetName);
+        writeAvPair(targetInfo, 4, TARGET_NAME.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_16LE));
+        writeAvPair(targetInfo, 3, TARGET_NAME.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_16LE));
+        writeAvPair(targetInfo, 7, longBytes((System.currentTimeMillis() + 11644473600000L) * 10000));
+        writeAvPair(targetInfo, 0, new byte[0]);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(SIGNATURE, 0, SIGNATURE.length);
+        writeInt(out, 2);
+        writeSecurityBuffer(out, targetName.length, 56);
+        writeInt(out, flags);
+        out.write(serverChallenge, 0, 8);
+        out.write(new byte[8], 0, 8);
+        writeSecurityBuffer(out, targetInfo.size(), 56 + targetName.length);
+        // version 6.1, build 7601, NTLM revision 15
+        out.write(new byte[] {6, 1, (byte) 0xb1, 0x1d, 0, 0, 0, 15}, 0, 8);
+        out.write(targetName, 0, targetName.length);
+        byte[] info = targetInfo.toByteArray();
+        out.write(info, 0, info.length);
+        return out.toByteArray();
+    }
+
+    private void authenticate(byte[] message) {
+        if (serverChallenge == null) {
+            throw new SecurityException("NTLM Type 3 message received before a challenge was sent");
+        }
+        byte[] ntResponse = readSecurityBuffer(message, 20);
+        byte[] domainName = readSecurityBuffer(message, 28);
+        byte[] userName = readSecurityBuffer(message, 36);
+        byte[] encryptedSessionKey = readSecurityBuffer(message, 52);
+
+        String sentUser = new String(userName, StandardCharsets.UTF_16LE);
+        if (!user.equalsIgnoreCase(sentUser) || ntResponse.length <= 24) {
+            throw new SecurityException("NTLMv2 authentication failed for user " + sentUser);
+        }
+        byte[] proof = Arrays.copyOf(ntResponse, 16);
+        byte[] blob = Arrays.copyOfRange(ntResponse, 16, ntResponse.length);
+
+        // the client hashes the domain as given to it, but sends it upper case
+        byte[] sessionBaseKey = null;
+        for (String candidate : new String[] {domain, new String(domainName, StandardCharsets.UTF_16LE)}) {
+            byte[] ntowfv2 = hmacMd5(Md4.digest(password.getBytes(StandardCharsets.UTF_16LE)),
+                    (sentUser.toUpperCase(Locale.ROOT) + candidate).getBytes(StandardCharsets.UTF_16LE));
+            if (MessageDigest.isEqual(proof, Arrays.copyOf(hmacMd5(ntowfv2, concat(serverChallenge, blob)), 16))) {
+                sessionBaseKey = hmacMd5(ntowfv2, proof);
+                break;
+            }
+        }
+        if (sessionBaseKey == null) {
+            throw new SecurityException("NTLMv2 authentication failed for user " + sentUser);
+        }
+
+        authenticated = true;
+        serverChallenge = null;
+        if ((flags & NEGOTIATE_SIGN) != 0) {
+            byte[] exportedSessionKey = (flags & NEGOTIATE_KEY_EXCH) != 0 && encryptedSessionKey.length == 16
+                    ? rc4(sessionBaseKey).update(encryptedSessionKey)
+                    : sessionBaseKey;
+            byte[] sealKey = (flags & NEGOTIATE_128) != 0 ? exportedSessionKey
+                    : Arrays.copyOf(exportedSessionKey, (flags & NEGOTIATE_56) != 0 ? 7 : 5);
+            clientSigningKey = md5(exportedSessionKey, "session key to client-to-server signing key magic constant\0");
+            serverSigningKey = md5(exportedSessionKey, "session key to server-to-client signing key magic constant\0");
+            clientSealing = rc4(md5(sealKey, "session key to client-to-server sealing key magic constant\0"));
+            serverSealing = rc4(md5(sealKey, "session key to server-to-client sealing key magic constant\0"));
+            sequenceNumberIncoming = 0;
+            sequenceNumberOutgoing = 0;
+        }
+    }
+
+    /**
+     * Reverses the client's {@code multipart/encrypted} body, checking its signature and sequence number.
+     */
+    byte[] unseal(byte[] body) {
+        if (!isSealing()) {
+            throw new SecurityException("Encrypted message received without an NTLM session key");
+        }
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        int lengthStart = text.indexOf("Length=");
+        int payloadStart = text.indexOf("application/octet-stream\r\n");
+        if (lengthStart < 0 || payloadStart < 0) {
+            throw new SecurityException("Invalid encrypted message");
+        }
+        int length = Integer.parseInt(text.substring(lengthStart + 7, text.indexOf("\r\n", lengthStart)).trim());
+        int offset = payloadStart + "application/octet-stream\r\n".length();
+        int signatureLength = readInt(body, offset);
+        byte[] signature = Arrays.copyOfRange(body, offset + 4, offset + 4 + signatureLength);
+        byte[] sealed = Arrays.copyOfRange(body, offset + 4 + signatureLength, offset + 4 + signatureLength + length);
+
+        byte[] message = clientSealing.update(sealed);
+        long sequenceNumber = readInt(signature, 12) & 0xffffffffL;
+        byte[] expected = sign(message, sequenceNumber, clientSigningKey, clientSealing);
+        if (sequenceNumber != sequenceNumberIncoming || !MessageDigest.isEqual(signature, expected)) {
+            throw new SecurityException("Invalid signature of encrypted message " + sequenceNumber);
+        }
+        sequenceNumberIncoming++;
+        return message;
+    }
+
+    /**
+     * @return the {@code multipart/encrypted} body carrying the given message, of type {@link #ENCRYPTED_CONTENT_TYPE}
+     */
+    byte[] seal(byte[] message, String contentType) {
+        byte[] sealed = serverSealing.update(message);
+        byte[] signature = sign(message, sequenceNumberOutgoing++, serverSigningKey, serverSealing);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(message.length + 256);
+        writeAscii(out, BOUNDARY + "\r\n"
+                + "\tContent-Type: application/HTTP-SPNEGO-session-encrypted\r\n"
+                + "\tOriginalContent: type=" + contentType + ";Length=" + message.length + "\r\n"
+                + BOUNDARY + "\r\n"
+                + "\tContent-Type: application/octet-stream\r\n");
+        writeInt(out, signature.length);
+        out.write(signature, 0, signature.length);
+        out.write(sealed, 0, sealed.length);
+        writeAscii(out, BOUNDARY + "--\r\n");
+        return out.toByteArray();
+    }
+
+    private byte[] sign(byte[] message, long sequenceNumber, byte[] signingKey, Cipher sealing) {
+        byte[] sequence = intBytes((int) sequenceNumber);
+        byte[] checksum = Arrays.copyOf(hmacMd5(signingKey, concat(sequence, message)), 8);
+        if ((flags & NEGOTIATE_KEY_EXCH) != 0) {
+            checksum = sealing.update(checksum);
+        }
+        return concat(concat(intBytes(1), checksum), sequence);
+    }
+
+    private static void checkSignature(byte[] message) {
+        if (message.length < 16 || !Arrays.equals(SIGNATURE, Arrays.copyOf(message, 8))) {
+            throw new SecurityException("Not an NTLM message");
+        }
+    }
+
+    private static byte[] readSecurityBuffer(byte[] message, int offset) {
+        int length = (message[offset] & 0xff) | (message[offset + 1] & 0xff) << 8;
+        int start = readInt(message, offset + 4);
+        if (start < 0 || start + length > message.length) {
+            throw new SecurityException("Invalid NTLM message");
+        }
+        return Arrays.copyOfRange(message, start, start + length);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8
+                | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[] {(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)};
+    }
+
+    private static byte[] longBytes(long value) {
+        byte[] result = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            result[i] = (byte) (value >>> (8 * i));
+        }
+        return result;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(intBytes(value), 0, 4);
+    }
+
+    private static void writeSecurityBuffer(ByteArrayOutputStream out, int length, int offset) {
+        out.write(length);
+        out.write(length >>> 8);
+        out.write(length);
+        out.write(length >>> 8);
+        writeInt(out, offset);
+    }
+
+    private static void writeAvPair(ByteArrayOutputStream out, int id, byte[] value) {
+        out.write(id);
+        out.write(id >>> 8);
+        out.write(value.length);
+        out.write(value.length >>> 8);
+        out.write(value, 0, value.length);
+    }
+
+    private static void writeAscii(ByteArrayOutputStream out, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static byte[] md5(byte[] key, String magicConstant) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(concat(key, magicConstant.getBytes(StandardCharsets.US_ASCII)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] hmacMd5(byte[] key, byte[] data) {
+        try {
+            Mac mac = Mac.getInstance("HmacMD5");
+            mac.init(new SecretKeySpec(key, "HmacMD5"));
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Cipher rc4(byte[] key) {
+        try {
+            Cipher cipher = Cipher.getInstance("RC4");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "RC4"));
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package io.cloudsoft.winrm4j.service.emulator;
+
+import java.util.Base64;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * The WinRM shell operations: Create, Command, Receive, Send, Signal and Delete, acting on the shells
+ * of the emulator.
+ */
+class ShellOperations {
+
+    private static final String CREATE = Envelopes.TRANSFER + "/Create";
+    private static final String DELETE = Envelopes.TRANSFER + "/Delete";
+    private static final String COMMAND = Envelopes.SHELL + "/Command";
+    private static final String RECEIVE = Envelopes.SHELL + "/Receive";
+    private static final String SEND = Envelopes.SHELL + "/Send";
+    private static final String SIGNAL = Envelopes.SHELL + "/Signal";
+
+    private final WinRmEmulator.Builder config;
+    private final String endpoint;
+    /** Runs the programs of the commands */
+    private final Executor executor;
+    private final Map<String, EmulatedShell> shells = new ConcurrentHashMap<>();
+
+    ShellOperations(WinRmEmulator.Builder config, String endpoint, Executor executor) {
+        this.config = config;
+        this.endpoint = endpoint;
+        this.executor = executor;
+    }
+
+    int getShellCount() {
+        return shells.size();
+    }
+
+    /**
+     * @return the response envelope
+     * @throws WsmanFault if the request cannot be honoured
+     */
+    String handle(WsmanRequest request) throws InterruptedException {
+        if (CREATE.equals(request.action)) {
+            return Envelopes.envelope(CREATE + "Response", request.messageId, create());
+        } else if (COMMAND.equals(request.action)) {
+            return Envelopes.envelope(COMMAND + "Response", request.messageId, command(request));
+        } else if (RECEIVE.equals(request.action)) {
+            return Envelopes.envelope(RECEIVE + "Response", request.messageId, receive(request));
+        } else if (SEND.equals(request.action)) {
+            return Envelopes.envelope(SEND + "Response", request.messageId, send(request));
+        } else if (SIGNAL.equals(request.action)) {
+            return Envelopes.envelope(SIGNAL + "Response", request.messageId, signal(request));
+        } else if (DELETE.equals(request.action)) {
+            return Envelopes.envelope(DELETE + "Response", request.messageId, delete(request));
+        }
+        throw new WsmanFault(WsmanFault.INVALID_PARAMETER, "a:ActionNotSupported", true,
+                "The action is not supported by the service: " + request.action);
+    }
+
+    private String create() {
+        String shellId = UUID.randomUUID().toString().toUpperCase();
+        synchronized (shells) {
+            if (config.maxShells > 0 && shells.size() >= config.maxShells) {
+                throw WsmanFault.quotaLimit(WsmanFault.MAX_SHELLS_EXCEEDED,
+                        "The WS-Management service cannot process the request. This user is allowed a maximum number of "
+                        + config.maxShells + " concurrent shells, which has been exceeded.");
+            }
+            shells.put(shellId, new EmulatedShell(shellId));
+        }
+        return "<x:ResourceCreated><a:Address>" + Envelopes.escape(endpoint) + "</a:Address><a:ReferenceParameters>"
+                + "<w:ResourceURI>" + Envelopes.SHELL + "/cmd</w:ResourceURI>"
+                + "<w:SelectorSet><w:Selector Name=\"ShellId\">" + shellId + "</w:Selector></w:SelectorSet>"
+                + "</a:ReferenceParameters></x:ResourceCreated>"
+                + "<rsp:Shell><rsp:ShellId>" + shellId + "</rsp:ShellId>"
+                + "<rsp:ResourceUri>" + Envelopes.SHELL + "/cmd</rsp:ResourceUri>"
+                + "<rsp:IdleTimeOut>PT7200.000S</rsp:IdleTimeOut><rsp:InputStreams>stdin</rsp:InputStreams>"
+                + "<rsp:OutputStreams>stdout stderr</rsp:OutputStreams></rsp:Shell>";
+    }
+
+    private String command(WsmanRequest request) {
+        EmulatedShell shell = getShell(request);
+        String commandLine = request.bodyText("Command");
+        if (commandLine == null) {
+            throw WsmanFault.invalidParameter("The request has no command line");
+        }
+        StringBuilder withArguments = new StringBuilder(commandLine);
+        NodeList arguments = request.body.getElementsByTagNameNS("*", "Arguments");
+        for (int i = 0; i < arguments.getLength(); i++) {
+            withArguments.append(' ').append(arguments.item(i).getTextContent().trim());
+        }
+        String commandId = UUID.randomUUID().toString().toUpperCase();
+        boolean runsProgram = config.program != null && config.programCommandLines.test(withArguments.toString());
+        EmulatedCommand command = runsProgram
+                ? new EmulatedCommand(commandId, commandLine, new byte[0], new byte[0], 0, 0, false)
+                : new EmulatedCommand(commandId, commandLine, config.stdout, config.stderr, config.exitCode,
+                        config.commandDurationMillis, config.echoStdin.test(withArguments.toString()));
+        shell.commands.put(commandId, command);
+        if (runsProgram) {
+            command.start(config.program, withArguments.toString(), executor);
+        }
+        return "<rsp:CommandResponse><rsp:CommandId>" + commandId + "</rsp:CommandId></rsp:CommandResponse>";
+    }
+
+    private String receive(WsmanRequest request) throws InterruptedException {
+        EmulatedShell shell = getShell(request);
+        Element desiredStream = request.bodyElement("DesiredStream");
+        EmulatedCommand command = shell.getCommand(WsmanRequest.shellAttribute(desiredStream, "CommandId"));
+        // room for the base64 encoded output, leaving some for the envelope and the stream elements
+        int maxOutput = Math.max(EmulatedCommand.STREAM_CHUNK_SIZE, (request.maxEnvelopeSize - 8192) / 4 * 3);
+        return "<rsp:ReceiveResponse>" + command.receive(request.operationTimeoutMillis, maxOutput) + "</rsp:ReceiveResponse>";
+    }
+
+    private String send(WsmanRequest request) {
+        EmulatedShell shell = getShell(request);
+        NodeList streams = request.body != null ? request.body.getElementsByTagNameNS("*", "Stream") : null;
+        for (int i = 0; streams != null && i < streams.getLength(); i++) {
+            Element stream = (Element) streams.item(i);
+            byte[] input = Base64.getMimeDecoder().decode(stream.getTextContent().trim());
+            shell.getCommand(WsmanRequest.shellAttribute(stream, "CommandId"))
+                    .send(input, "true".equals(WsmanRequest.shellAttribute(stream, "End")));
+        }
+        return "<rsp:SendResponse/>";
+    }
+
+    private String signal(WsmanRequest request) {
+        EmulatedShell shell = getShell(request);
+        String commandId = WsmanRequest.shellAttribute(request.body, "CommandId");
+        EmulatedCommand command = shell.getCommand(commandId);
+        // terminate and ctrl_c both end the command here
+        shell.commands.remove(commandId);
+        command.terminate();
+        return "<rsp:SignalResponse/>";
+    }
+
+    private String delete(WsmanRequest request) {
+        EmulatedShell shell = shells.remove(request.shellId != null ? request.shellId : "");
+        if (shell == null) {
+            throw WsmanFault.shellNotFound(request.shellId);
+        }
+        shell.close();
+        return "";
+    }
+
+    private EmulatedShell getShell(WsmanRequest request) {
+        EmulatedShell shell = request.shellId != null ? shells.get(request.shellId) : null;
+        if (shell == null) {
+            throw WsmanFault.shellNotFound(request.shellId);
+        }
+        return shell;
+    }
+
+    /** Ends and forgets all the shells */
+    void expireShells() {
+        for (EmulatedShell shell : shells.values()) {
+            shell.close();
+        }
+        shells.clear();
+    }
+
+    void close() {
+        expireShells();
+    }
+}
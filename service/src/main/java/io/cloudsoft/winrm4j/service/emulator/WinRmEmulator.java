@@ -0,0 +1,430 @@
+package io.cloudsoft.winrm4j.service.emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process WinRM server, to test and benchmark clients without a Windows machine.
+ * <p>
+ * Shells and commands have real state: Create, Command, Receive, Send, Signal and Delete act on them
+ * and fail with the faults Windows returns for unknown shells and exceeded quotas. Every command prints
+ * the configured output and exits with the configured code once its duration has elapsed, unless it runs
+ * a {@link Program}; a Receive waits for output until its {@code OperationTimeout}, then fails with the
+ * {@code 2150858793} fault so that the client receives again, as with long running commands on Windows.
+ * <p>
+ * Clients authenticate with Basic or with NTLM (offered as Negotiate, as Windows does), in which case
+ * the messages are encrypted when the client asks for it.
+ * <pre>
+ * try (WinRmEmulator emulator = WinRmEmulator.builder().ntlmAuth("user", "password").outputSize(65536).start()) {
+ *     WinRmClient client = WinRmClient.builder(emulator.getEndpoint()).credentials("user", "password").build();
+ *     ...
+ * }
+ * </pre>
+ */
+public class WinRmEmulator implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(WinRmEmulator.class.getName());
+
+    /** Sessions of connections which were not closed explicitly are forgotten beyond this number */
+    private static final int MAX_NTLM_SESSIONS = 4096;
+
+    private enum Authentication { NONE, BASIC, NTLM }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        int port = 0;
+        Authentication authentication = Authentication.NONE;
+        String username;
+        String password;
+        boolean encryptionRequired;
+        byte[] stdout = new byte[0];
+        byte[] stderr = new byte[0];
+        int exitCode = 0;
+        long commandDurationMillis = 0;
+        long latencyMillis = 0;
+        int maxShells = 0;
+        int maxConcurrentOperations = 0;
+        Predicate<String> echoStdin = commandLine -> false;
+        Predicate<String> programCommandLines = commandLine -> false;
+        Program program;
+
+        /**
+         * @param port the port to listen on, on the loopback interface; by default any free port
+         */
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /** Requires Basic authentication with the given credentials */
+        public Builder basicAuth(String username, String password) {
+            this.authentication = Authentication.BASIC;
+            this.username = username;
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * Requires NTLM authentication with the given credentials.
+         *
+         * @param username the user name, optionally prefixed by {@code DOMAIN\}
+         */
+        public Builder ntlmAuth(String username, String password) {
+            this.authentication = Authentication.NTLM;
+            this.username = username;
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * Whether to reject unencrypted messages from clients authenticated with NTLM, as Windows does unless
+         * {@code AllowUnencrypted} is set. By default both are accepted.
+         */
+        public Builder encryptionRequired(boolean encryptionRequired) {
+            this.encryptionRequired = encryptionRequired;
+            return this;
+        }
+
+        /** What every command prints on stdout */
+        public Builder stdout(byte[] stdout) {
+            this.stdout = stdout.clone();
+            return this;
+        }
+
+        /** What every command prints on stderr */
+        public Builder stderr(byte[] stderr) {
+            this.stderr = stderr.clone();
+            return this;
+        }
+
+        /** Makes every command print the given number of bytes of text on stdout */
+        public Builder outputSize(int outputSize) {
+            byte[] output = new byte[outputSize];
+            for (int i = 0; i < outputSize; i++) {
+                output[i] = (byte) ('a' + i % 26);
+            }
+            this.stdout = output;
+            return this;
+        }
+
+        /**
+         * Makes every command print the input sent to its stdin on stdout, after the configured output,
+         * and run until the end of its input as well as for its duration.
+         */
+        public Builder echoStdin(boolean echoStdin) {
+            return echoStdin(commandLine -> echoStdin);
+        }
+
+        /**
+         * As {@link #echoStdin(boolean)}, for the commands whose command line, the command followed by its
+         * arguments separated by spaces, matches; the others do not wait for their input, as commands which
+         * do not read it.
+         */
+        public Builder echoStdin(Predicate<String> commandLines) {
+            this.echoStdin = commandLines;
+            return this;
+        }
+
+        /**
+         * Makes the commands whose command line, as for {@link #echoStdin(Predicate)}, matches run the program
+         * instead, e.g. to emulate the scripts a client sends.
+         */
+        public Builder program(Predicate<String> commandLines, Program program) {
+            this.programCommandLines = commandLines;
+            this.program = program;
+            return this;
+        }
+
+        public Builder exitCode(int exitCode) {
+            this.exitCode = exitCode;
+            return this;
+        }
+
+        /**
+         * @param commandDuration in milliseconds, how long commands run; Receive requests wait for it
+         */
+        public Builder commandDuration(long commandDuration) {
+            this.commandDurationMillis = commandDuration;
+            return this;
+        }
+
+        /**
+         * @param latency in milliseconds, added before answering every WS-Management request
+         */
+        public Builder latency(long latency) {
+            this.latencyMillis = latency;
+            return this;
+        }
+
+        /**
+         * @param maxShells the number of open shells beyond which Create fails with a quota fault; 0 for no limit
+         */
+        public Builder maxShells(int maxShells) {
+            this.maxShells = maxShells;
+            return this;
+        }
+
+        /**
+         * @param maxConcurrentOperations the number of requests handled concurrently (including waiting
+         *                                Receive requests) beyond which requests fail with a quota fault;
+         *                                0 for no limit
+         */
+        public Builder maxConcurrentOperations(int maxConcurrentOperations) {
+            this.maxConcurrentOperations = maxConcurrentOperations;
+            return this;
+        }
+
+        public WinRmEmulator start() throws IOException {
+            return new WinRmEmulator(this);
+        }
+    }
+
+    /**
+     * What a command runs instead of printing the configured output, see {@link Builder#program(Predicate, Program)}.
+     */
+    @FunctionalInterface
+    public interface Program {
+        /**
+         * Called from a thread of the emulator, once the command was started.
+         *
+         * @param commandLine the command followed by its arguments, separated by spaces
+         * @param stdin the input sent to the command, ending with it; fails once the command is terminated
+         * @return the exit code of the command
+         */
+        int run(String commandLine, InputStream stdin, OutputStream stdout, OutputStream stderr) throws IOException;
+    }
+
+    private final Builder config;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ShellOperations operations;
+    private final Map<InetSocketAddress, NtlmServerSession> ntlmSessions = Collections.synchronizedMap(
+            new LinkedHashMap<InetSocketAddress, NtlmServerSession>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, NtlmServerSession> eldest) {
+                    return size() > MAX_NTLM_SESSIONS;
+                }
+            });
+
+    private final AtomicInteger concurrentOperations = new AtomicInteger();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong authenticationCount = new AtomicLong();
+
+    private WinRmEmulator(Builder config) throws IOException {
+        this.config = config;
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "winrm-emulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), config.port), 0);
+        this.operations = new ShellOperations(config, getEndpoint(), executor);
+        server.createContext("/wsman", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/wsman";
+    }
+
+    /** @return the number of shells created and not yet deleted */
+    public int getShellCount() {
+        return operations.getShellCount();
+    }
+
+    /** @return the number of WS-Management requests received, authenticated or not */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /** @return the number of successful NTLM handshakes */
+    public long getAuthenticationCount() {
+        return authenticationCount.get();
+    }
+
+    /**
+     * Forgets the open shells, as Windows does once their {@code IdleTimeOut} has elapsed or after a restart
+     * of its WinRM service: the later requests on them fail with the fault of an unknown shell.
+     */
+    public void expireShells() {
+        operations.expireShells();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        operations.close();
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            byte[] content = readAll(exchange.getRequestBody());
+            requestCount.incrementAndGet();
+
+            NtlmServerSession session = null;
+            if (config.authentication == Authentication.BASIC && !isBasicAuthorized(exchange)) {
+                exchange.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"WSMAN\"");
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            } else if (config.authentication == Authentication.NTLM) {
+                session = authenticateNtlm(exchange);
+                if (session == null) {
+                    return;
+                }
+            }
+
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            boolean encrypted = contentType != null && contentType.startsWith("multipart/encrypted");
+            if (encrypted || (session != null && config.encryptionRequired)) {
+                if (!encrypted || session == null || !session.isSealing()) {
+                    exchange.sendResponseHeaders(400, -1);
+                    return;
+                }
+                synchronized (session) {
+                    content = session.unseal(content);
+                }
+            }
+
+            int status = 200;
+            String envelope;
+            WsmanRequest request = null;
+            try {
+                request = WsmanRequest.parse(content);
+                envelope = execute(request);
+            } catch (WsmanFault fault) {
+                status = 500;
+                envelope = Envelopes.envelope(Envelopes.FAULT_ACTION, request != null ? request.messageId : null, fault.toXml());
+            }
+
+            byte[] response = envelope.getBytes(StandardCharsets.UTF_8);
+            if (encrypted) {
+                synchronized (session) {
+                    response = session.seal(response, Envelopes.CONTENT_TYPE);
+                }
+                exchange.getResponseHeaders().set("Content-Type", NtlmServerSession.ENCRYPTED_CONTENT_TYPE);
+            } else {
+                exchange.getResponseHeaders().set("Content-Type", Envelopes.CONTENT_TYPE);
+            }
+            exchange.sendResponseHeaders(status, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        } catch (SecurityException e) {
+            LOG.log(Level.FINE, "Rejecting request from " + exchange.getRemoteAddress(), e);
+            ntlmSessions.remove(exchange.getRemoteAddress());
+            exchange.sendResponseHeaders(400, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(503, -1);
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to handle request from " + exchange.getRemoteAddress(), e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String execute(WsmanRequest request) throws InterruptedException {
+        if (config.latencyMillis > 0) {
+            Thread.sleep(config.latencyMillis);
+        }
+        try {
+            if (concurrentOperations.incrementAndGet() > config.maxConcurrentOperations && config.maxConcurrentOperations > 0) {
+                throw WsmanFault.quotaLimit(WsmanFault.MAX_CONCURRENT_OPERATIONS_EXCEEDED,
+                        "The WS-Management service cannot process the request. The maximum number of concurrent operations for this user has been exceeded.");
+            }
+            return operations.handle(request);
+        } finally {
+            concurrentOperations.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the session of the connection if it is authenticated, or {@code null} if a response
+     *         was sent to carry on with the handshake
+     */
+    private NtlmServerSession authenticateNtlm(HttpExchange exchange) throws IOException {
+        InetSocketAddress peer = exchange.getRemoteAddress();
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null) {
+            NtlmServerSession session = ntlmSessions.get(peer);
+            if (session != null && session.isAuthenticated()) {
+                return session;
+            }
+            exchange.getResponseHeaders().add("WWW-Authenticate", "Negotiate");
+            exchange.sendResponseHeaders(401, -1);
+            return null;
+        }
+
+        int separator = authorization.indexOf(' ');
+        String scheme = separator > 0 ? authorization.substring(0, separator) : authorization;
+        if (!"Negotiate".equalsIgnoreCase(scheme) && !"NTLM".equalsIgnoreCase(scheme)) {
+            exchange.getResponseHeaders().add("WWW-Authenticate", "Negotiate");
+            exchange.sendResponseHeaders(401, -1);
+            return null;
+        }
+        NtlmServerSession session = ntlmSessions.computeIfAbsent(peer, p -> new NtlmServerSession(config.username, config.password));
+        byte[] challenge;
+        synchronized (session) {
+            try {
+                challenge = session.accept(Base64.getDecoder().decode(authorization.substring(separator + 1).trim()));
+            } catch (SecurityException | IllegalArgumentException e) {
+                LOG.log(Level.FINE, "NTLM authentication failed for " + peer, e);
+                ntlmSessions.remove(peer);
+                exchange.getResponseHeaders().add("WWW-Authenticate", "Negotiate");
+                exchange.sendResponseHeaders(401, -1);
+                return null;
+            }
+        }
+        if (challenge != null) {
+            exchange.getResponseHeaders().add("WWW-Authenticate", scheme + " " + Base64.getEncoder().encodeToString(challenge));
+            exchange.sendResponseHeaders(401, -1);
+            return null;
+        }
+        authenticationCount.incrementAndGet();
+        return session;
+    }
+
+    private boolean isBasicAuthorized(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        String expected = "Basic " + Base64.getEncoder().encodeToString(
+                (config.username + ":" + config.password).getBytes(StandardCharsets.UTF_8));
+        return expected.equals(authorization);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            result.write(buffer, 0, read);
+        }
+        return result.toByteArray();
+    }
+}
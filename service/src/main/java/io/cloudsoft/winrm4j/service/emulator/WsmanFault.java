@@ -0,0 +1,54 @@
+package io.cloudsoft.winrm4j.service.emulator;
+
+/**
+ * A SOAP fault with a {@code WSManFault} detail, as returned by Windows with a 500 status.
+ */
+class WsmanFault extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /** No output before the {@code OperationTimeout} of a Receive; the client is expected to Receive again */
+    static final String OPERATION_TIMEOUT = "2150858793";
+    static final String SHELL_NOT_FOUND = "2150858843";
+    static final String MAX_SHELLS_EXCEEDED = "2150859173";
+    static final String MAX_CONCURRENT_OPERATIONS_EXCEEDED = "2150859174";
+    static final String INVALID_PARAMETER = "87";
+
+    final String code;
+    final String subcode;
+    final boolean sender;
+
+    WsmanFault(String code, String subcode, boolean sender, String message) {
+        super(message);
+        this.code = code;
+        this.subcode = subcode;
+        this.sender = sender;
+    }
+
+    static WsmanFault operationTimeout() {
+        return new WsmanFault(OPERATION_TIMEOUT, "w:TimedOut", false,
+                "The WS-Management service cannot complete the operation within the time specified in OperationTimeout.");
+    }
+
+    static WsmanFault shellNotFound(String shellId) {
+        return new WsmanFault(SHELL_NOT_FOUND, "w:InvalidSelectors", true,
+                "The request for the Windows Remote Shell with ShellId " + shellId + " failed because the shell was not found on the server.");
+    }
+
+    static WsmanFault invalidParameter(String message) {
+        return new WsmanFault(INVALID_PARAMETER, "w:InvalidParameter", true, message);
+    }
+
+    static WsmanFault quotaLimit(String code, String message) {
+        return new WsmanFault(code, "w:QuotaLimit", false, message);
+    }
+
+    String toXml() {
+        return "<s:Fault>"
+                + "<s:Code><s:Value>" + (sender ? "s:Sender" : "s:Receiver") + "</s:Value>"
+                + "<s:Subcode><s:Value>" + subcode + "</s:Value></s:Subcode></s:Code>"
+                + "<s:Reason><s:Text xml:lang=\"en-US\">" + Envelopes.escape(getMessage()) + "</s:Text></s:Reason>"
+                + "<s:Detail><f:WSManFault xmlns:f=\"http://schemas.microsoft.com/wbem/wsman/1/wsmanfault\" Code=\"" + code + "\" Machine=\"localhost\">"
+                + "<f:Message>" + Envelopes.escape(getMessage()) + "</f:Message></f:WSManFault></s:Detail>"
+                + "</s:Fault>";
+    }
+}
@@ -0,0 +1,122 @@
+package io.cloudsoft.winrm4j.service.emulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import javax.xml.XMLConstants;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * The parts of a WS-Management request the emulator acts on.
+ */
+class WsmanRequest {
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+    private static final DatatypeFactory DATATYPE_FACTORY;
+
+    static {
+        DOCUMENT_BUILDER_FACTORY.setNamespaceAware(true);
+        try {
+            DOCUMENT_BUILDER_FACTORY.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            DOCUMENT_BUILDER_FACTORY.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            DATATYPE_FACTORY = DatatypeFactory.newInstance();
+        } catch (ParserConfigurationException | DatatypeConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    final String action;
+    final String messageId;
+    final String shellId;
+    final long operationTimeoutMillis;
+    final int maxEnvelopeSize;
+    /** The first element of the SOAP body, or {@code null} if it is empty */
+    final Element body;
+
+    private WsmanRequest(Document document) {
+        Element header = child(document.getDocumentElement(), Envelopes.SOAP, "Header");
+        this.action = text(child(header, Envelopes.ADDRESSING, "Action"));
+        this.messageId = text(child(header, Envelopes.ADDRESSING, "MessageID"));
+        this.shellId = selector(child(header, Envelopes.WSMAN, "SelectorSet"), "ShellId");
+        String timeout = text(child(header, Envelopes.WSMAN, "OperationTimeout"));
+        this.operationTimeoutMillis = timeout != null ? DATATYPE_FACTORY.newDuration(timeout).getTimeInMillis(new Date()) : 60000;
+        String envelopeSize = text(child(header, Envelopes.WSMAN, "MaxEnvelopeSize"));
+        this.maxEnvelopeSize = envelopeSize != null ? Integer.parseInt(envelopeSize) : 153600;
+        this.body = firstChildElement(child(document.getDocumentElement(), Envelopes.SOAP, "Body"));
+    }
+
+    static WsmanRequest parse(byte[] content) {
+        try {
+            return new WsmanRequest(DOCUMENT_BUILDER_FACTORY.newDocumentBuilder().parse(new ByteArrayInputStream(content)));
+        } catch (ParserConfigurationException | SAXException | IOException | RuntimeException e) {
+            throw WsmanFault.invalidParameter("Invalid WS-Management request: " + e);
+        }
+    }
+
+    /** @return the first descendant of the body with the given local name, in any namespace, or {@code null} */
+    Element bodyElement(String localName) {
+        if (body == null) return null;
+        NodeList nodes = body.getElementsByTagNameNS("*", localName);
+        return nodes.getLength() > 0 ? (Element) nodes.item(0) : null;
+    }
+
+    /** @return the text of the first descendant of the body with the given local name, or {@code null} */
+    String bodyText(String localName) {
+        Element element = bodyElement(localName);
+        return element != null ? element.getTextContent().trim() : null;
+    }
+
+    /**
+     * @return the attribute of an element of the shell namespace, e.g. CommandId, or {@code ""} if missing;
+     *         qualified with the namespace as the client sends it, or unqualified as the server's responses have it
+     */
+    static String shellAttribute(Element element, String name) {
+        if (element == null) return "";
+        String value = element.getAttributeNS(Envelopes.SHELL, name);
+        return !value.isEmpty() ? value : element.getAttribute(name);
+    }
+
+    static Element child(Element parent, String namespace, String localName) {
+        if (parent == null) return null;
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && localName.equals(node.getLocalName()) && namespace.equals(node.getNamespaceURI())) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    private static Element firstChildElement(Element parent) {
+        if (parent == null) return null;
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    private static String selector(Element selectorSet, String name) {
+        if (selectorSet == null) return null;
+        for (Node node = selectorSet.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && name.equals(((Element) node).getAttribute("Name"))) {
+                return node.getTextContent().trim();
+            }
+        }
+        return null;
+    }
+
+    private static String text(Element element) {
+        return element != null ? element.getTextContent().trim() : null;
+    }
+}
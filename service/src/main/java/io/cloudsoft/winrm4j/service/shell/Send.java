@@ -0,0 +1,50 @@
+
+package io.cloudsoft.winrm4j.service.shell;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+
+@XmlAccessorType(XmlAccessType.FIELD)
+@XmlType(name = "Send", propOrder = {
+    "stream"
+})
+public class Send {
+
+    @XmlElement(name = "Stream", required = true)
+    protected List<StreamType> stream;
+
+    /**
+     * Gets the value of the stream property.
+     * 
+     * <p>
+     * This accessor method returns a reference to the live list,
+     * not a snapshot. Therefore any modification you make to the
+     * returned list will be present inside the JAXB object.
+     * This is why there is not a <CODE>set</CODE> method for the stream property.
+     * 
+     * <p>
+     * For example, to add a new item, do as follows:
+     * <pre>
+     *    getStream().add(newItem);
+     * </pre>
+     * 
+     * 
+     * <p>
+     * Objects of the following type(s) are allowed in the list
+     * {@link StreamType }
+     * 
+     * 
+     */
+    public List<StreamType> getStream() {
+        if (stream == null) {
+            stream = new ArrayList<StreamType>();
+        }
+        return this.stream;
+    }
+
+}
@@ -36,7 +36,7 @@ public class Shell {
     protected String workingDirectory;
     @XmlElement(name = "Lifetime")
     protected Duration lifetime;
-    @XmlElement(name = "IdleTimeout")
+    @XmlElement(name = "IdleTimeOut")
     protected Duration idleTimeout;
     @XmlList
     @XmlElement(name = "InputStreams")
@@ -0,0 +1,274 @@
+package io.cloudsoft.winrm4j.service.emulator;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.testng.annotations.Test;
+
+public class WinRmEmulatorTest {
+
+    private static final String TRANSFER = "http://schemas.xmlsoap.org/ws/2004/09/transfer";
+    private static final String SHELL = "http://schemas.microsoft.com/wbem/wsman/1/windows/shell";
+
+    @Test
+    public void testCommandLifecycle() throws Exception {
+        try (WinRmEmulator emulator = WinRmEmulator.builder().outputSize(10000).exitCode(3).start()) {
+            String shellId = find("Name=\"ShellId\">([^<]+)<", post(emulator, 200, TRANSFER + "/Create", null, "PT60S", "<rsp:Shell/>"));
+            assertEquals(emulator.getShellCount(), 1);
+
+            String commandId = find("CommandId>([^<]+)<", post(emulator, 200, SHELL + "/Command", shellId, "PT60S",
+                    "<rsp:CommandLine><rsp:Command>dir</rsp:Command></rsp:CommandLine>"));
+            String receive = post(emulator, 200, SHELL + "/Receive", shellId, "PT60S",
+                    "<rsp:Receive><rsp:DesiredStream CommandId=\"" + commandId + "\">stdout stderr</rsp:DesiredStream></rsp:Receive>");
+            assertEquals(stdoutLength(receive), 10000);
+            assertEquals(find("ExitCode>([^<]+)<", receive), "3");
+
+            post(emulator, 200, SHELL + "/Signal", shellId, "PT60S", "<rsp:Signal CommandId=\"" + commandId + "\"/>");
+            post(emulator, 200, TRANSFER + "/Delete", shellId, "PT60S", "");
+            assertEquals(emulator.getShellCount(), 0);
+
+            String fault = post(emulator, 500, TRANSFER + "/Delete", shellId, "PT60S", "");
+            assertTrue(fault.contains("Code=\"2150858843\""), fault);
+        }
+    }
+
+    @Test
+    public void testCommandIdQualifiedAsClientSendsIt() throws Exception {
+        try (WinRmEmulator emulator = WinRmEmulator.builder().echoStdin(true).start()) {
+            String shellId = find("Name=\"ShellId\">([^<]+)<", post(emulator, 200, TRANSFER + "/Create", null, "PT60S", "<rsp:Shell/>"));
+            String commandId = find("CommandId>([^<]+)<", post(emulator, 200, SHELL + "/Command", shellId, "PT60S",
+                    "<rsp:CommandLine><rsp:Command>more</rsp:Command></rsp:CommandLine>"));
+
+            post(emulator, 200, SHELL + "/Send", shellId, "PT60S", "<rsp:Send><rsp:Stream rsp:Name=\"stdin\" rsp:CommandId=\"" + commandId + "\" rsp:End=\"true\">"
+                    + Base64.getEncoder().encodeToString("abc".getBytes(StandardCharsets.US_ASCII)) + "</rsp:Stream></rsp:Send>");
+            String receive = post(emulator, 200, SHELL + "/Receive", shellId, "PT60S",
+                    "<rsp:Receive><rsp:DesiredStream rsp:CommandId=\"" + commandId + "\">stdout stderr</rsp:DesiredStream></rsp:Receive>");
+            assertEquals(stdoutLength(receive), 3);
+            assertTrue(receive.contains("CommandState/Done"), receive);
+
+            post(emulator, 200, SHELL + "/Signal", shellId, "PT60S", "<rsp:Signal rsp:CommandId=\"" + commandId + "\"/>");
+        }
+    }
+
+    @Test
+    public void testReceiveTimesOutWhileCommandRuns() throws Exception {
+        try (WinRmEmulator emulator = WinRmEmulator.builder().commandDuration(2000).start()) {
+            String shellId = find("Name=\"ShellId\">([^<]+)<", post(emulator, 200, TRANSFER + "/Create", null, "PT60S", "<rsp:Shell/>"));
+            String commandId = find("CommandId>([^<]+)<", post(emulator, 200, SHELL + "/Command", shellId, "PT60S",
+                    "<rsp:CommandLine><rsp:Command>sleep</rsp:Command></rsp:CommandLine>"));
+            String receive = "<rsp:Receive><rsp:DesiredStream CommandId=\"" + commandId + "\">stdout stderr</rsp:DesiredStream></rsp:Receive>";
+
+            String fault = post(emulator, 500, SHELL + "/Receive", shellId, "PT0.2S", receive);
+            assertTrue(fault.contains("Code=\"2150858793\""), fault);
+
+            assertTrue(post(emulator, 200, SHELL + "/Receive", shellId, "PT60S", receive).contains("CommandState/Done"));
+        }
+    }
+
+    @Test
+    public void testEchoesStdinUntilItEnds() throws Exception {
+        try (WinRmEmulator emulator = WinRmEmulator.builder().echoStdin(true).start()) {
+            String shellId = find("Name=\"ShellId\">([^<]+)<", post(emulator, 200, TRANSFER + "/Create", null, "PT60S", "<rsp:Shell/>"));
+            String commandId = find("CommandId>([^<]+)<", post(emulator, 200, SHELL + "/Command", shellId, "PT60S",
+                    "<rsp:CommandLine><rsp:Command>more</rsp:Command></rsp:CommandLine>"));
+            String receive = "<rsp:Receive><rsp:DesiredStream CommandId=\"" + commandId + "\">stdout stderr</rsp:DesiredStream></rsp:Receive>";
+
+            post(emulator, 200, SHELL + "/Send", shellId, "PT60S", "<rsp:Send><rsp:Stream Name=\"stdin\" CommandId=\"" + commandId + "\">"
+                    + Base64.getEncoder().encodeToString("abc".getBytes(StandardCharsets.US_ASCII)) + "</rsp:Stream></rsp:Send>");
+            String running = post(emulator, 200, SHELL + "/Receive", shellId, "PT60S", receive);
+            assertEquals(stdoutLength(running), 3);
+            assertTrue(running.contains("CommandState/Running"), running);
+
+            String fault = post(emulator, 500, SHELL + "/Receive", shellId, "PT0.2S", receive);
+            assertTrue(fault.contains("Code=\"2150858793\""), fault);
+
+            post(emulator, 200, SHELL + "/Send", shellId, "PT60S", "<rsp:Send><rsp:Stream Name=\"stdin\" CommandId=\"" + commandId + "\" End=\"true\">"
+                    + Base64.getEncoder().encodeToString("de".getBytes(StandardCharsets.US_ASCII)) + "</rsp:Stream></rsp:Send>");
+            String done = post(emulator, 200, SHELL + "/Receive", shellId, "PT60S", receive);
+            assertEquals(stdoutLength(done), 2);
+            done = done.contains("CommandState/Done") ? done : post(emulator, 200, SHELL + "/Receive", shellId, "PT60S", receive);
+            assertTrue(done.contains("CommandState/Done"), done);
+        }
+    }
+
+    @Test
+    public void testRunsProgram() throws Exception {
+        try (WinRmEmulator emulator = WinRmEmulator.builder()
+                .program(commandLine -> commandLine.startsWith("upper"), (commandLine, stdin, stdout, stderr) -> {
+                    int b;
+                    while ((b = stdin.read()) >= 0) {
+                        stdout.write(Character.toUpperCase(b));
+                    }
+                    stderr.write(commandLine.getBytes(StandardCharsets.US_ASCII));
+                    return 5;
+                })
+                .start()) {
+            String shellId = find("Name=\"ShellId\">([^<]+)<", post(emulator, 200, TRANSFER + "/Create", null, "PT60S", "<rsp:Shell/>"));
+            String commandId = find("CommandId>([^<]+)<", post(emulator, 200, SHELL + "/Command", shellId, "PT60S",
+                    "<rsp:CommandLine><rsp:Command>upper</rsp:Command><rsp:Arguments>-all</rsp:Arguments></rsp:CommandLine>"));
+            String receive = "<rsp:Receive><rsp:DesiredStream CommandId=\"" + commandId + "\">stdout stderr</rsp:DesiredStream></rsp:Receive>";
+
+            post(emulator, 200, SHELL + "/Send", shellId, "PT60S", "<rsp:Send><rsp:Stream Name=\"stdin\" CommandId=\"" + commandId + "\">"
+                    + Base64.getEncoder().encodeToString("abc".getBytes(StandardCharsets.US_ASCII)) + "</rsp:Stream></rsp:Send>");
+            String running = post(emulator, 200, SHELL + "/Receive", shellId, "PT60S", receive);
+            assertTrue(running.contains("CommandState/Running"), running);
+
+            post(emulator, 200, SHELL + "/Send", shellId, "PT60S", "<rsp:Send><rsp:Stream Name=\"stdin\" CommandId=\"" + commandId + "\" End=\"true\">"
+                    + Base64.getEncoder().encodeToString("de".getBytes(StandardCharsets.US_ASCII)) + "</rsp:Stream></rsp:Send>");
+            StringBuilder stdout = new StringBuilder(stream("stdout", running));
+            String stderr = "";
+            String done = running;
+            while (!done.contains("CommandState/Done")) {
+                done = post(emulator, 200, SHELL + "/Receive", shellId, "PT60S", receive);
+                stdout.append(stream("stdout", done));
+                stderr += stream("stderr", done);
+            }
+            assertEquals(stdout.toString(), "ABCDE");
+            assertEquals(stderr, "upper -all");
+            assertEquals(find("ExitCode>([^<]+)<", done), "5");
+        }
+    }
+
+    @Test
+    public void testExpiredShellsNotFound() throws Exception {
+        try (WinRmEmulator emulator = WinRmEmulator.builder().start()) {
+            String shellId = find("Name=\"ShellId\">([^<]+)<", post(emulator, 200, TRANSFER + "/Create", null, "PT60S", "<rsp:Shell/>"));
+
+            emulator.expireShells();
+
+            assertEquals(emulator.getShellCount(), 0);
+            String fault = post(emulator, 500, SHELL + "/Command", shellId, "PT60S",
+                    "<rsp:CommandLine><rsp:Command>dir</rsp:Command></rsp:CommandLine>");
+            assertTrue(fault.contains("Code=\"2150858843\""), fault);
+        }
+    }
+
+    @Test
+    public void testMaxShellsQuota() throws Exception {
+        try (WinRmEmulator emulator = WinRmEmulator.builder().maxShells(1).start()) {
+            post(emulator, 200, TRANSFER + "/Create", null, "PT60S", "<rsp:Shell/>");
+            String fault = post(emulator, 500, TRANSFER + "/Create", null, "PT60S", "<rsp:Shell/>");
+            assertTrue(fault.contains("Code=\"2150859173\""), fault);
+        }
+    }
+
+    @Test
+    public void testBasicAuthRequired() throws Exception {
+        try (WinRmEmulator emulator = WinRmEmulator.builder().basicAuth("user", "password").start()) {
+            HttpURLConnection connection = open(emulator, TRANSFER + "/Create", null, "PT60S", "<rsp:Shell/>", null);
+            assertEquals(connection.getResponseCode(), 401);
+            assertEquals(connection.getHeaderField("WWW-Authenticate"), "Basic realm=\"WSMAN\"");
+
+            connection = open(emulator, TRANSFER + "/Create", null, "PT60S", "<rsp:Shell/>",
+                    "Basic " + Base64.getEncoder().encodeToString("user:password".getBytes(StandardCharsets.UTF_8)));
+            assertEquals(connection.getResponseCode(), 200);
+        }
+    }
+
+    @Test
+    public void testNtlmChallenge() throws Exception {
+        try (WinRmEmulator emulator = WinRmEmulator.builder().ntlmAuth("user", "password").start()) {
+            HttpURLConnection connection = open(emulator, TRANSFER + "/Create", null, "PT60S", "<rsp:Shell/>", null);
+            assertEquals(connection.getResponseCode(), 401);
+            assertEquals(connection.getHeaderField("WWW-Authenticate"), "Negotiate");
+
+            // Type 1 message asking for signing and sealing
+            byte[] negotiate = {'N', 'T', 'L', 'M', 'S', 'S', 'P', 0, 1, 0, 0, 0, 0x35, (byte) 0x82, 0x08, (byte) 0xe0};
+            connection = open(emulator, TRANSFER + "/Create", null, "PT60S", "<rsp:Shell/>",
+                    "Negotiate " + Base64.getEncoder().encodeToString(negotiate));
+            assertEquals(connection.getResponseCode(), 401);
+            byte[] challenge = Base64.getDecoder().decode(connection.getHeaderField("WWW-Authenticate").substring("Negotiate ".length()));
+            assertEquals(new String(challenge, 0, 7, StandardCharsets.US_ASCII), "NTLMSSP");
+            assertEquals(challenge[8], 2);
+            // sealing with key exchange was agreed
+            assertEquals(challenge[23] & 0x40, 0x40);
+            assertEquals(challenge[20] & 0x20, 0x20);
+        }
+    }
+
+    @Test
+    public void testMd4() {
+        assertEquals(hex(Md4.digest(new byte[0])), "31d6cfe0d16ae931b73c59d7e0c089c0");
+        assertEquals(hex(Md4.digest("abc".getBytes(StandardCharsets.US_ASCII))), "a448017aaf21d8525fc10ae87aa6729d");
+        assertEquals(hex(Md4.digest("12345678901234567890123456789012345678901234567890123456789012345678901234567890".getBytes(StandardCharsets.US_ASCII))),
+                "e33b4ddc9c38f2199c3e7b164fcc0536");
+    }
+
+    private static String post(WinRmEmulator emulator, int expectedStatus, String action, String shellId, String timeout, String body) throws IOException {
+        HttpURLConnection connection = open(emulator, action, shellId, timeout, body, null);
+        assertEquals(connection.getResponseCode(), expectedStatus);
+        try (InputStream in = expectedStatus == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                result.write(buffer, 0, read);
+            }
+            return new String(result.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static HttpURLConnection open(WinRmEmulator emulator, String action, String shellId, String timeout, String body, String authorization) throws IOException {
+        String envelope = "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" xmlns:a=\"http://schemas.xmlsoap.org/ws/2004/08/addressing\""
+                + " xmlns:w=\"http://schemas.dmtf.org/wbem/wsman/1/wsman.xsd\" xmlns:rsp=\"" + SHELL + "\">"
+                + "<s:Header><a:Action>" + action + "</a:Action><a:MessageID>uuid:" + UUID.randomUUID() + "</a:MessageID>"
+                + "<w:OperationTimeout>" + timeout + "</w:OperationTimeout>"
+                + (shellId != null ? "<w:SelectorSet><w:Selector Name=\"ShellId\">" + shellId + "</w:Selector></w:SelectorSet>" : "")
+                + "</s:Header><s:Body>" + body + "</s:Body></s:Envelope>";
+        HttpURLConnection connection = (HttpURLConnection) new URL(emulator.getEndpoint()).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/soap+xml;charset=UTF-8");
+        if (authorization != null) {
+            connection.setRequestProperty("Authorization", authorization);
+        }
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(envelope.getBytes(StandardCharsets.UTF_8));
+        }
+        return connection;
+    }
+
+    private static int stdoutLength(String receiveResponse) {
+        int result = 0;
+        Matcher matcher = Pattern.compile("Name=\"stdout\" CommandId=\"[^\"]+\">([^<]+)<").matcher(receiveResponse);
+        while (matcher.find()) {
+            result += Base64.getDecoder().decode(matcher.group(1)).length;
+        }
+        return result;
+    }
+
+    private static String stream(String name, String receiveResponse) {
+        StringBuilder result = new StringBuilder();
+        Matcher matcher = Pattern.compile("Name=\"" + name + "\" CommandId=\"[^\"]+\">([^<]+)<").matcher(receiveResponse);
+        while (matcher.find()) {
+            result.append(new String(Base64.getDecoder().decode(matcher.group(1)), StandardCharsets.US_ASCII));
+        }
+        return result.toString();
+    }
+
+    private static String find(String regex, String text) {
+        Matcher matcher = Pattern.compile(regex).matcher(text);
+        assertTrue(matcher.find(), regex + " not found in " + text);
+        return matcher.group(1);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+}
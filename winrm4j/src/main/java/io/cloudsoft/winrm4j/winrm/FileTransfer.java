@@ -0,0 +1,410 @@
+package io.cloudsoft.winrm4j.winrm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies files to and from the remote host through the stdin and stdout of long-lived PowerShell
+ * processes, rather than one command per chunk.
+ *
+ * Uploads stream lines of {@code "<offset> <base64>"} to one or more decoder processes, each writing
+ * the chunks it receives at their offset in the target file. Downloads read the base64 lines of the
+ * file printed by an encoder process. Both are checked against the SHA-256 of the file.
+ */
+class FileTransfer {
+    private static final Logger LOG = LoggerFactory.getLogger(FileTransfer.class.getName());
+
+    /** Bytes of the file per line, a multiple of 3 so that lines have no base64 padding */
+    static final int CHUNK_SIZE = 48 * 1024;
+
+    private static final byte[] END_OF_LINES = new byte[0];
+
+    private final WinRmTool tool;
+
+    FileTransfer(WinRmTool tool) {
+        this.tool = tool;
+    }
+
+    /**
+     * @return the number of bytes copied
+     */
+    long copyTo(InputStream source, String remotePath, int parallelStreams) {
+        if (parallelStreams < 1) {
+            throw new IllegalArgumentException("parallelStreams should be at least 1");
+        }
+        checkSucceeded("create " + remotePath, tool.executePs(
+                "[System.IO.File]::Create(" + quote(remotePath) + ").Close()"));
+
+        MessageDigest sha256 = newSha256();
+        BlockingQueue<byte[]> lines = new ArrayBlockingQueue<>(parallelStreams * 4);
+        List<String> decoderArgs = powerShellArgs(decoderScript(remotePath));
+        ExecutorService executor = Executors.newFixedThreadPool(parallelStreams, new DaemonThreadFactory("winrm-copy-to"));
+        List<Future<WinRmToolResponse>> decoders = new ArrayList<>();
+        boolean linesEnded = false;
+        try {
+            for (int i = 0; i < parallelStreams; i++) {
+                decoders.add(executor.submit(() -> {
+                    ByteArrayOutputStream err = new ByteArrayOutputStream();
+                    return tool.withShell(shell -> {
+                        int code = shell.executeRaw("powershell", decoderArgs, WinRmTool.DEFAULT_SKIP_COMMAND_SHELL,
+                                new LinesInputStream(lines), null, err);
+                        return new WinRmToolResponse("", new String(err.toByteArray(), StandardCharsets.UTF_8), code);
+                    });
+                }));
+            }
+
+            long offset = 0;
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int len;
+            while ((len = readFully(source, chunk)) > 0) {
+                sha256.update(chunk, 0, len);
+                String line = offset + " " + Base64.getEncoder().encodeToString(Arrays.copyOf(chunk, len)) + "\n";
+                put(lines, line.getBytes(StandardCharsets.US_ASCII), decoders);
+                offset += len;
+            }
+            for (int i = 0; i < parallelStreams; i++) {
+                put(lines, END_OF_LINES, decoders);
+            }
+            linesEnded = true;
+            for (Future<WinRmToolResponse> decoder : decoders) {
+                checkSucceeded("copy to " + remotePath, getUnchecked(decoder));
+            }
+
+            verifyHash(remotePath, sha256.digest());
+            LOG.debug("Copied " + offset + " bytes to " + remotePath + " with " + parallelStreams + " stream(s)");
+            return offset;
+        } finally {
+            if (!linesEnded) {
+                endLines(lines, decoders);
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Ends the input of the decoders after a failure to queue all of it, dropping the lines not yet taken,
+     * then waits for them: their remote processes would otherwise wait for more input, and the commands
+     * for them to exit, forever.
+     */
+    private static void endLines(BlockingQueue<byte[]> lines, List<Future<WinRmToolResponse>> decoders) {
+        lines.clear();
+        for (int i = 0; i < decoders.size(); i++) {
+            // room for all of them, as no more lines are queued
+            lines.offer(END_OF_LINES);
+        }
+        for (Future<WinRmToolResponse> decoder : decoders) {
+            try {
+                decoder.get();
+            } catch (ExecutionException e) {
+                LOG.debug("Decoder failed after the copy failed (ignoring)", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes copied
+     */
+    long copyFrom(String remotePath, OutputStream target) {
+        MessageDigest sha256 = newSha256();
+        LinesOutputStream out = new LinesOutputStream(target, sha256);
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        WinRmToolResponse response = tool.withShell(shell -> {
+            int code = shell.executeRaw("powershell", powerShellArgs(encoderScript(remotePath)), WinRmTool.DEFAULT_SKIP_COMMAND_SHELL,
+                    out, err);
+            return new WinRmToolResponse("", new String(err.toByteArray(), StandardCharsets.UTF_8), code);
+        });
+        checkSucceeded("copy from " + remotePath, response);
+        out.flushLine();
+
+        String expected = out.expectedHash;
+        String actual = toHex(sha256.digest());
+        if (expected == null || !expected.equalsIgnoreCase(actual)) {
+            throw new IllegalStateException("Copy from " + remotePath + " failed: SHA-256 of the received " + out.copied
+                    + " bytes is " + actual + ", remote file has " + expected);
+        }
+        return out.copied;
+    }
+
+    private void verifyHash(String remotePath, byte[] expected) {
+        WinRmToolResponse response = tool.executePs(
+                "$sha = [System.Security.Cryptography.SHA256]::Create()\r\n" +
+                "$in = [System.IO.File]::OpenRead(" + quote(remotePath) + ")\r\n" +
+                "try { [System.BitConverter]::ToString($sha.ComputeHash($in)).Replace('-', '') } finally { $in.Close() }");
+        checkSucceeded("hash " + remotePath, response);
+        String actual = response.getStdOut().trim();
+        if (!actual.equalsIgnoreCase(toHex(expected))) {
+            throw new IllegalStateException("Copy to " + remotePath + " failed: SHA-256 of the remote file is " + actual
+                    + ", expected " + toHex(expected));
+        }
+    }
+
+    private static String decoderScript(String remotePath) {
+        return "$ErrorActionPreference = 'Stop'\r\n" +
+                "$in = New-Object System.IO.StreamReader([Console]::OpenStandardInput())\r\n" +
+                "$out = New-Object System.IO.FileStream(" + quote(remotePath) + ", [System.IO.FileMode]::OpenOrCreate, " +
+                        "[System.IO.FileAccess]::Write, [System.IO.FileShare]::ReadWrite)\r\n" +
+                "try {\r\n" +
+                "  while (($line = $in.ReadLine()) -ne $null) {\r\n" +
+                "    if ($line.Length -eq 0) { continue }\r\n" +
+                "    $separator = $line.IndexOf(' ')\r\n" +
+                "    $bytes = [System.Convert]::FromBase64String($line.Substring($separator + 1))\r\n" +
+                "    $out.Position = [long]$line.Substring(0, $separator)\r\n" +
+                "    $out.Write($bytes, 0, $bytes.Length)\r\n" +
+                "  }\r\n" +
+                "} finally { $out.Close() }\r\n";
+    }
+
+    private static String encoderScript(String remotePath) {
+        return "$ErrorActionPreference = 'Stop'\r\n" +
+                "$sha = [System.Security.Cryptography.SHA256]::Create()\r\n" +
+                "$in = [System.IO.File]::OpenRead(" + quote(remotePath) + ")\r\n" +
+                "$out = New-Object System.IO.StreamWriter([Console]::OpenStandardOutput())\r\n" +
+                "$buffer = New-Object byte[] " + CHUNK_SIZE + "\r\n" +
+                "try {\r\n" +
+                "  while (($read = $in.Read($buffer, 0, $buffer.Length)) -gt 0) {\r\n" +
+                "    $sha.TransformBlock($buffer, 0, $read, $null, 0) | Out-Null\r\n" +
+                "    $out.WriteLine([System.Convert]::ToBase64String($buffer, 0, $read))\r\n" +
+                "  }\r\n" +
+                "  $sha.TransformFinalBlock($buffer, 0, 0) | Out-Null\r\n" +
+                "  $out.WriteLine('#sha256 ' + [System.BitConverter]::ToString($sha.Hash).Replace('-', ''))\r\n" +
+                "} finally { $in.Close(); $out.Flush() }\r\n";
+    }
+
+    private List<String> powerShellArgs(String script) {
+        return Arrays.asList("-NonInteractive", "-encodedcommand", tool.compileBase64(script));
+    }
+
+    private static String quote(String path) {
+        return "'" + path.replace("'", "''") + "'";
+    }
+
+    private static void checkSucceeded(String operation, WinRmToolResponse response) {
+        if (response.getStatusCode() != 0) {
+            throw new IllegalStateException("Failed to " + operation + " (exit code " + response.getStatusCode() + "): "
+                    + response.getStdErr());
+        }
+    }
+
+    /**
+     * Waits for room in the queue, giving up if a decoder has already completed, i.e. failed.
+     */
+    private static void put(BlockingQueue<byte[]> lines, byte[] line, List<Future<WinRmToolResponse>> decoders) {
+        try {
+            while (!lines.offer(line, 100, TimeUnit.MILLISECONDS)) {
+                for (Future<WinRmToolResponse> decoder : decoders) {
+                    if (decoder.isDone()) {
+                        WinRmToolResponse response = getUnchecked(decoder);
+                        checkSucceeded("copy", response);
+                        throw new IllegalStateException("Remote decoder exited before the end of the input");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted copying file", e);
+        }
+    }
+
+    private static <T> T getUnchecked(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted copying file", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) {
+        try {
+            int len = 0;
+            while (len < buffer.length) {
+                int read = in.read(buffer, len, buffer.length - len);
+                if (read < 0) break;
+                len += read;
+            }
+            return len;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read source", e);
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            result.append(String.format("%02X", b));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Stdin of a decoder: the lines taken from the shared queue, until {@link #END_OF_LINES}.
+     */
+    private static class LinesInputStream extends InputStream {
+        private final BlockingQueue<byte[]> lines;
+        private byte[] current = new byte[0];
+        private int position;
+        private boolean ended;
+
+        LinesInputStream(BlockingQueue<byte[]> lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!next(true)) return -1;
+            int read = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (!next(false)) return 0;
+            return current.length - position;
+        }
+
+        private boolean next(boolean block) throws IOException {
+            while (!ended && position == current.length) {
+                byte[] line;
+                try {
+                    line = block ? lines.take() : lines.poll();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for input", e);
+                }
+                if (line == null) return false;
+                if (line == END_OF_LINES) {
+                    ended = true;
+                } else {
+                    current = line;
+                    position = 0;
+                }
+            }
+            return !ended;
+        }
+    }
+
+    /**
+     * Stdout of an encoder: decodes the base64 lines to the target, and records the hash from the last line.
+     */
+    private static class LinesOutputStream extends OutputStream {
+        private final OutputStream target;
+        private final MessageDigest sha256;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(CHUNK_SIZE * 4 / 3 + 2);
+        private String expectedHash;
+        private long copied;
+
+        LinesOutputStream(OutputStream target, MessageDigest sha256) {
+            this.target = target;
+            this.sha256 = sha256;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b == '\n') {
+                flushLine();
+            } else if (b != '\r') {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int start = off;
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n' || b[i] == '\r') {
+                    line.write(b, start, i - start);
+                    if (b[i] == '\n') {
+                        flushLine();
+                    }
+                    start = i + 1;
+                }
+            }
+            line.write(b, start, off + len - start);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushLine();
+        }
+
+        void flushLine() {
+            if (line.size() == 0) return;
+            String text = new String(line.toByteArray(), StandardCharsets.US_ASCII);
+            line.reset();
+            if (text.startsWith("#sha256 ")) {
+                expectedHash = text.substring("#sha256 ".length()).trim();
+                return;
+            }
+            byte[] bytes = Base64.getDecoder().decode(text);
+            sha256.update(bytes);
+            try {
+                target.write(bytes);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to write target", e);
+            }
+            copied += bytes.length;
+        }
+    }
+
+    static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package io.cloudsoft.winrm4j.winrm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.cloudsoft.winrm4j.client.WinRmClient;
+import io.cloudsoft.winrm4j.client.WinRmClientContext;
+
+/**
+ * Runs the same command on many hosts in parallel, handing back the response of each host as soon
+ * as it completes.
+ *
+ * One {@link WinRmTool} is created per host, the first time it is used, and re-used by the following
+ * executions on that host. All of them share one {@link WinRmClientContext}. At most
+ * {@link Builder#maxConcurrency(int)} executions run at a time, and at most
+ * {@link Builder#maxConcurrencyPerHost(int)} of them on the same host; the others wait in order.
+ *
+ * <pre>
+ * try (MultiHostExecutor executor = MultiHostExecutor.builder(host -&gt; WinRmTool.Builder.builder(host, "user", "password"))
+ *         .maxConcurrency(100)
+ *         .build()) {
+ *     executor.executeCommand(hosts, "ipconfig", result -&gt; LOG.info(result.getHost() + ": " + result.getResponse().getStdOut()))
+ *             .join();
+ * }
+ * </pre>
+ *
+ * This class is thread safe.
+ */
+public class MultiHostExecutor implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(MultiHostExecutor.class.getName());
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 50;
+    public static final int DEFAULT_MAX_CONCURRENCY_PER_HOST = 1;
+
+    public static class Builder {
+        private final Function<String, WinRmTool.Builder> toolBuilder;
+        private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+        private int maxConcurrencyPerHost = DEFAULT_MAX_CONCURRENCY_PER_HOST;
+        private WinRmClientContext context;
+
+        private Builder(Function<String, WinRmTool.Builder> toolBuilder) {
+            this.toolBuilder = toolBuilder;
+        }
+
+        /**
+         * How many executions to run at a time across all hosts, which is also the number of threads used.
+         * Defaults to {@value #DEFAULT_MAX_CONCURRENCY}.
+         */
+        public Builder maxConcurrency(int maxConcurrency) {
+            if (maxConcurrency < 1) throw new IllegalArgumentException("maxConcurrency must be at least 1");
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * How many executions to run at a time on the same host.
+         * Defaults to {@value #DEFAULT_MAX_CONCURRENCY_PER_HOST}.
+         */
+        public Builder maxConcurrencyPerHost(int maxConcurrencyPerHost) {
+            if (maxConcurrencyPerHost < 1) throw new IllegalArgumentException("maxConcurrencyPerHost must be at least 1");
+            this.maxConcurrencyPerHost = maxConcurrencyPerHost;
+            return this;
+        }
+
+        /**
+         * The context shared by the tools of all hosts. If not set, one is created and shut down
+         * when the executor is closed.
+         */
+        public Builder context(WinRmClientContext context) {
+            this.context = context;
+            return this;
+        }
+
+        public MultiHostExecutor build() {
+            return new MultiHostExecutor(this);
+        }
+    }
+
+    /**
+     * @param toolBuilder creates the builder of the tool for a host, from the host as passed to
+     *                    the <code>executeXxx</code> methods; its context is set by the executor
+     */
+    public static Builder builder(Function<String, WinRmTool.Builder> toolBuilder) {
+        return new Builder(WinRmClient.checkNotNull(toolBuilder, "toolBuilder"));
+    }
+
+    /**
+     * The outcome of an execution on one host: either a response, or the exception it failed with.
+     */
+    public static class HostResult {
+        private final String host;
+        private final WinRmToolResponse response;
+        private final RuntimeException failure;
+
+        HostResult(String host, WinRmToolResponse response, RuntimeException failure) {
+            this.host = host;
+            this.response = response;
+            this.failure = failure;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        /** @return the response, or {@code null} if the execution failed */
+        public WinRmToolResponse getResponse() {
+            return response;
+        }
+
+        /** @return the exception the execution failed with, or {@code null} if it succeeded */
+        public RuntimeException getFailure() {
+            return failure;
+        }
+
+        public boolean isSuccess() {
+            return failure == null;
+        }
+
+        @Override
+        public String toString() {
+            return "HostResult[" + host + ", " + (failure == null ? "status=" + response.getStatusCode() : "failure=" + failure) + "]";
+        }
+    }
+
+    private final Function<String, WinRmTool.Builder> toolBuilder;
+    private final int maxConcurrencyPerHost;
+    private final WinRmClientContext context;
+    private final boolean ownsContext;
+    private final ThreadPoolExecutor executor;
+
+    // Guarded by this
+    private final Map<String, HostState> hosts = new HashMap<>();
+    private boolean closed;
+
+    private MultiHostExecutor(Builder builder) {
+        this.toolBuilder = builder.toolBuilder;
+        this.maxConcurrencyPerHost = builder.maxConcurrencyPerHost;
+        this.ownsContext = builder.context == null;
+        this.context = ownsContext ? WinRmClientContext.newInstance() : builder.context;
+        this.executor = new ThreadPoolExecutor(builder.maxConcurrency, builder.maxConcurrency, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new FileTransfer.DaemonThreadFactory("winrm-multi-host"));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs {@code action} with the tool of each of the {@code hosts}.
+     *
+     * @param listener called with the result of each host as soon as it completes, from the thread
+     *                 that ran it; may be {@code null}
+     * @return completed with the results of all hosts, in the order they completed; a host whose tool
+     *         could not be created has a failed result, as do the hosts not started when the executor
+     *         is closed
+     * @throws IllegalStateException if the executor has been closed
+     */
+    public CompletableFuture<List<HostResult>> execute(Collection<String> hosts, Function<WinRmTool, WinRmToolResponse> action,
+            Consumer<? super HostResult> listener) {
+        WinRmClient.checkNotNull(action, "action");
+        for (String host : hosts) {
+            WinRmClient.checkNotNull(host, "host");
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("MultiHostExecutor has been closed");
+            }
+        }
+        CompletableFuture<List<HostResult>> future = new CompletableFuture<>();
+        if (hosts.isEmpty()) {
+            future.complete(Collections.emptyList());
+            return future;
+        }
+        Execution execution = new Execution(hosts.size(), action, listener, future);
+        for (String host : hosts) {
+            submit(new HostTask(execution, host));
+        }
+        return future;
+    }
+
+    /**
+     * @see WinRmTool#executeCommand(String)
+     */
+    public CompletableFuture<List<HostResult>> executeCommand(Collection<String> hosts, String command,
+            Consumer<? super HostResult> listener) {
+        return execute(hosts, tool -> tool.executeCommand(command), listener);
+    }
+
+    /**
+     * @see WinRmTool#executePs(String)
+     */
+    public CompletableFuture<List<HostResult>> executePs(Collection<String> hosts, String psCommand,
+            Consumer<? super HostResult> listener) {
+        return execute(hosts, tool -> tool.executePs(psCommand), listener);
+    }
+
+    /**
+     * A task which cannot run completes with a failed result rather than throwing, so that the tasks
+     * of the other hosts of the execution are submitted too.
+     */
+    private void submit(HostTask task) {
+        synchronized (this) {
+            if (closed) {
+                // closed concurrently
+                task.cancel();
+                return;
+            }
+            HostState state = hosts.get(task.host);
+            if (state == null) {
+                WinRmTool tool;
+                try {
+                    tool = toolBuilder.apply(task.host).context(context).build();
+                } catch (RuntimeException e) {
+                    LOG.debug("Failed to create tool for " + task.host, e);
+                    task.fail(e);
+                    return;
+                }
+                state = new HostState(tool);
+                hosts.put(task.host, state);
+            }
+            task.state = state;
+            if (state.running >= maxConcurrencyPerHost) {
+                state.pending.add(task);
+                return;
+            }
+            state.running++;
+        }
+        dispatch(task);
+    }
+
+    /**
+     * Called when a task of the host completes, to start the next one waiting for it. It is queued
+     * behind the tasks of the other hosts rather than run on the same thread, to share the threads fairly.
+     */
+    private void next(HostState state) {
+        HostTask next;
+        List<HostTask> cancelled = Collections.emptyList();
+        synchronized (this) {
+            next = closed ? null : state.pending.poll();
+            if (next == null) {
+                state.running--;
+                if (closed) {
+                    cancelled = new ArrayList<>(state.pending);
+                    state.pending.clear();
+                }
+            }
+        }
+        if (next != null) {
+            dispatch(next);
+        }
+        for (HostTask task : cancelled) {
+            task.cancel();
+        }
+    }
+
+    private void dispatch(HostTask task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // closed concurrently
+            task.cancel();
+        }
+    }
+
+    /**
+     * Cancels the executions not started yet, with an {@link IllegalStateException} as their failure,
+     * then waits for the running ones to complete before closing the tools of all hosts (and the
+     * context, if it was created by this executor).
+     */
+    @Override
+    public void close() {
+        List<Runnable> cancelled = new ArrayList<>();
+        List<HostState> toClose;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (HostState state : hosts.values()) {
+                cancelled.addAll(state.pending);
+                state.pending.clear();
+            }
+            toClose = new ArrayList<>(hosts.values());
+        }
+        executor.getQueue().drainTo(cancelled);
+        executor.shutdown();
+        for (Runnable task : cancelled) {
+            ((HostTask) task).cancel();
+        }
+        boolean interrupted = false;
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.debug("Waiting for running executions of {} to complete", this);
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        try {
+            for (HostState state : toClose) {
+                state.tool.close();
+            }
+        } finally {
+            if (ownsContext) {
+                context.shutdown();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class HostState {
+        final WinRmTool tool;
+        final Deque<HostTask> pending = new ArrayDeque<>();
+        int running;
+
+        HostState(WinRmTool tool) {
+            this.tool = tool;
+        }
+    }
+
+    private static class Execution {
+        final AtomicInteger remaining;
+        final Function<WinRmTool, WinRmToolResponse> action;
+        final Consumer<? super HostResult> listener;
+        final CompletableFuture<List<HostResult>> future;
+        final List<HostResult> results;
+
+        Execution(int hosts, Function<WinRmTool, WinRmToolResponse> action, Consumer<? super HostResult> listener,
+                CompletableFuture<List<HostResult>> future) {
+            this.remaining = new AtomicInteger(hosts);
+            this.action = action;
+            this.listener = listener;
+            this.future = future;
+            this.results = Collections.synchronizedList(new ArrayList<>(hosts));
+        }
+
+        void complete(HostResult result) {
+            results.add(result);
+            try {
+                if (listener != null) {
+                    try {
+                        listener.accept(result);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Listener failed for result of " + result.getHost(), e);
+                    }
+                }
+            } finally {
+                if (remaining.decrementAndGet() == 0) {
+                    synchronized (results) {
+                        future.complete(new ArrayList<>(results));
+                    }
+                }
+            }
+        }
+    }
+
+    private class HostTask implements Runnable {
+        final Execution execution;
+        final String host;
+        // Set on submit, under the lock of the executor
+        HostState state;
+
+        HostTask(Execution execution, String host) {
+            this.execution = execution;
+            this.host = host;
+        }
+
+        @Override
+        public void run() {
+            HostResult result = null;
+            try {
+                result = new HostResult(host, execution.action.apply(state.tool), null);
+            } catch (RuntimeException e) {
+                LOG.debug("Execution on " + host + " failed", e);
+                result = new HostResult(host, null, e);
+            } catch (Throwable e) {
+                // e.g. an Error: still completes the execution, rather than leaving its future incomplete forever
+                LOG.warn("Execution on " + host + " failed", e);
+                result = new HostResult(host, null, new IllegalStateException("Execution on " + host + " failed", e));
+                throw e;
+            } finally {
+                try {
+                    next(state);
+                } finally {
+                    execution.complete(result);
+                }
+            }
+        }
+
+        void fail(RuntimeException failure) {
+            execution.complete(new HostResult(host, null, failure));
+        }
+
+        void cancel() {
+            fail(new IllegalStateException("MultiHostExecutor has been closed"));
+        }
+    }
+}
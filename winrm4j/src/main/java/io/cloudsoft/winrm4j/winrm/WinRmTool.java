@@ -1,12 +1,15 @@
 package io.cloudsoft.winrm4j.winrm;
 
 import io.cloudsoft.winrm4j.client.PayloadEncryptionMode;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -21,6 +24,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.cloudsoft.winrm4j.client.ShellCommand;
+import io.cloudsoft.winrm4j.client.ShellPool;
 import io.cloudsoft.winrm4j.client.WinRmClient;
 import io.cloudsoft.winrm4j.client.WinRmClientBuilder;
 import io.cloudsoft.winrm4j.client.WinRmClientContext;
@@ -29,12 +33,17 @@ import io.cloudsoft.winrm4j.client.retry.RetryPolicy;
 /**
  * Tool for executing commands over WinRM.
  * 
- * This class is not guaranteed to be thread safe.
+ * This class is thread safe. A single {@link WinRmClient} is lazily created on first use and
+ * re-used by all subsequent <code>executeXxx</code> calls, including concurrent ones: with NTLM
+ * payload encryption, each request in flight is sealed on an NTLM channel of its own (see
+ * {@link io.cloudsoft.winrm4j.client.ntlm.NTCredentialsWithEncryption}). Changing
+ * the configuration through one of the setters (e.g. {@link #setOperationTimeout(Long)}) discards
+ * the cached client so that the next call picks up the new settings.
+ * 
+ * Callers should {@link #close()} the tool when done with it, to release the underlying client
+ * (and its CXF bus, unless a shared {@link WinRmClientContext} was supplied).
  */
-// Current implementation is thread safe because it creates a client per execute call
-// but future implementations might re-use the client.
-// TODO Create a client per WinRmTool
-public class WinRmTool {
+public class WinRmTool implements AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(WinRmTool.class.getName());
 
     public static final int DEFAULT_WINRM_PORT = 5985;
@@ -64,6 +73,12 @@ public class WinRmTool {
     private final WinRmClientContext context;
     private final boolean requestNewKerberosTicket;
     private PayloadEncryptionMode payloadEncryptionMode;
+    private final boolean reuseShells;
+    private final Integer codePage;
+
+    // Guarded by this
+    private SharedClient client;
+    private boolean closed;
 
     public static class Builder {
         private String authenticationScheme = AuthSchemes.NTLM;
@@ -83,6 +98,8 @@ public class WinRmTool {
         private WinRmClientContext context;
         private boolean requestNewKerberosTicket;
         private PayloadEncryptionMode payloadEncryptionMode;
+        private boolean reuseShells;
+        private Integer codePage;
 
         private static final Pattern matchPort = Pattern.compile(".*:(\\d+)$");
 
@@ -173,12 +190,29 @@ public class WinRmTool {
             return this;
         }
 
+        /**
+         * Keep shells open between commands, in a {@link ShellPool}, instead of creating and
+         * deleting a shell for each command. Off by default.
+         */
+        public Builder reuseShells(boolean reuseShells) {
+            this.reuseShells = reuseShells;
+            return this;
+        }
+
+        /**
+         * @see WinRmClientBuilder#codePage(int)
+         */
+        public Builder codePage(int codePage) {
+            this.codePage = codePage;
+            return this;
+        }
+
         public WinRmTool build() {
             return new WinRmTool(getEndpointUrl(address, useHttps, port),
                     domain, username, password, authenticationScheme,
                     allowChunking, disableCertificateChecks, workingDirectory,
                     environment, hostnameVerifier, sslSocketFactory, sslContext,
-                    context, requestNewKerberosTicket, payloadEncryptionMode);
+                    context, requestNewKerberosTicket, payloadEncryptionMode, reuseShells, codePage);
         }
 
         // TODO remove arguments when method WinRmTool.connect() is removed
@@ -224,7 +258,8 @@ public class WinRmTool {
                       boolean allowChunking, boolean disableCertificateChecks, String workingDirectory,
                       Map<String, String> environment, HostnameVerifier hostnameVerifier,
                       SSLSocketFactory sslSocketFactory, SSLContext sslContext, WinRmClientContext context,
-                      boolean requestNewKerberosTicket, PayloadEncryptionMode payloadEncryptionMode) {
+                      boolean requestNewKerberosTicket, PayloadEncryptionMode payloadEncryptionMode,
+                      boolean reuseShells, Integer codePage) {
         this.allowChunking = allowChunking;
         this.disableCertificateChecks = disableCertificateChecks;
         this.address = address;
@@ -240,6 +275,8 @@ public class WinRmTool {
         this.context = context;
         this.requestNewKerberosTicket = requestNewKerberosTicket;
         this.payloadEncryptionMode = payloadEncryptionMode;
+        this.reuseShells = reuseShells;
+        this.codePage = codePage;
     }
 
     /**
@@ -270,7 +307,10 @@ public class WinRmTool {
      *                         the service returns a fault so that a client can comply with its obligations.
      */
     public void setOperationTimeout(Long operationTimeout) {
-        this.operationTimeout = operationTimeout;
+        synchronized (this) {
+            this.operationTimeout = operationTimeout;
+        }
+        invalidateClient("configuration changed");
     }
 
 	/**
@@ -280,7 +320,10 @@ public class WinRmTool {
 	 *                         default value {@link WinRmClientBuilder#DEFAULT_CONNECTION_TIMEOUT}
 	 */
 	public void setConnectionTimeout(Long connectionTimeout) {
-		this.connectionTimeout = connectionTimeout;
+		synchronized (this) {
+			this.connectionTimeout = connectionTimeout;
+		}
+		invalidateClient("configuration changed");
 	}
 
 	/**
@@ -290,11 +333,17 @@ public class WinRmTool {
 	 *                         default value {@link WinRmClientBuilder#DEFAULT_RECEIVE_TIMEOUT}
 	 */
 	public void setReceiveTimeout(Long receiveTimeout) {
-		this.receiveTimeout = receiveTimeout;
+		synchronized (this) {
+			this.receiveTimeout = receiveTimeout;
+		}
+		invalidateClient("configuration changed");
 	}
 
     public void setRetryReceiveAfterOperationTimeout(Predicate<String> retryReceiveAfterOperationTimeout) {
-        this.retryReceiveAfterOperationTimeout = retryReceiveAfterOperationTimeout;
+        synchronized (this) {
+            this.retryReceiveAfterOperationTimeout = retryReceiveAfterOperationTimeout;
+        }
+        invalidateClient("configuration changed");
     }
 
     public void alwaysRetryReceiveAfterOperationTimeout() {
@@ -313,12 +362,17 @@ public class WinRmTool {
     }
 
     public void setFailureRetryPolicy(RetryPolicy failureRetryPolicy) {
-        this.failureRetryPolicy = failureRetryPolicy;
+        synchronized (this) {
+            this.failureRetryPolicy = failureRetryPolicy;
+        }
+        invalidateClient("configuration changed");
     }
 
     /**
      * Executes a Native Windows command.
-     * It is creating a new Shell on the destination host each time it is being called.
+     * It is creating a new Shell on the destination host each time it is being called (unless
+     * {@link Builder#reuseShells(boolean)} is set),
+     * re-using this tool's client (and its connections) across calls.
      * @param command The command is limited to 8096 bytes.
      *                Maximum length of the command can be even smaller depending on the platform.
      *                https://support.microsoft.com/en-us/kb/830473
@@ -337,8 +391,116 @@ public class WinRmTool {
     }
 
     public WinRmToolResponse executeCommand(String command, List<String> args, Boolean skipCommandShell, Writer out, Writer err) {
-        if (out==null) out = new StringWriter();
-        if (err==null) err = new StringWriter();
+        Writer finalOut = out != null ? out : new StringWriter();
+        Writer finalErr = err != null ? err : new StringWriter();
+        return withShell(shell -> execute(shell, command, args, skipCommandShell, finalOut, finalErr));
+    }
+
+    /**
+     * As {@link #executeCommand(String, List, Boolean, Writer, Writer)}, but the output is passed through
+     * to the streams as the raw bytes received, without being decoded or accumulated in memory.
+     * The returned response has empty stdout and stderr.
+     */
+    public WinRmToolResponse executeCommandRaw(String command, List<String> args, Boolean skipCommandShell, OutputStream out, OutputStream err) {
+        return withShell(shell -> {
+            int code = shell.executeRaw(command, args, skipCommandShell, out, err);
+            WinRmToolResponse winRmToolResponse = new WinRmToolResponse("", "", code);
+            winRmToolResponse.setNumberOfReceiveCalls(shell.getNumberOfReceiveCalls());
+            return winRmToolResponse;
+        });
+    }
+
+    /**
+     * Copies the contents of {@code source} to a file on the remote host, replacing it if it exists.
+     *
+     * @see #copyTo(InputStream, String, int)
+     */
+    public long copyTo(InputStream source, String remotePath) {
+        return copyTo(source, remotePath, 1);
+    }
+
+    /**
+     * Copies the contents of {@code source} to a file on the remote host, replacing it if it exists.
+     *
+     * The data is streamed in base64 chunks to the stdin of long-lived PowerShell processes on the
+     * remote host, which write each chunk at its offset in the file. Once done, the SHA-256 of
+     * the remote file is checked against the one of the data read from {@code source}.
+     * {@code source} is not closed.
+     *
+     * @param parallelStreams how many processes (each in its own shell) to stream the chunks to in parallel
+     * @return the number of bytes copied
+     * @throws IllegalStateException if the copy fails or the remote file does not match
+     */
+    public long copyTo(InputStream source, String remotePath, int parallelStreams) {
+        return new FileTransfer(this).copyTo(source, remotePath, parallelStreams);
+    }
+
+    /**
+     * Copies the contents of a file on the remote host to {@code target}, checking the SHA-256 of the
+     * data received against the one of the remote file. {@code target} is not closed.
+     *
+     * @return the number of bytes copied
+     * @throws IllegalStateException if the copy fails or the data received does not match
+     */
+    public long copyFrom(String remotePath, OutputStream target) {
+        return new FileTransfer(this).copyFrom(remotePath, target);
+    }
+
+    <T> T withShell(Function<ShellCommand, T> action) {
+        SharedClient sharedClient = acquireClient();
+        try {
+            if (sharedClient.shellPool != null) {
+                return sharedClient.shellPool.withShell(action);
+            }
+            try (ShellCommand shell = sharedClient.client.createShell()) {
+                return action.apply(shell);
+            }
+        } finally {
+            releaseClient(sharedClient);
+        }
+    }
+
+    private WinRmToolResponse execute(ShellCommand shell, String command, List<String> args, Boolean skipCommandShell, Writer out, Writer err) {
+        int code = shell.execute(command, args, skipCommandShell, out, err);
+        WinRmToolResponse winRmToolResponse = new WinRmToolResponse(out.toString(), err.toString(), code);
+        winRmToolResponse.setNumberOfReceiveCalls(shell.getNumberOfReceiveCalls());
+        return winRmToolResponse;
+    }
+
+    /**
+     * Returns the client shared by all <code>executeXxx</code> calls, creating it if this is
+     * the first call or if the configuration has changed since it was created. Every call must
+     * be paired with {@link #releaseClient(SharedClient)}.
+     */
+    private synchronized SharedClient acquireClient() {
+        if (closed) {
+            throw new IllegalStateException("WinRmTool for " + address + " has been closed");
+        }
+        if (client == null) {
+            WinRmClient newClient = newClientBuilder().build();
+            client = new SharedClient(newClient, reuseShells ? new ShellPool(newClient) : null);
+        }
+        client.users++;
+        return client;
+    }
+
+    /** @return the client shared by the calls, {@code null} until the next call creates one */
+    synchronized WinRmClient getSharedClient() {
+        return client != null ? client.client : null;
+    }
+
+    private void releaseClient(SharedClient sharedClient) {
+        boolean closeNow;
+        synchronized (this) {
+            sharedClient.users--;
+            closeNow = sharedClient.retired && sharedClient.users == 0;
+        }
+        if (closeNow) {
+            sharedClient.close();
+        }
+    }
+
+    private WinRmClientBuilder newClientBuilder() {
         WinRmClientBuilder builder = WinRmClient.builder(address);
         builder.authenticationScheme(authenticationScheme);
         if (operationTimeout != null) {
@@ -387,19 +549,69 @@ public class WinRmTool {
         if (requestNewKerberosTicket) {
             builder.requestNewKerberosTicket(requestNewKerberosTicket);
         }
+        if (codePage != null) {
+            builder.codePage(codePage);
+        }
         builder.payloadEncryptionMode(payloadEncryptionMode);
+        return builder;
+    }
 
-        WinRmToolResponse winRmToolResponse;
-
-        try(WinRmClient client = builder.build()) {
-            try (ShellCommand shell = client.createShell()) {
-                int code = shell.execute(command, args, skipCommandShell, out, err);
-                winRmToolResponse = new WinRmToolResponse(out.toString(), err.toString(), code);
-                winRmToolResponse.setNumberOfReceiveCalls(shell.getNumberOfReceiveCalls());
+    /**
+     * Discards the cached client so that the next call creates a new one with the current settings.
+     * Calls still running on the old client are left to complete; it is closed after the last of them.
+     *
+     * @param reason why the client is discarded, for the logs
+     */
+    private void invalidateClient(String reason) {
+        SharedClient toClose = null;
+        synchronized (this) {
+            if (client != null) {
+                LOG.debug("Discarding cached client of WinRmTool for {}: {}", address, reason);
+                client.retired = true;
+                if (client.users == 0) {
+                    toClose = client;
+                }
+                client = null;
             }
         }
+        if (toClose != null) {
+            toClose.close();
+        }
+    }
 
-        return winRmToolResponse;
+    /**
+     * Releases the cached client (once any in-progress calls complete).
+     * Subsequent <code>executeXxx</code> calls will fail.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        invalidateClient("closed");
+    }
+
+    private static class SharedClient {
+        final WinRmClient client;
+        final ShellPool shellPool;
+        // Guarded by the owning WinRmTool
+        int users;
+        boolean retired;
+
+        SharedClient(WinRmClient client, ShellPool shellPool) {
+            this.client = client;
+            this.shellPool = shellPool;
+        }
+
+        void close() {
+            try {
+                if (shellPool != null) {
+                    shellPool.close();
+                }
+            } finally {
+                client.close();
+            }
+        }
     }
 
     /**
@@ -449,7 +661,7 @@ public class WinRmTool {
         return executePs(joinPs(commands), skipCommandShell, out, err);
     }
 
-    private String compileBase64(String psScript) {
+    String compileBase64(String psScript) {
         byte[] cmd = psScript.getBytes(Charset.forName("UTF-16LE"));
         return javax.xml.bind.DatatypeConverter.printBase64Binary(cmd);
     }
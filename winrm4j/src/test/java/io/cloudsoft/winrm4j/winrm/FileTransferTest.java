@@ -0,0 +1,283 @@
+package io.cloudsoft.winrm4j.winrm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.client.config.AuthSchemes;
+import org.testng.annotations.Test;
+
+import io.cloudsoft.winrm4j.service.emulator.WinRmEmulator;
+
+public class FileTransferTest {
+
+    @Test(timeOut = 60000)
+    public void testEndsDecodersInputWhenSourceFails() throws Exception {
+        // only the decoders read their stdin, the other PowerShell commands of the copy exit at once
+        try (WinRmEmulator server = WinRmEmulator.builder().basicAuth("user", "password")
+                        .echoStdin(commandLine -> commandLine.contains("-NonInteractive")).start();
+                WinRmTool tool = newTool(server)) {
+            try {
+                tool.copyTo(new FailingInputStream(FileTransfer.CHUNK_SIZE * 2), "C:\\myfile", 2);
+                fail("Should have propagated failure");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage().contains("Failed to read source"), "message=" + e.getMessage());
+            }
+
+            // the decoders ran until the end of their input, then their shells were closed
+            assertEquals(server.getShellCount(), 0);
+        }
+    }
+
+    @Test(timeOut = 60000)
+    public void testCopyToAndFromInChunks() throws Exception {
+        RemoteFiles files = new RemoteFiles();
+        byte[] contents = makeRandomBytes(FileTransfer.CHUNK_SIZE * 3 + 17);
+        try (WinRmEmulator server = newServer(files);
+                WinRmTool tool = newTool(server)) {
+            assertEquals(tool.copyTo(new ByteArrayInputStream(contents), "C:\\my file's.bin", 1), contents.length);
+
+            assertEquals(files.get("C:\\my file's.bin"), contents);
+            assertEquals(files.decodersStarted.get(), 1);
+            assertEquals(files.chunkLengths, Arrays.asList(FileTransfer.CHUNK_SIZE, FileTransfer.CHUNK_SIZE, FileTransfer.CHUNK_SIZE, 17));
+
+            ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+            assertEquals(tool.copyFrom("C:\\my file's.bin", downloaded), contents.length);
+            assertEquals(downloaded.toByteArray(), contents);
+        }
+    }
+
+    @Test(timeOut = 60000)
+    public void testCopyToWithParallelStreams() throws Exception {
+        RemoteFiles files = new RemoteFiles();
+        byte[] contents = makeRandomBytes(FileTransfer.CHUNK_SIZE * 8 + 5);
+        try (WinRmEmulator server = newServer(files);
+                WinRmTool tool = newTool(server)) {
+            assertEquals(tool.copyTo(new ByteArrayInputStream(contents), "C:\\myfile", 4), contents.length);
+
+            assertEquals(files.get("C:\\myfile"), contents);
+            assertEquals(files.decodersStarted.get(), 4);
+            assertEquals(files.chunkLengths.size(), 9);
+        }
+    }
+
+    @Test(timeOut = 60000)
+    public void testCopyEmptyFile() throws Exception {
+        RemoteFiles files = new RemoteFiles();
+        try (WinRmEmulator server = newServer(files);
+                WinRmTool tool = newTool(server)) {
+            assertEquals(tool.copyTo(new ByteArrayInputStream(new byte[0]), "C:\\myfile"), 0);
+            assertEquals(files.get("C:\\myfile"), new byte[0]);
+
+            ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+            assertEquals(tool.copyFrom("C:\\myfile", downloaded), 0);
+            assertEquals(downloaded.size(), 0);
+        }
+    }
+
+    @Test(timeOut = 60000)
+    public void testCopyToFailsWhenRemoteFileDiffers() throws Exception {
+        RemoteFiles files = new RemoteFiles();
+        files.corruptWrites = true;
+        try (WinRmEmulator server = newServer(files);
+                WinRmTool tool = newTool(server)) {
+            try {
+                tool.copyTo(new ByteArrayInputStream(makeRandomBytes(1000)), "C:\\myfile");
+                fail("Should have detected the corrupted file");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage().contains("SHA-256 of the remote file"), "message=" + e.getMessage());
+            }
+        }
+    }
+
+    @Test(timeOut = 60000)
+    public void testCopyFromFailsWhenTrailerDiffers() throws Exception {
+        RemoteFiles files = new RemoteFiles();
+        files.put("C:\\myfile", makeRandomBytes(1000));
+        files.trailer = "#sha256 " + toHex(new byte[32]);
+        try (WinRmEmulator server = newServer(files);
+                WinRmTool tool = newTool(server)) {
+            try {
+                tool.copyFrom("C:\\myfile", new ByteArrayOutputStream());
+                fail("Should have detected the wrong hash");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage().contains("SHA-256 of the received 1000 bytes"), "message=" + e.getMessage());
+            }
+        }
+    }
+
+    @Test(timeOut = 60000)
+    public void testCopyFromFailsWithoutTrailer() throws Exception {
+        RemoteFiles files = new RemoteFiles();
+        files.put("C:\\myfile", makeRandomBytes(1000));
+        files.trailer = "";
+        try (WinRmEmulator server = newServer(files);
+                WinRmTool tool = newTool(server)) {
+            try {
+                tool.copyFrom("C:\\myfile", new ByteArrayOutputStream());
+                fail("Should have detected the missing hash");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage().contains("remote file has null"), "message=" + e.getMessage());
+            }
+        }
+    }
+
+    private static WinRmEmulator newServer(RemoteFiles files) throws IOException {
+        return WinRmEmulator.builder().basicAuth("user", "password")
+                .program(commandLine -> commandLine.startsWith("powershell "), files)
+                .start();
+    }
+
+    private static WinRmTool newTool(WinRmEmulator server) {
+        return WinRmTool.Builder.builder(server.getEndpoint(), "user", "password")
+                .authenticationScheme(AuthSchemes.BASIC)
+                .build();
+    }
+
+    private static byte[] makeRandomBytes(int length) {
+        byte[] result = new byte[length];
+        new Random().nextBytes(result);
+        return result;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(String.format("%02X", b));
+        }
+        return result.toString();
+    }
+
+    /**
+     * The files of the remote host, and the PowerShell scripts of {@link FileTransfer} acting on them:
+     * creating a file, decoding lines of its chunks, hashing it and encoding it.
+     */
+    private static class RemoteFiles implements WinRmEmulator.Program {
+        /** The path, the first quoted argument of the scripts */
+        private static final Pattern QUOTED_PATH = Pattern.compile("\\('((?:[^']|'')*)'");
+
+        private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+        final AtomicInteger decodersStarted = new AtomicInteger();
+        /** The lengths of the chunks decoded, in the order they were written */
+        final List<Integer> chunkLengths = Collections.synchronizedList(new ArrayList<>());
+        /** Whether the decoders flip the first byte of every chunk */
+        volatile boolean corruptWrites;
+        /** The last line of the encoder instead of the hash of the file, if not null */
+        volatile String trailer;
+
+        byte[] get(String path) {
+            return files.get(path);
+        }
+
+        void put(String path, byte[] contents) {
+            files.put(path, contents);
+        }
+
+        @Override
+        public int run(String commandLine, InputStream stdin, OutputStream stdout, OutputStream stderr) throws IOException {
+            String encoded = commandLine.substring(commandLine.lastIndexOf(' ') + 1);
+            String script = new String(Base64.getDecoder().decode(encoded), StandardCharsets.UTF_16LE);
+            Matcher matcher = QUOTED_PATH.matcher(script);
+            if (!matcher.find()) {
+                stderr.write(("No path in script " + script).getBytes(StandardCharsets.UTF_8));
+                return 1;
+            }
+            String path = matcher.group(1).replace("''", "'");
+
+            if (script.contains("OpenStandardInput")) {
+                decodersStarted.incrementAndGet();
+                decode(path, stdin);
+            } else if (script.contains("OpenStandardOutput")) {
+                encode(path, stdout);
+            } else if (script.contains("ComputeHash")) {
+                stdout.write((toHex(sha256(get(path))) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            } else if (script.contains("::Create(")) {
+                put(path, new byte[0]);
+            } else {
+                stderr.write(("Unexpected script " + script).getBytes(StandardCharsets.UTF_8));
+                return 1;
+            }
+            return 0;
+        }
+
+        private void decode(String path, InputStream stdin) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(stdin, StandardCharsets.US_ASCII));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                int separator = line.indexOf(' ');
+                int offset = Integer.parseInt(line.substring(0, separator));
+                byte[] bytes = Base64.getDecoder().decode(line.substring(separator + 1));
+                if (corruptWrites && bytes.length > 0) {
+                    bytes[0] ^= 1;
+                }
+                chunkLengths.add(bytes.length);
+                synchronized (files) {
+                    byte[] file = get(path);
+                    if (file.length < offset + bytes.length) {
+                        file = Arrays.copyOf(file, offset + bytes.length);
+                    }
+                    System.arraycopy(bytes, 0, file, offset, bytes.length);
+                    put(path, file);
+                }
+            }
+        }
+
+        private void encode(String path, OutputStream stdout) throws IOException {
+            byte[] file = get(path);
+            for (int offset = 0; offset < file.length; offset += FileTransfer.CHUNK_SIZE) {
+                byte[] chunk = Arrays.copyOfRange(file, offset, Math.min(file.length, offset + FileTransfer.CHUNK_SIZE));
+                stdout.write((Base64.getEncoder().encodeToString(chunk) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            }
+            String last = trailer != null ? trailer : "#sha256 " + toHex(sha256(file));
+            stdout.write((last + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+
+        private static byte[] sha256(byte[] contents) {
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(contents);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /** Fails once the given number of bytes was read */
+    private static class FailingInputStream extends InputStream {
+        private int remaining;
+
+        FailingInputStream(int size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                throw new IOException("simulated failure");
+            }
+            remaining--;
+            return 'a';
+        }
+    }
+}
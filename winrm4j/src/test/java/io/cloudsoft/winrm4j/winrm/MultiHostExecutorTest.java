@@ -0,0 +1,131 @@
+package io.cloudsoft.winrm4j.winrm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.config.AuthSchemes;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import io.cloudsoft.winrm4j.service.emulator.WinRmEmulator;
+
+public class MultiHostExecutorTest {
+
+    @Test
+    public void testResultsHandedBackAsHostsComplete() throws Exception {
+        try (WinRmEmulator fast = WinRmEmulator.builder().basicAuth("user", "password").stdout("fast".getBytes()).start();
+                WinRmEmulator slow = WinRmEmulator.builder().basicAuth("user", "password").stdout("slow".getBytes()).commandDuration(2000).start();
+                MultiHostExecutor executor = newExecutor(10, 1)) {
+            List<String> completed = new CopyOnWriteArrayList<>();
+            List<MultiHostExecutor.HostResult> results = executor.executeCommand(ImmutableList.of(slow.getEndpoint(), fast.getEndpoint()), "echo",
+                    result -> completed.add(result.getResponse().getStdOut())).get(1, TimeUnit.MINUTES);
+
+            assertEquals(completed, ImmutableList.of("fast", "slow"));
+            assertEquals(results.size(), 2);
+            assertEquals(results.get(0).getHost(), fast.getEndpoint());
+            assertTrue(results.get(0).isSuccess(), "result=" + results.get(0));
+            assertEquals(results.get(1).getHost(), slow.getEndpoint());
+            assertEquals(results.get(1).getResponse().getStatusCode(), 0);
+        }
+    }
+
+    @Test
+    public void testConcurrencyLimits() throws Exception {
+        try (WinRmEmulator host1 = WinRmEmulator.builder().basicAuth("user", "password").commandDuration(200).start();
+                WinRmEmulator host2 = WinRmEmulator.builder().basicAuth("user", "password").commandDuration(200).start();
+                WinRmEmulator host3 = WinRmEmulator.builder().basicAuth("user", "password").commandDuration(200).start();
+                MultiHostExecutor executor = newExecutor(2, 1)) {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            // one tool per host
+            Map<WinRmTool, AtomicInteger> runningPerHost = new ConcurrentHashMap<>();
+            AtomicInteger maxRunningPerHost = new AtomicInteger();
+            List<String> hosts = ImmutableList.of(host1.getEndpoint(), host1.getEndpoint(), host2.getEndpoint(),
+                    host1.getEndpoint(), host3.getEndpoint(), host2.getEndpoint());
+
+            List<MultiHostExecutor.HostResult> results = executor.execute(hosts, tool -> {
+                AtomicInteger runningOnHost = runningPerHost.computeIfAbsent(tool, t -> new AtomicInteger());
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                maxRunningPerHost.accumulateAndGet(runningOnHost.incrementAndGet(), Math::max);
+                try {
+                    return tool.executeCommand("echo");
+                } finally {
+                    runningOnHost.decrementAndGet();
+                    running.decrementAndGet();
+                }
+            }, null).get(1, TimeUnit.MINUTES);
+
+            assertEquals(results.size(), hosts.size());
+            for (MultiHostExecutor.HostResult result : results) {
+                assertTrue(result.isSuccess(), "result=" + result);
+            }
+            assertEquals(runningPerHost.size(), 3);
+            assertTrue(maxRunning.get() <= 2, "maxRunning=" + maxRunning);
+            assertEquals(maxRunningPerHost.get(), 1);
+        }
+    }
+
+    @Test
+    public void testHostWhoseToolFailsToBuildHasFailedResult() throws Exception {
+        try (WinRmEmulator server = WinRmEmulator.builder().basicAuth("user", "password").stdout("myline".getBytes()).start();
+                MultiHostExecutor executor = MultiHostExecutor.builder(host -> {
+                            if (host.equals("badhost")) throw new IllegalArgumentException("simulated bad host");
+                            return WinRmTool.Builder.builder(host, "user", "password").authenticationScheme(AuthSchemes.BASIC);
+                        })
+                        .build()) {
+            List<MultiHostExecutor.HostResult> results = executor.executeCommand(ImmutableList.of("badhost", server.getEndpoint()), "echo", null)
+                    .get(1, TimeUnit.MINUTES);
+
+            assertEquals(results.size(), 2);
+            Map<String, MultiHostExecutor.HostResult> resultsByHost = new ConcurrentHashMap<>();
+            for (MultiHostExecutor.HostResult result : results) {
+                resultsByHost.put(result.getHost(), result);
+            }
+            assertTrue(resultsByHost.get("badhost").getFailure() instanceof IllegalArgumentException, "result=" + resultsByHost.get("badhost"));
+            MultiHostExecutor.HostResult healthy = resultsByHost.get(server.getEndpoint());
+            assertNull(healthy.getFailure(), "result=" + healthy);
+            assertEquals(healthy.getResponse().getStdOut(), "myline");
+        }
+    }
+
+    @Test
+    public void testActionThrowingErrorHasFailedResult() throws Exception {
+        try (WinRmEmulator server = WinRmEmulator.builder().basicAuth("user", "password").start();
+                MultiHostExecutor executor = newExecutor(1, 1)) {
+            List<MultiHostExecutor.HostResult> results = executor.execute(ImmutableList.of(server.getEndpoint(), server.getEndpoint()), tool -> {
+                throw new AssertionError("simulated error");
+            }, null).get(1, TimeUnit.MINUTES);
+
+            assertEquals(results.size(), 2);
+            for (MultiHostExecutor.HostResult result : results) {
+                assertFalse(result.isSuccess());
+                assertTrue(result.getFailure().getCause() instanceof AssertionError, "result=" + result);
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testFailsOnceClosed() {
+        MultiHostExecutor executor = newExecutor(1, 1);
+        executor.close();
+
+        executor.executeCommand(ImmutableList.of("myhost"), "echo", null);
+    }
+
+    private static MultiHostExecutor newExecutor(int maxConcurrency, int maxConcurrencyPerHost) {
+        return MultiHostExecutor.builder(host -> WinRmTool.Builder.builder(host, "user", "password").authenticationScheme(AuthSchemes.BASIC))
+                .maxConcurrency(maxConcurrency)
+                .maxConcurrencyPerHost(maxConcurrencyPerHost)
+                .build();
+    }
+}
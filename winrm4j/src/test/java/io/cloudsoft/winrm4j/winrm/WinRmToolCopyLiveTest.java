@@ -3,6 +3,8 @@ package io.cloudsoft.winrm4j.winrm;
 import static org.testng.Assert.assertEquals;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
 
 import org.testng.annotations.Test;
 
@@ -11,7 +13,7 @@ import org.testng.annotations.Test;
  */
 public class WinRmToolCopyLiveTest extends AbstractWinRmToolLiveTest {
 
-	// TODO this actually just tests an approach, rather than code in WinRmTool!
+	// TODO the tests using copyTo actually just test an approach, rather than code in WinRmTool!
 
     @Test(groups="Live")
     public void testCopyTo() throws Exception {
@@ -25,7 +27,34 @@ public class WinRmToolCopyLiveTest extends AbstractWinRmToolLiveTest {
         String contents = makeRandomString(65537);
         runCopyTo(contents);
     }
-    
+
+    @Test(groups="Live")
+    public void testToolCopyTo() throws Exception {
+        String contents = makeRandomString(65537);
+        String remotePath = "C:\\myfile-"+makeRandomString(8)+".txt";
+        assertEquals(winRmTool.copyTo(new ByteArrayInputStream(contents.getBytes()), remotePath), contents.length());
+
+        WinRmToolResponse response = executeCommand("type "+remotePath);
+        String msg = "statusCode="+response.getStatusCode()+"; err="+response.getStdErr();
+        assertEquals(response.getStatusCode(), 0, msg);
+        assertEquals(response.getStdOut().trim(), contents, msg);
+    }
+
+    @Test(groups="Live")
+    public void testCopyToAndFromEmptyFile() throws Exception {
+        runCopyToAndFrom(new byte[0], 1);
+    }
+
+    @Test(groups="Live")
+    public void testLargeBinaryCopyToAndFrom() throws Exception {
+        runCopyToAndFrom(makeRandomBytes(10 * 1024 * 1024 + 17), 1);
+    }
+
+    @Test(groups="Live")
+    public void testLargeBinaryCopyToWithParallelStreams() throws Exception {
+        runCopyToAndFrom(makeRandomBytes(10 * 1024 * 1024 + 17), 4);
+    }
+
     protected void runCopyTo(String contents) throws Exception {
         String remotePath = "C:\\myfile-"+makeRandomString(8)+".txt";
         copyTo(new ByteArrayInputStream(contents.getBytes()), remotePath);
@@ -35,4 +64,21 @@ public class WinRmToolCopyLiveTest extends AbstractWinRmToolLiveTest {
         assertEquals(response.getStatusCode(), 0, msg);
         assertEquals(response.getStdOut().trim(), contents, msg);
     }
+
+    protected void runCopyToAndFrom(byte[] contents, int parallelStreams) throws Exception {
+        String remotePath = "C:\\myfile-"+makeRandomString(8)+".bin";
+        long uploaded = winRmTool.copyTo(new ByteArrayInputStream(contents), remotePath, parallelStreams);
+        assertEquals(uploaded, contents.length);
+
+        ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+        long copied = winRmTool.copyFrom(remotePath, downloaded);
+        assertEquals(copied, contents.length);
+        assertEquals(downloaded.toByteArray(), contents);
+    }
+
+    protected byte[] makeRandomBytes(int length) {
+        byte[] result = new byte[length];
+        new Random().nextBytes(result);
+        return result;
+    }
 }
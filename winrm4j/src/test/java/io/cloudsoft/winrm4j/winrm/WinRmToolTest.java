@@ -0,0 +1,116 @@
+package io.cloudsoft.winrm4j.winrm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.AuthSchemes;
+import org.testng.annotations.Test;
+
+import io.cloudsoft.winrm4j.client.PayloadEncryptionMode;
+import io.cloudsoft.winrm4j.client.WinRmClient;
+import io.cloudsoft.winrm4j.service.emulator.WinRmEmulator;
+
+public class WinRmToolTest {
+
+    @Test
+    public void testSharesClientBetweenCalls() throws Exception {
+        try (WinRmEmulator server = WinRmEmulator.builder().basicAuth("user", "password").stdout("myline".getBytes()).start();
+                WinRmTool tool = newBasicTool(server)) {
+            assertNull(tool.getSharedClient());
+
+            assertEquals(tool.executeCommand("echo").getStdOut(), "myline");
+            WinRmClient client = tool.getSharedClient();
+            assertNotNull(client);
+            assertEquals(tool.executeCommand("echo").getStdOut(), "myline");
+
+            assertSame(tool.getSharedClient(), client);
+        }
+    }
+
+    @Test
+    public void testConcurrentCallsShareClient() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (WinRmEmulator server = WinRmEmulator.builder().basicAuth("user", "password").stdout("myline".getBytes()).commandDuration(100).start();
+                WinRmTool tool = newBasicTool(server)) {
+            assertEquals(executeConcurrently(tool, executor, 8), 8);
+            assertNotNull(tool.getSharedClient());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentCallsWithNtlmPayloadEncryption() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (WinRmEmulator server = WinRmEmulator.builder().ntlmAuth("user", "password").encryptionRequired(true)
+                        .stdout("myline".getBytes()).commandDuration(100).start();
+                WinRmTool tool = WinRmTool.Builder.builder(server.getEndpoint(), "user", "password")
+                        .authenticationScheme(AuthSchemes.NTLM)
+                        .payloadEncryptionMode(PayloadEncryptionMode.REQUIRED)
+                        .build()) {
+            assertEquals(executeConcurrently(tool, executor, 8), 8);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDiscardsClientOnConfigurationChange() throws Exception {
+        try (WinRmEmulator server = WinRmEmulator.builder().basicAuth("user", "password").stdout("myline".getBytes()).start();
+                WinRmTool tool = newBasicTool(server)) {
+            tool.executeCommand("echo");
+            WinRmClient client = tool.getSharedClient();
+
+            tool.setOperationTimeout(30000L);
+
+            assertNull(tool.getSharedClient());
+            assertEquals(tool.executeCommand("echo").getStdOut(), "myline");
+            assertNotSame(tool.getSharedClient(), client);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testFailsOnceClosed() throws Exception {
+        try (WinRmEmulator server = WinRmEmulator.builder().basicAuth("user", "password").start()) {
+            WinRmTool tool = newBasicTool(server);
+            tool.executeCommand("echo");
+            tool.close();
+
+            assertNull(tool.getSharedClient());
+            tool.executeCommand("echo");
+        }
+    }
+
+    private static WinRmTool newBasicTool(WinRmEmulator server) {
+        return WinRmTool.Builder.builder(server.getEndpoint(), "user", "password")
+                .authenticationScheme(AuthSchemes.BASIC)
+                .build();
+    }
+
+    /** @return the number of commands which printed the expected output */
+    private static int executeConcurrently(WinRmTool tool, ExecutorService executor, int commands) throws Exception {
+        List<Future<WinRmToolResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < commands; i++) {
+            responses.add(executor.submit(() -> tool.executeCommand("echo")));
+        }
+        int result = 0;
+        for (Future<WinRmToolResponse> response : responses) {
+            WinRmToolResponse actual = response.get(1, TimeUnit.MINUTES);
+            assertEquals(actual.getStatusCode(), 0);
+            if ("myline".equals(actual.getStdOut())) {
+                result++;
+            }
+        }
+        return result;
+    }
+}